@@ -0,0 +1,113 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server for the link checking benchmarks, which responds to /link/&lt;n&gt; after a fixed latency,
+ * with a status code chosen deterministically from n as per the configured status mix.
+ * Redirects (3xx) point to /ok, which always responds with 200.
+ * @author vj
+ */
+final class BenchmarkHttpServer {
+	
+	private static final byte[] BODY = "<html><body>Benchmark</body></html>".getBytes(StandardCharsets.UTF_8);
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final long latencyMillis;
+	private final int[] statusCodes = new int[100];
+	
+	/**
+	 * Constructor for the {@link BenchmarkHttpServer} class, which starts the server on a free local port
+	 * @param latencyMillis The delay (in milliseconds) before each response
+	 * @param statusMix Comma separated list of status codes and their percentage, such as "200:90,404:10"
+	 * @param threads The number of threads used to serve requests
+	 * @throws IOException If the server could not be started
+	 */
+	BenchmarkHttpServer(long latencyMillis, String statusMix, int threads) throws IOException {
+		this.latencyMillis = latencyMillis;
+		parseStatusMix(statusMix);
+		
+		executor = Executors.newFixedThreadPool(threads);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+	
+	private void parseStatusMix(String statusMix) {
+		int position = 0;
+		for (String entry : statusMix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			int statusCode = Integer.parseInt(parts[0]);
+			int percentage = Integer.parseInt(parts[1]);
+			for (int i = 0; i < percentage && position < statusCodes.length; i++) {
+				statusCodes[position++] = statusCode;
+			}
+		}
+		while (position < statusCodes.length) {
+			statusCodes[position++] = 200;
+		}
+	}
+	
+	/**
+	 * Function to get the base URL of the server
+	 * @return The base URL, without a trailing slash
+	 */
+	String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (latencyMillis > 0) {
+				Thread.sleep(latencyMillis);
+			}
+			
+			String path = exchange.getRequestURI().getPath();
+			int statusCode = 200;
+			if (path.startsWith("/link/")) {
+				int link = Integer.parseInt(path.substring("/link/".length()));
+				statusCode = statusCodes[Math.abs(link % statusCodes.length)];
+			}
+			if (statusCode / 100 == 3) {
+				exchange.getResponseHeaders().set("Location", getBaseUrl() + "/ok");
+			}
+			
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(statusCode, -1);
+			} else {
+				exchange.sendResponseHeaders(statusCode, BODY.length);
+				try (OutputStream body = exchange.getResponseBody()) {
+					body.write(BODY);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Function to stop the server
+	 */
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.autopia;
+
+import java.util.Random;
+
+/**
+ * Generator of realistic report rows for the benchmarks, where a limited set of pages and links
+ * repeat across the rows, as they do on a real site.
+ * @author vj
+ */
+final class BenchmarkRecords {
+	
+	private static final LinkStatus[] LINK_STATUSES = {
+		new LinkStatus(200, "OK", true),
+		new LinkStatus(200, "OK", true),
+		new LinkStatus(200, "OK", true),
+		new LinkStatus(301, "Redirect - OK", true),
+		new LinkStatus(404, "Client error", false),
+		new LinkStatus(500, "Server error", false),
+	};
+		
+	// To prevent external instantiation of this class
+	private BenchmarkRecords() {
+	}
+	
+	/**
+	 * Function to generate the given number of report rows
+	 * @param count The number of rows to be generated
+	 * @return The generated rows
+	 */
+	static ReportRecord[] create(int count) {
+		Random random = new Random(42);
+		ReportRecord[] records = new ReportRecord[count];
+		for (int i = 0; i < count; i++) {
+			String referrer = "https://www.example.com/section-" + random.nextInt(20) +
+								"/article-" + random.nextInt(200) + ".html";
+			int link = random.nextInt(500);
+			String url = "https://www.example.com/section-" + (link % 20) + "/article-" + link + ".html";
+			records[i] = new ReportRecord(referrer, "Read more about article " + link, url, ResourceType.ANCHOR,
+								LINK_STATUSES[random.nextInt(LINK_STATUSES.length)]);
+		}
+		return records;
+	}
+}
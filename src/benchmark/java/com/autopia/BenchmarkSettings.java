@@ -0,0 +1,43 @@
+package com.autopia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Helper which adjusts the settings of the tool for the benchmarks.
+ * The tool reads its settings into static fields as each class is loaded, so these functions must be called
+ * from the setup of a benchmark, before any of the classes being benchmarked are used.
+ * Each benchmark runs within its own forked JVM, so the changes do not leak from one benchmark to another.
+ * @author vj
+ */
+final class BenchmarkSettings {
+	
+	// To prevent external instantiation of this class
+	private BenchmarkSettings() {
+	}
+	
+	/**
+	 * Function to override a single setting
+	 * @param key The name of the setting
+	 * @param value The value to be used
+	 */
+	static void override(String key, String value) {
+		Settings.override(key, value);
+	}
+	
+	/**
+	 * Function to point the report and crawl storage folders to a temporary folder, and disable the optional
+	 * features which keep state across the whole run, so that they do not skew the measurements
+	 * @return The temporary folder
+	 * @throws IOException If the temporary folder could not be created
+	 */
+	static File useTemporaryFolders() throws IOException {
+		File folder = Files.createTempDirectory("weaklinks-benchmark").toFile();
+		override("ReportPath", folder.getAbsolutePath());
+		override("CrawlStorageFolder", folder.getAbsolutePath());
+		override("IncrementalMode", "False");
+		override("LinkGraphEnabled", "False");
+		return folder;
+	}
+}
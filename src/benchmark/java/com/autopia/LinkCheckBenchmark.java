@@ -0,0 +1,80 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmark of link checking, from {@link LinkChecker#checkLink} through to the report,
+ * against an embedded local HTTP server with a configurable latency and status mix.
+ * Every operation checks a link which has not been checked before, so that the link status cache is bypassed.
+ * @author vj
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LinkCheckBenchmark {
+	
+	private static final int LINKS_PER_INVOCATION = 500;
+	
+	@Param({"0", "20"})
+	public long latencyMillis;
+	
+	@Param({"200:100", "200:80,301:5,404:10,500:5"})
+	public String statusMix;
+	
+	@Param({"50"})
+	public String linkCheckThreads;
+	
+	private BenchmarkHttpServer server;
+	private LinkChecker linkChecker;
+	private String linkBaseUrl;
+	private int nextLink;
+	
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkSettings.useTemporaryFolders();
+		BenchmarkSettings.override("LinkCheckThreads", linkCheckThreads);
+		BenchmarkSettings.override("LinkCheckMaxRequestsPerHost", linkCheckThreads);
+		BenchmarkSettings.override("LinkCheckMaxConnectionsPerHost", linkCheckThreads);
+		BenchmarkSettings.override("LinkCheckRequestsPerSecondPerHost", "0");
+		
+		server = new BenchmarkHttpServer(latencyMillis, statusMix, Integer.parseInt(linkCheckThreads) * 2);
+		linkBaseUrl = server.getBaseUrl() + "/link/";
+		linkChecker = LinkChecker.getInstance();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		linkChecker.shutdown();
+		Report.getInstance().closeReport();
+		server.stop();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(LINKS_PER_INVOCATION)
+	public void checkLinks() throws InterruptedException {
+		String referrer = server.getBaseUrl() + "/page-" + nextLink + ".html";
+		for (int i = 0; i < LINKS_PER_INVOCATION; i++) {
+			int link = nextLink++;
+			linkChecker.checkLink(referrer, "Link " + link, linkBaseUrl + link, ResourceType.ANCHOR);
+		}
+		linkChecker.waitUntilFinished();
+	}
+}
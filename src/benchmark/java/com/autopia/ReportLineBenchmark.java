@@ -0,0 +1,64 @@
+package com.autopia;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the cost of encoding a single report row, as a CSV line and within the binary report.
+ * @author vj
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportLineBenchmark {
+	
+	private ReportRecord[] records;
+	private int nextRecord;
+	private File binaryReportFile;
+	private BinaryReportWriter binaryReportWriter;
+	
+	@Setup
+	public void setUp() throws IOException {
+		records = BenchmarkRecords.create(1024);
+		binaryReportFile = File.createTempFile("weaklinks-benchmark", ".bin");
+		binaryReportWriter = new BinaryReportWriter(binaryReportFile, false, 4096);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		binaryReportWriter.close();
+		binaryReportFile.delete();
+	}
+	
+	private ReportRecord nextRecord() {
+		ReportRecord record = records[nextRecord];
+		nextRecord = (nextRecord + 1) % records.length;
+		return record;
+	}
+	
+	@Benchmark
+	public String csvLine() {
+		return nextRecord().toCsvLine(false);
+	}
+	
+	@Benchmark
+	public void binaryRecord() throws IOException {
+		binaryReportWriter.write(nextRecord());
+	}
+}
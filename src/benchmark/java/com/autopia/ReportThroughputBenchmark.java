@@ -0,0 +1,91 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the throughput of {@link Report#addRecord(ReportRecord)} when many link checking threads
+ * report at the same time. The throughput includes the cost of writing the rows to disk,
+ * since publishing threads are held back whenever the report writer falls behind.
+ * @author vj
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportThroughputBenchmark {
+	
+	@Param({"CSV", "Binary"})
+	public String reportFormat;
+	
+	private Report report;
+	private ReportRecord[] records;
+	
+	/**
+	 * Position of each benchmark thread within the shared report rows
+	 */
+	@State(Scope.Thread)
+	public static class ThreadPosition {
+		int nextRecord;
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchmarkSettings.useTemporaryFolders();
+		BenchmarkSettings.override("ReportFormat", reportFormat);
+		
+		records = BenchmarkRecords.create(4096);
+		report = Report.getInstance();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		report.closeReport();
+	}
+	
+	private void addRecord(ThreadPosition position) {
+		report.addRecord(records[position.nextRecord]);
+		position.nextRecord = (position.nextRecord + 1) % records.length;
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public void addRecord1Thread(ThreadPosition position) {
+		addRecord(position);
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public void addRecord16Threads(ThreadPosition position) {
+		addRecord(position);
+	}
+	
+	@Benchmark
+	@Threads(64)
+	public void addRecord64Threads(ThreadPosition position) {
+		addRecord(position);
+	}
+	
+	@Benchmark
+	@Threads(200)
+	public void addRecord200Threads(ThreadPosition position) {
+		addRecord(position);
+	}
+}
@@ -0,0 +1,69 @@
+package com.autopia;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uci.ics.crawler4j.url.WebURL;
+
+/**
+ * Benchmark of the URL filtering applied by {@link BasicCrawler#shouldVisit} to every link found while crawling,
+ * over a mix of in-site pages, images, excluded pages and external links.
+ * @author vj
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShouldVisitBenchmark {
+	
+	private static final String[] URLS = {
+		"http://www.example.com/",
+		"https://www.example.com/products/widgets/index.html",
+		"http://www.example.com/blog/2016/05/some-long-article-title-for-the-benchmark?page=2",
+		"http://www.example.com/images/banner.png",
+		"https://www.example.com/static/img/logo.GIF?v=3",
+		"http://www.example.com/portal/contenthandler/dav/fs-type1/themes",
+		"https://www.google.com/search?q=weak+links",
+		"http://cdn.example.net/assets/site.css",
+	};
+		
+	@Param({"False", "True"})
+	public String dontVisitSpecifiedUrls;
+	
+	private BasicCrawler crawler;
+	private WebURL[] webUrls;
+	private int nextUrl;
+	
+	@Setup
+	public void setUp() {
+		BenchmarkSettings.override("BaseUrl", "http://www.example.com/");
+		BenchmarkSettings.override("DontVisitSpecifiedUrls", dontVisitSpecifiedUrls);
+		
+		crawler = new BasicCrawler();
+		webUrls = new WebURL[URLS.length];
+		for (int i = 0; i < URLS.length; i++) {
+			webUrls[i] = new WebURL();
+			webUrls[i].setURL(URLS[i]);
+		}
+	}
+	
+	@Benchmark
+	public boolean shouldVisit() {
+		WebURL webUrl = webUrls[nextUrl];
+		nextUrl = (nextUrl + 1) % webUrls.length;
+		return crawler.shouldVisit(null, webUrl);
+	}
+}
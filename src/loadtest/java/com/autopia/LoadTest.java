@@ -0,0 +1,263 @@
+package com.autopia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * End to end load test, which runs the tool against a {@link SyntheticSite} served from within the same process,
+ * and then checks that the report contains exactly the rows expected from the generated site.
+ * Usage: LoadTest [option=value ...], where the options are:
+ * <ul>
+ * <li>pages - the number of pages on the site (default 1000)</li>
+ * <li>linksPerPage - the number of links on each page (default 20)</li>
+ * <li>statusMix - the status codes of the links and their percentage (default 200:85,301:5,404:5,500:3,429:2)</li>
+ * <li>redirectHops - the number of hops in each redirect chain (default 2)</li>
+ * <li>throttleRepeats - the number of 429 responses sent for each throttled link (default 1)</li>
+ * <li>latency - the range of the response latency in milliseconds (default 0-5)</li>
+ * <li>tailLatency - the percentage of responses delayed further, and by how many milliseconds (default 0:0)</li>
+ * <li>serverThreads - the number of threads serving the site (default 256)</li>
+ * <li>seed - the seed from which the site is generated (default 1)</li>
+ * <li>logLevel - the log level of the tool, other than its progress line (default WARN)</li>
+ * </ul>
+ * Any other option is applied as a setting of the tool, such as CrawlThreads=50 or LinkCheckThreads=100.
+ * The load test prints the pages and links per second, the peak heap usage and the result of the report check,
+ * and exits with status 1 if the report does not match the site.
+ * @author vj
+ */
+public final class LoadTest {
+	
+	private static final Map<String, String> DEFAULT_OPTIONS = new LinkedHashMap<>();
+	
+	static {
+		DEFAULT_OPTIONS.put("pages", "1000");
+		DEFAULT_OPTIONS.put("linksPerPage", "20");
+		DEFAULT_OPTIONS.put("statusMix", "200:85,301:5,404:5,500:3,429:2");
+		DEFAULT_OPTIONS.put("redirectHops", "2");
+		DEFAULT_OPTIONS.put("throttleRepeats", "1");
+		DEFAULT_OPTIONS.put("latency", "0-5");
+		DEFAULT_OPTIONS.put("tailLatency", "0:0");
+		DEFAULT_OPTIONS.put("serverThreads", "256");
+		DEFAULT_OPTIONS.put("seed", "1");
+		DEFAULT_OPTIONS.put("logLevel", "WARN");
+	}
+	
+	private static volatile boolean sampling = true;
+	private static volatile long peakHeapUsed;
+	private static volatile long lastProgressTime;
+	
+	// To prevent external instantiation of this class
+	private LoadTest() {
+	}
+	
+	/**
+	 * Entry point for the load test
+	 * @param args The options, in the form option=value
+	 * @throws Exception Errors during execution
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>(DEFAULT_OPTIONS);
+		Map<String, String> settingOverrides = new LinkedHashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Expected option=value, but found " + arg);
+			}
+			String name = arg.substring(0, separator);
+			(DEFAULT_OPTIONS.containsKey(name)? options : settingOverrides).put(name, arg.substring(separator + 1));
+		}
+		
+		// The tool logs every page and link at the default level, which would dominate a large run,
+		// and crawler4j warns about every page which does not respond with 200, which the site does by design
+		Level logLevel = Level.toLevel(options.get("logLevel"));
+		((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(logLevel);
+		if (logLevel.isGreaterOrEqual(Level.WARN)) {
+			((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger("edu.uci.ics.crawler4j")).setLevel(Level.ERROR);
+		}
+		((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(Metrics.class)).setLevel(Level.INFO);
+		
+		SyntheticSite site = new SyntheticSite(Integer.parseInt(options.get("pages")),
+								Integer.parseInt(options.get("linksPerPage")), options.get("statusMix"),
+								Integer.parseInt(options.get("redirectHops")), Integer.parseInt(options.get("throttleRepeats")),
+								options.get("latency"), options.get("tailLatency"),
+								Integer.parseInt(options.get("serverThreads")), Long.parseLong(options.get("seed")));
+		File folder = Files.createTempDirectory("weaklinks-loadtest").toFile();
+		applySettings(site, folder, Integer.parseInt(options.get("throttleRepeats")), settingOverrides);
+		System.out.println("Load test: " + options + ", settings " + settingOverrides + ", site " + site.getBaseUrl());
+		
+		Thread sampler = new Thread(LoadTest::sample, "HeapSampler");
+		sampler.setDaemon(true);
+		sampler.start();
+		
+		long startTime = System.nanoTime();
+		lastProgressTime = startTime;
+		BrokenLinkTester.main(new String[0]);
+		long endTime = System.nanoTime();
+		sampling = false;
+		sampler.join();
+		site.stop();
+		
+		Metrics metrics = Metrics.getInstance();
+		double activeSeconds = Math.max(1, lastProgressTime - startTime) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Elapsed: %.1f s, of which %.1f s active (the rest is crawler4j's wait " +
+										"for the end of the crawl)", (endTime - startTime) / 1e9, activeSeconds));
+		System.out.println(String.format(Locale.ROOT, "Pages visited: %d (%.1f/s), links reported: %d (%.1f/s), " +
+										"links checked: %d (%.1f/s), requests served: %d",
+										metrics.getPagesVisited(), metrics.getPagesVisited() / activeSeconds,
+										metrics.getLinksReported(), metrics.getLinksReported() / activeSeconds,
+										metrics.getLinksChecked(), metrics.getLinksChecked() / activeSeconds,
+										site.getRequestCount()));
+		System.out.println(String.format(Locale.ROOT, "Peak heap used: %.1f MB (sampled), maximum heap: %.1f MB",
+										peakHeapUsed / 1048576.0, Runtime.getRuntime().maxMemory() / 1048576.0));
+		
+		boolean reportMatches = verifyReport(site);
+		System.out.println("Report: " + Report.getInstance().getReportFolder().getAbsolutePath());
+		System.exit(reportMatches? 0 : 1);
+	}
+	
+	private static void applySettings(SyntheticSite site, File folder, int throttleRepeats,
+										Map<String, String> settingOverrides) {
+		Settings.override("BaseUrl", site.getBaseUrl());
+		Settings.override("CrawlSeeds", "page/0.html");
+		Settings.override("CrawlStorageFolder", folder.getAbsolutePath());
+		Settings.override("ReportPath", folder.getAbsolutePath());
+		Settings.override("CrawlPolitenessDelay", "0");
+		Settings.override("CrawlMaxPagesToFetch", "-1");
+		Settings.override("CrawlIncludePrefixes", "");
+		Settings.override("CrawlExcludePrefixes", "");
+		Settings.override("DontVisitSpecifiedUrls", "False");
+		Settings.override("FlagSpecifiedErrorPages", "False");
+		Settings.override("ReportFormat", "CSV");
+		Settings.override("IncrementalMode", "False");
+		Settings.override("CheckpointInterval", "0");
+		Settings.override("MetricsHttpPort", "0");
+		Settings.override("SendEmailNotification", "False");
+		Settings.override("ProxyRequired", "False");
+		
+		// All the links are on a single host, so the per host limits would otherwise cap the throughput
+		String linkCheckThreads = settingOverrides.getOrDefault("LinkCheckThreads",
+								Settings.getString(Setting.LINK_CHECK_THREADS));
+		Settings.override("LinkCheckMaxRequestsPerHost", linkCheckThreads);
+		Settings.override("LinkCheckMaxConnectionsPerHost", linkCheckThreads);
+		Settings.override("LinkCheckRequestsPerSecondPerHost", "0");
+		int throttleRetries = Settings.getInt(Setting.LINK_CHECK_MAX_THROTTLE_RETRIES);
+		Settings.override("LinkCheckMaxThrottleRetries", String.valueOf(Math.max(throttleRetries, throttleRepeats)));
+		// The simulated site always responds with the same status, so retrying its errors would only skew the throughput
+		Settings.override("LinkCheckMaxRetries", "0");
+		
+		settingOverrides.forEach(Settings::override);
+		Settings.validate();
+	}
+	
+	private static void sample() {
+		MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		Metrics metrics = Metrics.getInstance();
+		long lastCount = -1;
+		while (sampling) {
+			peakHeapUsed = Math.max(peakHeapUsed, memoryBean.getHeapMemoryUsage().getUsed());
+			long count = metrics.getPagesVisited() + metrics.getLinksReported();
+			if (count != lastCount) {
+				lastCount = count;
+				lastProgressTime = System.nanoTime();
+			}
+			try {
+				TimeUnit.MILLISECONDS.sleep(100);
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+	
+	private static boolean verifyReport(SyntheticSite site) throws IOException {
+		// Rather than holding every expected row, count the rows of each page and add up a hash of their URLs
+		int pageCount = site.getPageCount();
+		int[] rowCounts = new int[pageCount];
+		long[] urlHashes = new long[pageCount];
+		long rows = 0;
+		long unexpectedRows = 0;
+		long wrongResponseCodes = 0;
+		List<String> examples = new ArrayList<>();
+		
+		int cachedPage = -1;
+		List<String> cachedLinks = null;
+		for (String reportName : new String[] { "SiteLinks_SuccessReport.csv", "SiteLinks_FailureReport.csv" }) {
+			File reportFile = new File(Report.getInstance().getReportFolder(), reportName);
+			try (BufferedReader reader = Files.newBufferedReader(reportFile.toPath(), StandardCharsets.UTF_8)) {
+				reader.readLine();	// The header
+				String line;
+				while ((line = reader.readLine()) != null) {
+					rows++;
+					List<String> fields = Util.parseCsvLine(line);
+					int page = site.getPageNumber(fields.get(0));
+					String url = fields.get(2);
+					if (page != cachedPage && page >= 0) {
+						cachedPage = page;
+						cachedLinks = site.getLinks(page);
+					}
+					if (page < 0 || !cachedLinks.contains(url)) {
+						unexpectedRows++;
+						addExample(examples, "Unexpected row: " + line);
+						continue;
+					}
+					
+					rowCounts[page]++;
+					urlHashes[page] += url.hashCode();
+					int expectedResponseCode = site.getExpectedResponseCode(url);
+					if (!String.valueOf(expectedResponseCode).equals(fields.get(3))) {
+						wrongResponseCodes++;
+						addExample(examples, "Expected response code " + expectedResponseCode + ": " + line);
+					}
+				}
+			}
+		}
+		
+		long expectedRows = 0;
+		long pagesNotReported = 0;
+		long pagesWithWrongRows = 0;
+		for (int page = 0; page < pageCount; page++) {
+			List<String> links = site.getLinks(page);
+			expectedRows += links.size();
+			long expectedHash = 0;
+			for (String link : links) {
+				expectedHash += link.hashCode();
+			}
+			if (0 == rowCounts[page]) {
+				pagesNotReported++;
+				addExample(examples, "No rows for page " + site.getPageUrl(page));
+			} else if (rowCounts[page] != links.size() || urlHashes[page] != expectedHash) {
+				pagesWithWrongRows++;
+				addExample(examples, "Missing or duplicate rows for page " + site.getPageUrl(page) + ": " +
+									rowCounts[page] + " rows, expected " + links.size());
+			}
+		}
+		
+		boolean reportMatches = (rows == expectedRows && 0 == unexpectedRows && 0 == wrongResponseCodes &&
+									0 == pagesNotReported && 0 == pagesWithWrongRows);
+		System.out.println("Report rows: " + rows + ", expected: " + expectedRows + ", unexpected rows: " + unexpectedRows +
+							", wrong response codes: " + wrongResponseCodes + ", pages without rows: " + pagesNotReported +
+							", pages with missing or duplicate rows: " + pagesWithWrongRows);
+		for (String example : examples) {
+			System.out.println("  " + example);
+		}
+		System.out.println(reportMatches? "Report matches the site" : "REPORT DOES NOT MATCH THE SITE");
+		return reportMatches;
+	}
+	
+	private static void addExample(List<String> examples, String example) {
+		if (examples.size() < 10) {
+			examples.add(example);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server which serves a synthetic site for the load test. Nothing is stored: every page, and the
+ * links on it, are generated on request from the page number and the seed, so the site can have any number of pages.
+ * The pages are /page/&lt;n&gt;.html, and page n always links to pages n + 1, 2n + 1 and 2n + 2, so that every page
+ * can be reached from page 0. Each of the other links on a page is chosen as per the status mix:
+ * <ul>
+ * <li>200 links to a random page</li>
+ * <li>3xx links to /redirect/&lt;code&gt;/&lt;hops&gt;/&lt;page&gt;, which redirects with the given code
+ * through the configured number of hops, and then to the page</li>
+ * <li>429 links to /throttle/&lt;n&gt;, which responds with 429 (and a Retry-After of 1 second) to the first
+ * requests for that URL, up to the configured number, and with 200 after that</li>
+ * <li>Any other code links to /status/&lt;code&gt;/&lt;n&gt;, which always responds with that code</li>
+ * </ul>
+ * Every response is delayed by a latency chosen uniformly from the configured range, plus the configured
+ * tail latency for the configured percentage of responses.
+ * @author vj
+ */
+final class SyntheticSite {
+	
+	private static final int ID_RANGE = 65536;
+	
+	private final int pageCount;
+	private final int linksPerPage;
+	private final int[] statusCodes = new int[100];
+	private final int redirectHops;
+	private final int throttleRepeats;
+	private final int minLatencyMillis;
+	private final int maxLatencyMillis;
+	private final int tailLatencyPercent;
+	private final int tailLatencyMillis;
+	private final long seed;
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String baseUrl;
+	private final AtomicIntegerArray throttledRequests = new AtomicIntegerArray(ID_RANGE);
+	private final AtomicLong requests = new AtomicLong();
+	
+	/**
+	 * Constructor for the {@link SyntheticSite} class, which starts the server on a free local port
+	 * @param pageCount The number of pages on the site
+	 * @param linksPerPage The number of links on each page, including the 3 links which make every page reachable
+	 * @param statusMix Comma separated list of status codes and their percentage, such as "200:90,301:5,404:5"
+	 * @param redirectHops The number of hops in each redirect chain
+	 * @param throttleRepeats The number of 429 responses sent for each throttled URL before it responds with 200
+	 * @param latency The range of the latency (in milliseconds) of each response, such as "5-50", or a fixed latency
+	 * @param tailLatency The percentage of responses which are delayed further, and by how long, such as "1:500"
+	 * @param threads The number of threads used to serve requests
+	 * @param seed The seed from which the links are generated
+	 * @throws IOException If the server could not be started
+	 */
+	SyntheticSite(int pageCount, int linksPerPage, String statusMix, int redirectHops, int throttleRepeats,
+					String latency, String tailLatency, int threads, long seed) throws IOException {
+		if (pageCount < 1 || linksPerPage < 3) {
+			throw new IllegalArgumentException("The site needs at least 1 page and 3 links per page");
+		}
+		this.pageCount = pageCount;
+		this.linksPerPage = linksPerPage;
+		this.redirectHops = Math.max(1, redirectHops);
+		this.throttleRepeats = throttleRepeats;
+		this.seed = seed;
+		parseStatusMix(statusMix);
+		
+		String[] latencyRange = latency.split("-");
+		minLatencyMillis = Integer.parseInt(latencyRange[0].trim());
+		maxLatencyMillis = Integer.parseInt(latencyRange[latencyRange.length - 1].trim());
+		String[] tail = tailLatency.split(":");
+		tailLatencyPercent = Integer.parseInt(tail[0].trim());
+		tailLatencyMillis = (tail.length > 1)? Integer.parseInt(tail[1].trim()) : 0;
+		
+		executor = Executors.newFixedThreadPool(threads);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+	
+	private void parseStatusMix(String statusMix) {
+		int position = 0;
+		for (String entry : statusMix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			int statusCode = Integer.parseInt(parts[0]);
+			int percentage = Integer.parseInt(parts[1]);
+			for (int i = 0; i < percentage && position < statusCodes.length; i++) {
+				statusCodes[position++] = statusCode;
+			}
+		}
+		while (position < statusCodes.length) {
+			statusCodes[position++] = 200;
+		}
+	}
+	
+	/**
+	 * Function to get the base URL of the site
+	 * @return The base URL, with a trailing slash
+	 */
+	String getBaseUrl() {
+		return baseUrl;
+	}
+	
+	/**
+	 * Function to get the number of pages on the site
+	 * @return The number of pages
+	 */
+	int getPageCount() {
+		return pageCount;
+	}
+	
+	/**
+	 * Function to get the URL of the given page
+	 * @param page The page number
+	 * @return The absolute URL of the page
+	 */
+	String getPageUrl(int page) {
+		return baseUrl + "page/" + page + ".html";
+	}
+	
+	/**
+	 * Function to get the page number of the given URL
+	 * @param url The absolute URL
+	 * @return The page number, or -1 if the URL is not a page of the site
+	 */
+	int getPageNumber(String url) {
+		String prefix = baseUrl + "page/";
+		if (!url.startsWith(prefix) || !url.endsWith(".html")) {
+			return -1;
+		}
+		try {
+			int page = Integer.parseInt(url.substring(prefix.length(), url.length() - ".html".length()));
+			return (page >= 0 && page < pageCount)? page : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Function to get the distinct links on the given page, in the order in which they appear
+	 * @param page The page number
+	 * @return The absolute URLs of the links
+	 */
+	List<String> getLinks(int page) {
+		Set<String> links = new LinkedHashSet<>();
+		links.add(getPageUrl((page + 1) % pageCount));
+		long child = 2L * page + 1;
+		links.add(getPageUrl((child < pageCount)? (int) child : (int) (hash(page, 1) % pageCount)));
+		links.add(getPageUrl((child + 1 < pageCount)? (int) (child + 1) : (int) (hash(page, 2) % pageCount)));
+		
+		for (int i = 3; i < linksPerPage; i++) {
+			long random = hash(page, i);
+			int statusCode = statusCodes[(int) (random % statusCodes.length)];
+			int target = (int) ((random >>> 8) % pageCount);
+			int id = (int) ((random >>> 32) % ID_RANGE);
+			if (statusCode == 200) {
+				links.add(getPageUrl(target));
+			} else if (statusCode / 100 == 3) {
+				links.add(baseUrl + "redirect/" + statusCode + "/" + redirectHops + "/" + target);
+			} else if (statusCode == 429) {
+				links.add(baseUrl + "throttle/" + id);
+			} else {
+				links.add(baseUrl + "status/" + statusCode + "/" + id);
+			}
+		}
+		return new ArrayList<>(links);
+	}
+	
+	/**
+	 * Function to get the response code which the tool is expected to report for the given link
+	 * @param url The absolute URL of the link
+	 * @return The expected response code, or -1 if the URL was not generated by this site
+	 */
+	int getExpectedResponseCode(String url) {
+		if (getPageNumber(url) >= 0) {
+			return 200;
+		}
+		String[] path = url.startsWith(baseUrl)? url.substring(baseUrl.length()).split("/") : new String[0];
+		try {
+			if (path.length == 4 && "redirect".equals(path[0])) {
+				return Integer.parseInt(path[1]);	// The report shows the response code of the first hop
+			} else if (path.length == 2 && "throttle".equals(path[0])) {
+				return 200;	// Once the tool has retried the link
+			} else if (path.length == 3 && "status".equals(path[0])) {
+				return Integer.parseInt(path[1]);
+			}
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Function to get the number of requests served so far
+	 * @return The number of requests
+	 */
+	long getRequestCount() {
+		return requests.get();
+	}
+	
+	private long hash(int page, int link) {
+		long hash = seed * 0x9E3779B97F4A7C15L + page * 0xC2B2AE3D27D4EB4FL + link;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash & Long.MAX_VALUE;
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			delay();
+			
+			String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+			int page = getPageNumber(baseUrl + exchange.getRequestURI().getPath().substring(1));
+			if (page >= 0) {
+				respond(exchange, 200, createPage(page));
+			} else if (path.length == 4 && "redirect".equals(path[0])) {
+				int hops = Integer.parseInt(path[2]);
+				String location = (hops > 1)? baseUrl + "redirect/" + path[1] + "/" + (hops - 1) + "/" + path[3] :
+												getPageUrl(Integer.parseInt(path[3]));
+				exchange.getResponseHeaders().set("Location", location);
+				respond(exchange, Integer.parseInt(path[1]), null);
+			} else if (path.length == 2 && "throttle".equals(path[0])) {
+				int id = Integer.parseInt(path[1]);
+				if (throttledRequests.getAndIncrement(id) < throttleRepeats) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					respond(exchange, 429, null);
+				} else {
+					respond(exchange, 200, null);
+				}
+			} else if (path.length == 3 && "status".equals(path[0])) {
+				respond(exchange, Integer.parseInt(path[1]), null);
+			} else {
+				respond(exchange, 404, null);
+			}
+		} catch (NumberFormatException ex) {
+			respond(exchange, 404, null);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private void delay() throws InterruptedException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long latencyMillis = minLatencyMillis +
+								((maxLatencyMillis > minLatencyMillis)? random.nextInt(maxLatencyMillis - minLatencyMillis + 1) : 0);
+		if (tailLatencyPercent > 0 && random.nextInt(100) < tailLatencyPercent) {
+			latencyMillis += tailLatencyMillis;
+		}
+		if (latencyMillis > 0) {
+			Thread.sleep(latencyMillis);
+		}
+	}
+	
+	private String createPage(int page) {
+		StringBuilder html = new StringBuilder(64 + linksPerPage * 64);
+		html.append("<html><head><title>Page ").append(page).append("</title></head><body>\n");
+		int link = 0;
+		for (String url : getLinks(page)) {
+			html.append("<a href=\"").append(url).append("\">Link ").append(link++).append("</a>\n");
+		}
+		return html.append("</body></html>").toString();
+	}
+	
+	private void respond(HttpExchange exchange, int statusCode, String html) throws IOException {
+		// Every response has a content type, since crawler4j expects one even on error pages
+		byte[] body = ((null == html)? "<html><body>" + statusCode + "</body></html>" : html).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(statusCode, -1);
+		} else {
+			exchange.sendResponseHeaders(statusCode, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		}
+	}
+	
+	/**
+	 * Function to stop the server
+	 */
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
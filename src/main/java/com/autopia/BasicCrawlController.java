@@ -0,0 +1,83 @@
+package com.autopia;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.crawler.CrawlController;
+import edu.uci.ics.crawler4j.fetcher.PageFetcher;
+import edu.uci.ics.crawler4j.frontier.DocIDServer;
+import edu.uci.ics.crawler4j.frontier.Frontier;
+import edu.uci.ics.crawler4j.robotstxt.RobotstxtServer;
+
+/**
+ * Extension of the crawler4j {@link CrawlController}, which replaces crawler4j's record of the URLs seen during the crawl
+ * with a {@link BloomFilterDocIDServer}, so that equivalent URLs are crawled only once
+ * and new URLs are recognized without a disk lookup. When checkpoints are taken, crawler4j's frontier is replaced
+ * with a {@link CheckpointFrontier}.
+ * Each controller crawls a single {@link Site}, whose crawl rules and report are used by its crawlers.
+ * The politeness delay follows the CrawlPolitenessDelay setting while the crawl is running, so that the crawl
+ * can be slowed down or sped up by changing the setting.
+ * @author vj
+ */
+public class BasicCrawlController extends CrawlController {
+	
+	private final Site site;
+	private final Runnable updatePolitenessDelay;
+	
+	/**
+	 * Constructor for the {@link BasicCrawlController} class
+	 * @param site The {@link Site} to be crawled
+	 * @param config The crawler4j {@link CrawlConfig}
+	 * @param pageFetcher The {@link PageFetcher} used to fetch the pages
+	 * @param robotstxtServer The {@link RobotstxtServer} used to apply the robots.txt rules
+	 * @throws Exception If the crawl storage could not be initialized
+	 */
+	public BasicCrawlController(Site site, CrawlConfig config, PageFetcher pageFetcher,
+									RobotstxtServer robotstxtServer) throws Exception {
+		super(config, pageFetcher, robotstxtServer);
+		this.site = site;
+		
+		// crawler4j reads the politeness delay from the configuration before each fetch
+		updatePolitenessDelay = () -> {
+			config.setPolitenessDelay(Settings.getInt(site.getProperties(), Setting.CRAWL_POLITENESS_DELAY));
+		};
+		Settings.addReloadListener(updatePolitenessDelay);
+		
+		if (BloomFilterDocIDServer.isEnabled()) {
+			// No URLs have been added yet; the new database handle is opened before the old one is closed,
+			// so that the database stays open throughout
+			DocIDServer crawlerDocIdServer = docIdServer;
+			docIdServer = new BloomFilterDocIDServer(env, config);
+			crawlerDocIdServer.close();
+		}
+		if (config.isResumableCrawling()) {
+			Frontier crawlerFrontier = frontier;
+			frontier = new CheckpointFrontier(env, config);
+			crawlerFrontier.close();
+		}
+	}
+	
+	/**
+	 * Function to get the site being crawled
+	 * @return The {@link Site} being crawled
+	 */
+	public Site getSite() {
+		return site;
+	}
+	
+	@Override
+	public void waitUntilFinish() {
+		try {
+			super.waitUntilFinish();
+		} finally {
+			Settings.removeReloadListener(updatePolitenessDelay);
+		}
+	}
+	
+	/**
+	 * Function to log the seen URL filter statistics for the current run
+	 */
+	public void logStatistics() {
+		if (docIdServer instanceof BloomFilterDocIDServer) {
+			((BloomFilterDocIDServer) docIdServer).logStatistics();
+		}
+	}
+}
@@ -1,19 +1,27 @@
 package com.autopia;
 
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Proxy.Type;
-import java.net.URL;
-import java.util.Properties;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
-import com.autopia.Report;
-import com.autopia.Settings;
+import com.autopia.LinkChecker;
+import com.autopia.LinkGraph;
+import com.autopia.LinkStateStore;
+import com.autopia.LinkStateStore.PageState;
+import com.autopia.LinkStateStore.StoredLink;
+import com.autopia.Metrics;
 
+import edu.uci.ics.crawler4j.crawler.CrawlController;
 import edu.uci.ics.crawler4j.crawler.Page;
 import edu.uci.ics.crawler4j.crawler.WebCrawler;
+import edu.uci.ics.crawler4j.frontier.DocIDServer;
 import edu.uci.ics.crawler4j.parser.HtmlParseData;
 import edu.uci.ics.crawler4j.url.WebURL;
 
@@ -24,47 +32,44 @@ import edu.uci.ics.crawler4j.url.WebURL;
  */
 public class BasicCrawler extends WebCrawler {
 	
-	private static final Properties PROPERTIES = Settings.getInstance();
+	private static final LinkChecker LINK_CHECKER = LinkChecker.getInstance();
+	private static final LinkStateStore LINK_STATE_STORE = LinkStateStore.getInstance();
+	private static final LinkGraph LINK_GRAPH = LinkGraph.getInstance();
+	private static final Metrics METRICS = Metrics.getInstance();
+	private static final DistributedWorker DISTRIBUTED_WORKER = DistributedWorker.getInstance();
+	private static final Checkpoint CHECKPOINT = Checkpoint.getInstance();
 	
-	private static final String BASE_URL = PROPERTIES.getProperty("BaseUrl").replaceAll("https?://", "");
-	
-	private static final Pattern IMAGE_EXTENSIONS =
-				Pattern.compile(PROPERTIES.getProperty("ImageExtensionsPattern"));
-	
-	private static final Boolean SHOULD_NOT_VISIT_SPECIFIED_URLS =
-			Boolean.parseBoolean(PROPERTIES.getProperty("DontVisitSpecifiedUrls"));
-	private static final Pattern DONT_VISIT_URLS =
-			Pattern.compile(PROPERTIES.getProperty("DontVisitUrlsPattern"));
-	
-	private static final Boolean FLAG_SPECIFIED_ERROR_PAGES =
-			Boolean.parseBoolean(PROPERTIES.getProperty("FlagSpecifiedErrorPages"));
-	private static final Pattern ERROR_PAGE_URLS =
-			Pattern.compile(PROPERTIES.getProperty("ErrorPageUrlsPattern"));
-	
-	private static final Boolean PROXY_REQUIRED =
-			Boolean.parseBoolean(PROPERTIES.getProperty("ProxyRequired"));
-	private static final String PROXY_HOST = PROPERTIES.getProperty("ProxyHost");
-	private static final int PROXY_PORT =
-							Integer.parseInt(PROPERTIES.getProperty("ProxyPort"));
+	// The page being fetched by this crawler thread, since onUnexpectedStatusCode() is only given its URL
+	private WebURL currentWebUrl;
 	
 	@Override
 	public boolean shouldVisit(Page referringPage, WebURL url) {
-		String pageUrl = url.getURL().toLowerCase();
-		
-		// Ignore the url if it has an extension that matches our defined set of image extensions
-		if (IMAGE_EXTENSIONS.matcher(pageUrl).matches()) {
+		// Only accept the url if it is within the BASE URL (or an included prefix), does not have a skipped
+		// extension, and does not match any of the patterns mentioned within our DontVisitUrlsPattern settings
+		String urlStr = url.getURL();
+		if (!getSite().getUrlFilter().accept(urlStr)) {
 			return false;
 		}
 		
-		// Ignore the url if it contains any of the patterns mentioned within our DONT_VISIT_URLs setting
-		if (SHOULD_NOT_VISIT_SPECIFIED_URLS &&
-				DONT_VISIT_URLS.matcher(pageUrl).matches()) {
+		// In distributed mode, pages on hosts owned by another worker are crawled by that worker
+		if (!DISTRIBUTED_WORKER.isLocal(urlStr)) {
+			DISTRIBUTED_WORKER.forwardPage(urlStr);
 			return false;
 		}
 		
-		// Only accept the url if it is in the given BASE URL domain
-		return pageUrl.startsWith("https://" + BASE_URL) ||
-				pageUrl.startsWith("http://" + BASE_URL);
+		CrawlController controller = getMyController();
+		DocIDServer docIdServer = (null == controller)? null : controller.getDocIdServer();
+		if (docIdServer instanceof BloomFilterDocIDServer) {
+			return ((BloomFilterDocIDServer) docIdServer).claim(urlStr);
+		}
+		return true;
+	}
+	
+	private Site getSite() {
+		// There is no controller when the filter is used outside of a crawl, such as within the benchmarks
+		CrawlController controller = getMyController();
+		return (controller instanceof BasicCrawlController)?
+						((BasicCrawlController) controller).getSite() : Site.getDefault();
 	}
 	
 	@Override
@@ -73,11 +78,32 @@ public class BasicCrawler extends WebCrawler {
 		String linkUrl;
 		String linkAnchor;
 		
+		if (!CHECKPOINT.isToBeVisited(pageUrl)) {
+			logger.info("Skipping page: " + pageUrl + ", which was reported before the run was interrupted");
+			return;
+		}
 		if (page.getParseData() instanceof HtmlParseData) {
-			HtmlParseData htmlParseData = (HtmlParseData) page.getParseData();
-			Set<WebURL> links = htmlParseData.getOutgoingUrls();
+			// In streaming mode, the links were extracted while the page was being downloaded
+			StreamingLinkExtractor extractor = StreamingLinkExtractor.takeExtractor(page.getWebURL());
+			Set<WebURL> links;
+			if (extractor != null) {
+				links = extractor.getLinks();
+				scheduleLinks(page, links);
+			} else {
+				links = ((HtmlParseData) page.getParseData()).getOutgoingUrls();
+			}
+			Map<String, ResourceType> resources = Collections.emptyMap();
+			if (LINK_CHECKER.isResourceCheckingEnabled()) {
+				resources = (extractor != null)? extractor.getResources() : extractResources(page);
+			}
+			List<StoredLink> storedLinks = new ArrayList<>(links.size() + resources.size());
+			List<String> linkUrls = new ArrayList<>(links.size() + resources.size());
+			Map<String, String> resourceAnchors = new HashMap<>();
 			
-			logger.info("Visiting page: " + pageUrl + ", Outgoing links: " + links.size());
+			logger.info("Visiting page: " + pageUrl + ", Outgoing links: " + links.size() +
+							", Resources: " + resources.size());
+			METRICS.pageVisited();
+			getSite().pageVisited();
 			
 			for(WebURL link : links) {
 				linkAnchor = link.getAnchor();
@@ -88,137 +114,120 @@ public class BasicCrawler extends WebCrawler {
 				}
 				
 				linkUrl = link.getURL();
-				reportLinkStatus(pageUrl, linkAnchor, linkUrl);
-			}
-		}
-	}
-	
-	private void reportLinkStatus(String referrer, String anchor, String url) {
-		HttpURLConnection connection = getConnection(url);
-		if (null == connection) {
-			logger.error("Null connection - unable to report link status!");
-			return;
-		}
-		
-		int responseCode = getResponseCode(connection);
-		int responseCodeClass = responseCode / 100;
-		String line = "\"" + referrer + "\",\"" + anchor + "\",\"" + url + "\"," + responseCode + ",";
-		Report report = Report.getInstance();
-		
-		switch(responseCodeClass) {
-			case 2:
-				line += "OK";
-				connection.disconnect();
-				report.updateReport(line, true);
-				break;
-				
-			case 3:
-				String finalUrl = getFinalUrlAfterRedirection(connection);
-				
-				// Check for redirects to any of the ERROR_PAGE_URLS
-				if(FLAG_SPECIFIED_ERROR_PAGES &&
-						ERROR_PAGE_URLS.matcher(finalUrl).matches()) {
-					line += "Redirect - Error Page";
-					report.updateReport(line, false);
-				} else {
-					line += "Redirect - OK";
-					report.updateReport(line, true);
+				if (resources.containsKey(linkUrl)) {
+					resourceAnchors.put(linkUrl, linkAnchor);	// Reported along with the other resources below
+					continue;
 				}
-				// Connection already disconnected - no need to disconnect again
-				
-				break;
-				
-			case 4:
-				line += "Client error";
-				connection.disconnect();
-				report.updateReport(line, false);
-				break;
-				
-			case 5:
-				line += "Server error";
-				connection.disconnect();
-				report.updateReport(line, false);
-				break;
-				
-			default:
-				line += "Unknown";
-				connection.disconnect();
-				report.updateReport(line, false);
-		}
-	}
-	
-  	private HttpURLConnection getConnection(String urlString) {
-		try {
-			HttpURLConnection connection;
+				storedLinks.add(new StoredLink(linkAnchor, linkUrl, ResourceType.fromTag(link.getTag())));
+				linkUrls.add(linkUrl);
+			}
 			
-			if(PROXY_REQUIRED) {
-				InetSocketAddress address = new InetSocketAddress(PROXY_HOST, PROXY_PORT);
-				Proxy proxy = new Proxy(Type.HTTP, address);
-				connection = (HttpURLConnection) new URL(urlString).openConnection(proxy);
-			} else {
-				connection = (HttpURLConnection) new URL(urlString).openConnection();
+			for(Map.Entry<String, ResourceType> resource : resources.entrySet()) {
+				linkUrl = resource.getKey();
+				storedLinks.add(new StoredLink(resourceAnchors.getOrDefault(linkUrl, "N/A"), linkUrl, resource.getValue()));
+				linkUrls.add(linkUrl);
 			}
 			
-			connection.setInstanceFollowRedirects(false);
-			connection.connect();
-			return connection;
-		} catch (Exception ex) {
-			logger.error("Error while connecting to " + urlString + ": " + ex.getMessage(), ex);
-			return null;
+			LINK_CHECKER.checkLinks(getSite(), pageUrl, storedLinks);
+			LINK_GRAPH.recordPage(pageUrl, linkUrls);
+			LINK_STATE_STORE.recordPage(pageUrl, page.getFetchResponseHeaders(), storedLinks);
 		}
 	}
-  	
-  	private int getResponseCode(HttpURLConnection connection) {
+	
+	private Map<String, ResourceType> extractResources(Page page) {
+		// crawler4j does not extract scripts, srcset candidates or CSS references, so the page is scanned for these separately
+		String pageUrl = page.getWebURL().getURL();
+		StreamingLinkExtractor extractor = new StreamingLinkExtractor(pageUrl,
+												getMyController().getConfig().getMaxOutgoingLinksToFollow(), true);
 		try {
-			return connection.getResponseCode();
-		} catch (Exception ex) {
-			logger.error(ex.getMessage(), ex);
-			return 0;	// Unknown
+			Charset charset = (page.getContentCharset() != null)?
+									Charset.forName(page.getContentCharset()) : StandardCharsets.UTF_8;
+			extractor.extract(new ByteArrayInputStream(page.getContentData()), charset);
+		} catch (IOException | IllegalArgumentException ex) {
+			logger.error("Unable to extract the resources of " + pageUrl + ": " + ex.getMessage(), ex);
 		}
+		return extractor.getResources();
 	}
 	
-	private String getFinalUrlAfterRedirection(HttpURLConnection connection) {
-		String url = connection.getURL().toString();
-		String finalUrl = url;
-	    String redirectedUrl;
+	private void scheduleLinks(Page page, Set<WebURL> links) {
+		// crawler4j only schedules the links found by its own parser, so this follows the same steps for the given links
+		CrawlController controller = getMyController();
+		DocIDServer docIdServer = controller.getDocIdServer();
+		int maxCrawlDepth = controller.getConfig().getMaxDepthOfCrawling();
+		WebURL pageWebUrl = page.getWebURL();
+		List<WebURL> toSchedule = new ArrayList<>();
 		
-		while (true) {
-			redirectedUrl = connection.getHeaderField("Location");
-			if (null == redirectedUrl) {
-				return finalUrl;
-			}
-			
-			logger.info(finalUrl + " redirected to " + redirectedUrl);
-			// TODO: Include this info directly within the report?
-			
-			if(!redirectedUrl.contains("http")) {
-				redirectedUrl = handleRedirectsWithoutProtocol(finalUrl, redirectedUrl);
+		for(WebURL link : links) {
+			link.setParentDocid(pageWebUrl.getDocid());
+			link.setParentUrl(pageWebUrl.getURL());
+			int docId = docIdServer.getDocId(link.getURL());
+			if (docId > 0) {
+				link.setDepth((short) -1);
+				link.setDocid(docId);
+				continue;
 			}
 			
-			connection = getConnection(redirectedUrl);
-			finalUrl = redirectedUrl;
-			if (null == connection) {
-		    	return finalUrl;
-		    }
-			
-			if (getResponseCode(connection) / 100 == 2) {
-				break;
+			link.setDocid(-1);
+			link.setDepth((short) (pageWebUrl.getDepth() + 1));
+			if ((maxCrawlDepth == -1 || pageWebUrl.getDepth() < maxCrawlDepth) &&
+					shouldVisit(page, link) && controller.getRobotstxtServer().allows(link)) {
+				link.setDocid(docIdServer.getNewDocID(link.getURL()));
+				toSchedule.add(link);
 			}
 		}
 		
-		connection.disconnect();
-		return finalUrl;
+		controller.getFrontier().scheduleAll(toSchedule);
+	}
+	
+	@Override
+	protected void handlePageStatusCode(WebURL webUrl, int statusCode, String statusDescription) {
+		currentWebUrl = webUrl;
+		super.handlePageStatusCode(webUrl, statusCode, statusDescription);
 	}
 	
-	private String handleRedirectsWithoutProtocol(String baseUrl, String redirectedUrl) {
-		if(baseUrl.contains("?")) {
-			// Handle redirects such as 'press_kits.cfm?presskit_id=68'
-			// from base URL of 'http://mywebsite.com/press_kits.cfm?presskit_id=68'
-			int position = baseUrl.lastIndexOf('/');
-			return baseUrl.substring(0, position + 1) + redirectedUrl;
-		} else {
-			// Handle redirects such as '/home'
-			return baseUrl + redirectedUrl;
+	@Override
+	protected void onUnexpectedStatusCode(String urlStr, int statusCode, String contentType, String description) {
+		PageState previousPageState = (statusCode == 304)? LINK_STATE_STORE.getPreviousPageState(urlStr) : null;
+		if (null == previousPageState) {
+			super.onUnexpectedStatusCode(urlStr, statusCode, contentType, description);
+			return;
 		}
+		if (!CHECKPOINT.isToBeVisited(urlStr)) {
+			logger.info("Skipping page: " + urlStr + ", which was reported before the run was interrupted");
+			return;
+		}
+		
+		// The page has not changed since the previous run, so report and follow the links recorded during that run
+		List<StoredLink> storedLinks = previousPageState.getLinks();
+		logger.info("Page not modified: " + urlStr + ", Outgoing links: " + storedLinks.size());
+		METRICS.pageVisited();
+		getSite().pageVisited();
+		List<String> linkUrls = new ArrayList<>(storedLinks.size());
+		CrawlController controller = getMyController();
+		DocIDServer docIdServer = controller.getDocIdServer();
+		int maxCrawlDepth = controller.getConfig().getMaxDepthOfCrawling();
+		WebURL pageWebUrl = currentWebUrl;
+		List<WebURL> toSchedule = new ArrayList<>();
+		
+		for(StoredLink link : storedLinks) {
+			WebURL webUrl = new WebURL();
+			webUrl.setURL(link.getUrl());
+			webUrl.setParentDocid(pageWebUrl.getDocid());
+			webUrl.setParentUrl(pageWebUrl.getURL());
+			webUrl.setDepth((short) (pageWebUrl.getDepth() + 1));
+			// The same steps as scheduleLinks, in the order in which crawler4j calls shouldVisit for new links
+			if (!link.getResourceType().isResource() && docIdServer.getDocId(link.getUrl()) <= 0 &&
+					(maxCrawlDepth == -1 || pageWebUrl.getDepth() < maxCrawlDepth) &&
+					shouldVisit(null, webUrl) && controller.getRobotstxtServer().allows(webUrl)) {
+				webUrl.setDocid(docIdServer.getNewDocID(link.getUrl()));
+				toSchedule.add(webUrl);
+			}
+			linkUrls.add(link.getUrl());
+		}
+		controller.getFrontier().scheduleAll(toSchedule);
+		
+		LINK_CHECKER.checkLinks(getSite(), urlStr, storedLinks);
+		LINK_GRAPH.recordPage(urlStr, linkUrls);
+		LINK_STATE_STORE.recordUnchangedPage(urlStr, previousPageState);
 	}
 }
\ No newline at end of file
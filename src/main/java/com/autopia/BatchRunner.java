@@ -0,0 +1,246 @@
+package com.autopia;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Batch mode of the weak links tool, which tests many sites within the same process.
+ * The sites are described by a folder of properties files, one per site, each named after its site (such as mysite.properties).
+ * A site file holds the settings which differ for that site, such as its BaseUrl and crawl rules; any other setting is
+ * taken from the main settings. Up to BatchParallelSites sites are crawled at the same time, each with its own crawler4j
+ * controller and its own {@link Report}, while all the sites share the {@link LinkChecker} (and so the link checking threads
+ * and per-host limits) and the {@link LinkStatusCache}, so that a link found on several sites is only checked once.
+ * The reports of the sites are written to a folder per site within the batch folder,
+ * along with a consolidated summary of all the sites, as BatchSummary.csv.
+ * @author vj
+ */
+public class BatchRunner {
+	
+	private static final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+	private static final Properties PROPERTIES = Settings.getInstance();
+	
+	private static final int PARALLEL_SITES = Settings.getInt(Setting.BATCH_PARALLEL_SITES);
+	
+	// The settings which may differ between the sites; all other settings apply to the whole batch
+	private static final List<String> SITE_SETTINGS = Arrays.asList("BaseUrl", "CrawlSeeds",
+							"CrawlIncludePrefixes", "CrawlExcludePrefixes", "CrawlSkipExtensions", "DontVisitSpecifiedUrls",
+							"CrawlThreads", "CrawlPolitenessDelay", "CrawlMaxPagesToFetch");
+	private static final String SITE_SETTING_PREFIX = "DontVisitUrlsPattern";
+	
+	private final File sitesFolder;
+	private final File batchFolder;
+	private final List<SiteResult> siteResults = new ArrayList<>();
+	
+	/**
+	 * Constructor for the {@link BatchRunner} class
+	 * @param sitesFolder The folder which holds the properties file of each site
+	 */
+	public BatchRunner(File sitesFolder) {
+		this.sitesFolder = sitesFolder;
+		
+		String timeStamp = "Batch_" +
+							Util.getCurrentFormattedTime("dd-MMM-yyyy hh:mm:ss a")
+							.replace(" ", "_").replace(":", "-");
+		batchFolder = new File(Settings.getString(Setting.REPORT_PATH), timeStamp);
+		batchFolder.mkdirs();
+	}
+	
+	/**
+	 * Function to get the folder within which the reports of the batch are written
+	 * @return The batch folder
+	 */
+	public File getBatchFolder() {
+		return batchFolder;
+	}
+	
+	/**
+	 * Function to test all the sites of the batch, and wait until each of them has been crawled and reported
+	 * @throws IOException If the sites folder could not be read
+	 * @throws InterruptedException If the current thread is interrupted while waiting
+	 */
+	public void run() throws IOException, InterruptedException {
+		File[] siteFiles = sitesFolder.listFiles((folder, fileName) -> fileName.endsWith(".properties"));
+		if (null == siteFiles || siteFiles.length == 0) {
+			throw new IOException("No site properties files found within " + sitesFolder.getAbsolutePath());
+		}
+		Arrays.sort(siteFiles);
+		if (Checkpoint.getInstance().isEnabled()) {
+			logger.info("Checkpoints are not taken in batch mode");
+		}
+		logger.info("Testing " + siteFiles.length + " sites, " + PARALLEL_SITES + " at a time");
+		
+		AtomicInteger siteNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_SITES,
+								task -> new Thread(task, "Batch-" + siteNumber.incrementAndGet()));
+		try {
+			List<Future<SiteResult>> futures = new ArrayList<>(siteFiles.length);
+			for (File siteFile : siteFiles) {
+				futures.add(executor.submit(() -> runSite(siteFile)));
+			}
+			for (Future<SiteResult> future : futures) {
+				try {
+					siteResults.add(future.get());
+				} catch (ExecutionException ex) {
+					logger.error(ex.getMessage(), ex);	// runSite reports its own failures, so this is not expected
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+	
+	private SiteResult runSite(File siteFile) throws InterruptedException {
+		String name = siteFile.getName().substring(0, siteFile.getName().length() - ".properties".length());
+		long startTime = System.nanoTime();
+		String result = "Completed";
+		Site site = null;
+		
+		try {
+			Properties siteProperties = loadSiteSettings(name, siteFile);
+			site = new Site(name, siteProperties, new Report(new File(batchFolder, name)));
+			logger.info("Testing site " + name + ": " + siteProperties.getProperty("BaseUrl"));
+			
+			CrawlConfig config = BrokenLinkTester.initializeCrawlConfig(siteProperties);
+			config.setCrawlStorageFolder(config.getCrawlStorageFolder() +
+								Util.getFileSeparator() + "batch" + Util.getFileSeparator() + name);
+			BasicCrawlController controller = BrokenLinkTester.createCrawlController(site, config);
+			controller.start(BasicCrawler.class, Settings.getInt(siteProperties, Setting.CRAWL_THREADS));
+			controller.logStatistics();
+		} catch (Exception ex) {
+			logger.error("Error while testing site " + name + ": " + ex.getMessage(), ex);
+			result = "Failed: " + ex.getMessage();
+		}
+		
+		long pagesVisited = 0;
+		long linksReported = 0;
+		long failedLinks = 0;
+		List<File> reportFiles = new ArrayList<>();
+		if (site != null) {
+			// The links found before a failure are still checked and reported, so that the report of the site is complete
+			LinkChecker.getInstance().waitUntilFinished(site);
+			Report report = site.getReport();
+			report.closeReport();
+			pagesVisited = site.getPagesVisited();
+			linksReported = report.getWrittenRecordCount();
+			failedLinks = report.getFailedRecordCount();
+			reportFiles = report.getReportFiles();
+		}
+		
+		String baseUrl = (null == site)? "" : site.getProperties().getProperty("BaseUrl");
+		double durationSeconds = (System.nanoTime() - startTime) / 1e9;
+		SiteResult siteResult = new SiteResult(name, baseUrl, result, pagesVisited, linksReported, failedLinks,
+									durationSeconds, reportFiles);
+		logger.info("Finished testing site " + name + ": " + result + ", Pages visited: " + pagesVisited +
+						", Links reported: " + linksReported + ", Failed links: " + failedLinks);
+		return siteResult;
+	}
+	
+	private static Properties loadSiteSettings(String name, File siteFile) throws IOException {
+		Properties siteSettings = new Properties();
+		try (InputStream siteFileStream = new FileInputStream(siteFile)) {
+			siteSettings.load(siteFileStream);
+		}
+		if (null == siteSettings.getProperty("BaseUrl")) {
+			throw new IOException("BaseUrl is not specified within " + siteFile.getName());
+		}
+		
+		Properties siteProperties = new Properties(PROPERTIES);
+		for (String settingName : siteSettings.stringPropertyNames()) {
+			if (SITE_SETTINGS.contains(settingName) || settingName.startsWith(SITE_SETTING_PREFIX)) {
+				siteProperties.setProperty(settingName, siteSettings.getProperty(settingName));
+			} else {
+				logger.warn("Ignoring the setting " + settingName + " of site " + name +
+								", since it applies to the whole batch");
+			}
+		}
+		Settings.validate(siteProperties);	// An invalid site setting fails only that site
+		return siteProperties;
+	}
+	
+	/**
+	 * Function to write the consolidated summary of all the sites to the batch folder, as BatchSummary.csv
+	 * @return The summary file
+	 */
+	public File writeSummary() {
+		File summaryFile = new File(batchFolder, "BatchSummary.csv");
+		long totalPagesVisited = 0;
+		long totalLinksReported = 0;
+		long totalFailedLinks = 0;
+		
+		try (PrintWriter writer = new PrintWriter(summaryFile)) {
+			writer.println("Site,Base URL,Result,Pages Visited,Links Reported,Failed Links,Duration (s)");
+			for (SiteResult siteResult : siteResults) {
+				writer.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.1f%n", siteResult.name, siteResult.baseUrl,
+								siteResult.result.replace(",", ";"), siteResult.pagesVisited,
+								siteResult.linksReported, siteResult.failedLinks, siteResult.durationSeconds);
+				totalPagesVisited += siteResult.pagesVisited;
+				totalLinksReported += siteResult.linksReported;
+				totalFailedLinks += siteResult.failedLinks;
+			}
+			writer.printf(Locale.ROOT, "Total,,%d sites,%d,%d,%d,%n", siteResults.size(),
+							totalPagesVisited, totalLinksReported, totalFailedLinks);
+			
+			logger.info("Batch summary written successfully");
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+		return summaryFile;
+	}
+	
+	/**
+	 * Function to get the report files of all the sites which were tested
+	 * @return The list of report files
+	 */
+	public List<File> getReportFiles() {
+		List<File> reportFiles = new ArrayList<>();
+		for (SiteResult siteResult : siteResults) {
+			reportFiles.addAll(siteResult.reportFiles);
+		}
+		return reportFiles;
+	}
+	
+	/**
+	 * The outcome of testing a single site, as listed within the batch summary
+	 */
+	private static class SiteResult {
+		private final String name;
+		private final String baseUrl;
+		private final String result;
+		private final long pagesVisited;
+		private final long linksReported;
+		private final long failedLinks;
+		private final double durationSeconds;
+		private final List<File> reportFiles;
+		
+		SiteResult(String name, String baseUrl, String result, long pagesVisited, long linksReported,
+					long failedLinks, double durationSeconds, List<File> reportFiles) {
+			this.name = name;
+			this.baseUrl = baseUrl;
+			this.result = result;
+			this.pagesVisited = pagesVisited;
+			this.linksReported = linksReported;
+			this.failedLinks = failedLinks;
+			this.durationSeconds = durationSeconds;
+			this.reportFiles = reportFiles;
+		}
+	}
+}
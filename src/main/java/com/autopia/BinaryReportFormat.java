@@ -0,0 +1,103 @@
+package com.autopia;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and encoding helpers shared by the {@link BinaryReportWriter} and the {@link BinaryReportReader}.
+ * <p>
+ * A binary report file starts with a header, followed by any number of blocks:
+ * <pre>
+ * Header: int MAGIC, byte VERSION, byte flags
+ * Block:  int recordCount, int codeCount, int[codeCount] distinct response codes,
+ *         int compressedLength, int uncompressedLength, byte[] deflated dictionary section,
+ *         int compressedLength, int uncompressedLength, byte[] deflated record section
+ * </pre>
+ * Every distinct string (referrer, anchor, URL, status or redirect chain) is given an id the first time it is written,
+ * and the dictionary section of a block holds the strings first used within that block.
+ * Each record then refers to its strings by id. The response codes listed in the block header
+ * allow a reader to skip the record section of blocks which hold none of the codes it is looking for.
+ * Version 2 added the redirect chain, which follows the flags of a record when {@link #FLAG_REDIRECT_CHAIN} is set.
+ * Version 3 added the resource type, which follows the redirect chain (if any) when {@link #FLAG_RESOURCE_TYPE} is set;
+ * records without it are anchors.
+ * Version 4 added the latency of the link in milliseconds, which follows the resource type (if any)
+ * when {@link #FLAG_LATENCY} is set.
+ * @author vj
+ */
+final class BinaryReportFormat {
+	
+	static final int MAGIC = 0x574C5242;	// "WLRB"
+	static final byte VERSION = 4;
+	static final byte MIN_SUPPORTED_VERSION = 1;
+	static final byte FLAG_VERIFICATION = 0x01;
+	
+	static final int FLAG_SUCCESS = 0x01;
+	static final int FLAG_SUCCESS_UNKNOWN = 0x02;
+	static final int VERIFICATION_SHIFT = 2;
+	static final int VERIFICATION_MASK = 0x03;
+	static final int FLAG_REDIRECT_CHAIN = 0x10;
+	static final int FLAG_RESOURCE_TYPE = 0x20;
+	static final int FLAG_LATENCY = 0x40;
+	
+	// To prevent external instantiation of this class
+	private BinaryReportFormat() {
+	}
+	
+	/**
+	 * Function to write a non-negative integer using a variable number of bytes
+	 * @param output The {@link DataOutput} to write to
+	 * @param value The value to be written
+	 * @throws IOException If the value could not be written
+	 */
+	static void writeVarInt(DataOutput output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+	
+	/**
+	 * Function to read a non-negative integer written by {@link #writeVarInt(DataOutput, int)}
+	 * @param input The {@link DataInput} to read from
+	 * @return The value read
+	 * @throws IOException If the value could not be read
+	 */
+	static int readVarInt(DataInput input) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int nextByte = input.readUnsignedByte();
+			value |= (nextByte & 0x7F) << shift;
+			if ((nextByte & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length integer within the binary report");
+	}
+	
+	/**
+	 * Function to write a string of any length as UTF-8, preceded by its length in bytes
+	 * @param output The {@link DataOutput} to write to
+	 * @param value The string to be written
+	 * @throws IOException If the string could not be written
+	 */
+	static void writeString(DataOutput output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(output, bytes.length);
+		output.write(bytes);
+	}
+	
+	/**
+	 * Function to read a string written by {@link #writeString(DataOutput, String)}
+	 * @param input The {@link DataInput} to read from
+	 * @return The string read
+	 * @throws IOException If the string could not be read
+	 */
+	static String readString(DataInput input) throws IOException {
+		byte[] bytes = new byte[readVarInt(input)];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,225 @@
+package com.autopia;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.autopia.LinkStatus.Verification;
+
+/**
+ * Reader for the compact binary report format described in {@link BinaryReportFormat}.
+ * The report is read one block at a time, so that only the string dictionary and a single block
+ * are held in memory at any point. Blocks which hold none of the requested response codes
+ * are skipped without decompressing their records.
+ * @author vj
+ */
+public class BinaryReportReader {
+	
+	private final File file;
+	private final boolean verificationIncluded;
+	
+	/**
+	 * Constructor for the {@link BinaryReportReader} class, which validates the header of the given report file
+	 * @param file The binary report file to be read
+	 * @throws IOException If the file could not be read, or is not a binary report
+	 */
+	public BinaryReportReader(File file) throws IOException {
+		this.file = file;
+		try (DataInputStream input = openReport()) {
+			verificationIncluded = (input.readByte() & BinaryReportFormat.FLAG_VERIFICATION) != 0;
+		}
+	}
+	
+	private DataInputStream openReport() throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			if (input.readInt() != BinaryReportFormat.MAGIC) {
+				throw new IOException(file + " is not a binary link report");
+			}
+			byte version = input.readByte();
+			if (version < BinaryReportFormat.MIN_SUPPORTED_VERSION || version > BinaryReportFormat.VERSION) {
+				throw new IOException("Unsupported binary link report version " + version + " in " + file);
+			}
+			return input;
+		} catch (IOException ex) {
+			input.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Function to check whether the verification column was enabled when the report was written
+	 * @return Boolean value indicating whether the verification column is to be included when exporting the report
+	 */
+	public boolean isVerificationIncluded() {
+		return verificationIncluded;
+	}
+	
+	/**
+	 * Function to read all the records within the report
+	 * @param consumer The function to be called with each record, in the order in which the records were written
+	 * @return The number of records read
+	 * @throws IOException If the report could not be read
+	 */
+	public long read(Consumer<ReportRecord> consumer) throws IOException {
+		return read(responseCode -> true, consumer);
+	}
+	
+	/**
+	 * Function to read the records within the report which have a matching response code
+	 * @param responseCodeFilter The filter to be applied on the response code of each record
+	 * @param consumer The function to be called with each matching record, in the order in which the records were written
+	 * @return The number of matching records
+	 * @throws IOException If the report could not be read
+	 */
+	public long read(IntPredicate responseCodeFilter, Consumer<ReportRecord> consumer) throws IOException {
+		List<String> dictionary = new ArrayList<>();
+		Verification[] verifications = Verification.values();
+		ResourceType[] resourceTypes = ResourceType.values();
+		Inflater inflater = new Inflater();
+		long matchingRecords = 0;
+		
+		try (DataInputStream input = openReport()) {
+			input.readByte();	// Flags, already read by the constructor
+			
+			int recordCount;
+			while ((recordCount = readBlockHeader(input)) >= 0) {
+				boolean blockMatches = false;
+				int codeCount = input.readInt();
+				for (int i = 0; i < codeCount; i++) {
+					blockMatches |= responseCodeFilter.test(input.readInt());
+				}
+				
+				// The dictionary section is always needed, since later blocks may refer to its strings
+				DataInputStream dictionaryInput = readSection(input, inflater);
+				while (dictionaryInput.available() > 0) {
+					dictionary.add(BinaryReportFormat.readString(dictionaryInput));
+				}
+				
+				if (!blockMatches) {
+					skipSection(input);
+					continue;
+				}
+				
+				DataInputStream recordInput = readSection(input, inflater);
+				for (int i = 0; i < recordCount; i++) {
+					String referrer = dictionary.get(BinaryReportFormat.readVarInt(recordInput));
+					String anchor = dictionary.get(BinaryReportFormat.readVarInt(recordInput));
+					String url = dictionary.get(BinaryReportFormat.readVarInt(recordInput));
+					int responseCode = BinaryReportFormat.readVarInt(recordInput);
+					String status = dictionary.get(BinaryReportFormat.readVarInt(recordInput));
+					int flags = recordInput.readUnsignedByte();
+					String redirectChain = ((flags & BinaryReportFormat.FLAG_REDIRECT_CHAIN) == 0)? null :
+											dictionary.get(BinaryReportFormat.readVarInt(recordInput));
+					ResourceType resourceType = ((flags & BinaryReportFormat.FLAG_RESOURCE_TYPE) == 0)?
+											ResourceType.ANCHOR : resourceTypes[BinaryReportFormat.readVarInt(recordInput)];
+					long latency = ((flags & BinaryReportFormat.FLAG_LATENCY) == 0)? -1 :
+											BinaryReportFormat.readVarInt(recordInput);
+					
+					if (!responseCodeFilter.test(responseCode)) {
+						continue;
+					}
+					
+					Boolean success = ((flags & BinaryReportFormat.FLAG_SUCCESS_UNKNOWN) != 0)? null :
+											Boolean.valueOf((flags & BinaryReportFormat.FLAG_SUCCESS) != 0);
+					int verificationOrdinal = ((flags >>> BinaryReportFormat.VERIFICATION_SHIFT) &
+												BinaryReportFormat.VERIFICATION_MASK) - 1;
+					Verification verification = (verificationOrdinal < 0)? null : verifications[verificationOrdinal];
+					
+					LinkStatus linkStatus = new LinkStatus(responseCode, status, success, null, null, verification,
+												redirectChain, latency);
+					consumer.accept(new ReportRecord(referrer, anchor, url, resourceType, linkStatus));
+					matchingRecords++;
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+		
+		return matchingRecords;
+	}
+	
+	/**
+	 * Function to read the string dictionary of the report, without decompressing any records
+	 * @return The strings within the dictionary, in the order of their IDs
+	 * @throws IOException If the report could not be read
+	 */
+	public List<String> readDictionary() throws IOException {
+		List<String> dictionary = new ArrayList<>();
+		Inflater inflater = new Inflater();
+		
+		try (DataInputStream input = openReport()) {
+			input.readByte();	// Flags, already read by the constructor
+			
+			while (readBlockHeader(input) >= 0) {
+				int codeCount = input.readInt();
+				for (int i = 0; i < codeCount; i++) {
+					input.readInt();
+				}
+				
+				DataInputStream dictionaryInput = readSection(input, inflater);
+				while (dictionaryInput.available() > 0) {
+					dictionary.add(BinaryReportFormat.readString(dictionaryInput));
+				}
+				skipSection(input);
+			}
+		} finally {
+			inflater.end();
+		}
+		
+		return dictionary;
+	}
+	
+	private static int readBlockHeader(DataInputStream input) throws IOException {
+		try {
+			return input.readInt();
+		} catch (EOFException ex) {
+			return -1;	// End of the report
+		}
+	}
+	
+	private static DataInputStream readSection(DataInputStream input, Inflater inflater) throws IOException {
+		byte[] compressed = new byte[input.readInt()];
+		byte[] uncompressed = new byte[input.readInt()];
+		input.readFully(compressed);
+		
+		inflater.reset();
+		inflater.setInput(compressed);
+		try {
+			int offset = 0;
+			while (offset < uncompressed.length && !inflater.finished()) {
+				int length = inflater.inflate(uncompressed, offset, uncompressed.length - offset);
+				if (0 == length && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new EOFException("Truncated block within the binary link report");
+				}
+				offset += length;
+			}
+		} catch (DataFormatException ex) {
+			throw new IOException("Corrupt block within the binary link report: " + ex.getMessage(), ex);
+		}
+		return new DataInputStream(new ByteArrayInputStream(uncompressed));
+	}
+	
+	private static void skipSection(DataInputStream input) throws IOException {
+		int compressedLength = input.readInt();
+		input.readInt();	// Uncompressed length
+		int remaining = compressedLength;
+		while (remaining > 0) {
+			int skipped = input.skipBytes(remaining);
+			if (skipped <= 0) {
+				throw new EOFException("Truncated block within the binary link report");
+			}
+			remaining -= skipped;
+		}
+	}
+}
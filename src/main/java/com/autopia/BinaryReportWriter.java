@@ -0,0 +1,201 @@
+package com.autopia;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for the compact binary report format described in {@link BinaryReportFormat}.
+ * Records are buffered into blocks of the configured size; each block is compressed and appended
+ * to the file as soon as it is full, so that the report is streamed to disk during the crawl.
+ * This class is not thread safe - it is meant to be used only by the report writer thread.
+ * @author vj
+ */
+public class BinaryReportWriter implements Closeable {
+	
+	private final DataOutputStream fileOutput;
+	private final int blockSize;
+	private final Map<String, Integer> dictionary = new HashMap<>();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	
+	private final ByteArrayOutputStream dictionaryBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream dictionaryOutput = new DataOutputStream(dictionaryBuffer);
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+	private final TreeSet<Integer> blockResponseCodes = new TreeSet<>();
+	private final byte[] compressionBuffer = new byte[8192];
+	private int blockRecordCount;
+	
+	/**
+	 * Constructor for the {@link BinaryReportWriter} class, which creates the report file and writes its header
+	 * @param file The report file to be created
+	 * @param includeVerification Boolean value indicating whether the verification column is to be exported to CSV
+	 * @param blockSize The number of records to be compressed together within each block
+	 * @throws IOException If the report file could not be created
+	 */
+	public BinaryReportWriter(File file, boolean includeVerification, int blockSize) throws IOException {
+		this(new FileOutputStream(file), blockSize);
+		fileOutput.writeInt(BinaryReportFormat.MAGIC);
+		fileOutput.writeByte(BinaryReportFormat.VERSION);
+		fileOutput.writeByte(includeVerification? BinaryReportFormat.FLAG_VERIFICATION : 0);
+	}
+	
+	private BinaryReportWriter(FileOutputStream fileOutputStream, int blockSize) {
+		this.blockSize = blockSize;
+		fileOutput = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 65536));
+	}
+	
+	/**
+	 * Function to continue writing an existing report, such as when an interrupted run is resumed.
+	 * The report is first truncated to the given length, which must fall between blocks.
+	 * @param file The existing report file
+	 * @param length The length of the report to be kept, in bytes
+	 * @param blockSize The number of records to be compressed together within each block
+	 * @return The {@link BinaryReportWriter}, which appends to the report
+	 * @throws IOException If the existing report could not be read
+	 */
+	public static BinaryReportWriter append(File file, long length, int blockSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+		}
+		
+		// Later blocks refer to the strings added to the dictionary by earlier blocks
+		List<String> dictionary = new BinaryReportReader(file).readDictionary();
+		BinaryReportWriter writer = new BinaryReportWriter(new FileOutputStream(file, true), blockSize);
+		for (String value : dictionary) {
+			writer.dictionary.put(value, writer.dictionary.size());
+		}
+		return writer;
+	}
+	
+	/**
+	 * Function to add a record to the report
+	 * @param record The {@link ReportRecord} to be added
+	 * @throws IOException If a completed block could not be written
+	 */
+	public void write(ReportRecord record) throws IOException {
+		LinkStatus linkStatus = record.getLinkStatus();
+		
+		BinaryReportFormat.writeVarInt(recordOutput, getStringId(record.getReferrer()));
+		BinaryReportFormat.writeVarInt(recordOutput, getStringId(record.getAnchor()));
+		BinaryReportFormat.writeVarInt(recordOutput, getStringId(record.getUrl()));
+		BinaryReportFormat.writeVarInt(recordOutput, linkStatus.getResponseCode());
+		BinaryReportFormat.writeVarInt(recordOutput, getStringId(linkStatus.getStatus()));
+		
+		int flags = 0;
+		if (null == linkStatus.isSuccess()) {
+			flags |= BinaryReportFormat.FLAG_SUCCESS_UNKNOWN;
+		} else if (linkStatus.isSuccess()) {
+			flags |= BinaryReportFormat.FLAG_SUCCESS;
+		}
+		if (linkStatus.getVerification() != null) {
+			flags |= (linkStatus.getVerification().ordinal() + 1) << BinaryReportFormat.VERIFICATION_SHIFT;
+		}
+		if (linkStatus.getRedirectChain() != null) {
+			flags |= BinaryReportFormat.FLAG_REDIRECT_CHAIN;
+		}
+		if (record.getResourceType() != ResourceType.ANCHOR) {
+			flags |= BinaryReportFormat.FLAG_RESOURCE_TYPE;
+		}
+		if (linkStatus.getLatency() >= 0) {
+			flags |= BinaryReportFormat.FLAG_LATENCY;
+		}
+		recordOutput.writeByte(flags);
+		if (linkStatus.getRedirectChain() != null) {
+			BinaryReportFormat.writeVarInt(recordOutput, getStringId(linkStatus.getRedirectChain()));
+		}
+		if (record.getResourceType() != ResourceType.ANCHOR) {
+			BinaryReportFormat.writeVarInt(recordOutput, record.getResourceType().ordinal());
+		}
+		if (linkStatus.getLatency() >= 0) {
+			BinaryReportFormat.writeVarInt(recordOutput, (int) Math.min(linkStatus.getLatency(), Integer.MAX_VALUE));
+		}
+		
+		blockResponseCodes.add(linkStatus.getResponseCode());
+		blockRecordCount++;
+		if (blockRecordCount >= blockSize) {
+			writeBlock();
+		}
+	}
+	
+	private int getStringId(String value) throws IOException {
+		String key = (null == value)? "" : value;
+		Integer id = dictionary.get(key);
+		if (null == id) {
+			id = dictionary.size();
+			dictionary.put(key, id);
+			BinaryReportFormat.writeString(dictionaryOutput, key);
+		}
+		return id;
+	}
+	
+	/**
+	 * Function to write out the records added so far as a (possibly partial) block.
+	 * Blocks are otherwise written only when full, since smaller blocks compress less effectively.
+	 * @throws IOException If the block could not be written
+	 */
+	public void flush() throws IOException {
+		writeBlock();
+	}
+	
+	private void writeBlock() throws IOException {
+		if (0 == blockRecordCount) {
+			return;
+		}
+		
+		fileOutput.writeInt(blockRecordCount);
+		fileOutput.writeInt(blockResponseCodes.size());
+		for (int responseCode : blockResponseCodes) {
+			fileOutput.writeInt(responseCode);
+		}
+		writeCompressed(dictionaryBuffer);
+		writeCompressed(recordBuffer);
+		fileOutput.flush();
+		
+		blockRecordCount = 0;
+		blockResponseCodes.clear();
+	}
+	
+	private void writeCompressed(ByteArrayOutputStream buffer) throws IOException {
+		byte[] uncompressed = buffer.toByteArray();
+		buffer.reset();
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 2 + 64);
+		deflater.reset();
+		deflater.setInput(uncompressed);
+		deflater.finish();
+		while (!deflater.finished()) {
+			int length = deflater.deflate(compressionBuffer);
+			compressed.write(compressionBuffer, 0, length);
+		}
+		
+		fileOutput.writeInt(compressed.size());
+		fileOutput.writeInt(uncompressed.length);
+		compressed.writeTo(fileOutput);
+	}
+	
+	/**
+	 * Function to write out any remaining records and close the report file
+	 * @throws IOException If the remaining records could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			writeBlock();
+		} finally {
+			fileOutput.close();
+			deflater.end();
+		}
+	}
+}
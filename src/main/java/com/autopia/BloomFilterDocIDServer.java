@@ -0,0 +1,148 @@
+package com.autopia;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.frontier.DocIDServer;
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Extension of the crawler4j {@link DocIDServer}, which is crawler4j's (disk based) record of the URLs seen during the crawl.
+ * The URLs are recorded in their canonical form (as per {@link UrlCanonicalizer}), so that equivalent URLs are recognized
+ * as already seen before they reach {@link BasicCrawler#shouldVisit}. A {@link ScalableBloomFilter} is kept in front of
+ * the record, so that a URL which has definitely not been seen is recognized without taking the lock around the record
+ * or looking it up on disk; only the URLs which the filter reports as possibly seen are looked up.
+ * The memory budget and false positive rate of the filter are configured within the SeenUrlFilter settings.
+ * @author vj
+ */
+public class BloomFilterDocIDServer extends DocIDServer {
+	
+	private static final Logger logger = LoggerFactory.getLogger(BloomFilterDocIDServer.class);
+	
+	private static final long MEMORY_BUDGET = Settings.getLong(Setting.SEEN_URL_FILTER_MEMORY_MB) * 1024 * 1024;
+	private static final double FALSE_POSITIVE_RATE = Settings.getDouble(Setting.SEEN_URL_FILTER_FALSE_POSITIVE_RATE);
+	
+	private final ScalableBloomFilter seenUrls;
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong filteredLookups = new AtomicLong();
+	
+	/**
+	 * Constructor for the {@link BloomFilterDocIDServer} class.
+	 * When resuming a crawl, the filter is filled with the URLs seen before the crawl was interrupted.
+	 * @param env The Berkeley DB {@link Environment} of the crawl
+	 * @param config The crawler4j {@link CrawlConfig}
+	 */
+	public BloomFilterDocIDServer(Environment env, CrawlConfig config) {
+		super(env, config);
+		seenUrls = (MEMORY_BUDGET > 0)?
+						new ScalableBloomFilter("seen URL filter", MEMORY_BUDGET, FALSE_POSITIVE_RATE) : null;
+		if (seenUrls != null && config.isResumableCrawling() && getDocCount() > 0) {
+			loadSeenUrls(env);
+		}
+	}
+	
+	/**
+	 * Function to check whether the {@link BloomFilterDocIDServer} is to be used in place of the crawler4j {@link DocIDServer}
+	 * @return Boolean value indicating whether the {@link BloomFilterDocIDServer} is to be used
+	 */
+	public static boolean isEnabled() {
+		return MEMORY_BUDGET > 0 || UrlCanonicalizer.isEnabled();
+	}
+	
+	private void loadSeenUrls(Environment env) {
+		// crawler4j opens its database within a transactional environment when resuming, so this handle must match
+		DatabaseConfig databaseConfig = new DatabaseConfig();
+		databaseConfig.setTransactional(true);
+		databaseConfig.setReadOnly(true);
+		Database database = env.openDatabase(null, "DocIDs", databaseConfig);
+		try {
+			Cursor cursor = database.openCursor(null, null);
+			try {
+				DatabaseEntry key = new DatabaseEntry();
+				DatabaseEntry value = new DatabaseEntry();
+				value.setPartial(0, 0, true);	// Only the keys are needed
+				while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+					seenUrls.add(new String(key.getData()));	// crawler4j stores the URLs using the default charset
+				}
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			database.close();
+		}
+		logger.info("Loaded " + seenUrls.getSize() + " seen URLs into the seen URL filter");
+	}
+	
+	@Override
+	public int getDocId(String url) {
+		String canonicalUrl = UrlCanonicalizer.canonicalize(url);
+		if (seenUrls != null) {
+			lookups.incrementAndGet();
+			if (!seenUrls.mightContain(canonicalUrl)) {
+				filteredLookups.incrementAndGet();
+				return -1;
+			}
+		}
+		return super.getDocId(canonicalUrl);
+	}
+	
+	@Override
+	public int getNewDocID(String url) {
+		String canonicalUrl = UrlCanonicalizer.canonicalize(url);
+		if (seenUrls != null) {
+			seenUrls.add(canonicalUrl);	// Before the URL is recorded, so that the filter never lags behind the record
+		}
+		return super.getNewDocID(canonicalUrl);
+	}
+	
+	@Override
+	public void addUrlAndDocId(String url, int docId) throws Exception {
+		String canonicalUrl = UrlCanonicalizer.canonicalize(url);
+		if (seenUrls != null) {
+			seenUrls.add(canonicalUrl);
+		}
+		super.addUrlAndDocId(canonicalUrl, docId);
+	}
+	
+	/**
+	 * Function to record the given URL as seen, unless it has been seen already.
+	 * crawler4j looks up each new URL before asking whether it should be visited, and only records it afterwards,
+	 * so two crawlers which find the same new URL at the same time would both schedule it;
+	 * recording the URL while deciding whether to visit it lets only one of them through.
+	 * @param url The URL
+	 * @return Boolean value indicating whether the URL was recorded by this call
+	 */
+	public synchronized boolean claim(String url) {
+		if (getDocId(url) > 0) {
+			return false;
+		}
+		getNewDocID(url);
+		return true;
+	}
+	
+	@Override
+	public boolean isSeenBefore(String url) {
+		return getDocId(url) != -1;
+	}
+	
+	/**
+	 * Function to log the seen URL filter statistics for the current run
+	 */
+	public void logStatistics() {
+		if (null == seenUrls) {
+			return;
+		}
+		logger.info("Seen URL filter: " + seenUrls.getSize() + " URLs in " + seenUrls.getSliceCount() + " slices (" +
+						(seenUrls.getAllocatedBytes() / 1024) + " KB), " + filteredLookups.get() + " of " +
+						lookups.get() + " lookups answered without the disk based record");
+	}
+}
@@ -1,6 +1,11 @@
 package com.autopia;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.autopia.BasicCrawler;
 import com.autopia.EmailManager;
@@ -8,10 +13,12 @@ import com.autopia.Report;
 import com.autopia.Settings;
 
 import edu.uci.ics.crawler4j.crawler.CrawlConfig;
-import edu.uci.ics.crawler4j.crawler.CrawlController;
+import edu.uci.ics.crawler4j.crawler.WebCrawler;
 import edu.uci.ics.crawler4j.fetcher.PageFetcher;
 import edu.uci.ics.crawler4j.robotstxt.RobotstxtConfig;
 import edu.uci.ics.crawler4j.robotstxt.RobotstxtServer;
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
 
 /**
  * Main class which acts as the controller for the weak links tool
@@ -19,85 +26,290 @@ import edu.uci.ics.crawler4j.robotstxt.RobotstxtServer;
  */
 public class BrokenLinkTester {
 	
+	private static final Logger logger = LoggerFactory.getLogger(BrokenLinkTester.class);
 	private static Properties properties = Settings.getInstance();
 	
 	/**
-	 * Entry point for the weak links tool execution
+	 * Entry point for the weak links tool execution.
+	 * Run without arguments to crawl the site within this process, or in distributed mode,
+	 * run one process with the argument --coordinator and one process per worker with the arguments --worker &lt;number&gt;.
+	 * Run with the argument --resume to continue an interrupted crawl from its last checkpoint.
+	 * Run with the arguments --batch &lt;folder&gt; to test all the sites described within the given folder (see {@link BatchRunner}).
 	 * @param args Command line arguments
 	 * @throws Exception Errors during execution
 	 */
 	public static void main(String[] args) throws Exception {
-	    CrawlConfig config = initializeCrawlConfig();
+	    Settings.validate();	// Reports all the invalid settings at once, before anything is started
+	    Settings.startWatching();
+	    
+	    if(args.length > 0 && "--coordinator".equals(args[0])) {
+	    	runCoordinator();
+	    } else if(args.length > 1 && "--worker".equals(args[0])) {
+	    	runWorker(Integer.parseInt(args[1]));
+	    } else if(args.length > 1 && "--batch".equals(args[0])) {
+	    	runBatch(new File(args[1]));
+	    } else {
+	    	runStandalone(args.length > 0 && "--resume".equals(args[0]));
+	    }
+	}
+	
+	private static void runStandalone(boolean resume) throws Exception {
+	    // This must precede the creation of the report, which continues the report of the interrupted run on resume
+	    Checkpoint.getInstance().start(resume);
+	    
+	    Metrics metrics = Metrics.getInstance();
+	    metrics.start();
+	    
+	    CrawlConfig config = initializeCrawlConfig(properties);
 	    startCrawlController(config);
 	    
+	    LinkChecker linkChecker = LinkChecker.getInstance();
+	    linkChecker.waitUntilFinished();
+	    linkChecker.shutdown();
+	    LinkStatusCache.getInstance().logStatistics();
+	    finishLinkStores(Report.getInstance().getReportFolder());
+	    
+	    finishReport(metrics);
+	}
+	
+	private static void runBatch(File sitesFolder) throws Exception {
+	    Metrics metrics = Metrics.getInstance();
+	    metrics.start();
+	    
+	    // The sites share the link checker and the link status cache, so these are only finished once all the sites are done
+	    BatchRunner batchRunner = new BatchRunner(sitesFolder);
+	    batchRunner.run();
+	    
+	    LinkChecker linkChecker = LinkChecker.getInstance();
+	    linkChecker.waitUntilFinished();
+	    linkChecker.shutdown();
+	    LinkStatusCache.getInstance().logStatistics();
+	    File batchFolder = batchRunner.getBatchFolder();
+	    finishLinkStores(batchFolder);
+	    
+	    File summaryFile = batchRunner.writeSummary();
+	    metrics.stop();
+	    metrics.writeSummary(batchFolder);
+	    
+	    List<File> attachments = new ArrayList<>();
+	    attachments.add(summaryFile);
+	    attachments.addAll(batchRunner.getReportFiles());
+	    try {
+	    	// The crawler4j log is shared by all the sites of the batch
+	    	attachments.add(Report.copyCrawlerLogFile(batchFolder));
+	    } catch (IOException ex) {
+	    	logger.error(ex.getMessage(), ex);
+	    }
+	    
+	    Boolean shouldSendEmailNotification = Settings.getBoolean(Setting.SEND_EMAIL_NOTIFICATION);
+	    if(shouldSendEmailNotification) {
+	    	sendEmailNotification(attachments, batchFolder);
+	    }
+	}
+	
+	private static void finishLinkStores(File reportFolder) {
+	    LinkGraph linkGraph = LinkGraph.getInstance();
+	    if(linkGraph.isEnabled()) {
+	    	linkGraph.logStatistics();
+	    	linkGraph.writeSummary(reportFolder);
+	    	linkGraph.save(new File(reportFolder, "LinkGraph.bin"));
+	    }
+	    
+	    LinkStateStore linkStateStore = LinkStateStore.getInstance();
+	    linkStateStore.logStatistics();
+	    linkStateStore.save();
+	}
+	
+	private static void runCoordinator() throws Exception {
+	    Metrics metrics = Metrics.getInstance();
+	    metrics.start();
+	    
+	    DistributedCoordinator coordinator = new DistributedCoordinator();
+	    coordinator.start();
+	    if(!coordinator.waitUntilFinished()) {
+	    	// The rows received so far are kept, but the pages of the failed worker are missing, so nothing is sent
+	    	Report.getInstance().closeReport();
+	    	metrics.stop();
+	    	throw new IOException("The distributed crawl is incomplete, since a worker has failed");
+	    }
+	    
+	    finishReport(metrics);
+	}
+	
+	private static void runWorker(int workerNumber) throws Exception {
+	    DistributedWorker distributedWorker = DistributedWorker.getInstance();
+	    distributedWorker.start(workerNumber);	// Waits until all the workers have registered
+	    
+	    Metrics metrics = Metrics.getInstance();
+	    metrics.start();
+	    
+	    // Each worker keeps its own frontier, and keeps running until the coordinator detects that all the workers are idle
+	    CrawlConfig config = initializeCrawlConfig(properties);
+	    config.setCrawlStorageFolder(config.getCrawlStorageFolder() +
+	    					Util.getFileSeparator() + "worker-" + workerNumber);
+	    config.setShutdownOnEmptyQueue(false);
+	    
+	    int crawlThreads = Settings.getInt(Setting.CRAWL_THREADS);
+	    BasicCrawlController controller = createCrawlController(Site.getDefault(), config);
+	    List<BasicCrawler> crawlers = new CopyOnWriteArrayList<>();
+	    controller.startNonBlocking(() -> {
+	    	BasicCrawler crawler = new BasicCrawler();
+	    	crawlers.add(crawler);
+	    	return crawler;
+	    }, crawlThreads);
+	    distributedWorker.setCrawlController(controller, () ->
+	    					controller.getFrontier().getQueueLength() == 0 &&
+	    					crawlers.stream().noneMatch(WebCrawler::isNotWaitingForNewURLs));
+	    
+	    distributedWorker.awaitStop();
+	    config.setShutdownOnEmptyQueue(true);	// Otherwise the controller keeps waiting for new URLs after shutting down
+	    controller.shutdown();
+	    controller.waitUntilFinish();
+	    controller.logStatistics();
+	    
+	    LinkChecker linkChecker = LinkChecker.getInstance();
+	    linkChecker.waitUntilFinished();
+	    linkChecker.shutdown();
+	    LinkStatusCache.getInstance().logStatistics();
+	    if(LinkGraph.getInstance().isEnabled()) {
+	    	LinkGraph.getInstance().logStatistics();
+	    }
+	    
+	    metrics.stop();
+	    distributedWorker.finish();
+	    if(distributedWorker.hasFailed()) {
+	    	throw new IOException("The distributed crawl is incomplete, since messages to or from a peer were lost");
+	    }
+	}
+	
+	private static void finishReport(Metrics metrics) {
 	    Report report = Report.getInstance();
 	    report.closeReport();
+	    Checkpoint.getInstance().complete();
+	    
+	    metrics.stop();
+	    metrics.writeSummary(report.getReportFolder());
 	    
-	    Boolean shouldSendEmailNotification =
-	    		Boolean.parseBoolean(properties.getProperty("SendEmailNotification"));
+	    Boolean shouldSendEmailNotification = Settings.getBoolean(Setting.SEND_EMAIL_NOTIFICATION);
 	    if(shouldSendEmailNotification) {
-	    	sendEmailNotification();
+	    	List<File> attachments = new ArrayList<>(report.getReportFiles());
+	    	attachments.add(report.getCrawlerLogFile());
+	    	sendEmailNotification(attachments, report.getReportFolder());
 	    }
 	}
 	
-	private static CrawlConfig initializeCrawlConfig() {
-		String crawlStorageFolder = properties.getProperty("CrawlStorageFolder");
-		int politenessDelay = Integer.parseInt(properties.getProperty("CrawlPolitenessDelay"));
-		int maxPagesToFetch = Integer.parseInt(properties.getProperty("CrawlMaxPagesToFetch"));
+	/**
+	 * Function to create the crawler4j configuration of a crawl from the given settings
+	 * @param properties The settings of the site to be crawled
+	 * @return The crawler4j {@link CrawlConfig}
+	 */
+	static CrawlConfig initializeCrawlConfig(Properties properties) {
+		String crawlStorageFolder = Settings.getString(properties, Setting.CRAWL_STORAGE_FOLDER);
+		int politenessDelay = Settings.getInt(properties, Setting.CRAWL_POLITENESS_DELAY);
+		int maxPagesToFetch = Settings.getInt(properties, Setting.CRAWL_MAX_PAGES_TO_FETCH);
+		int connectTimeout = Settings.getInt(properties, Setting.CONNECT_TIMEOUT);
+		int readTimeout = Settings.getInt(properties, Setting.READ_TIMEOUT);
 		
 		CrawlConfig config = new CrawlConfig();
 	    config.setCrawlStorageFolder(crawlStorageFolder);
 	    config.setPolitenessDelay(politenessDelay);	// Avoid sending too many requests at the same time
 	    config.setMaxPagesToFetch(maxPagesToFetch);
+	    config.setConnectionTimeout(connectTimeout);
+	    config.setSocketTimeout(readTimeout);
 	    config.setIncludeBinaryContentInCrawling(false);
 	    config.setIncludeHttpsPages(true);
+	    config.setResumableCrawling(Checkpoint.getInstance().isActive());	// Keeps the frontier on disk
+	    if(StreamingLinkExtractor.isEnabled()) {
+	    	config.setMaxDownloadSize(StreamingLinkExtractor.getMaxPageSize());	// Pages are no longer buffered in full
+	    }
 	    
 	    return config;
 	}
 	
 	private static void startCrawlController(CrawlConfig config) throws Exception {
-		String baseUrl = properties.getProperty("BaseUrl");
-		int crawlThreads = Integer.parseInt(properties.getProperty("CrawlThreads"));
-		String crawlSeeds = properties.getProperty("CrawlSeeds");
+		int crawlThreads = Settings.getInt(Setting.CRAWL_THREADS);
 		
-		PageFetcher pageFetcher = new PageFetcher(config);
+	    BasicCrawlController controller = createCrawlController(Site.getDefault(), config);
+	    controller.start(BasicCrawler.class, crawlThreads);	// This is a blocking operation
+	    controller.logStatistics();
+	}
+	
+	/**
+	 * Function to create the crawl controller of the given site, along with its seeds
+	 * @param site The {@link Site} to be crawled
+	 * @param config The crawler4j {@link CrawlConfig}
+	 * @return The {@link BasicCrawlController}
+	 * @throws Exception If the crawl storage could not be initialized
+	 */
+	static BasicCrawlController createCrawlController(Site site, CrawlConfig config) throws Exception {
+		String baseUrl = Settings.getString(site.getProperties(), Setting.BASE_URL);
+		String crawlSeeds = Settings.getString(site.getProperties(), Setting.CRAWL_SEEDS);
+		
+		PageFetcher pageFetcher;
+		if(LinkStateStore.getInstance().isEnabled() || StreamingLinkExtractor.isEnabled()) {
+			pageFetcher = new IncrementalPageFetcher(config);
+		} else {
+			pageFetcher = new RoutedPageFetcher(config);
+		}
 	    RobotstxtConfig robotstxtConfig = new RobotstxtConfig();
 	    RobotstxtServer robotstxtServer = new RobotstxtServer(robotstxtConfig, pageFetcher);
-	    CrawlController controller = new CrawlController(config, pageFetcher, robotstxtServer);
+	    // The crawlers always run on platform threads, since crawler4j waits for new URLs and accesses its
+	    // databases within synchronized blocks, which would pin the carriers of virtual threads
+	    BasicCrawlController controller = new BasicCrawlController(site, config, pageFetcher, robotstxtServer);
 	    
 	    /*
 	     * For each crawl, you need to add some seed urls. These are the first
 	     * URLs that are fetched and then the crawler starts following links
 	     * which are found in these pages
+	     * In distributed mode, each worker only adds the seeds which it owns
 	     */
+	    DistributedWorker distributedWorker = DistributedWorker.getInstance();
 	    for(String crawlSeed : crawlSeeds.split(",")) {
-	    	controller.addSeed(baseUrl + crawlSeed);
+	    	if(distributedWorker.isLocal(baseUrl + crawlSeed)) {
+	    		controller.addSeed(baseUrl + crawlSeed);
+	    	}
 	    }
+	    Checkpoint.getInstance().attach(controller);
 	    
-	    controller.start(BasicCrawler.class, crawlThreads);	// This is a blocking operation
+	    return controller;
 	}
 	
-	private static void sendEmailNotification() {
-		String host = properties.getProperty("SmtpHost");
-	    int port = Integer.parseInt(properties.getProperty("SmtpPort"));
-	    String from = properties.getProperty("EmailFrom");
-	    String to = properties.getProperty("EmailTo");
-	    String subject = properties.getProperty("EmailSubject");
-	    String body = properties.getProperty("EmailBody");
-	    Boolean sslEnable = Boolean.parseBoolean(properties.getProperty("EmailSslEnable"));
-	    Boolean authRequired = Boolean.parseBoolean(properties.getProperty("EmailAuthRequired"));
+	private static void sendEmailNotification(List<File> attachments, File reportFolder) {
+		String host = Settings.getString(Setting.SMTP_HOST);
+	    int port = Settings.getInt(Setting.SMTP_PORT);
+	    String from = Settings.getString(Setting.EMAIL_FROM);
+	    String to = Settings.getString(Setting.EMAIL_TO);
+	    String subject = Settings.getString(Setting.EMAIL_SUBJECT);
+	    String body = Settings.getString(Setting.EMAIL_BODY);
+	    Boolean sslEnable = Settings.getBoolean(Setting.EMAIL_SSL_ENABLE);
+	    Boolean authRequired = Settings.getBoolean(Setting.EMAIL_AUTH_REQUIRED);
 	    
 	    EmailManager emailManager = new EmailManager(host, port);
 	    emailManager.setSslEnable(sslEnable);
+	    emailManager.setCompressAttachments(Settings.getBoolean(Setting.EMAIL_COMPRESS_ATTACHMENTS));
+	    emailManager.setMaxAttachmentSize(Settings.getInt(Setting.EMAIL_MAX_ATTACHMENT_SIZE_MB) * 1024L * 1024,
+	    					() -> writeFailureSummary(attachments, reportFolder));
 	    if(authRequired) {
-	    	String username = properties.getProperty("EmailAuthUsername");
-	    	String password = properties.getProperty("EmailAuthPassword");
+	    	String username = Settings.getString(Setting.EMAIL_AUTH_USERNAME);
+	    	String password = Settings.getString(Setting.EMAIL_AUTH_PASSWORD);
 	    	emailManager.setAuthentication(username, password);
 	    }
 	    emailManager.composeMail(from, to, subject, body);
-	    emailManager.addAttachment(Report.getSuccessFile());
-	    emailManager.addAttachment(Report.getFailureFile());
-	    emailManager.addAttachment(Report.getCrawlerLogFile());
+	    for (File attachment : attachments) {
+	    	emailManager.addAttachment(attachment);
+	    }
 	    emailManager.sendMail();
 	}
+	
+	private static File writeFailureSummary(List<File> reportFiles, File reportFolder) {
+		File summaryFile = new File(reportFolder, "SiteLinks_FailureSummary.txt");
+		try {
+			FailureSummary.fromReportFiles(reportFiles)
+							.write(summaryFile, Settings.getInt(Setting.EMAIL_SUMMARY_TOP_BROKEN_URLS));
+			return summaryFile;
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+			return null;
+		}
+	}
 }
\ No newline at end of file
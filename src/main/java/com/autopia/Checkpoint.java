@@ -0,0 +1,545 @@
+package com.autopia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.autopia.LinkStatus.Verification;
+
+import edu.uci.ics.crawler4j.crawler.CrawlController;
+import edu.uci.ics.crawler4j.frontier.DocIDServer;
+import edu.uci.ics.crawler4j.url.URLCanonicalizer;
+import edu.uci.ics.crawler4j.url.WebURL;
+import edu.uci.ics.crawler4j.util.IO;
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Checkpointing of a crawl, so that a crawl which is interrupted can be resumed with the --resume argument.
+ * Checkpointing is only active when a checkpoint interval is set, since it keeps the crawler4j frontier within the crawl
+ * storage folder by crawler4j's resumable (transactional) mode. A checkpoint written once every checkpoint interval
+ * records the report file lengths, the pages visited since the previous checkpoint and those of them whose report rows
+ * are not yet written. The report writer thread takes the checkpoint between pages, so that the report never holds a
+ * partial page. The visited pages are only marked as processed within the frontier (by the {@link CheckpointFrontier})
+ * once the checkpoint has been saved, so that the pages visited after the last checkpoint are scheduled again by crawler4j
+ * on resume. A journal within the same folder records each link once it has been checked; it is buffered, and is flushed
+ * along with each checkpoint.
+ * On resume, the report is truncated to the checkpoint and continued within the same run folder, the pages which were not
+ * fully reported are visited again (and those which were reported are not), and the links recorded within the journal
+ * are not checked again. The cost of each checkpoint is bounded by the number of pages visited within the interval.
+ * This is a singleton class; it is inactive unless started.
+ * @author vj
+ */
+public class Checkpoint {
+	
+	private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+	
+	private static final long CHECKPOINT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(
+							Settings.getLong(Setting.CHECKPOINT_INTERVAL));
+	private static final String CRAWL_STORAGE_FOLDER = Settings.getString(Setting.CRAWL_STORAGE_FOLDER);
+	
+	private static final int MAGIC = 0x574C4350;	// "WLCP"
+	private static final byte VERSION = 4;
+	private static final byte LINK_ENTRY = 2;
+	
+	private final File checkpointFile = new File(CRAWL_STORAGE_FOLDER, "Checkpoint.dat");
+	private final File journalFile = new File(CRAWL_STORAGE_FOLDER, "Checkpoint.journal");
+	private final Set<String> pagesInProgress = ConcurrentHashMap.newKeySet();
+	private final Set<String> releasedPagesInProgress = new HashSet<>();
+	private final ReentrantLock journalLock = new ReentrantLock();	// Rather than a monitor, so as not to pin virtual threads
+	
+	private volatile boolean active;
+	private boolean resuming;
+	private FileOutputStream journalFileOutput;
+	private DataOutputStream journalOutput;
+	private long nextCheckpointTime;
+	private volatile CheckpointFrontier frontier;
+	
+	private String runFolder;
+	private final Map<String, Long> reportLengths = new HashMap<>();
+	private final Set<String> releasedPages = new HashSet<>();
+	private final Set<String> pagesToRevisit = ConcurrentHashMap.newKeySet();
+	
+	private static final Checkpoint CHECKPOINT = new Checkpoint();
+	
+	// To prevent external instantiation of this class
+	private Checkpoint() {
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link Checkpoint} class
+	 * @return Instance of the {@link Checkpoint} class
+	 */
+	public static Checkpoint getInstance() {
+		return CHECKPOINT;
+	}
+	
+	/**
+	 * Function to check whether checkpointing is enabled within the settings
+	 * @return Boolean value indicating whether checkpointing is enabled
+	 */
+	public boolean isEnabled() {
+		return CHECKPOINT_INTERVAL > 0;
+	}
+	
+	/**
+	 * Function to check whether checkpoints are being taken during the current run
+	 * @return Boolean value indicating whether checkpointing is active
+	 */
+	public boolean isActive() {
+		return active;
+	}
+	
+	/**
+	 * Function to check whether the current run resumes an interrupted run
+	 * @return Boolean value indicating whether the current run is being resumed from a checkpoint
+	 */
+	public boolean isResuming() {
+		return resuming;
+	}
+	
+	/**
+	 * Function to get the report folder of the run being resumed
+	 * @return The report folder of the interrupted run, or null if the current run is not being resumed
+	 */
+	public String getRunFolder() {
+		return runFolder;
+	}
+	
+	/**
+	 * Function to get the length of the given report file as of the last checkpoint
+	 * @param reportFile The report file
+	 * @return The length of the report file, in bytes, or 0 if the file was not included within the checkpoint
+	 */
+	public long getReportLength(File reportFile) {
+		Long length = reportLengths.get(reportFile.getName());
+		return (null == length)? 0 : length;
+	}
+	
+	/**
+	 * Function to start checkpointing the current run.
+	 * This must be called before the report is created, so that a resumed run continues the report of the interrupted run.
+	 * @param resume Boolean value indicating whether the run is to be resumed from the last checkpoint
+	 */
+	public synchronized void start(boolean resume) {
+		if (!isEnabled()) {
+			if (resume) {
+				logger.warn("Checkpointing is disabled - starting a new crawl instead of resuming");
+			}
+			return;
+		}
+		
+		if (resume) {
+			try {
+				resuming = load();
+			} catch (IOException | RuntimeException ex) {
+				logger.error("Unable to load the checkpoint - starting a new crawl: " + ex.getMessage(), ex);
+				reportLengths.clear();
+				releasedPages.clear();
+				pagesToRevisit.clear();
+			}
+		}
+		
+		try {
+			if (!resuming) {
+				// crawler4j's resumable mode would otherwise continue from the frontier of the previous crawl
+				File frontierFolder = new File(CRAWL_STORAGE_FOLDER, "frontier");
+				if (frontierFolder.exists()) {
+					IO.deleteFolderContents(frontierFolder);
+				}
+				Files.deleteIfExists(checkpointFile.toPath());
+				Files.deleteIfExists(journalFile.toPath());
+			}
+			
+			new File(CRAWL_STORAGE_FOLDER).mkdirs();
+			journalFileOutput = new FileOutputStream(journalFile, true);
+			journalOutput = new DataOutputStream(new BufferedOutputStream(journalFileOutput, 65536));
+		} catch (IOException ex) {
+			logger.error("Unable to open the checkpoint journal - checkpointing is disabled: " + ex.getMessage(), ex);
+			return;
+		}
+		
+		nextCheckpointTime = System.nanoTime() + CHECKPOINT_INTERVAL;
+		active = true;
+	}
+	
+	private boolean load() throws IOException {
+		if (!checkpointFile.exists()) {
+			logger.warn("No checkpoint found within " + CRAWL_STORAGE_FOLDER + " - starting a new crawl");
+			return false;
+		}
+		
+		long journalLength;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+			if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+				throw new IOException(checkpointFile + " is not a supported checkpoint");
+			}
+			
+			runFolder = BinaryReportFormat.readString(input);
+			journalLength = input.readLong();
+			int reportFileCount = input.readInt();
+			for (int i = 0; i < reportFileCount; i++) {
+				reportLengths.put(BinaryReportFormat.readString(input), input.readLong());
+			}
+			int pageCount = input.readInt();
+			for (int i = 0; i < pageCount; i++) {
+				releasedPages.add(BinaryReportFormat.readString(input));
+			}
+			pageCount = input.readInt();
+			for (int i = 0; i < pageCount; i++) {
+				pagesToRevisit.add(BinaryReportFormat.readString(input));
+			}
+		}
+		
+		if (!new File(runFolder).isDirectory()) {
+			throw new IOException("The report folder " + runFolder + " of the interrupted run no longer exists");
+		}
+		
+		long validJournalLength = readJournal();
+		try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(validJournalLength);	// Discard any entry which was only partly written
+		}
+			
+		logger.info("Resuming the crawl within " + runFolder + "; " + pagesToRevisit.size() +
+						" pages which were not fully reported will be visited again");
+		return true;
+	}
+	
+	private long readJournal() throws IOException {
+		if (!journalFile.exists()) {
+			return 0;
+		}
+		
+		LinkStatusCache linkStatusCache = LinkStatusCache.getInstance();
+		long linkCount = 0;
+		long validLength = 0;
+		
+		try (CountingInputStream countingInput = new CountingInputStream(
+									new BufferedInputStream(new FileInputStream(journalFile), 65536));
+				DataInputStream input = new DataInputStream(countingInput)) {
+			while (true) {
+				long entryPosition = countingInput.getCount();
+				byte entryType;
+				try {
+					entryType = input.readByte();
+					if (entryType == LINK_ENTRY) {
+						String url = BinaryReportFormat.readString(input);
+						linkStatusCache.putLinkStatus(url, readLinkStatus(input));
+						linkCount++;
+					} else {
+						logger.warn("Ignoring the checkpoint journal after an unrecognized entry at " + entryPosition);
+						return entryPosition;
+					}
+				} catch (EOFException ex) {
+					break;
+				}
+				validLength = countingInput.getCount();
+			}
+		}
+		
+		logger.info("Loaded " + linkCount + " checked links from the checkpoint journal");
+		return validLength;
+	}
+	
+	/**
+	 * Function to attach the checkpoints to the frontier of the crawl, and to schedule the pages which were not fully
+	 * reported before the run was interrupted to be visited again. crawler4j regards these pages as already visited,
+	 * so they are scheduled directly within its frontier.
+	 * @param controller The {@link CrawlController} of the crawl
+	 */
+	public void attach(CrawlController controller) {
+		if (!active) {
+			return;
+		}
+		
+		frontier = (CheckpointFrontier) controller.getFrontier();
+		if (!resuming) {
+			return;
+		}
+		
+		DocIDServer docIdServer = controller.getDocIdServer();
+		for (String pageUrl : pagesToRevisit) {
+			String canonicalUrl = URLCanonicalizer.getCanonicalURL(pageUrl);
+			if (null == canonicalUrl) {
+				continue;
+			}
+			
+			WebURL webUrl = new WebURL();
+			webUrl.setURL(canonicalUrl);
+			int docId = docIdServer.getDocId(canonicalUrl);
+			webUrl.setDocid((docId > 0)? docId : docIdServer.getNewDocID(canonicalUrl));
+			controller.getFrontier().schedule(webUrl);
+		}
+	}
+	
+	/**
+	 * Function to check whether a page which is about to be visited is to be reported.
+	 * When a crawl is resumed, crawler4j schedules the pages which it had not yet marked as processed again,
+	 * which may include pages released by a checkpoint which was being taken as the run was interrupted.
+	 * Those pages are reported only if they were not fully reported by then, and only once.
+	 * @param pageUrl The URL of the page
+	 * @return Boolean value indicating whether the page is to be visited and reported
+	 */
+	public boolean isToBeVisited(String pageUrl) {
+		if (!resuming || !releasedPages.contains(pageUrl)) {
+			return true;
+		}
+		return pagesToRevisit.remove(pageUrl);
+	}
+	
+	/**
+	 * Function to record that a page is being visited, before its links are handed over to be checked
+	 * @param pageUrl The URL of the page
+	 */
+	public void pageVisited(String pageUrl) {
+		if (active) {
+			pagesInProgress.add(pageUrl);
+		}
+	}
+	
+	/**
+	 * Function to record that all the report rows of a page have been written by the report writer thread
+	 * @param pageUrl The URL of the page
+	 */
+	public void pageReported(String pageUrl) {
+		pagesInProgress.remove(pageUrl);
+	}
+	
+	/**
+	 * Function to record the status of a link which has been checked, so that it is not checked again on resume
+	 * @param url The URL of the link
+	 * @param linkStatus The status of the link, or null if a connection could not be established
+	 */
+	public void linkChecked(String url, LinkStatus linkStatus) {
+		if (!active) {
+			return;
+		}
+		
+		journalLock.lock();
+		try {
+			try {
+				journalOutput.writeByte(LINK_ENTRY);
+				BinaryReportFormat.writeString(journalOutput, url);
+				writeLinkStatus(journalOutput, linkStatus);
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		} finally {
+			journalLock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to check whether the next checkpoint is due
+	 * @return Boolean value indicating whether a checkpoint is to be taken
+	 */
+	public boolean isDue() {
+		return active && System.nanoTime() - nextCheckpointTime >= 0;
+	}
+	
+	/**
+	 * Function to get the time remaining until the next checkpoint is due
+	 * @return The remaining time in nanoseconds, which is not positive if the checkpoint is already due,
+	 * 			or Long.MAX_VALUE if no checkpoints are being taken
+	 */
+	public long getTimeUntilDue() {
+		return active? nextCheckpointTime - System.nanoTime() : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Function to take a checkpoint. This is called by the report writer thread, between pages,
+	 * once it has flushed the report files.
+	 * @param reportFolder The report folder of the current run
+	 * @param reportFiles The report files of the current run
+	 */
+	public void save(File reportFolder, List<File> reportFiles) {
+		long startTime = System.nanoTime();
+		nextCheckpointTime = startTime + CHECKPOINT_INTERVAL;
+		
+		long journalLength;
+		journalLock.lock();
+		try {
+			journalOutput.flush();
+			journalLength = journalFileOutput.getChannel().position();
+		} catch (IOException ex) {
+			logger.error("Unable to take a checkpoint: " + ex.getMessage(), ex);
+			return;
+		} finally {
+			journalLock.unlock();
+		}
+		
+		// The pages are only released from crawler4j's pages in progress once they are included within a checkpoint;
+		// the report rows are written by this thread, so no page is reported while the checkpoint is being taken
+		List<WebURL> processedPages = (null == frontier)? new ArrayList<>() : frontier.takeProcessedPages();
+		// A page released by an earlier checkpoint is listed again until its report rows have been written,
+		// since crawler4j no longer schedules it on resume
+		Set<String> pages = new HashSet<>(releasedPagesInProgress);
+		for (WebURL processedPage : processedPages) {
+			pages.add(processedPage.getURL());
+		}
+		pages.retainAll(pagesInProgress);
+		
+		File temporaryFile = new File(checkpointFile.getPath() + ".tmp");
+		try {
+			try (DataOutputStream output = new DataOutputStream(
+										new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+				output.writeInt(MAGIC);
+				output.writeByte(VERSION);
+				BinaryReportFormat.writeString(output, reportFolder.getPath());
+				output.writeLong(journalLength);
+				output.writeInt(reportFiles.size());
+				for (File reportFile : reportFiles) {
+					BinaryReportFormat.writeString(output, reportFile.getName());
+					output.writeLong(reportFile.length());
+				}
+				output.writeInt(processedPages.size());
+				for (WebURL processedPage : processedPages) {
+					BinaryReportFormat.writeString(output, processedPage.getURL());
+				}
+				output.writeInt(pages.size());
+				for (String page : pages) {
+					BinaryReportFormat.writeString(output, page);
+				}
+			}
+			
+			// Replace the previous checkpoint in a single step, so that an interrupted save does not lose it
+			Files.move(temporaryFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			// The pages stay in progress within the frontier, so they are visited again if the crawl is resumed
+			logger.error("Unable to take a checkpoint: " + ex.getMessage(), ex);
+			return;
+		}
+		
+		if (frontier != null) {
+			frontier.release(processedPages);
+		}
+		releasedPagesInProgress.clear();
+		releasedPagesInProgress.addAll(pages);
+		logger.info("Checkpoint taken in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms: " +
+						processedPages.size() + " pages visited, of which " + pages.size() + " are in progress, " +
+						"journal of " + journalLength + " bytes");
+	}
+	
+	/**
+	 * Function to stop checkpointing once the run has completed, and discard the checkpoint
+	 */
+	public synchronized void complete() {
+		if (!active) {
+			return;
+		}
+		active = false;
+		
+		journalLock.lock();
+		try {
+			try {
+				journalOutput.close();
+				Files.deleteIfExists(checkpointFile.toPath());
+				Files.deleteIfExists(journalFile.toPath());
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		} finally {
+			journalLock.unlock();
+		}
+		
+		logger.info("Crawl completed - checkpoint discarded");
+	}
+	
+	private static void writeLinkStatus(DataOutputStream output, LinkStatus linkStatus) throws IOException {
+		output.writeBoolean(linkStatus != null);
+		if (null == linkStatus) {
+			return;
+		}
+		
+		output.writeInt(linkStatus.getResponseCode());
+		BinaryReportFormat.writeString(output, linkStatus.getStatus());
+		output.writeByte((null == linkStatus.isSuccess())? -1 : (linkStatus.isSuccess()? 1 : 0));
+		output.writeByte((null == linkStatus.getVerification())? -1 : linkStatus.getVerification().ordinal());
+		BinaryReportFormat.writeString(output, (null == linkStatus.getETag())? "" : linkStatus.getETag());
+		BinaryReportFormat.writeString(output, (null == linkStatus.getLastModified())? "" : linkStatus.getLastModified());
+		BinaryReportFormat.writeString(output, (null == linkStatus.getRedirectChain())? "" : linkStatus.getRedirectChain());
+		output.writeLong(linkStatus.getLatency());
+	}
+	
+	private static LinkStatus readLinkStatus(DataInputStream input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+		
+		int responseCode = input.readInt();
+		String status = BinaryReportFormat.readString(input);
+		byte success = input.readByte();
+		byte verification = input.readByte();
+		String eTag = BinaryReportFormat.readString(input);
+		String lastModified = BinaryReportFormat.readString(input);
+		String redirectChain = BinaryReportFormat.readString(input);
+		long latency = input.readLong();
+		
+		return new LinkStatus(responseCode, status, (success < 0)? null : Boolean.valueOf(success == 1),
+								eTag.isEmpty()? null : eTag, lastModified.isEmpty()? null : lastModified,
+								(verification < 0)? null : Verification.values()[verification],
+								redirectChain.isEmpty()? null : redirectChain, latency);
+	}
+	
+	/**
+	 * Input stream which counts the bytes read through it, so that the end of the last complete journal entry is known
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+		
+		CountingInputStream(InputStream input) {
+			super(input);
+		}
+		
+		long getCount() {
+			return count;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value >= 0) {
+				count++;
+			}
+			return value;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int bytesRead = super.read(buffer, offset, length);
+			if (bytesRead > 0) {
+				count += bytesRead;
+			}
+			return bytesRead;
+		}
+		
+		@Override
+		public long skip(long bytes) throws IOException {
+			long skipped = super.skip(bytes);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.autopia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sleepycat.je.Environment;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.frontier.Frontier;
+import edu.uci.ics.crawler4j.url.WebURL;
+
+/**
+ * Extension of the crawler4j {@link Frontier} for checkpointed crawls, which holds back the removal of each visited page
+ * from crawler4j's record of the pages in progress until the next {@link Checkpoint} has been taken.
+ * If the run is interrupted, crawler4j schedules the pages visited since the last checkpoint again when the crawl
+ * is resumed, so that the visited pages need not be recorded (and flushed to disk) one at a time.
+ * @author vj
+ */
+public class CheckpointFrontier extends Frontier {
+	
+	private final ReentrantLock lock = new ReentrantLock();	// Rather than a monitor, so as not to pin virtual threads
+	private List<WebURL> processedPages = new ArrayList<>();
+	
+	/**
+	 * Constructor for the {@link CheckpointFrontier} class
+	 * @param env The Berkeley DB {@link Environment} of the crawl
+	 * @param config The crawler4j {@link CrawlConfig}
+	 */
+	public CheckpointFrontier(Environment env, CrawlConfig config) {
+		super(env, config);
+		
+		// The frontier created by crawler4j has already scheduled the pages in progress again, and counted them twice
+		scheduledPages = getNumberOfProcessedPages() + getQueueLength();
+	}
+	
+	@Override
+	public void setProcessed(WebURL webURL) {
+		lock.lock();
+		try {
+			processedPages.add(webURL);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to take the pages which have been visited since the previous call
+	 * @return The visited pages, which are to be released once the checkpoint has been saved
+	 */
+	List<WebURL> takeProcessedPages() {
+		lock.lock();
+		try {
+			List<WebURL> pages = processedPages;
+			processedPages = new ArrayList<>();
+			return pages;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to remove the given pages from crawler4j's record of the pages in progress
+	 * @param pages The pages included within the checkpoint which has just been saved
+	 */
+	void release(List<WebURL> pages) {
+		for (WebURL page : pages) {
+			super.setProcessed(page);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.autopia;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Class which aborts HTTP requests that are still running once their deadline has passed, so that a host which accepts
+ * a connection but never finishes responding (or trickles its response) cannot hold up a thread beyond the deadline.
+ * The connect and read timeouts only limit each step of a request, while a deadline limits all the requests sent
+ * to check a link, including any redirects. A single daemon thread serves the deadlines of all the requests.
+ * Deadlines are expressed as per {@link System#nanoTime()}.
+ * @author vj
+ */
+public class DeadlineTimer {
+	
+	/**
+	 * The deadline of a request which may run for as long as its connect and read timeouts allow
+	 */
+	public static final long NO_DEADLINE = Long.MIN_VALUE;
+	
+	private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+	
+	private DeadlineTimer() {
+		// To prevent external instantiation of this class
+	}
+	
+	private static ScheduledThreadPoolExecutor createTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+			Thread thread = new Thread(task, "DeadlineTimer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.setRemoveOnCancelPolicy(true);	// Since most requests complete well within their deadline
+		return timer;
+	}
+	
+	/**
+	 * Function to get the deadline which is the given time from now
+	 * @param timeout The time allowed, in milliseconds (0 for no deadline)
+	 * @return The deadline, or {@link #NO_DEADLINE}
+	 */
+	public static long getDeadline(long timeout) {
+		return (timeout <= 0)? NO_DEADLINE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+	
+	/**
+	 * Function to check whether the given deadline has passed
+	 * @param deadline The deadline
+	 * @return Boolean value indicating whether the deadline has passed
+	 */
+	public static boolean isExpired(long deadline) {
+		return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+	}
+	
+	/**
+	 * Function to abort the given request if it is still running at the given deadline
+	 * @param request The request
+	 * @param deadline The deadline
+	 * @return The pending abort, which is to be cancelled once the request has completed; null if there is no deadline
+	 */
+	public static ScheduledFuture<?> abortAt(HttpUriRequest request, long deadline) {
+		if (deadline == NO_DEADLINE) {
+			return null;
+		}
+		return TIMER.schedule(request::abort, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+}
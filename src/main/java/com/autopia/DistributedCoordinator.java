@@ -0,0 +1,280 @@
+package com.autopia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Coordinator side of the distributed crawl mode.
+ * The coordinator waits for the configured number of {@link DistributedWorker}s to register, tells each worker
+ * where to find its peers, and then writes the report rows streamed by the workers into a single report.
+ * The crawl is complete once every worker is idle and every message sent between the workers has been received,
+ * with no change across two consecutive rounds of status updates; the workers are then asked to stop.
+ * If the connection to a worker is lost before it has finished, the pages owned by that worker are missing from the
+ * report, so the remaining workers are stopped straightaway and the crawl is reported as incomplete.
+ * @author vj
+ */
+public class DistributedCoordinator {
+	
+	private static final Logger logger = LoggerFactory.getLogger(DistributedCoordinator.class);
+	
+	private static final int WORKER_COUNT = Settings.getInt(Setting.DISTRIBUTED_WORKERS);
+	private static final int COORDINATOR_PORT = Settings.getInt(Setting.DISTRIBUTED_COORDINATOR_PORT);
+	private static final long STATUS_INTERVAL = Settings.getLong(Setting.DISTRIBUTED_STATUS_INTERVAL);
+	
+	private final WorkerConnection[] workers = new WorkerConnection[WORKER_COUNT];
+	private final Report report = Report.getInstance();
+	private final Metrics metrics = Metrics.getInstance();
+	
+	/**
+	 * Function to wait for all the workers to register, and then start the distributed crawl
+	 * @throws IOException If the coordinator could not listen for workers, or a worker could not be started
+	 */
+	public void start() throws IOException {
+		try (ServerSocket serverSocket = new ServerSocket(COORDINATOR_PORT)) {
+			logger.info("Coordinator waiting for " + WORKER_COUNT + " workers on port " + COORDINATOR_PORT);
+			
+			int registeredWorkers = 0;
+			while (registeredWorkers < WORKER_COUNT) {
+				Socket socket = serverSocket.accept();
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+				if (input.readByte() != DistributedProtocol.HELLO) {
+					logger.error("Unexpected message from " + socket.getRemoteSocketAddress());
+					socket.close();
+					continue;
+				}
+				
+				int workerNumber = input.readInt();
+				String peerHost = BinaryReportFormat.readString(input);
+				int peerPort = input.readInt();
+				if (workerNumber < 0 || workerNumber >= WORKER_COUNT || workers[workerNumber] != null) {
+					logger.error("Rejected worker number " + workerNumber + " from " + socket.getRemoteSocketAddress());
+					socket.close();
+					continue;
+				}
+				
+				workers[workerNumber] = new WorkerConnection(workerNumber, socket, input, peerHost, peerPort);
+				registeredWorkers++;
+				logger.info("Worker " + workerNumber + " registered from " + socket.getRemoteSocketAddress());
+			}
+		}
+		
+		for (WorkerConnection worker : workers) {
+			synchronized (worker.output) {
+				worker.output.writeByte(DistributedProtocol.START);
+				worker.output.writeInt(WORKER_COUNT);
+				for (WorkerConnection peer : workers) {
+					BinaryReportFormat.writeString(worker.output, peer.peerHost);
+					worker.output.writeInt(peer.peerPort);
+				}
+				worker.output.flush();
+			}
+			
+			Thread readerThread = new Thread(worker::readMessages, "Worker-" + worker.workerNumber);
+			readerThread.setDaemon(true);
+			readerThread.start();
+		}
+		
+		logger.info("Distributed crawl started with " + WORKER_COUNT + " workers");
+	}
+	
+	/**
+	 * Function to wait until the distributed crawl is complete, or until any worker fails, and then stop all the workers
+	 * @return Boolean value indicating whether the crawl is complete, which is not the case if any worker has failed
+	 * @throws InterruptedException If the current thread is interrupted while waiting
+	 */
+	public boolean waitUntilFinished() throws InterruptedException {
+		long[] previousCounts = null;
+		
+		while (true) {
+			long[] currentCounts = awaitNextStatus();
+			if (hasFailedWorker()) {
+				logger.error("Stopping the distributed crawl, since a worker has failed");
+				break;
+			} else if (null == currentCounts) {
+				previousCounts = null;
+			} else if (previousCounts != null && currentCounts[0] == previousCounts[0] &&
+							currentCounts[1] == previousCounts[1]) {
+				break;
+			} else {
+				previousCounts = currentCounts;
+			}
+			
+			Thread.sleep(STATUS_INTERVAL);
+		}
+		
+		if (!hasFailedWorker()) {
+			logger.info("All workers are idle; stopping the distributed crawl");
+		}
+		for (WorkerConnection worker : workers) {
+			worker.stop();
+		}
+		for (WorkerConnection worker : workers) {
+			worker.awaitDone();
+		}
+		
+		// A worker may also fail while it is stopping, before it has sent all its report rows
+		if (hasFailedWorker()) {
+			return false;
+		}
+		logger.info("All workers have finished");
+		return true;
+	}
+	
+	private boolean hasFailedWorker() {
+		for (WorkerConnection worker : workers) {
+			if (worker.hasFailed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Function to wait for a fresh status update from every worker
+	 * @return The total number of messages sent and received by the workers,
+	 * 			or null if any worker is busy or any message is still in transit
+	 */
+	private long[] awaitNextStatus() throws InterruptedException {
+		long[] sequences = new long[WORKER_COUNT];
+		for (int i = 0; i < WORKER_COUNT; i++) {
+			sequences[i] = workers[i].getStatusSequence();
+		}
+		for (int i = 0; i < WORKER_COUNT; i++) {
+			workers[i].awaitStatusAfter(sequences[i]);
+		}
+		
+		long sent = 0;
+		long received = 0;
+		boolean idle = true;
+		for (WorkerConnection worker : workers) {
+			synchronized (worker) {
+				idle &= worker.idle || worker.done;
+				sent += worker.sent;
+				received += worker.received;
+			}
+		}
+		
+		return (idle && sent == received)? new long[] {sent, received} : null;
+	}
+	
+	/**
+	 * The connection to a single worker, along with the latest status reported by that worker
+	 */
+	private class WorkerConnection {
+		private final int workerNumber;
+		private final Socket socket;
+		private final DataInputStream input;
+		private final DataOutputStream output;
+		private final String peerHost;
+		private final int peerPort;
+		
+		private long statusSequence;
+		private boolean idle;
+		private long sent;
+		private long received;
+		private boolean done;
+		private boolean failed;
+		
+		WorkerConnection(int workerNumber, Socket socket, DataInputStream input,
+								String peerHost, int peerPort) throws IOException {
+			this.workerNumber = workerNumber;
+			this.socket = socket;
+			this.input = input;
+			this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.peerHost = peerHost;
+			this.peerPort = peerPort;
+		}
+		
+		void readMessages() {
+			try {
+				while (true) {
+					byte messageType = input.readByte();
+					if (messageType == DistributedProtocol.RECORD) {
+						report.addRecord(DistributedProtocol.readRecord(input));
+						metrics.linkReported();
+					} else if (messageType == DistributedProtocol.STATUS) {
+						boolean workerIdle = input.readBoolean();
+						long workerSent = input.readLong();
+						long workerReceived = input.readLong();
+						synchronized (this) {
+							idle = workerIdle;
+							sent = workerSent;
+							received = workerReceived;
+							statusSequence++;
+							notifyAll();
+						}
+					} else if (messageType == DistributedProtocol.DONE) {
+						break;
+					} else if (messageType == DistributedProtocol.FAILED) {
+						logger.error("Worker " + workerNumber + " has failed: " + BinaryReportFormat.readString(input));
+						synchronized (this) {
+							failed = true;
+						}
+						break;
+					} else {
+						throw new IOException("Unexpected message type " + messageType);
+					}
+				}
+			} catch (IOException ex) {
+				logger.error("Lost connection to worker " + workerNumber + ": " + ex.getMessage(), ex);
+				synchronized (this) {
+					failed = true;
+				}
+			} finally {
+				synchronized (this) {
+					done = true;
+					notifyAll();
+				}
+				try {
+					socket.close();
+				} catch (IOException ex) {
+					logger.error(ex.getMessage(), ex);
+				}
+			}
+		}
+		
+		synchronized boolean hasFailed() {
+			return failed;
+		}
+		
+		synchronized long getStatusSequence() {
+			return statusSequence;
+		}
+		
+		synchronized void awaitStatusAfter(long sequence) throws InterruptedException {
+			while (statusSequence == sequence && !done) {
+				wait();
+			}
+		}
+		
+		synchronized void awaitDone() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+		
+		void stop() {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+			}
+			try {
+				synchronized (output) {
+					output.writeByte(DistributedProtocol.STOP);
+					output.flush();
+				}
+			} catch (IOException ex) {
+				logger.error("Unable to stop worker " + workerNumber + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+}
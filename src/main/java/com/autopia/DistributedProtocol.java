@@ -0,0 +1,95 @@
+package com.autopia;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.autopia.LinkStatus.Verification;
+
+/**
+ * Message types and encoding helpers for the TCP protocol between the {@link DistributedCoordinator}
+ * and the {@link DistributedWorker}s. Every message starts with a single byte identifying its type.
+ * <pre>
+ * HELLO   worker to coordinator: int worker number, string peer host, int peer port
+ * START   coordinator to worker: int worker count, then the peer host and port of every worker
+ * CRAWL   worker to worker:      string URL of a page owned by the receiving worker
+ * CHECK   worker to worker:      string referrer, string anchor, string URL of a link owned by the receiving worker,
+ *                                byte resource type
+ * RECORD  worker to coordinator: a {@link ReportRecord}
+ * STATUS  worker to coordinator: boolean idle, long messages sent to peers, long messages received from peers
+ * STOP    coordinator to worker: no content
+ * DONE    worker to coordinator: no content
+ * FAILED  worker to coordinator: string reason, sent instead of DONE if any message to or from a peer was lost
+ * </pre>
+ * @author vj
+ */
+final class DistributedProtocol {
+	
+	static final byte HELLO = 1;
+	static final byte START = 2;
+	static final byte CRAWL = 3;
+	static final byte CHECK = 4;
+	static final byte RECORD = 5;
+	static final byte STATUS = 6;
+	static final byte STOP = 7;
+	static final byte DONE = 8;
+	static final byte FAILED = 9;
+	
+	// To prevent external instantiation of this class
+	private DistributedProtocol() {
+	}
+	
+	/**
+	 * Function to get the worker which owns the given URL, by hashing its host
+	 * @param url The URL
+	 * @param workerCount The number of workers
+	 * @return The number of the owning worker, from 0 to workerCount - 1
+	 */
+	static int getOwner(String url, int workerCount) {
+		return Math.floorMod(HostScheduler.getHost(url).hashCode(), workerCount);
+	}
+	
+	/**
+	 * Function to write a report record
+	 * @param output The stream to write to
+	 * @param record The {@link ReportRecord} to be written
+	 * @throws IOException If the record could not be written
+	 */
+	static void writeRecord(DataOutputStream output, ReportRecord record) throws IOException {
+		LinkStatus linkStatus = record.getLinkStatus();
+		BinaryReportFormat.writeString(output, record.getReferrer());
+		BinaryReportFormat.writeString(output, record.getAnchor());
+		BinaryReportFormat.writeString(output, record.getUrl());
+		output.writeInt(linkStatus.getResponseCode());
+		BinaryReportFormat.writeString(output, linkStatus.getStatus());
+		output.writeByte((null == linkStatus.isSuccess())? -1 : (linkStatus.isSuccess()? 1 : 0));
+		output.writeByte((null == linkStatus.getVerification())? -1 : linkStatus.getVerification().ordinal());
+		BinaryReportFormat.writeString(output, (null == linkStatus.getRedirectChain())? "" : linkStatus.getRedirectChain());
+		output.writeByte(record.getResourceType().ordinal());
+		output.writeLong(linkStatus.getLatency());
+	}
+	
+	/**
+	 * Function to read a report record written by {@link #writeRecord(DataOutputStream, ReportRecord)}
+	 * @param input The stream to read from
+	 * @return The {@link ReportRecord}
+	 * @throws IOException If the record could not be read
+	 */
+	static ReportRecord readRecord(DataInputStream input) throws IOException {
+		String referrer = BinaryReportFormat.readString(input);
+		String anchor = BinaryReportFormat.readString(input);
+		String url = BinaryReportFormat.readString(input);
+		int responseCode = input.readInt();
+		String status = BinaryReportFormat.readString(input);
+		byte success = input.readByte();
+		byte verification = input.readByte();
+		String redirectChain = BinaryReportFormat.readString(input);
+		ResourceType resourceType = ResourceType.values()[input.readByte()];
+		long latency = input.readLong();
+		
+		LinkStatus linkStatus = new LinkStatus(responseCode, status, (success < 0)? null : Boolean.valueOf(success == 1),
+								null, null, (verification < 0)? null : Verification.values()[verification],
+								redirectChain.isEmpty()? null : redirectChain, latency);
+		return new ReportRecord(referrer, anchor, url, resourceType, linkStatus);
+	}
+}
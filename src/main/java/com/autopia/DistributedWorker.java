@@ -0,0 +1,468 @@
+package com.autopia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import edu.uci.ics.crawler4j.crawler.CrawlController;
+import edu.uci.ics.crawler4j.frontier.DocIDServer;
+import edu.uci.ics.crawler4j.url.URLCanonicalizer;
+import edu.uci.ics.crawler4j.url.WebURL;
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Worker side of the distributed crawl mode.
+ * URLs are partitioned across the workers by host (see {@link DistributedProtocol#getOwner(String, int)}).
+ * Each worker crawls only the pages of the hosts it owns, and checks only the links to the hosts it owns,
+ * so that the per-host scheduling limits hold across the whole cluster. Pages and links owned by another worker
+ * are forwarded to their owner, and link results are streamed to the coordinator, which writes the report.
+ * The worker periodically reports whether it is idle, along with its message counts, so that the coordinator
+ * can detect when the whole cluster has finished. If any message to or from a peer is lost, the worker reports itself
+ * as failed to the coordinator, which then stops the whole cluster, since the crawl is incomplete.
+ * This is a singleton class; it is inactive (and every URL is local) unless the tool is started as a worker.
+ * @author vj
+ */
+public class DistributedWorker {
+	
+	private static final Logger logger = LoggerFactory.getLogger(DistributedWorker.class);
+	
+	private static final String COORDINATOR_HOST = Settings.getString(Setting.DISTRIBUTED_COORDINATOR_HOST);
+	private static final int COORDINATOR_PORT = Settings.getInt(Setting.DISTRIBUTED_COORDINATOR_PORT);
+	private static final long STATUS_INTERVAL = Settings.getLong(Setting.DISTRIBUTED_STATUS_INTERVAL);
+	
+	private volatile boolean active;
+	private volatile boolean failed;
+	private int workerNumber;
+	private int workerCount;
+	private Socket coordinatorSocket;
+	private DataOutputStream coordinatorOutput;
+	private ServerSocket peerServerSocket;
+	private PeerConnection[] peers;
+	private CrawlController crawlController;
+	private BooleanSupplier crawlIdleCheck;
+	
+	private final Set<String> forwardedPages = ConcurrentHashMap.newKeySet();
+	private final AtomicLong sentMessages = new AtomicLong();
+	private final AtomicLong receivedMessages = new AtomicLong();
+	private final CountDownLatch stopLatch = new CountDownLatch(1);
+	private final ReentrantLock coordinatorLock = new ReentrantLock();
+	
+	private static final DistributedWorker DISTRIBUTED_WORKER = new DistributedWorker();
+	
+	// To prevent external instantiation of this class
+	private DistributedWorker() {
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link DistributedWorker} class
+	 * @return Instance of the {@link DistributedWorker} class
+	 */
+	public static DistributedWorker getInstance() {
+		return DISTRIBUTED_WORKER;
+	}
+	
+	/**
+	 * Function to check whether this process is running as a distributed worker
+	 * @return Boolean value indicating whether this process is a distributed worker
+	 */
+	public boolean isActive() {
+		return active;
+	}
+	
+	/**
+	 * Function to get the number of this worker
+	 * @return The worker number, from 0
+	 */
+	public int getWorkerNumber() {
+		return workerNumber;
+	}
+	
+	/**
+	 * Function to join the cluster: registers with the coordinator, and waits until all the workers have registered
+	 * @param workerNumber The number of this worker, from 0
+	 * @throws IOException If the coordinator could not be reached
+	 */
+	public void start(int workerNumber) throws IOException {
+		this.workerNumber = workerNumber;
+		
+		peerServerSocket = new ServerSocket(0);
+		coordinatorSocket = new Socket(COORDINATOR_HOST, COORDINATOR_PORT);
+		coordinatorSocket.setTcpNoDelay(true);
+		coordinatorOutput = new DataOutputStream(new BufferedOutputStream(coordinatorSocket.getOutputStream(), 65536));
+		DataInputStream coordinatorInput =
+					new DataInputStream(new BufferedInputStream(coordinatorSocket.getInputStream()));
+		
+		coordinatorLock.lock();
+		try {
+			coordinatorOutput.writeByte(DistributedProtocol.HELLO);
+			coordinatorOutput.writeInt(workerNumber);
+			BinaryReportFormat.writeString(coordinatorOutput, coordinatorSocket.getLocalAddress().getHostAddress());
+			coordinatorOutput.writeInt(peerServerSocket.getLocalPort());
+			coordinatorOutput.flush();
+		} finally {
+			coordinatorLock.unlock();
+		}
+		logger.info("Worker " + workerNumber + " registered with the coordinator at " +
+						COORDINATOR_HOST + ":" + COORDINATOR_PORT);
+		
+		if (coordinatorInput.readByte() != DistributedProtocol.START) {
+			throw new IOException("Unexpected message from the coordinator");
+		}
+		workerCount = coordinatorInput.readInt();
+		peers = new PeerConnection[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			peers[i] = new PeerConnection(BinaryReportFormat.readString(coordinatorInput), coordinatorInput.readInt());
+		}
+		active = true;
+		logger.info("Worker " + workerNumber + " of " + workerCount + " started");
+		
+		startDaemonThread("CoordinatorListener", () -> listenToCoordinator(coordinatorInput));
+	}
+	
+	/**
+	 * Function to provide the crawl controller of this worker, which receives the pages forwarded by other workers.
+	 * The messages from the other workers are read only from here on, so that no page arrives before the crawl controller;
+	 * until then, the peers which connect are queued by the server socket.
+	 * @param crawlController The {@link CrawlController}
+	 * @param crawlIdleCheck Function which indicates whether the crawler threads are idle
+	 */
+	public void setCrawlController(CrawlController crawlController, BooleanSupplier crawlIdleCheck) {
+		this.crawlController = crawlController;
+		this.crawlIdleCheck = crawlIdleCheck;
+		startDaemonThread("PeerListener", this::acceptPeers);
+		startDaemonThread("WorkerStatus", this::reportStatus);
+	}
+	
+	/**
+	 * Function to check whether this worker has failed, in which case the crawl of the cluster is incomplete
+	 * @return Boolean value indicating whether any message to or from a peer was lost
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+	
+	/**
+	 * Function to check whether the given URL is owned by this worker
+	 * @param url The URL
+	 * @return Boolean value indicating whether the URL is owned by this worker; always true if this process is not a worker
+	 */
+	public boolean isLocal(String url) {
+		return !active || DistributedProtocol.getOwner(url, workerCount) == workerNumber;
+	}
+	
+	/**
+	 * Function to forward a page to be crawled to the worker which owns it.
+	 * Each page is forwarded only once by each worker.
+	 * @param url The URL of the page
+	 */
+	public void forwardPage(String url) {
+		if (!forwardedPages.add(url)) {
+			return;
+		}
+		
+		PeerConnection peer = peers[DistributedProtocol.getOwner(url, workerCount)];
+		peer.send(output -> {
+			output.writeByte(DistributedProtocol.CRAWL);
+			BinaryReportFormat.writeString(output, url);
+		});
+	}
+	
+	/**
+	 * Function to forward a link to be checked to the worker which owns it
+	 * @param referrer The URL of the page on which the link was found
+	 * @param anchor The anchor text of the link
+	 * @param url The URL of the link
+	 * @param resourceType The {@link ResourceType} of the link
+	 */
+	public void forwardLink(String referrer, String anchor, String url, ResourceType resourceType) {
+		PeerConnection peer = peers[DistributedProtocol.getOwner(url, workerCount)];
+		peer.send(output -> {
+			output.writeByte(DistributedProtocol.CHECK);
+			BinaryReportFormat.writeString(output, referrer);
+			BinaryReportFormat.writeString(output, anchor);
+			BinaryReportFormat.writeString(output, url);
+			output.writeByte(resourceType.ordinal());
+		});
+	}
+	
+	/**
+	 * Function to send a report record to the coordinator
+	 * @param record The {@link ReportRecord}
+	 */
+	public void sendRecord(ReportRecord record) {
+		try {
+			coordinatorLock.lock();
+			try {
+				coordinatorOutput.writeByte(DistributedProtocol.RECORD);
+				DistributedProtocol.writeRecord(coordinatorOutput, record);
+			} finally {
+				coordinatorLock.unlock();
+			}
+		} catch (IOException ex) {
+			logger.error("Unable to send a report record to the coordinator: " + ex.getMessage(), ex);
+		}
+	}
+	
+	/**
+	 * Function to wait until the coordinator signals that the whole cluster has finished
+	 * @throws InterruptedException If the current thread is interrupted while waiting
+	 */
+	public void awaitStop() throws InterruptedException {
+		stopLatch.await();
+	}
+	
+	/**
+	 * Function to tell the coordinator that this worker has finished, and disconnect from the cluster.
+	 * A worker which has failed does not report itself as done, since the coordinator has already been told of the failure.
+	 */
+	public void finish() {
+		try {
+			coordinatorLock.lock();
+			try {
+				if (!failed) {
+					coordinatorOutput.writeByte(DistributedProtocol.DONE);
+					coordinatorOutput.flush();
+				}
+			} finally {
+				coordinatorLock.unlock();
+			}
+			coordinatorSocket.close();
+			peerServerSocket.close();
+			for (PeerConnection peer : peers) {
+				peer.close();
+			}
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+		
+		logger.info("Worker " + workerNumber + " finished: " + sentMessages.get() + " messages sent to peers, " +
+						receivedMessages.get() + " received");
+	}
+	
+	private void reportStatus() {
+		while (stopLatch.getCount() > 0) {
+			try {
+				// Read the counters before checking for idleness, so that any work which arrives in between
+				// makes this worker report itself as busy or changes the counters seen by the coordinator
+				long received = receivedMessages.get();
+				boolean idle = crawlIdleCheck.getAsBoolean() && LinkChecker.getInstance().getPendingLinkCount() == 0;
+				for (PeerConnection peer : peers) {
+					try {
+						peer.flush();
+					} catch (IOException ex) {
+						fail("Unable to send the buffered messages to the worker at " + peer.getAddress() + ": " +
+										ex.getMessage(), ex);
+						return;
+					}
+				}
+				long sent = sentMessages.get();
+				
+				coordinatorLock.lock();
+				try {
+					coordinatorOutput.writeByte(DistributedProtocol.STATUS);
+					coordinatorOutput.writeBoolean(idle);
+					coordinatorOutput.writeLong(sent);
+					coordinatorOutput.writeLong(received);
+					coordinatorOutput.flush();
+				} finally {
+					coordinatorLock.unlock();
+				}
+				
+				Thread.sleep(STATUS_INTERVAL);
+			} catch (IOException ex) {
+				logger.error("Lost connection to the coordinator: " + ex.getMessage(), ex);
+				stopLatch.countDown();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	private void listenToCoordinator(DataInputStream coordinatorInput) {
+		try {
+			if (coordinatorInput.readByte() == DistributedProtocol.STOP) {
+				logger.info("Worker " + workerNumber + " asked to stop by the coordinator");
+			}
+		} catch (IOException ex) {
+			logger.error("Lost connection to the coordinator: " + ex.getMessage(), ex);
+		} finally {
+			stopLatch.countDown();
+		}
+	}
+	
+	private void acceptPeers() {
+		while (!peerServerSocket.isClosed()) {
+			try {
+				Socket peerSocket = peerServerSocket.accept();
+				startDaemonThread("PeerReader", () -> readPeer(peerSocket));
+			} catch (IOException ex) {
+				if (!peerServerSocket.isClosed()) {
+					logger.error(ex.getMessage(), ex);
+				}
+			}
+		}
+	}
+	
+	private void readPeer(Socket peerSocket) {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(peerSocket.getInputStream(), 65536))) {
+			while (true) {
+				byte messageType = input.readByte();
+				if (messageType == DistributedProtocol.CRAWL) {
+					schedulePage(BinaryReportFormat.readString(input));
+				} else if (messageType == DistributedProtocol.CHECK) {
+					String referrer = BinaryReportFormat.readString(input);
+					String anchor = BinaryReportFormat.readString(input);
+					String url = BinaryReportFormat.readString(input);
+					ResourceType resourceType = ResourceType.values()[input.readByte()];
+					LinkChecker.getInstance().checkLink(referrer, anchor, url, resourceType);
+				} else {
+					throw new IOException("Unexpected message type " + messageType + " from a peer");
+				}
+				receivedMessages.incrementAndGet();
+			}
+		} catch (EOFException ex) {
+			// The peer has disconnected
+		} catch (IOException ex) {
+			if (stopLatch.getCount() > 0) {
+				fail("Lost connection to a peer: " + ex.getMessage(), ex);
+			}
+		} catch (RuntimeException ex) {
+			fail("Unable to process a message from a peer: " + ex.getMessage(), ex);
+		}
+	}
+	
+	/**
+	 * Marks this worker as failed, tells the coordinator (which then stops the whole cluster), and stops this worker.
+	 * The coordinator is told only once, however many messages are lost.
+	 */
+	private void fail(String reason, Exception ex) {
+		logger.error(reason, ex);
+		coordinatorLock.lock();
+		try {
+			if (failed) {
+				return;
+			}
+			failed = true;
+			coordinatorOutput.writeByte(DistributedProtocol.FAILED);
+			BinaryReportFormat.writeString(coordinatorOutput, reason);
+			coordinatorOutput.flush();
+		} catch (IOException coordinatorEx) {
+			// The coordinator detects the lost connection by itself
+			logger.error("Unable to report the failure to the coordinator: " + coordinatorEx.getMessage(), coordinatorEx);
+		} finally {
+			coordinatorLock.unlock();
+			stopLatch.countDown();
+		}
+	}
+	
+	private synchronized void schedulePage(String url) {
+		String canonicalUrl = URLCanonicalizer.getCanonicalURL(url);
+		DocIDServer docIdServer = crawlController.getDocIdServer();
+		if (null == canonicalUrl || docIdServer.getDocId(canonicalUrl) > 0) {
+			return;	// Already crawled or scheduled
+		}
+			
+		WebURL webUrl = new WebURL();
+		webUrl.setURL(canonicalUrl);
+		if (!crawlController.getRobotstxtServer().allows(webUrl)) {
+			return;
+		}
+		webUrl.setDocid(docIdServer.getNewDocID(canonicalUrl));
+		
+		// Unlike CrawlController.addSeed, scheduling a list wakes up any crawler threads which are waiting for new URLs
+		crawlController.getFrontier().scheduleAll(Collections.singletonList(webUrl));
+	}
+	
+	private static void startDaemonThread(String name, Runnable task) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * A message to be written to a peer
+	 */
+	private interface PeerMessage {
+		void writeTo(DataOutputStream output) throws IOException;
+	}
+	
+	/**
+	 * The outbound connection to another worker, which is opened the first time a message is sent to it.
+	 * Messages are buffered, and flushed whenever the worker reports its status.
+	 */
+	private class PeerConnection {
+		private final String host;
+		private final int port;
+		private final ReentrantLock lock = new ReentrantLock();
+		private Socket socket;
+		private DataOutputStream output;
+		
+		PeerConnection(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+		
+		String getAddress() {
+			return host + ":" + port;
+		}
+		
+		void send(PeerMessage message) {
+			IOException sendException = null;
+			lock.lock();
+			try {
+				if (null == output) {
+					socket = new Socket(host, port);
+					output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+				}
+				message.writeTo(output);
+				sentMessages.incrementAndGet();
+			} catch (IOException ex) {
+				sendException = ex;
+			} finally {
+				lock.unlock();
+			}
+			
+			// Reported outside the lock of this connection, since the coordinator connection has its own lock
+			if (sendException != null) {
+				fail("Unable to send a message to the worker at " + getAddress() + ": " + sendException.getMessage(),
+								sendException);
+			}
+		}
+		
+		void flush() throws IOException {
+			lock.lock();
+			try {
+				if (output != null) {
+					output.flush();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		void close() throws IOException {
+			lock.lock();
+			try {
+				if (socket != null) {
+					socket.close();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -1,12 +1,24 @@
 package com.autopia;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.activation.DataHandler;
-import javax.activation.DataSource;
 import javax.activation.FileDataSource;
-import javax.mail.BodyPart;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
@@ -21,7 +33,10 @@ import uk.org.lidalia.slf4jext.Logger;
 import uk.org.lidalia.slf4jext.LoggerFactory;
 
 /**
- * Class to manage email message sending
+ * Class to manage email message sending.
+ * The attachments are streamed from their files while the message is being sent, rather than being held in memory,
+ * and may be compressed into a single zip archive beforehand. If the attachments exceed the configured size limit,
+ * a fallback attachment (such as a summary) is sent in their place, so that the mail is not rejected by the SMTP server.
  * @author vj
  */
 public class EmailManager {
@@ -31,9 +46,14 @@ public class EmailManager {
 	private String username;
 	private String password;
 	
+	private Boolean compressAttachments = false;
+	private long maxAttachmentSize;
+	private Supplier<File> fallbackAttachment;
+	
 	private Properties properties;
 	private MimeMessage message;
-	private Multipart multipart;
+	private String body;
+	private List<File> attachments = new ArrayList<>();
 	
 	/**
 	 * Default constructor for the {@link EmailManager} class.
@@ -55,7 +75,6 @@ public class EmailManager {
 		
 		Session session = Session.getInstance(properties);
 		message = new MimeMessage(session);
-		multipart = new MimeMultipart();
 	}
 	
 	/**
@@ -68,6 +87,30 @@ public class EmailManager {
 		logger.info("SSL enable set to " + sslEnable);
 	}
 	
+	/**
+	 * Function to enable or disable the compression of the attachments into a single zip archive
+	 * @param compressAttachments Boolean value which enables or disables the compression of the attachments
+	 */
+	public void setCompressAttachments(Boolean compressAttachments) {
+		this.compressAttachments = compressAttachments;
+		
+		logger.info("Attachment compression set to " + compressAttachments);
+	}
+	
+	/**
+	 * Function to limit the size of the mail, as measured after compressing the attachments and encoding them as base64
+	 * (which is how they are sent, and how the limits of mail servers are applied)
+	 * @param maxAttachmentSize The maximum size of the encoded attachments and body in bytes, or 0 for no limit
+	 * @param fallbackAttachment The function which creates the file to be attached in place of the attachments
+	 * 							if these exceed the limit; the function may return null to send no attachment at all
+	 */
+	public void setMaxAttachmentSize(long maxAttachmentSize, Supplier<File> fallbackAttachment) {
+		this.maxAttachmentSize = maxAttachmentSize;
+		this.fallbackAttachment = fallbackAttachment;
+		
+		logger.info("Maximum attachment size set to " + maxAttachmentSize + " bytes");
+	}
+	
 	/**
 	 * Function to set the authentication required while sending email
 	 * @param username The username to be used while sending email
@@ -95,7 +138,7 @@ public class EmailManager {
 			message.setFrom(new InternetAddress(from));
 			message.addRecipient(RecipientType.TO, new InternetAddress(to));
 			message.setSubject(subject);
-			message.setText(body);
+			this.body = body;	// Sent as the first part of the message, along with the attachments
 			
 			logger.info("Mail composed successfully");
 		} catch (MessagingException ex) {
@@ -108,19 +151,10 @@ public class EmailManager {
 	 * @param filePath The absolute path of the file to be attached
 	 */
 	public void addAttachment(String filePath) {
-		try {
-			DataSource dataSource = new FileDataSource(filePath);
-			String fileName = new File(filePath).getName();
-			
-			BodyPart attachment = new MimeBodyPart();
-			attachment.setDataHandler(new DataHandler(dataSource));
-			attachment.setFileName(fileName);
-			multipart.addBodyPart(attachment);
-			
-			logger.info("Mail attachment " + fileName + " added successfully");
-		} catch(MessagingException ex) {
-			logger.error(ex.getMessage(), ex);
-		}
+		File file = new File(filePath);
+		attachments.add(file);
+		
+		logger.info("Mail attachment " + file.getName() + " added successfully");
 	}
 	
 	/**
@@ -135,7 +169,37 @@ public class EmailManager {
 	 * Function to send the mail
 	 */
 	public void sendMail() {
+		File archive = null;
 		try {
+			List<File> files = attachments;
+			if(compressAttachments && !attachments.isEmpty()) {
+				archive = compress(attachments);
+				if(archive != null) {
+					files = Collections.singletonList(archive);
+				}
+			}
+			
+			String text = (null == body)? "" : body;
+			long attachmentSize = getTotalSize(files);
+			long mailSize = getEncodedSize(files) + text.getBytes(StandardCharsets.UTF_8).length;
+			if(maxAttachmentSize > 0 && mailSize > maxAttachmentSize && fallbackAttachment != null) {
+				logger.warn("The mail attachments (" + formatSize(attachmentSize) + ", or " + formatSize(mailSize) +
+								" once encoded) exceed the limit of " + formatSize(maxAttachmentSize) +
+								" - sending the fallback attachment instead");
+				File fallbackFile = fallbackAttachment.get();
+				files = (null == fallbackFile)? Collections.<File>emptyList() : Collections.singletonList(fallbackFile);
+				text += System.lineSeparator() + System.lineSeparator() + "The attachments (" + formatSize(mailSize) +
+								" once encoded) exceed the limit of " + formatSize(maxAttachmentSize) + ", so " +
+								((null == fallbackFile)? "they have not been attached." : "a summary has been attached in their place.");
+			}
+			
+			Multipart multipart = new MimeMultipart();
+			MimeBodyPart textPart = new MimeBodyPart();
+			textPart.setText(text);
+			multipart.addBodyPart(textPart);
+			for (File file : files) {
+				multipart.addBodyPart(createAttachmentPart(file, (file == archive)? getArchiveName() : file.getName()));
+			}
 			message.setContent(multipart);
 			
 			if(authRequired) {
@@ -147,6 +211,92 @@ public class EmailManager {
 			logger.info("Mail sent successfully");
 		} catch (MessagingException ex) {
 			logger.error(ex.getMessage(), ex);
+		} finally {
+			if(archive != null && !archive.delete()) {
+				archive.deleteOnExit();
+			}
+		}
+	}
+	
+	private static MimeBodyPart createAttachmentPart(File file, String fileName) throws MessagingException {
+		MimeBodyPart attachment = new MimeBodyPart();
+		attachment.setDataHandler(new DataHandler(new FileDataSource(file)));
+		attachment.setFileName(fileName);
+		// Otherwise JavaMail reads through the whole file once before sending it, to choose the encoding
+		attachment.setHeader("Content-Transfer-Encoding", "base64");
+		return attachment;
+	}
+	
+	private String getArchiveName() {
+		// Named after the folder of the first attachment, which is the report (or batch) folder
+		File folder = attachments.get(0).getAbsoluteFile().getParentFile();
+		return ((null == folder)? "Attachments" : folder.getName()) + ".zip";
+	}
+	
+	private File compress(List<File> files) {
+		File folder = files.get(0).getAbsoluteFile().getParentFile();
+		File archive = null;
+		try {
+			archive = File.createTempFile("weaklinks-", ".zip");
+			try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(archive))) {
+				Set<String> entryNames = new HashSet<>();
+				byte[] buffer = new byte[65536];
+				for (File file : files) {
+					// Files within other folders (such as the reports of the sites of a batch) keep their folder name
+					File fileFolder = file.getAbsoluteFile().getParentFile();
+					String entryName = (fileFolder.equals(folder))?
+										file.getName() : fileFolder.getName() + "/" + file.getName();
+					if(!entryNames.add(entryName)) {
+						logger.warn("Skipping the duplicate mail attachment " + entryName);
+						continue;
+					}
+					
+					zipStream.putNextEntry(new ZipEntry(entryName));
+					try (InputStream fileStream = new FileInputStream(file)) {
+						int bytesRead;
+						while ((bytesRead = fileStream.read(buffer)) != -1) {
+							zipStream.write(buffer, 0, bytesRead);
+						}
+					}
+					zipStream.closeEntry();
+				}
+			}
+			
+			logger.info("Mail attachments compressed from " + formatSize(getTotalSize(files)) + " to " +
+							formatSize(archive.length()));
+			return archive;
+		} catch (IOException ex) {
+			logger.error("Error while compressing the mail attachments, which are sent uncompressed: " +
+							ex.getMessage(), ex);
+			if(archive != null) {
+				archive.delete();
+			}
+			return null;
+		}
+	}
+	
+	private static long getTotalSize(List<File> files) {
+		long totalSize = 0;
+		for (File file : files) {
+			totalSize += file.length();
+		}
+		return totalSize;
+	}
+	
+	private static long getEncodedSize(List<File> files) {
+		long encodedSize = 0;
+		for (File file : files) {
+			// Base64 encodes every 3 bytes as 4 characters, within lines of 76 characters each ending with CRLF
+			long base64Size = (file.length() + 2) / 3 * 4;
+			encodedSize += base64Size + (base64Size + 75) / 76 * 2;
+		}
+		return encodedSize;
+	}
+	
+	private static String formatSize(long bytes) {
+		if(bytes < 1048576) {
+			return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
 		}
+		return String.format(Locale.ROOT, "%.1f MB", bytes / 1048576.0);
 	}
 }
\ No newline at end of file
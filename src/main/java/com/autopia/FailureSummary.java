@@ -0,0 +1,166 @@
+package com.autopia;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Summary of the failed links within one or more reports: the number of failed links per status,
+ * and the broken URLs with the most referring links.
+ * The summary is mailed in place of the reports when these are too large to be attached (see {@link EmailManager}).
+ * The reports are read a line (or a binary block) at a time, so that only the counts per broken URL are held in memory.
+ * @author vj
+ */
+public class FailureSummary {
+	
+	private static final Logger logger = LoggerFactory.getLogger(FailureSummary.class);
+	
+	private final Map<String, BrokenUrl> brokenUrls = new HashMap<>();
+	private final Map<String, Long> statusCounts = new TreeMap<>();
+	private long failedLinks;
+	
+	/**
+	 * Function to summarize the failed links within the given report files.
+	 * The CSV failure report is read wherever present, and the binary report is read for the reports without one;
+	 * any other files are ignored.
+	 * @param reportFiles The report files, such as those returned by {@link Report#getReportFiles()}
+	 * @return The {@link FailureSummary}
+	 * @throws IOException If any of the reports could not be read
+	 */
+	public static FailureSummary fromReportFiles(List<File> reportFiles) throws IOException {
+		FailureSummary failureSummary = new FailureSummary();
+		Set<File> foldersWithCsvReport = new HashSet<>();
+		for (File reportFile : reportFiles) {
+			if (Report.FAILURE_REPORT_FILE_NAME.equals(reportFile.getName())) {
+				failureSummary.addCsvReport(reportFile);
+				foldersWithCsvReport.add(reportFile.getAbsoluteFile().getParentFile());
+			}
+		}
+		for (File reportFile : reportFiles) {
+			if (Report.BINARY_REPORT_FILE_NAME.equals(reportFile.getName()) &&
+								!foldersWithCsvReport.contains(reportFile.getAbsoluteFile().getParentFile())) {
+				failureSummary.addBinaryReport(reportFile);
+			}
+		}
+		return failureSummary;
+	}
+	
+	private void addCsvReport(File failureFile) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new FileReader(failureFile))) {	// As written by the Report
+			String header = reader.readLine();
+			if (null == header) {
+				return;
+			}
+			// The verification column is only present in incremental mode, so the columns are located by name
+			List<String> columns = Util.parseCsvLine(header);
+			int urlColumn = columns.indexOf("FinalURL");
+			int responseCodeColumn = columns.indexOf("ResponseCode");
+			int statusColumn = columns.indexOf("Status");
+			
+			String line;
+			while ((line = reader.readLine()) != null) {
+				List<String> fields = Util.parseCsvLine(line);
+				if (fields.size() < columns.size()) {
+					continue;	// A partially written line, if the run was interrupted
+				}
+				add(fields.get(urlColumn), fields.get(responseCodeColumn), fields.get(statusColumn));
+			}
+		}
+	}
+	
+	private void addBinaryReport(File binaryReportFile) throws IOException {
+		new BinaryReportReader(binaryReportFile).read(record -> {
+			if (!record.isSuccess()) {
+				add(record.getUrl(), String.valueOf(record.getLinkStatus().getResponseCode()),
+												record.getLinkStatus().getStatus());
+			}
+		});
+	}
+	
+	private void add(String url, String responseCode, String status) {
+		failedLinks++;
+		statusCounts.merge(responseCode + " " + status, 1L, Long::sum);
+		brokenUrls.computeIfAbsent(url, key -> new BrokenUrl(responseCode, status)).referringLinks++;
+	}
+	
+	/**
+	 * Function to get the number of failed links within the reports
+	 * @return The number of failed links
+	 */
+	public long getFailedLinks() {
+		return failedLinks;
+	}
+	
+	/**
+	 * Function to write the summary as a text file
+	 * @param summaryFile The file to which the summary is to be written
+	 * @param topBrokenUrls The number of broken URLs to be listed, starting with the one with the most referring links
+	 * @throws IOException If the summary file could not be written
+	 */
+	public void write(File summaryFile, int topBrokenUrls) throws IOException {
+		try (PrintWriter writer = new PrintWriter(summaryFile)) {
+			writer.println("Failed links: " + failedLinks + ", broken URLs: " + brokenUrls.size());
+			writer.println();
+			
+			writer.println("Failed links by status:");
+			for (Map.Entry<String, Long> statusCount : statusCounts.entrySet()) {
+				writer.println(statusCount.getValue() + "\t" + statusCount.getKey());
+			}
+			writer.println();
+			
+			List<Map.Entry<String, BrokenUrl>> topEntries = getTopBrokenUrls(topBrokenUrls);
+			writer.println("Top " + topEntries.size() + " broken URLs by referring links:");
+			for (Map.Entry<String, BrokenUrl> entry : topEntries) {
+				BrokenUrl brokenUrl = entry.getValue();
+				writer.println(brokenUrl.referringLinks + "\t" + brokenUrl.responseCode + " " + brokenUrl.status +
+												"\t" + entry.getKey());
+			}
+		}
+		logger.info("Failure summary written successfully");
+	}
+	
+	private List<Map.Entry<String, BrokenUrl>> getTopBrokenUrls(int count) {
+		Comparator<Map.Entry<String, BrokenUrl>> byReferringLinks =
+							Comparator.comparingLong(entry -> entry.getValue().referringLinks);
+		// A bounded min-heap, so that only the top entries are held while the broken URLs are scanned
+		PriorityQueue<Map.Entry<String, BrokenUrl>> topEntries = new PriorityQueue<>(count + 1, byReferringLinks);
+		for (Map.Entry<String, BrokenUrl> entry : brokenUrls.entrySet()) {
+			topEntries.add(entry);
+			if (topEntries.size() > count) {
+				topEntries.poll();
+			}
+		}
+		
+		List<Map.Entry<String, BrokenUrl>> sortedEntries = new ArrayList<>(topEntries);
+		sortedEntries.sort(byReferringLinks.reversed().thenComparing(Map.Entry::getKey));
+		return sortedEntries;
+	}
+	
+	/**
+	 * The status of a broken URL, along with the number of links to it
+	 */
+	private static class BrokenUrl {
+		private final String responseCode;
+		private final String status;
+		private long referringLinks;
+		
+		BrokenUrl(String responseCode, String status) {
+			this.responseCode = responseCode;
+			this.status = status;
+		}
+	}
+}
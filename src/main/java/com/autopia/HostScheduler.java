@@ -0,0 +1,419 @@
+package com.autopia;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.client.utils.DateUtils;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Per-host scheduler for outbound link checks.
+ * Each host gets its own queue, a limit on the number of simultaneous requests and a token bucket which limits the
+ * request rate. Hosts which respond with 429 (Too Many Requests) or 503 (Service Unavailable) are paused for the
+ * duration of their Retry-After header (or an exponential back-off), and their concurrency is halved until they recover.
+ * Links which fail are retried after a jittered, exponential delay as per the {@link RetryPolicy}, without pausing the host.
+ * Each host also has a circuit breaker: once a host fails to respond LinkCheckCircuitBreakerThreshold times in a row,
+ * its links are reported with the status Host unreachable without connecting to it. Once LinkCheckCircuitBreakerOpenTime
+ * has passed, a single link is checked against the host, and its remaining links are checked normally only if it succeeds.
+ * Links which fail while the circuit is open (including the single link) are also reported with the status Host unreachable.
+ * Links which could not be requested at all, such as those with a malformed URL, are not held against their host.
+ * Queued links never occupy a link checking thread while they wait, so other hosts continue at full speed.
+ * The per-host limits are read as each task is dispatched, so that they can be changed while the tool is running.
+ * The host queues are guarded by {@link ReentrantLock}s rather than monitors, so that virtual threads which contend
+ * for them are unmounted from their carrier threads instead of pinning them.
+ * @author vj
+ */
+public class HostScheduler {
+	
+	private static final Logger logger = LoggerFactory.getLogger(HostScheduler.class);
+	
+	private static final long INITIAL_BACKOFF = 1000;
+	private static final LinkStatus HOST_UNREACHABLE = new LinkStatus(0, "Host unreachable", false);
+	
+	private final Executor executor;
+	private final RetryPolicy retryPolicy = new RetryPolicy();
+	private final ScheduledExecutorService timer;
+	private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor for the {@link HostScheduler} class
+	 * @param executor The {@link Executor} on which the scheduled tasks are to be run
+	 */
+	public HostScheduler(Executor executor) {
+		this.executor = executor;
+		this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "HostScheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// The hosts which were held back by the previous limits are dispatched again under the new limits
+		Settings.addReloadListener(() -> hostQueues.values().forEach(HostQueue::dispatch));
+	}
+	
+	/**
+	 * Function to get the host name of the given URL, which identifies the queue used for the URL
+	 * @param url The URL
+	 * @return The lower cased host name, or an empty string if the URL is malformed
+	 */
+	public static String getHost(String url) {
+		try {
+			return new URL(url).getHost().toLowerCase(Locale.ROOT);
+		} catch (Exception ex) {
+			return "";
+		}
+	}
+	
+	/**
+	 * Function to queue a task against the given host.
+	 * The task is run once the host has spare capacity; if it throws a {@link HostThrottledException},
+	 * or its result is to be retried as per the {@link RetryPolicy}, it is queued again until the configured
+	 * number of retries is exhausted.
+	 * @param host The host against which the task is to be run
+	 * @param task The task to be run, which returns null if the host could not be connected to
+	 * @return The pending result of the task, which is Host unreachable if the host could not be connected to
+	 */
+	public CompletableFuture<LinkStatus> submit(String host, Callable<LinkStatus> task) {
+		HostQueue hostQueue = hostQueues.computeIfAbsent(host, HostQueue::new);
+		CompletableFuture<LinkStatus> result = new CompletableFuture<>();
+		hostQueue.add(new ScheduledTask(task, result));
+		hostQueue.dispatch();
+		return result;
+	}
+	
+	/**
+	 * Function to record the response code returned by a host, so that the scheduler can adapt to it
+	 * @param host The host which returned the response
+	 * @param responseCode The HTTP response code
+	 * @param retryAfter The value of the Retry-After response header, or null if absent
+	 * @return Boolean value indicating whether the host asked us to slow down
+	 */
+	public boolean recordResponse(String host, int responseCode, String retryAfter) {
+		HostQueue hostQueue = hostQueues.computeIfAbsent(host, HostQueue::new);
+		
+		if (responseCode == 429 || responseCode == 503) {
+			long backoff = hostQueue.throttled(parseRetryAfter(retryAfter));
+			logger.warn("Host " + host + " responded with " + responseCode + ", backing off for " + backoff + " ms");
+			return true;
+		}
+		
+		hostQueue.recovered();
+		return false;
+	}
+	
+	/**
+	 * Function to get the number of tasks waiting within all the host queues
+	 * @return The number of queued tasks
+	 */
+	public int getQueuedTaskCount() {
+		int queuedTasks = 0;
+		for (HostQueue hostQueue : hostQueues.values()) {
+			queuedTasks += hostQueue.size();
+		}
+		return queuedTasks;
+	}
+	
+	/**
+	 * Function to stop the scheduler's timer thread
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+	
+	private static long parseRetryAfter(String retryAfter) {
+		if (null == retryAfter) {
+			return -1;
+		}
+		
+		try {
+			return Long.parseLong(retryAfter.trim()) * 1000;
+		} catch (NumberFormatException ex) {
+			Date retryDate = DateUtils.parseDate(retryAfter.trim());
+			return (null == retryDate)? -1 : Math.max(0, retryDate.getTime() - System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * A task waiting to be run against a host, along with its pending result
+	 */
+	private static class ScheduledTask {
+		private final Callable<LinkStatus> task;
+		private final CompletableFuture<LinkStatus> result;
+		private int attempts;
+		private int retries;
+		private boolean trial;
+		
+		ScheduledTask(Callable<LinkStatus> task, CompletableFuture<LinkStatus> result) {
+			this.task = task;
+			this.result = result;
+		}
+	}
+	
+	/**
+	 * The queue, concurrency limit, token bucket, back-off and circuit breaker state of a single host
+	 */
+	private class HostQueue {
+		private final String host;
+		private final ArrayDeque<ScheduledTask> pendingTasks = new ArrayDeque<>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private int inFlight;
+		private int concurrencyLimit = Settings.getInt(Setting.LINK_CHECK_MAX_REQUESTS_PER_HOST);
+		private double tokens = getBucketCapacity(Settings.getDouble(Setting.LINK_CHECK_REQUESTS_PER_SECOND_PER_HOST));
+		private long lastRefillTime = System.nanoTime();
+		private long pausedUntil = System.nanoTime();
+		private long backoff;
+		private boolean wakeUpScheduled;
+		private int consecutiveFailures;
+		private boolean circuitOpen;
+		private long circuitOpenUntil;
+		private boolean trialInFlight;
+		
+		HostQueue(String host) {
+			this.host = host;
+		}
+		
+		void add(ScheduledTask scheduledTask) {
+			lock.lock();
+			try {
+				pendingTasks.addLast(scheduledTask);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		int size() {
+			lock.lock();
+			try {
+				return pendingTasks.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		void dispatch() {
+			List<ScheduledTask> readyTasks = new ArrayList<>();
+			List<ScheduledTask> shortCircuitedTasks = new ArrayList<>();
+			
+			lock.lock();
+			try {
+				long now = System.nanoTime();
+				double requestsPerSecond = Settings.getDouble(Setting.LINK_CHECK_REQUESTS_PER_SECOND_PER_HOST);
+				refillTokens(now, requestsPerSecond);
+				
+				// The limit may have been lowered since the host was throttled
+				int limit = Math.min(concurrencyLimit, Settings.getInt(Setting.LINK_CHECK_MAX_REQUESTS_PER_HOST));
+				while (!pendingTasks.isEmpty() && inFlight < limit) {
+					if (circuitOpen) {
+						if (now - circuitOpenUntil < 0) {
+							shortCircuitedTasks.addAll(pendingTasks);
+							pendingTasks.clear();
+							break;
+						}
+						if (trialInFlight) {
+							break;	// The remaining links wait for the outcome of the trial link
+						}
+					}
+					if (now - pausedUntil < 0) {
+						scheduleWakeUp(pausedUntil - now);
+						break;
+					}
+					if (requestsPerSecond > 0) {
+						if (tokens < 1) {
+							scheduleWakeUp((long) ((1 - tokens) / requestsPerSecond * 1e9));
+							break;
+						}
+						tokens--;
+					}
+					
+					ScheduledTask readyTask = pendingTasks.pollFirst();
+					if (circuitOpen) {
+						readyTask.trial = true;
+						trialInFlight = true;
+					}
+					inFlight++;
+					readyTasks.add(readyTask);
+				}
+			} finally {
+				lock.unlock();
+			}
+			
+			for (ScheduledTask shortCircuitedTask : shortCircuitedTasks) {
+				shortCircuitedTask.result.complete(HOST_UNREACHABLE);
+			}
+			for (ScheduledTask readyTask : readyTasks) {
+				executor.execute(() -> run(readyTask));
+			}
+		}
+		
+		private void run(ScheduledTask scheduledTask) {
+			try {
+				LinkStatus linkStatus = scheduledTask.task.call();
+				Boolean reachable = LinkProber.isRequestFailure(linkStatus)? null :
+											(linkStatus != null && linkStatus.getResponseCode() != 0);
+				boolean shortCircuited = recordOutcome(scheduledTask, reachable);
+				
+				if (shortCircuited && Boolean.FALSE.equals(reachable)) {
+					scheduledTask.result.complete(HOST_UNREACHABLE);
+				} else if (!shortCircuited && retryPolicy.isRetryable(linkStatus, scheduledTask.retries)) {
+					long delay = retryPolicy.getDelay(++scheduledTask.retries);
+					logger.debug("Link check against host " + host + " failed with status " +
+									((null == linkStatus)? "Host unreachable" : linkStatus.getStatus()) +
+									", retrying in " + delay + " ms (retry " + scheduledTask.retries + ")");
+					timer.schedule(() -> {
+						add(scheduledTask);
+						dispatch();
+					}, delay, TimeUnit.MILLISECONDS);
+				} else {
+					scheduledTask.result.complete((null == linkStatus)? HOST_UNREACHABLE : linkStatus);
+				}
+			} catch (HostThrottledException ex) {
+				recordOutcome(scheduledTask, true);	// A host which asks us to slow down is reachable
+				int maxThrottleRetries = Settings.getInt(Setting.LINK_CHECK_MAX_THROTTLE_RETRIES);
+				if (++scheduledTask.attempts <= maxThrottleRetries) {
+					lock.lock();
+					try {
+						pendingTasks.addFirst(scheduledTask);
+					} finally {
+						lock.unlock();
+					}
+				} else {
+					logger.warn(ex.getMessage() + " - giving up after " + maxThrottleRetries + " retries");
+					scheduledTask.result.complete(ex.getLinkStatus());
+				}
+			} catch (Throwable ex) {
+				recordOutcome(scheduledTask, false);
+				scheduledTask.result.completeExceptionally(ex);
+			} finally {
+				lock.lock();
+				try {
+					inFlight--;
+				} finally {
+					lock.unlock();
+				}
+				dispatch();
+			}
+		}
+		
+		/**
+		 * Function to update the circuit breaker with the outcome of a task
+		 * @param scheduledTask The task which has completed
+		 * @param reachable Boolean value indicating whether the host responded to the task,
+		 * 					or null if the task could not tell (such as for a link with a malformed URL)
+		 * @return Boolean value indicating whether the circuit is open, so that the host's links are not to be retried
+		 */
+		private boolean recordOutcome(ScheduledTask scheduledTask, Boolean reachable) {
+			lock.lock();
+			try {
+				if (null == reachable) {
+					if (scheduledTask.trial) {
+						// Another link is checked against the host in its place
+						scheduledTask.trial = false;
+						trialInFlight = false;
+					}
+				} else if (scheduledTask.trial) {
+					scheduledTask.trial = false;
+					trialInFlight = false;
+					if (reachable) {
+						circuitOpen = false;
+						consecutiveFailures = 0;
+						logger.info("Host " + host + " is reachable again, so its links are checked normally");
+					} else {
+						openCircuit();
+						logger.warn("Host " + host + " is still unreachable");
+					}
+				} else if (reachable) {
+					consecutiveFailures = 0;
+				} else {
+					int threshold = Settings.getInt(Setting.LINK_CHECK_CIRCUIT_BREAKER_THRESHOLD);
+					if (!circuitOpen && threshold > 0 && ++consecutiveFailures >= threshold) {
+						openCircuit();
+						logger.warn("Host " + host + " failed " + consecutiveFailures + " times in a row, " +
+									"so its links are reported as unreachable without connecting to it");
+					}
+				}
+				return circuitOpen;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void openCircuit() {
+			circuitOpen = true;
+			circuitOpenUntil = System.nanoTime() +
+					TimeUnit.MILLISECONDS.toNanos(Settings.getLong(Setting.LINK_CHECK_CIRCUIT_BREAKER_OPEN_TIME));
+		}
+		
+		long throttled(long retryAfter) {
+			long maxBackoff = Settings.getLong(Setting.LINK_CHECK_MAX_BACKOFF);
+			lock.lock();
+			try {
+				backoff = (backoff == 0)? INITIAL_BACKOFF : Math.min(backoff * 2, maxBackoff);
+				long delay = (retryAfter >= 0)? Math.min(retryAfter, maxBackoff) : backoff;
+				
+				pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+				concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+				return delay;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		void recovered() {
+			lock.lock();
+			try {
+				backoff = 0;
+				if (concurrencyLimit < Settings.getInt(Setting.LINK_CHECK_MAX_REQUESTS_PER_HOST)) {
+					concurrencyLimit++;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void refillTokens(long now, double requestsPerSecond) {
+			if (requestsPerSecond > 0) {
+				tokens = Math.min(getBucketCapacity(requestsPerSecond),
+							tokens + (now - lastRefillTime) / 1e9 * requestsPerSecond);
+			}
+			lastRefillTime = now;
+		}
+		
+		private double getBucketCapacity(double requestsPerSecond) {
+			// Allow bursts of up to one second's worth of requests
+			return Math.max(1, requestsPerSecond);
+		}
+		
+		private void scheduleWakeUp(long delayNanos) {
+			if (wakeUpScheduled) {
+				return;
+			}
+			
+			wakeUpScheduled = true;
+			timer.schedule(() -> {
+				lock.lock();
+				try {
+					wakeUpScheduled = false;
+				} finally {
+					lock.unlock();
+				}
+				dispatch();
+			}, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+			
+			logger.debug("Host " + host + " queue paused for " + TimeUnit.NANOSECONDS.toMillis(delayNanos) + " ms");
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.autopia;
+
+/**
+ * Exception thrown when a host asks us to slow down (HTTP 429 or 503) while one of its links is being checked.
+ * The {@link HostScheduler} catches this exception and checks the link again once the host's back-off period has expired.
+ * @author vj
+ */
+public class HostThrottledException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final LinkStatus linkStatus;
+	
+	/**
+	 * Constructor for the {@link HostThrottledException} class
+	 * @param url The URL of the link which was being checked
+	 * @param linkStatus The status to be reported for the link if it cannot be checked again
+	 */
+	public HostThrottledException(String url, LinkStatus linkStatus) {
+		super("Host throttled the request for " + url + " with response code " + linkStatus.getResponseCode());
+		this.linkStatus = linkStatus;
+	}
+	
+	/**
+	 * Function to get the status to be reported for the link if it cannot be checked again
+	 * @return The status of the link as returned by the throttling host
+	 */
+	public LinkStatus getLinkStatus() {
+		return linkStatus;
+	}
+}
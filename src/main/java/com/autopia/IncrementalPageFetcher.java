@@ -0,0 +1,63 @@
+package com.autopia;
+
+import java.io.IOException;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.autopia.LinkStateStore.PageState;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.crawler.exceptions.PageBiggerThanMaxSizeException;
+import edu.uci.ics.crawler4j.fetcher.PageFetchResult;
+import edu.uci.ics.crawler4j.url.WebURL;
+
+/**
+ * Extension of the {@link RoutedPageFetcher} for incremental mode.
+ * Pages which were visited during the previous run are fetched with a conditional request,
+ * so that unchanged pages return 304 (Not Modified) instead of being downloaded and parsed again.
+ * In streaming mode, the links are extracted from HTML pages by the {@link StreamingLinkExtractor} as they are downloaded.
+ * @author vj
+ */
+public class IncrementalPageFetcher extends RoutedPageFetcher {
+	
+	private final LinkStateStore linkStateStore = LinkStateStore.getInstance();
+	
+	/**
+	 * Constructor for the {@link IncrementalPageFetcher} class
+	 * @param config The crawler4j {@link CrawlConfig}
+	 */
+	public IncrementalPageFetcher(CrawlConfig config) {
+		super(config);
+	}
+	
+	@Override
+	protected HttpUriRequest newHttpUriRequest(String url) {
+		HttpUriRequest request = super.newHttpUriRequest(url);
+		
+		PageState previousPageState = linkStateStore.getPreviousPageState(url);
+		if (previousPageState != null) {
+			if (previousPageState.getETag() != null) {
+				request.setHeader("If-None-Match", previousPageState.getETag());
+			}
+			if (previousPageState.getLastModified() != null) {
+				request.setHeader("If-Modified-Since", previousPageState.getLastModified());
+			}
+		}
+		
+		return request;
+	}
+	
+	@Override
+	public PageFetchResult fetchPage(WebURL webUrl)
+							throws InterruptedException, IOException, PageBiggerThanMaxSizeException {
+		PageFetchResult fetchResult = super.fetchPage(webUrl);
+		
+		if (StreamingLinkExtractor.isEnabled() && fetchResult.getStatusCode() == HttpStatus.SC_OK) {
+			StreamingLinkExtractor.extractLinksOnRead(fetchResult, webUrl, config.getMaxOutgoingLinksToFollow(),
+														LinkChecker.getInstance().isResourceCheckingEnabled());
+		}
+		
+		return fetchResult;
+	}
+}
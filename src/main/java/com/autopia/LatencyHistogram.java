@@ -0,0 +1,109 @@
+package com.autopia;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies, in the style of HdrHistogram.
+ * Values (in microseconds) are counted within log-linear buckets: every power of two is split into 32 sub-buckets,
+ * so that any percentile is reported within about 3% of its true value, using a fixed array of about 1,200 counters.
+ * Recording a value never allocates, so the histogram can be updated from any number of threads.
+ * @author vj
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;	// Sub-buckets per power of two
+	private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;		// Values below this are counted exactly
+	private static final int MAX_VALUE_BITS = 40;						// About 12 days, in microseconds
+	private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+	
+	/**
+	 * Function to record a single latency
+	 * @param micros The latency in microseconds
+	 */
+	public void record(long micros) {
+		long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+		counts.incrementAndGet(getIndex(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		
+		long currentMax;
+		while (value > (currentMax = maxValue.get()) && !maxValue.compareAndSet(currentMax, value)) {
+			// Retry until the maximum is updated, or another thread records a larger value
+		}
+	}
+	
+	/**
+	 * Function to get the number of latencies recorded
+	 * @return The number of latencies recorded
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * Function to get the sum of all the latencies recorded
+	 * @return The sum of the latencies, in microseconds
+	 */
+	public long getTotal() {
+		return totalValue.get();
+	}
+	
+	/**
+	 * Function to get the highest latency recorded
+	 * @return The highest latency, in microseconds
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+	
+	/**
+	 * Function to get the latency at the given percentile
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The highest latency within the bucket holding the given percentile (capped at the highest latency recorded),
+	 * 			in microseconds; 0 if no latencies have been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (0 == count) {
+			return 0;
+		}
+		
+		long targetCount = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulativeCount = 0;
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			cumulativeCount += counts.get(index);
+			if (cumulativeCount >= targetCount) {
+				return Math.min(getHighestValue(index), getMax());
+			}
+		}
+		return getMax();
+	}
+	
+	private static int getIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift);	// Between SUB_BUCKET_COUNT and LINEAR_LIMIT - 1
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + (subBucket - SUB_BUCKET_COUNT);
+	}
+	
+	private static long getHighestValue(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+		long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
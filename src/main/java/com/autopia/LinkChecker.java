@@ -0,0 +1,377 @@
+package com.autopia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.autopia.LinkStateStore.LinkState;
+import com.autopia.LinkStateStore.StoredLink;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * The link checking engine for the broken link test program.
+ * The crawler threads hand over the links found on each page to this class, and continue crawling while the links
+ * are checked on a separate, bounded pool of threads. This prevents slow external hosts from stalling the crawl.
+ * In the virtual {@link ThreadMode}, each link is checked on its own virtual thread instead,
+ * and the number of links checked at the same time is limited to the configured number of link checking threads.
+ * Links are scheduled per host by the {@link HostScheduler}, so that no single host is overloaded.
+ * The resources used by the pages (such as images, scripts and stylesheets) share the same queue and threads,
+ * and since the link statuses are cached, a resource used by many pages is checked once but reported for every page.
+ * This is a singleton class, so that all crawler threads share the same link checking budget,
+ * including the crawler threads of all the sites within a batch run.
+ * @author vj
+ */
+public class LinkChecker {
+	
+	private static final Logger logger = LoggerFactory.getLogger(LinkChecker.class);
+	
+	private static final int LINK_CHECK_QUEUE_SIZE = Settings.getInt(Setting.LINK_CHECK_QUEUE_SIZE);
+	private static final Boolean CHECK_RESOURCE_LINKS = Settings.getBoolean(Setting.CHECK_RESOURCE_LINKS);
+	
+	private final ExecutorService executor;
+	private final HostScheduler hostScheduler;
+	private final LinkProber linkProber;
+	private final Semaphore queueSlots = new Semaphore(LINK_CHECK_QUEUE_SIZE);
+	private final LinkStatusCache linkStatusCache = LinkStatusCache.getInstance();
+	private final LinkStateStore linkStateStore = LinkStateStore.getInstance();
+	private final LinkGraph linkGraph = LinkGraph.getInstance();
+	private final Metrics metrics = Metrics.getInstance();
+	private final DistributedWorker distributedWorker = DistributedWorker.getInstance();
+	private final Checkpoint checkpoint = Checkpoint.getInstance();
+	
+	private final AtomicLong pendingLinks = new AtomicLong();
+	private final AtomicInteger activeLinkChecks = new AtomicInteger();
+	private final ReentrantLock completionLock = new ReentrantLock();
+	private final Condition linksCompleted = completionLock.newCondition();
+	
+	private static final LinkChecker LINK_CHECKER = new LinkChecker();
+	
+	// To prevent external instantiation of this class
+	private LinkChecker() {
+		ThreadMode threadMode = ThreadMode.getCurrent();
+		ThreadFactory threadFactory = threadMode.newThreadFactory("LinkChecker-");
+		int linkCheckThreads = Settings.getInt(Setting.LINK_CHECK_THREADS);
+		if (threadMode == ThreadMode.VIRTUAL) {
+			executor = new VirtualThreadExecutor(threadFactory, linkCheckThreads);
+		} else {
+			executor = new ThreadPoolExecutor(linkCheckThreads, linkCheckThreads,
+								0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		}
+		hostScheduler = new HostScheduler(executor);
+		linkProber = new LinkProber(hostScheduler);
+		Settings.addReloadListener(this::resizeThreads);
+		
+		logger.info("Link checker initialized with " + linkCheckThreads + " " +
+						threadMode.name().toLowerCase(Locale.ROOT) + " threads");
+	}
+	
+	private void resizeThreads() {
+		int linkCheckThreads = Settings.getInt(Setting.LINK_CHECK_THREADS);
+		if (executor instanceof VirtualThreadExecutor) {
+			((VirtualThreadExecutor) executor).setMaxConcurrency(linkCheckThreads);
+		} else {
+			ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+			if (threadPool.getMaximumPoolSize() == linkCheckThreads) {
+				return;
+			}
+			// The maximum pool size may never be below the core pool size, so the order depends on the direction
+			if (linkCheckThreads > threadPool.getMaximumPoolSize()) {
+				threadPool.setMaximumPoolSize(linkCheckThreads);
+				threadPool.setCorePoolSize(linkCheckThreads);
+			} else {
+				threadPool.setCorePoolSize(linkCheckThreads);
+				threadPool.setMaximumPoolSize(linkCheckThreads);
+			}
+		}
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link LinkChecker} class
+	 * @return Instance of the {@link LinkChecker} class
+	 */
+	public static LinkChecker getInstance() {
+		return LINK_CHECKER;
+	}
+	
+	/**
+	 * Function to check whether the resources used by the pages are to be checked along with their links
+	 * @return Boolean value indicating whether resource checking is enabled
+	 */
+	public boolean isResourceCheckingEnabled() {
+		return CHECK_RESOURCE_LINKS;
+	}
+	
+	/**
+	 * Function to queue the given link to be checked and reported.
+	 * This function returns as soon as the link is queued, unless the queue is full,
+	 * in which case the calling thread waits until space is available.
+	 * @param referrer The URL of the page on which the link was found
+	 * @param anchor The anchor text of the link
+	 * @param url The URL of the link
+	 * @param resourceType The {@link ResourceType} of the link
+	 */
+	public void checkLink(final String referrer, final String anchor, final String url,
+							final ResourceType resourceType) {
+		// In distributed mode, links to hosts owned by another worker are checked by that worker,
+		// so that the per-host limits are applied across all the workers
+		if (!distributedWorker.isLocal(url)) {
+			distributedWorker.forwardLink(referrer, anchor, url, resourceType);
+			return;
+		}
+		final Site site = Site.getDefault();
+		checkLink(site, referrer, anchor, url, resourceType, record -> {
+			if (record != null) {
+				reportRecords(site, null, Collections.singletonList(record));
+			}
+		});
+	}
+	
+	/**
+	 * Function to queue all the links found on a page to be checked.
+	 * The links of the page are reported together, once all of them have been checked.
+	 * This function returns as soon as the links are queued, unless the queue is full,
+	 * in which case the calling thread waits until space is available.
+	 * @param site The {@link Site} to whose report the links belong
+	 * @param referrer The URL of the page on which the links were found
+	 * @param links The links found on the page
+	 */
+	public void checkLinks(final Site site, final String referrer, final List<StoredLink> links) {
+		checkpoint.pageVisited(referrer);
+		linkQueued(site);	// Until the page itself has been handed over to the report
+		
+		final ReportRecord[] records = new ReportRecord[links.size()];
+		final AtomicInteger remainingLinks = new AtomicInteger(links.size() + 1);
+		final Runnable linkDone = () -> {
+			if (remainingLinks.decrementAndGet() == 0) {
+				List<ReportRecord> pageRecords = new ArrayList<>(records.length);
+				for (ReportRecord record : records) {
+					if (record != null) {
+						pageRecords.add(record);
+					}
+				}
+				reportRecords(site, referrer, pageRecords);
+			}
+		};
+		
+		for (int i = 0; i < records.length; i++) {
+			final int index = i;
+			StoredLink link = links.get(i);
+			if (!distributedWorker.isLocal(link.getUrl())) {
+				distributedWorker.forwardLink(referrer, link.getAnchor(), link.getUrl(), link.getResourceType());
+				linkDone.run();
+				continue;
+			}
+			checkLink(site, referrer, link.getAnchor(), link.getUrl(), link.getResourceType(), record -> {
+				records[index] = record;
+				linkDone.run();
+			});
+		}
+		
+		linkDone.run();	// Reports pages without any links, and pages whose links were all forwarded to other workers
+		linkCompleted(site);
+	}
+	
+	private void checkLink(final Site site, final String referrer, final String anchor, final String url,
+								final ResourceType resourceType, final Consumer<ReportRecord> reporter) {
+		linkQueued(site);
+		
+		linkStatusCache.getLinkStatus(url, linkUrl -> probeLink(linkUrl, resourceType.isResource()))
+			.whenComplete((linkStatus, ex) -> {
+				ReportRecord record = null;
+				try {
+					if (ex != null) {
+						logger.error("Error while checking " + url + ": " + ex.getMessage(), ex);
+					} else if (null == linkStatus) {
+						logger.error("Null connection - unable to report link status!");
+					} else {
+						record = new ReportRecord(referrer, anchor, url, resourceType, linkStatus);
+					}
+				} finally {
+					try {
+						reporter.accept(record);
+					} finally {
+						linkCompleted(site);
+					}
+				}
+			});
+	}
+	
+	private CompletableFuture<LinkStatus> probeLink(final String url, final boolean isResource) {
+		CompletableFuture<LinkStatus> linkStatus = probeOrReuseLink(url, isResource);
+		linkStatus.thenAccept(status -> {
+			linkGraph.recordLinkStatus(url, status);
+			checkpoint.linkChecked(url, status);
+		});
+		return linkStatus;
+	}
+	
+	private CompletableFuture<LinkStatus> probeOrReuseLink(final String url, final boolean isResource) {
+		// In incremental mode, skip links which were checked recently enough during a previous run
+		final LinkState previousLinkState = linkStateStore.getPreviousLinkState(url);
+		if (previousLinkState != null && previousLinkState.isFresh()) {
+			return CompletableFuture.completedFuture(linkStateStore.reuseLinkState(url, previousLinkState));
+		}
+		final LinkStatus previousStatus = (null == previousLinkState)? null : previousLinkState.getLinkStatus();
+		
+		// Apply back-pressure to the crawler threads once the configured number of links are waiting
+		queueSlots.acquireUninterruptibly();
+		
+		CompletableFuture<LinkStatus> linkStatus =
+					hostScheduler.submit(HostScheduler.getHost(url), () -> {
+						activeLinkChecks.incrementAndGet();
+						try {
+							return linkProber.probe(url, previousStatus, isResource);
+						} finally {
+							activeLinkChecks.decrementAndGet();
+						}
+					});
+		linkStatus.whenComplete((status, ex) -> {
+			try {
+				// Recorded once the retries are over, since the scheduler calls the task again on every attempt
+				if (status != null) {
+					linkStateStore.recordLinkStatus(url, status);
+					metrics.linkChecked(status);
+				}
+			} finally {
+				queueSlots.release();
+			}
+		});
+		return linkStatus;
+	}
+	
+	private void reportRecords(Site site, String pageUrl, List<ReportRecord> records) {
+		if (distributedWorker.isActive()) {
+			// The coordinator writes the report for all the workers
+			for (ReportRecord record : records) {
+				distributedWorker.sendRecord(record);
+			}
+		} else if (pageUrl != null) {
+			site.getReport().addRecords(pageUrl, records);
+		} else {
+			for (ReportRecord record : records) {
+				site.getReport().addRecord(record);
+			}
+		}
+		
+		for (int i = 0; i < records.size(); i++) {
+			metrics.linkReported();
+		}
+	}
+	
+	private void linkQueued(Site site) {
+		site.getPendingLinks().incrementAndGet();
+		pendingLinks.incrementAndGet();
+	}
+	
+	private void linkCompleted(Site site) {
+		// Signalled once the links of a site are complete as well, since each site of a batch is finished on its own
+		boolean siteCompleted = (site.getPendingLinks().decrementAndGet() == 0);
+		if (pendingLinks.decrementAndGet() == 0 || siteCompleted) {
+			completionLock.lock();
+			try {
+				linksCompleted.signalAll();
+			} finally {
+				completionLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Function to get the number of links which have been queued but not yet reported
+	 * @return The number of pending links
+	 */
+	public long getPendingLinkCount() {
+		return pendingLinks.get();
+	}
+	
+	/**
+	 * Function to get the number of unique links which are waiting to be checked or being checked
+	 * @return The number of queued links
+	 */
+	public int getQueuedLinkCount() {
+		return LINK_CHECK_QUEUE_SIZE - queueSlots.availablePermits();
+	}
+	
+	/**
+	 * Function to get the number of links waiting within the per-host queues for their host to have spare capacity
+	 * @return The number of links waiting for their host
+	 */
+	public int getHostQueueDepth() {
+		return hostScheduler.getQueuedTaskCount();
+	}
+	
+	/**
+	 * Function to get the number of links which are currently being checked
+	 * @return The number of link checks in flight
+	 */
+	public int getActiveLinkCheckCount() {
+		return activeLinkChecks.get();
+	}
+	
+	/**
+	 * Function to wait until all the queued links have been checked and reported
+	 * @throws InterruptedException If the current thread is interrupted while waiting
+	 */
+	public void waitUntilFinished() throws InterruptedException {
+		completionLock.lock();
+		try {
+			while (pendingLinks.get() > 0) {
+				linksCompleted.await(1, TimeUnit.SECONDS);
+			}
+		} finally {
+			completionLock.unlock();
+		}
+		
+		logger.info("All queued links have been checked");
+	}
+	
+	/**
+	 * Function to wait until all the queued links of the given site have been checked and reported
+	 * @param site The {@link Site}
+	 * @throws InterruptedException If the current thread is interrupted while waiting
+	 */
+	public void waitUntilFinished(Site site) throws InterruptedException {
+		completionLock.lock();
+		try {
+			while (site.getPendingLinks().get() > 0) {
+				linksCompleted.await(1, TimeUnit.SECONDS);
+			}
+		} finally {
+			completionLock.unlock();
+		}
+		
+		logger.info("All queued links of " + site.getName() + " have been checked");
+	}
+	
+	/**
+	 * Function to shut down the link checking threads.
+	 * This should only be called after {@link #waitUntilFinished()}.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		hostScheduler.shutdown();
+		linkProber.close();
+		
+		logger.info("Link checker shut down successfully");
+	}
+}
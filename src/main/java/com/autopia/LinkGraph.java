@@ -0,0 +1,589 @@
+package com.autopia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * In-memory graph of the links between pages, built during the crawl.
+ * Every URL (page or link) is interned to an int id, and its UTF-8 bytes are stored once within a shared byte pool.
+ * Edges are stored as pairs of ids within chunked int arrays, so that the graph costs a few bytes per edge
+ * and never copies the whole edge list as it grows. A reverse index is built on demand to answer queries
+ * such as which pages refer to a given link, once the crawl is complete.
+ * This is a singleton class, to allow for graph consolidation from multiple threads.
+ * @author vj
+ */
+public class LinkGraph {
+	
+	private static final Logger logger = LoggerFactory.getLogger(LinkGraph.class);
+	
+	private static final Boolean LINK_GRAPH_ENABLED = Settings.getBoolean(Setting.LINK_GRAPH_ENABLED);
+	
+	private static final int MAGIC = 0x574C4752;	// "WLGR"
+	private static final byte VERSION = 1;
+	
+	private static final byte FLAG_PAGE = 0x01;
+	private static final byte FLAG_CHECKED = 0x02;
+	private static final byte FLAG_BROKEN = 0x04;
+	
+	private final boolean enabled;
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	// Nodes, indexed by id
+	private byte[] urlPool = new byte[1 << 16];
+	private int urlPoolSize;
+	private int[] urlOffsets = new int[1024];
+	private int[] urlHashes = new int[1024];
+	private int[] responseCodes = new int[1024];
+	private byte[] flags = new byte[1024];
+	private int nodeCount;
+	
+	// Open addressing hash table of node ids (plus one, so that zero marks an empty slot), keyed by URL
+	private int[] nodeTable = new int[2048];
+	
+	// Edges, as parallel lists of source and target node ids
+	private final IntChunkList edgeSources = new IntChunkList();
+	private final IntChunkList edgeTargets = new IntChunkList();
+	
+	// Reverse index, built on demand: the sources of the edges into node n are
+	// incomingSources[incomingOffsets[n]] to incomingSources[incomingOffsets[n + 1] - 1]
+	private int[] incomingOffsets;
+	private int[] incomingSources;
+	
+	private static final LinkGraph LINK_GRAPH = new LinkGraph(LINK_GRAPH_ENABLED);
+	
+	// To prevent external instantiation of this class
+	private LinkGraph(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link LinkGraph} class
+	 * @return Instance of the {@link LinkGraph} class
+	 */
+	public static LinkGraph getInstance() {
+		return LINK_GRAPH;
+	}
+	
+	/**
+	 * Function to check whether the link graph is enabled
+	 * @return Boolean value indicating whether the link graph is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Function to record a crawled page along with its outgoing links
+	 * @param pageUrl The URL of the page
+	 * @param linkUrls The URLs of the links found on the page
+	 */
+	public void recordPage(String pageUrl, Collection<String> linkUrls) {
+		if (!enabled) {
+			return;
+		}
+		
+		lock.lock();
+		try {
+			int source = intern(pageUrl);
+			flags[source] |= FLAG_PAGE;
+			for (String linkUrl : linkUrls) {
+				edgeSources.add(source);
+				edgeTargets.add(intern(linkUrl));
+			}
+			incomingOffsets = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to record the status of a checked link
+	 * @param url The URL of the link
+	 * @param linkStatus The status of the link; null if the link could not be checked
+	 */
+	public void recordLinkStatus(String url, LinkStatus linkStatus) {
+		if (!enabled || null == linkStatus) {
+			return;
+		}
+		
+		lock.lock();
+		try {
+			int node = intern(url);
+			responseCodes[node] = linkStatus.getResponseCode();
+			flags[node] |= FLAG_CHECKED;
+			if (Boolean.FALSE.equals(linkStatus.isSuccess())) {
+				flags[node] |= FLAG_BROKEN;
+			} else {
+				flags[node] &= ~FLAG_BROKEN;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the number of unique URLs within the graph
+	 * @return The number of nodes
+	 */
+	public int getNodeCount() {
+		lock.lock();
+		try {
+			return nodeCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the number of links within the graph
+	 * @return The number of edges
+	 */
+	public long getEdgeCount() {
+		lock.lock();
+		try {
+			return edgeSources.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the number of links to the given URL from crawled pages
+	 * @param url The URL of the link
+	 * @return The number of links to the given URL
+	 */
+	public int getInDegree(String url) {
+		lock.lock();
+		try {
+			int node = find(url);
+			if (node < 0) {
+				return 0;
+			}
+			buildIncomingIndex();
+			return incomingOffsets[node + 1] - incomingOffsets[node];
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the pages which link to the given URL
+	 * @param url The URL of the link
+	 * @return The URLs of the referring pages
+	 */
+	public List<String> getReferrers(String url) {
+		lock.lock();
+		try {
+			int node = find(url);
+			if (node < 0) {
+				return Collections.emptyList();
+			}
+			
+			buildIncomingIndex();
+			List<String> referrers = new ArrayList<>(incomingOffsets[node + 1] - incomingOffsets[node]);
+			for (int i = incomingOffsets[node]; i < incomingOffsets[node + 1]; i++) {
+				referrers.add(getUrl(incomingSources[i]));
+			}
+			return referrers;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the broken links within the graph, along with the number of links to each of them
+	 * @return The broken links, ordered by the number of links to them (highest first)
+	 */
+	public List<BrokenTarget> getBrokenTargets() {
+		lock.lock();
+		try {
+			buildIncomingIndex();
+			List<BrokenTarget> brokenTargets = new ArrayList<>();
+			for (int node = 0; node < nodeCount; node++) {
+				if ((flags[node] & FLAG_BROKEN) != 0) {
+					brokenTargets.add(new BrokenTarget(getUrl(node), responseCodes[node],
+									incomingOffsets[node + 1] - incomingOffsets[node]));
+				}
+			}
+			
+			Collections.sort(brokenTargets, (first, second) ->
+									Integer.compare(second.getInDegree(), first.getInDegree()));
+			return brokenTargets;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to get the orphan pages within the graph, which are crawled pages that no other crawled page links to.
+	 * These are typically seed pages which are not reachable through the navigation of the site.
+	 * @return The URLs of the orphan pages
+	 */
+	public List<String> getOrphanPages() {
+		lock.lock();
+		try {
+			buildIncomingIndex();
+			List<String> orphanPages = new ArrayList<>();
+			for (int node = 0; node < nodeCount; node++) {
+				if ((flags[node] & FLAG_PAGE) != 0 && !hasIncomingLinkFromOtherPage(node)) {
+					orphanPages.add(getUrl(node));
+				}
+			}
+			return orphanPages;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private boolean hasIncomingLinkFromOtherPage(int node) {
+		for (int i = incomingOffsets[node]; i < incomingOffsets[node + 1]; i++) {
+			if (incomingSources[i] != node) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void buildIncomingIndex() {
+		if (incomingOffsets != null) {
+			return;
+		}
+		
+		// Counting sort of the edges by target
+		int[] offsets = new int[nodeCount + 1];
+		int edgeCount = edgeTargets.size();
+		for (int i = 0; i < edgeCount; i++) {
+			offsets[edgeTargets.get(i) + 1]++;
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node + 1] += offsets[node];
+		}
+		
+		int[] sources = new int[edgeCount];
+		int[] positions = Arrays.copyOf(offsets, nodeCount);
+		for (int i = 0; i < edgeCount; i++) {
+			sources[positions[edgeTargets.get(i)]++] = edgeSources.get(i);
+		}
+		
+		incomingOffsets = offsets;
+		incomingSources = sources;
+	}
+	
+	/**
+	 * Function to log the graph statistics for the current run
+	 */
+	public void logStatistics() {
+		if (!enabled) {
+			return;
+		}
+		
+		lock.lock();
+		try {
+			logger.info("Link graph: " + nodeCount + " unique URLs, " + edgeSources.size() + " links, " +
+							getBrokenTargets().size() + " broken links, " + getOrphanPages().size() + " orphan pages");
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to write a summary of the broken links and orphan pages to the given folder,
+	 * as SiteLinks_BrokenLinkSummary.csv and SiteLinks_OrphanPages.csv
+	 * @param folder The folder within which the summary is to be written
+	 */
+	public void writeSummary(File folder) {
+		if (!enabled) {
+			return;
+		}
+		
+		lock.lock();
+		try {
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(
+												new File(folder, "SiteLinks_BrokenLinkSummary.csv")))) {
+				writer.write("FinalURL,ResponseCode,ReferringLinks");
+				writer.newLine();
+				for (BrokenTarget brokenTarget : getBrokenTargets()) {
+					writer.write("\"" + brokenTarget.getUrl() + "\"," +
+									brokenTarget.getResponseCode() + "," + brokenTarget.getInDegree());
+					writer.newLine();
+				}
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+			
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(
+												new File(folder, "SiteLinks_OrphanPages.csv")))) {
+				writer.write("PageURL");
+				writer.newLine();
+				for (String orphanPage : getOrphanPages()) {
+					writer.write("\"" + orphanPage + "\"");
+					writer.newLine();
+				}
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to save the graph to the given file, so that it can be loaded and queried later
+	 * @param file The file to which the graph is to be saved
+	 */
+	public void save(File file) {
+		if (!enabled) {
+			return;
+		}
+		
+		lock.lock();
+		try {
+			try (DataOutputStream output = new DataOutputStream(
+									new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+				output.writeInt(MAGIC);
+				output.writeByte(VERSION);
+				
+				output.writeInt(nodeCount);
+				for (int node = 0; node < nodeCount; node++) {
+					int length = urlOffsets[node + 1] - urlOffsets[node];
+					output.writeInt(length);
+					output.write(urlPool, urlOffsets[node], length);
+					output.writeInt(responseCodes[node]);
+					output.writeByte(flags[node]);
+				}
+				
+				int edgeCount = edgeSources.size();
+				output.writeInt(edgeCount);
+				for (int i = 0; i < edgeCount; i++) {
+					output.writeInt(edgeSources.get(i));
+					output.writeInt(edgeTargets.get(i));
+				}
+				
+				logger.info("Link graph saved to " + file.getAbsolutePath());
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Function to load a graph which was saved by {@link #save(File)}
+	 * @param file The file from which the graph is to be loaded
+	 * @return The loaded {@link LinkGraph}, which is independent of the Singleton instance
+	 * @throws IOException If the file could not be read, or is not a saved link graph
+	 */
+	public static LinkGraph load(File file) throws IOException {
+		try (DataInputStream input = new DataInputStream(
+								new BufferedInputStream(new FileInputStream(file), 65536))) {
+			if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+				throw new IOException(file + " is not a saved link graph");
+			}
+			
+			LinkGraph linkGraph = new LinkGraph(true);
+			int nodeCount = input.readInt();
+			for (int node = 0; node < nodeCount; node++) {
+				byte[] url = new byte[input.readInt()];
+				input.readFully(url);
+				int id = linkGraph.intern(new String(url, StandardCharsets.UTF_8));
+				linkGraph.responseCodes[id] = input.readInt();
+				linkGraph.flags[id] = input.readByte();
+			}
+			
+			int edgeCount = input.readInt();
+			for (int i = 0; i < edgeCount; i++) {
+				linkGraph.edgeSources.add(input.readInt());
+				linkGraph.edgeTargets.add(input.readInt());
+			}
+			return linkGraph;
+		}
+	}
+	
+	private int intern(String url) {
+		String key = LinkStatusCache.normalizeUrl(url);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int hash = key.hashCode();
+		
+		int mask = nodeTable.length - 1;
+		int slot = mix(hash) & mask;
+		while (nodeTable[slot] != 0) {
+			int node = nodeTable[slot] - 1;
+			if (urlHashes[node] == hash && urlEquals(node, keyBytes)) {
+				return node;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		int node = addNode(keyBytes, hash);
+		nodeTable[slot] = node + 1;
+		if (nodeCount * 2 > nodeTable.length) {
+			rehash();
+		}
+		return node;
+	}
+	
+	private int find(String url) {
+		String key = LinkStatusCache.normalizeUrl(url);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int hash = key.hashCode();
+		
+		int mask = nodeTable.length - 1;
+		int slot = mix(hash) & mask;
+		while (nodeTable[slot] != 0) {
+			int node = nodeTable[slot] - 1;
+			if (urlHashes[node] == hash && urlEquals(node, keyBytes)) {
+				return node;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	private int addNode(byte[] urlBytes, int hash) {
+		if (nodeCount + 1 >= urlOffsets.length) {
+			int capacity = urlOffsets.length * 2;
+			urlOffsets = Arrays.copyOf(urlOffsets, capacity);
+			urlHashes = Arrays.copyOf(urlHashes, capacity);
+			responseCodes = Arrays.copyOf(responseCodes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		if (urlPoolSize + urlBytes.length > urlPool.length) {
+			urlPool = Arrays.copyOf(urlPool, Math.max(urlPool.length * 2, urlPoolSize + urlBytes.length));
+		}
+		
+		System.arraycopy(urlBytes, 0, urlPool, urlPoolSize, urlBytes.length);
+		urlPoolSize += urlBytes.length;
+		
+		int node = nodeCount++;
+		urlHashes[node] = hash;
+		urlOffsets[node + 1] = urlPoolSize;
+		return node;
+	}
+	
+	private boolean urlEquals(int node, byte[] urlBytes) {
+		int offset = urlOffsets[node];
+		if (urlOffsets[node + 1] - offset != urlBytes.length) {
+			return false;
+		}
+		for (int i = 0; i < urlBytes.length; i++) {
+			if (urlPool[offset + i] != urlBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void rehash() {
+		int[] table = new int[nodeTable.length * 2];
+		int mask = table.length - 1;
+		for (int node = 0; node < nodeCount; node++) {
+			int slot = mix(urlHashes[node]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = node + 1;
+		}
+		nodeTable = table;
+	}
+	
+	private static int mix(int hash) {
+		// Spread the bits of String.hashCode(), which are poorly distributed for similar URLs
+		int mixed = hash * 0x9E3779B9;
+		return mixed ^ (mixed >>> 16);
+	}
+	
+	private String getUrl(int node) {
+		return new String(urlPool, urlOffsets[node], urlOffsets[node + 1] - urlOffsets[node],
+								StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * A broken link, along with the number of links to it from crawled pages
+	 */
+	public static class BrokenTarget {
+		private final String url;
+		private final int responseCode;
+		private final int inDegree;
+		
+		BrokenTarget(String url, int responseCode, int inDegree) {
+			this.url = url;
+			this.responseCode = responseCode;
+			this.inDegree = inDegree;
+		}
+		
+		/**
+		 * Function to get the URL of the broken link
+		 * @return The URL of the broken link
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+		/**
+		 * Function to get the HTTP response code returned for the broken link
+		 * @return The HTTP response code (0 if unknown)
+		 */
+		public int getResponseCode() {
+			return responseCode;
+		}
+		
+		/**
+		 * Function to get the number of links to the broken link from crawled pages
+		 * @return The number of links
+		 */
+		public int getInDegree() {
+			return inDegree;
+		}
+	}
+	
+	/**
+	 * Growable list of ints, stored in fixed size chunks so that growing the list never copies its contents
+	 */
+	private static class IntChunkList {
+		private static final int CHUNK_BITS = 16;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+		private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+		
+		private int[][] chunks = new int[16][];
+		private int size;
+		
+		void add(int value) {
+			int chunk = size >>> CHUNK_BITS;
+			if (chunk == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			if (null == chunks[chunk]) {
+				chunks[chunk] = new int[CHUNK_SIZE];
+			}
+			chunks[chunk][size & CHUNK_MASK] = value;
+			size++;
+		}
+		
+		int get(int index) {
+			return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+		}
+		
+		int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.autopia.LinkStatus.RequestFailure;
+import com.autopia.LinkStatus.Verification;
+import com.autopia.RedirectResolver.Hop;
+import com.autopia.RedirectResolver.RedirectChain;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Class which checks the response code of a single link over HTTP and maps it to a {@link LinkStatus}.
+ * Links are checked with a HEAD request where possible (and resources always are, since their content is not needed),
+ * and all requests share a pool of keep-alive connections,
+ * so that repeated checks against the same host reuse the same TCP/TLS connections.
+ * Each host is connected to either directly or through a proxy, as decided by the {@link ProxyRouter}.
+ * Redirects are followed by a {@link RedirectResolver}, and the full redirect chain is recorded within the link status.
+ * Besides the connect and read timeouts of each request, all the requests sent to check a link (including its redirects)
+ * must complete within RequestDeadline, so that a host which never finishes responding cannot hold up a thread.
+ * The time taken to check each link is recorded within its status, and links slower than SlowLinkThreshold are flagged.
+ * Instances of this class are thread safe and are meant to be shared across threads.
+ * @author vj
+ */
+public class LinkProber {
+	
+	private static final Logger logger = LoggerFactory.getLogger(LinkProber.class);
+	
+	private static final Boolean FLAG_SPECIFIED_ERROR_PAGES = Settings.getBoolean(Setting.FLAG_SPECIFIED_ERROR_PAGES);
+	private static final Pattern ERROR_PAGE_URLS = Settings.getPattern(Setting.ERROR_PAGE_URLS_PATTERN);
+	
+	private static final Boolean USE_HEAD_REQUESTS = Settings.getBoolean(Setting.LINK_CHECK_USE_HEAD_REQUESTS);
+	private static final int MAX_BODY_BYTES = Settings.getInt(Setting.LINK_CHECK_MAX_BODY_BYTES);
+	private static final long IDLE_CONNECTION_TIMEOUT = Settings.getLong(Setting.LINK_CHECK_IDLE_CONNECTION_TIMEOUT);
+	
+	private static final int CONNECT_TIMEOUT = Settings.getInt(Setting.CONNECT_TIMEOUT);
+	private static final int READ_TIMEOUT = Settings.getInt(Setting.READ_TIMEOUT);
+	private static final long REQUEST_DEADLINE = Settings.getLong(Setting.REQUEST_DEADLINE);
+	private static final long SLOW_LINK_THRESHOLD = Settings.getLong(Setting.SLOW_LINK_THRESHOLD);
+	
+	private final HostScheduler hostScheduler;
+	private final RedirectResolver redirectResolver;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final Runnable resizeConnectionPool = this::resizeConnectionPool;
+	
+	/**
+	 * Constructor for the {@link LinkProber} class, which sets up the shared connection pool
+	 * @param hostScheduler The {@link HostScheduler} to be informed of the responses returned by each host
+	 */
+	public LinkProber(HostScheduler hostScheduler) {
+		this.hostScheduler = hostScheduler;
+		this.redirectResolver = new RedirectResolver(this::requestHop);
+		
+		connectionManager = new PoolingHttpClientConnectionManager();
+		resizeConnectionPool();
+		Settings.addReloadListener(resizeConnectionPool);
+		
+		RequestConfig requestConfig = RequestConfig.custom()
+							.setConnectTimeout(CONNECT_TIMEOUT)
+							.setSocketTimeout(READ_TIMEOUT)
+							.build();
+		HttpClientBuilder httpClientBuilder = HttpClients.custom()
+							.setDefaultRequestConfig(requestConfig)
+							.setConnectionManager(connectionManager)
+							.disableRedirectHandling()	// Redirects are followed explicitly
+							.evictExpiredConnections()
+							.evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+		if(ProxyRouter.getInstance().isEnabled()) {
+			httpClientBuilder.setRoutePlanner(ProxyRouter.getInstance());
+		}
+		httpClient = httpClientBuilder.build();
+	}
+	
+	private void resizeConnectionPool() {
+		connectionManager.setMaxTotal(Settings.getInt(Setting.LINK_CHECK_MAX_CONNECTIONS));
+		connectionManager.setDefaultMaxPerRoute(Settings.getInt(Setting.LINK_CHECK_MAX_CONNECTIONS_PER_HOST));
+	}
+	
+	/**
+	 * Function to check the status of the given link
+	 * @param url The URL of the link to be checked
+	 * @param previousStatus The status of the link as of the previous run, used to send a conditional request;
+	 * 						null if the link was not checked during the previous run
+	 * @param alwaysUseHead Boolean value indicating whether a HEAD request is to be sent first
+	 * 						even if LinkCheckUseHeadRequests is disabled, such as for resources
+	 * @return The status of the link, or null if a connection could not be established
+	 * @throws HostThrottledException If the host asked us to slow down, so that the link should be checked again later
+	 */
+	public LinkStatus probe(String url, LinkStatus previousStatus, boolean alwaysUseHead) {
+		long startTime = System.nanoTime();
+		long deadline = DeadlineTimer.getDeadline(REQUEST_DEADLINE);
+		ProbeResponse response = sendRequest(url, previousStatus, USE_HEAD_REQUESTS || alwaysUseHead, deadline);
+		if (null == response) {
+			return null;
+		}
+		
+		LinkStatus linkStatus;
+		if (response.getFailure() != null) {
+			linkStatus = new LinkStatus(response.getFailure());
+		} else if (response.isTimedOut()) {
+			linkStatus = new LinkStatus(0, "Timeout", false);
+		} else if (response.getResponseCode() == 304 && previousStatus != null) {
+			// Not modified since the previous run
+			linkStatus = previousStatus.withVerification(Verification.REVERIFIED);
+		} else {
+			linkStatus = getLinkStatus(url, response, deadline)
+									.withValidators(response.getETag(), response.getLastModified());
+		}
+		linkStatus = withLatency(linkStatus, System.nanoTime() - startTime);
+		
+		if (response.isThrottled()) {
+			throw new HostThrottledException(url, linkStatus);
+		}
+		return linkStatus;
+	}
+	
+	/**
+	 * Function to check whether the given status is that of a link which could not be requested at all,
+	 * since its URL is malformed or a secure connection could not be established with its host.
+	 * Such links are not retried, and their failures are not held against their host.
+	 * @param linkStatus The status of the link, or null if a connection could not be established
+	 * @return Boolean value indicating whether the link could not be requested
+	 */
+	public static boolean isRequestFailure(LinkStatus linkStatus) {
+		return linkStatus != null && linkStatus.getRequestFailure() != null;
+	}
+	
+	private static LinkStatus withLatency(LinkStatus linkStatus, long latencyNanos) {
+		long latency = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+		String status = linkStatus.getStatus();
+		if (SLOW_LINK_THRESHOLD > 0 && Boolean.TRUE.equals(linkStatus.isSuccess())) {
+			// Re-verified links are classified again, since their status is carried over from the previous run
+			boolean slow = (latency > SLOW_LINK_THRESHOLD);
+			if (status.equals("OK") || status.equals("Slow")) {
+				status = slow? "Slow" : "OK";
+			} else if (status.equals("Redirect - OK") || status.equals("Redirect - Slow")) {
+				status = slow? "Redirect - Slow" : "Redirect - OK";
+			}
+		}
+		return linkStatus.withLatency(status, latency);
+	}
+	
+	private LinkStatus getLinkStatus(String url, ProbeResponse response, long deadline) {
+		int responseCode = response.getResponseCode();
+		int responseCodeClass = responseCode / 100;
+		
+		switch(responseCodeClass) {
+			case 2:
+				return new LinkStatus(responseCode, "OK", true);
+				
+			case 3:
+				RedirectChain redirectChain = redirectResolver.resolve(new Hop(url, responseCode,
+												response.getLocation(), response.getLatency()), deadline);
+				
+				switch(redirectChain.getOutcome()) {
+					case LOOP:
+						return getRedirectStatus(responseCode, "Redirect - Loop", false, redirectChain);
+						
+					case TOO_MANY_REDIRECTS:
+						return getRedirectStatus(responseCode, "Redirect - Too many redirects", false, redirectChain);
+						
+					case TIMED_OUT:
+						return getRedirectStatus(responseCode, "Redirect - Timeout", false, redirectChain);
+						
+					default:
+						// Check for redirects to any of the ERROR_PAGE_URLS
+						if(FLAG_SPECIFIED_ERROR_PAGES &&
+								ERROR_PAGE_URLS.matcher(redirectChain.getFinalUrl()).matches()) {
+							return getRedirectStatus(responseCode, "Redirect - Error Page", false, redirectChain);
+						} else {
+							return getRedirectStatus(responseCode, "Redirect - OK", true, redirectChain);
+						}
+				}
+				
+			case 4:
+				return new LinkStatus(responseCode, "Client error", false);
+				
+			case 5:
+				return new LinkStatus(responseCode, "Server error", false);
+				
+			default:
+				return new LinkStatus(responseCode, "Unknown", false);
+		}
+	}
+	
+	private static LinkStatus getRedirectStatus(int responseCode, String status, Boolean success,
+													RedirectChain redirectChain) {
+		return new LinkStatus(responseCode, status, success, null, null, Verification.CHECKED, redirectChain.toString());
+	}
+	
+	private Hop requestHop(String url, long deadline) {
+		ProbeResponse response = sendRequest(url, null, USE_HEAD_REQUESTS, deadline);
+		if (null == response || response.isTimedOut() || response.getFailure() != null) {
+			return null;
+		}
+		return new Hop(url, response.getResponseCode(), response.getLocation(), response.getLatency());
+	}
+	
+	/**
+	 * Function to close the connection pool used by this {@link LinkProber}
+	 */
+	public void close() {
+		Settings.removeReloadListener(resizeConnectionPool);
+		redirectResolver.logStatistics();
+		try {
+			httpClient.close();
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+	}
+	
+	private ProbeResponse sendRequest(String url, LinkStatus previousStatus, boolean useHead, long deadline) {
+		try {
+			if(useHead) {
+				ProbeResponse response = execute(new HttpHead(url), previousStatus, deadline);
+				
+				// Fall back to GET only for servers which do not support HEAD
+				int responseCode = response.getResponseCode();
+				if (responseCode != 405 && responseCode != 501) {
+					return response;
+				}
+				logger.debug("HEAD not supported for " + url + ", retrying with GET");
+			}
+			
+			return execute(new HttpGet(url), previousStatus, deadline);
+		} catch (InterruptedIOException ex) {
+			// A connect or read timeout, or a request which was aborted at the deadline
+			return getTimedOutResponse(url, ex);
+		} catch (IllegalArgumentException ex) {
+			logger.error("Malformed URL " + url + ": " + ex.getMessage());
+			return new ProbeResponse(RequestFailure.MALFORMED_URL);
+		} catch (SSLException ex) {
+			logger.error("SSL error while connecting to " + url + ": " + ex.getMessage(), ex);
+			return new ProbeResponse(RequestFailure.SSL_ERROR);
+		} catch (UnknownHostException | ConnectException ex) {
+			logger.error("Error while connecting to " + url + ": " + ex.getMessage(), ex);
+			return null;
+		} catch (IOException ex) {
+			if (DeadlineTimer.isExpired(deadline)) {
+				return getTimedOutResponse(url, ex);	// The connection was closed by the abort
+			}
+			logger.error(ex.getMessage(), ex);
+			return new ProbeResponse(0, null, null, null, false, 0, false);	// Unknown
+		}
+	}
+	
+	private static ProbeResponse getTimedOutResponse(String url, IOException ex) {
+		logger.warn("Timed out while checking " + url + ": " + ex.getMessage());
+		return new ProbeResponse(0, null, null, null, false, -1, true);
+	}
+	
+	private ProbeResponse execute(HttpRequestBase request, LinkStatus previousStatus, long deadline)
+										throws IOException {
+		if (previousStatus != null) {
+			if (previousStatus.getETag() != null) {
+				request.setHeader("If-None-Match", previousStatus.getETag());
+			}
+			if (previousStatus.getLastModified() != null) {
+				request.setHeader("If-Modified-Since", previousStatus.getLastModified());
+			}
+		}
+		
+		String host = HostScheduler.getHost(request.getURI().toString());
+		ScheduledFuture<?> abort = DeadlineTimer.abortAt(request, deadline);
+		try {
+			long startTime = System.nanoTime();
+			CloseableHttpResponse response = httpClient.execute(request);
+			long latency = System.nanoTime() - startTime;
+			Metrics.getInstance().recordLatency(host, latency);
+			try {
+				int responseCode = response.getStatusLine().getStatusCode();
+				boolean throttled = hostScheduler.recordResponse(host,
+											responseCode, getHeaderValue(response, "Retry-After"));
+				
+				ProbeResponse probeResponse = new ProbeResponse(responseCode, getHeaderValue(response, "Location"),
+											getHeaderValue(response, "ETag"), getHeaderValue(response, "Last-Modified"),
+											throttled, latency, false);
+				discardBody(response.getEntity());
+				return probeResponse;
+			} finally {
+				// Releases the connection back to the pool if the body was fully read, otherwise closes it
+				response.close();
+			}
+		} finally {
+			if (abort != null) {
+				abort.cancel(false);
+			}
+		}
+	}
+	
+	private static String getHeaderValue(CloseableHttpResponse response, String headerName) {
+		Header header = response.getFirstHeader(headerName);
+		return (null == header)? null : header.getValue();
+	}
+	
+	private void discardBody(HttpEntity entity) throws IOException {
+		if (null == entity) {
+			return;
+		}
+		
+		// Read small bodies to the end so that the connection can be reused,
+		// but give up on large bodies rather than downloading them in full
+		InputStream content = entity.getContent();
+		byte[] buffer = new byte[4096];
+		int totalBytesRead = 0;
+		int bytesRead = 0;
+		while (totalBytesRead <= MAX_BODY_BYTES && bytesRead != -1) {
+			bytesRead = content.read(buffer);
+			totalBytesRead += Math.max(bytesRead, 0);
+		}
+	}
+	
+	/**
+	 * The parts of an HTTP response which are needed to determine the status of a link
+	 */
+	private static class ProbeResponse {
+		private final int responseCode;
+		private final String location;
+		private final String eTag;
+		private final String lastModified;
+		private final boolean throttled;
+		private final long latency;
+		private final boolean timedOut;
+		private final RequestFailure failure;
+		
+		ProbeResponse(int responseCode, String location, String eTag, String lastModified, boolean throttled,
+						long latency, boolean timedOut) {
+			this(responseCode, location, eTag, lastModified, throttled, latency, timedOut, null);
+		}
+		
+		ProbeResponse(RequestFailure failure) {
+			this(0, null, null, null, false, -1, false, failure);
+		}
+		
+		private ProbeResponse(int responseCode, String location, String eTag, String lastModified, boolean throttled,
+								long latency, boolean timedOut, RequestFailure failure) {
+			this.responseCode = responseCode;
+			this.location = location;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.throttled = throttled;
+			this.latency = latency;
+			this.timedOut = timedOut;
+			this.failure = failure;
+		}
+		
+		int getResponseCode() {
+			return responseCode;
+		}
+		
+		String getLocation() {
+			return location;
+		}
+		
+		String getETag() {
+			return eTag;
+		}
+		
+		String getLastModified() {
+			return lastModified;
+		}
+		
+		boolean isThrottled() {
+			return throttled;
+		}
+		
+		long getLatency() {
+			return latency;
+		}
+		
+		boolean isTimedOut() {
+			return timedOut;
+		}
+		
+		RequestFailure getFailure() {
+			return failure;
+		}
+	}
+}
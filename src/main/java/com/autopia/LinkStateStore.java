@@ -0,0 +1,403 @@
+package com.autopia;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+
+import com.autopia.LinkStatus.Verification;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Store of the link and page state which is carried over between runs in incremental mode.
+ * For each checked link, the store records its status, cache validators (ETag/Last-Modified) and the time it was checked.
+ * For each visited page, the store records its cache validators and outgoing links, so that the links of unchanged pages
+ * can be reported without parsing them again.
+ * This is a singleton class, to allow for state consolidation from multiple threads.
+ * @author vj
+ */
+public class LinkStateStore {
+	
+	private static final Logger logger = LoggerFactory.getLogger(LinkStateStore.class);
+	
+	private static final Boolean INCREMENTAL_MODE = Settings.getBoolean(Setting.INCREMENTAL_MODE);
+	private static final String STATE_FILE = Settings.getString(Setting.INCREMENTAL_STATE_FILE);
+	private static final long FRESHNESS_TTL = TimeUnit.HOURS.toMillis(
+			Settings.getLong(Setting.INCREMENTAL_FRESHNESS_HOURS));
+	
+	private static final String FIELD_SEPARATOR = "\t";
+	
+	private final Map<String, LinkState> previousLinkStates = new ConcurrentHashMap<>();
+	private final Map<String, PageState> previousPageStates = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LinkState> currentLinkStates = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, PageState> currentPageStates = new ConcurrentHashMap<>();
+	
+	private final AtomicLong checkedLinks = new AtomicLong();
+	private final AtomicLong cachedLinks = new AtomicLong();
+	private final AtomicLong reverifiedLinks = new AtomicLong();
+	private final AtomicLong unchangedPages = new AtomicLong();
+	
+	private static final LinkStateStore LINK_STATE_STORE = new LinkStateStore();
+	
+	// To prevent external instantiation of this class
+	private LinkStateStore() {
+		if(INCREMENTAL_MODE) {
+			load();
+		}
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link LinkStateStore} class
+	 * @return Instance of the {@link LinkStateStore} class
+	 */
+	public static LinkStateStore getInstance() {
+		return LINK_STATE_STORE;
+	}
+	
+	/**
+	 * Function to check whether incremental mode is enabled
+	 * @return Boolean value indicating whether incremental mode is enabled
+	 */
+	public boolean isEnabled() {
+		return INCREMENTAL_MODE;
+	}
+	
+	/**
+	 * Function to get the status of the given link as recorded during the previous run
+	 * @param url The URL of the link
+	 * @return The previous {@link LinkState}, or null if the link was not checked during the previous run
+	 */
+	public LinkState getPreviousLinkState(String url) {
+		return INCREMENTAL_MODE? previousLinkStates.get(LinkStatusCache.normalizeUrl(url)) : null;
+	}
+	
+	/**
+	 * Function to reuse the status of the given link from the previous run, without checking it again
+	 * @param url The URL of the link
+	 * @param previousLinkState The state of the link as recorded during the previous run
+	 * @return The status of the link, marked as cached
+	 */
+	public LinkStatus reuseLinkState(String url, LinkState previousLinkState) {
+		currentLinkStates.put(LinkStatusCache.normalizeUrl(url), previousLinkState);
+		cachedLinks.incrementAndGet();
+		return previousLinkState.getLinkStatus().withVerification(Verification.CACHED);
+	}
+	
+	/**
+	 * Function to record the status of a link which was checked during the current run
+	 * @param url The URL of the link
+	 * @param linkStatus The status of the link
+	 */
+	public void recordLinkStatus(String url, LinkStatus linkStatus) {
+		if(!INCREMENTAL_MODE || null == linkStatus) {
+			return;
+		}
+		
+		if (linkStatus.getVerification() == Verification.REVERIFIED) {
+			reverifiedLinks.incrementAndGet();
+		} else {
+			checkedLinks.incrementAndGet();
+		}
+		currentLinkStates.put(LinkStatusCache.normalizeUrl(url),
+								new LinkState(linkStatus, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Function to get the state of the given page as recorded during the previous run
+	 * @param url The URL of the page
+	 * @return The previous {@link PageState}, or null if the page was not visited during the previous run
+	 */
+	public PageState getPreviousPageState(String url) {
+		return INCREMENTAL_MODE? previousPageStates.get(LinkStatusCache.normalizeUrl(url)) : null;
+	}
+	
+	/**
+	 * Function to record the state of a page which was visited during the current run
+	 * @param url The URL of the page
+	 * @param responseHeaders The response headers returned for the page
+	 * @param links The outgoing links found on the page
+	 */
+	public void recordPage(String url, Header[] responseHeaders, List<StoredLink> links) {
+		if(!INCREMENTAL_MODE) {
+			return;
+		}
+		
+		String eTag = null;
+		String lastModified = null;
+		if (responseHeaders != null) {
+			for (Header header : responseHeaders) {
+				if ("ETag".equalsIgnoreCase(header.getName())) {
+					eTag = header.getValue();
+				} else if ("Last-Modified".equalsIgnoreCase(header.getName())) {
+					lastModified = header.getValue();
+				}
+			}
+		}
+		
+		currentPageStates.put(LinkStatusCache.normalizeUrl(url), new PageState(eTag, lastModified, links));
+	}
+	
+	/**
+	 * Function to carry forward the state of a page which was found to be unchanged since the previous run
+	 * @param url The URL of the page
+	 * @param previousPageState The state of the page as recorded during the previous run
+	 */
+	public void recordUnchangedPage(String url, PageState previousPageState) {
+		currentPageStates.put(LinkStatusCache.normalizeUrl(url), previousPageState);
+		unchangedPages.incrementAndGet();
+	}
+	
+	/**
+	 * Function to log the incremental mode statistics for the current run
+	 */
+	public void logStatistics() {
+		if(INCREMENTAL_MODE) {
+			logger.info("Incremental mode: " + checkedLinks.get() + " links checked, " +
+						reverifiedLinks.get() + " re-verified, " + cachedLinks.get() + " cached; " +
+						unchangedPages.get() + " unchanged pages not parsed again");
+		}
+	}
+	
+	private void load() {
+		File stateFile = new File(STATE_FILE);
+		if(!stateFile.exists()) {
+			logger.info("No incremental state found at " + STATE_FILE + " - all links will be checked");
+			return;
+		}
+		
+		try (BufferedReader reader = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+			List<StoredLink> pageLinks = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELD_SEPARATOR, -1);
+				switch(fields[0]) {
+					case "L":
+						// The redirect chain and latency were added later, so they are missing from older state files
+						LinkStatus linkStatus = new LinkStatus(Integer.parseInt(fields[2]), fields[4],
+											Boolean.parseBoolean(fields[3]), emptyToNull(fields[5]),
+											emptyToNull(fields[6]), Verification.CHECKED,
+											(fields.length > 8)? emptyToNull(fields[8]) : null,
+											(fields.length > 9)? Long.parseLong(fields[9]) : -1);
+						previousLinkStates.put(fields[1], new LinkState(linkStatus, Long.parseLong(fields[7])));
+						break;
+						
+					case "P":
+						pageLinks = new ArrayList<>();
+						previousPageStates.put(fields[1],
+									new PageState(emptyToNull(fields[2]), emptyToNull(fields[3]), pageLinks));
+						break;
+						
+					case "A":
+						// The resource type was added later, so it is missing from older state files
+						if (pageLinks != null) {
+							pageLinks.add(new StoredLink(fields[1], fields[2], (fields.length > 3)?
+											ResourceType.fromLabel(fields[3]) : ResourceType.ANCHOR));
+						}
+						break;
+						
+					default:
+						logger.warn("Ignoring unrecognized line in incremental state file: " + line);
+				}
+			}
+			
+			logger.info("Loaded incremental state for " + previousLinkStates.size() + " links and " +
+							previousPageStates.size() + " pages");
+		} catch (IOException | RuntimeException ex) {
+			logger.error("Unable to load incremental state - all links will be checked: " + ex.getMessage(), ex);
+			previousLinkStates.clear();
+			previousPageStates.clear();
+		}
+	}
+	
+	/**
+	 * Function to save the state of the links and pages seen during the current run, for use by the next run.
+	 * Links and pages which were not seen during the current run are dropped.
+	 */
+	public void save() {
+		if(!INCREMENTAL_MODE) {
+			return;
+		}
+		
+		File stateFile = new File(STATE_FILE);
+		File temporaryFile = new File(STATE_FILE + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, LinkState> entry : currentLinkStates.entrySet()) {
+					LinkStatus linkStatus = entry.getValue().getLinkStatus();
+					writeLine(writer, "L", entry.getKey(), Integer.toString(linkStatus.getResponseCode()),
+								linkStatus.isSuccess().toString(), linkStatus.getStatus(),
+								linkStatus.getETag(), linkStatus.getLastModified(),
+								Long.toString(entry.getValue().getLastChecked()), linkStatus.getRedirectChain(),
+								Long.toString(linkStatus.getLatency()));
+				}
+				
+				for (Map.Entry<String, PageState> entry : currentPageStates.entrySet()) {
+					PageState pageState = entry.getValue();
+					writeLine(writer, "P", entry.getKey(), pageState.getETag(), pageState.getLastModified());
+					for (StoredLink link : pageState.getLinks()) {
+						writeLine(writer, "A", link.getAnchor(), link.getUrl(), link.getResourceType().getLabel());
+					}
+				}
+			}
+			
+			// Replace the previous state in a single step, so that an interrupted save does not lose it
+			Files.move(temporaryFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			logger.info("Saved incremental state for " + currentLinkStates.size() + " links and " +
+							currentPageStates.size() + " pages");
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+	}
+	
+	private static void writeLine(BufferedWriter writer, String... fields) throws IOException {
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				writer.write(FIELD_SEPARATOR);
+			}
+			if (fields[i] != null) {
+				writer.write(fields[i].replaceAll("[\\t\\r\\n]", " "));
+			}
+		}
+		writer.newLine();
+	}
+	
+	private static String emptyToNull(String value) {
+		return value.isEmpty()? null : value;
+	}
+	
+	/**
+	 * The status of a link, along with the time at which it was checked
+	 */
+	public static class LinkState {
+		private final LinkStatus linkStatus;
+		private final long lastChecked;
+		
+		LinkState(LinkStatus linkStatus, long lastChecked) {
+			this.linkStatus = linkStatus;
+			this.lastChecked = lastChecked;
+		}
+		
+		/**
+		 * Function to get the status of the link
+		 * @return The {@link LinkStatus}
+		 */
+		public LinkStatus getLinkStatus() {
+			return linkStatus;
+		}
+		
+		/**
+		 * Function to get the time at which the link was last checked
+		 * @return The time in milliseconds since the epoch
+		 */
+		public long getLastChecked() {
+			return lastChecked;
+		}
+		
+		/**
+		 * Function to check whether the link was checked recently enough to skip checking it again
+		 * @return Boolean value indicating whether the link is still within the configured freshness period
+		 */
+		public boolean isFresh() {
+			return System.currentTimeMillis() - lastChecked < FRESHNESS_TTL;
+		}
+	}
+	
+	/**
+	 * The cache validators and outgoing links of a visited page
+	 */
+	public static class PageState {
+		private final String eTag;
+		private final String lastModified;
+		private final List<StoredLink> links;
+		
+		PageState(String eTag, String lastModified, List<StoredLink> links) {
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.links = links;
+		}
+		
+		/**
+		 * Function to get the ETag response header returned for the page
+		 * @return The ETag, or null if the server did not return one
+		 */
+		public String getETag() {
+			return eTag;
+		}
+		
+		/**
+		 * Function to get the Last-Modified response header returned for the page
+		 * @return The Last-Modified date, or null if the server did not return one
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+		
+		/**
+		 * Function to get the outgoing links found on the page
+		 * @return The outgoing links
+		 */
+		public List<StoredLink> getLinks() {
+			return Collections.unmodifiableList(links);
+		}
+	}
+	
+	/**
+	 * An outgoing link found on a page, as stored between runs
+	 */
+	public static class StoredLink {
+		private final String anchor;
+		private final String url;
+		private final ResourceType resourceType;
+		
+		/**
+		 * Constructor for the {@link StoredLink} class
+		 * @param anchor The anchor text of the link
+		 * @param url The URL of the link
+		 * @param resourceType The {@link ResourceType} of the link
+		 */
+		public StoredLink(String anchor, String url, ResourceType resourceType) {
+			this.anchor = anchor;
+			this.url = url;
+			this.resourceType = resourceType;
+		}
+		
+		/**
+		 * Function to get the anchor text of the link
+		 * @return The anchor text
+		 */
+		public String getAnchor() {
+			return anchor;
+		}
+		
+		/**
+		 * Function to get the URL of the link
+		 * @return The URL
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+		/**
+		 * Function to get the type of the link
+		 * @return The {@link ResourceType}
+		 */
+		public ResourceType getResourceType() {
+			return resourceType;
+		}
+	}
+}
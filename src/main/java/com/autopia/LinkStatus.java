@@ -0,0 +1,247 @@
+package com.autopia;
+
+/**
+ * Immutable result of checking a single link URL.
+ * The same instance is shared by every page which refers to that URL.
+ * @author vj
+ */
+public class LinkStatus {
+	
+	/**
+	 * Indicates how the status of a link was obtained during the current run
+	 */
+	public enum Verification {
+		/** The link was checked during the current run */
+		CHECKED("Checked"),
+		/** The status was reused from a previous run, since it was still within its freshness period */
+		CACHED("Cached"),
+		/** The link was checked with a conditional request, and the server confirmed it is unchanged */
+		REVERIFIED("Re-verified");
+		
+		private final String description;
+		
+		Verification(String description) {
+			this.description = description;
+		}
+		
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+	
+	/**
+	 * Indicates why a link could not be requested at all, whatever the state of its host
+	 */
+	public enum RequestFailure {
+		/** The URL of the link is malformed */
+		MALFORMED_URL("Malformed URL"),
+		/** A secure connection could not be established with the host of the link */
+		SSL_ERROR("SSL error");
+		
+		private final String description;
+		
+		RequestFailure(String description) {
+			this.description = description;
+		}
+		
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+	
+	private final int responseCode;
+	private final String status;
+	private final Boolean success;
+	private final String eTag;
+	private final String lastModified;
+	private final Verification verification;
+	private final String redirectChain;
+	private final long latency;
+	private final RequestFailure requestFailure;
+	
+	/**
+	 * Constructor for the {@link LinkStatus} class
+	 * @param responseCode The HTTP response code returned for the link (0 if unknown)
+	 * @param status The status description to be shown within the report
+	 * @param success Boolean value indicating whether the link is to be reported as a success or a failure
+	 */
+	public LinkStatus(int responseCode, String status, Boolean success) {
+		this(responseCode, status, success, null, null, Verification.CHECKED);
+	}
+	
+	/**
+	 * Constructor for the {@link LinkStatus} class
+	 * @param responseCode The HTTP response code returned for the link (0 if unknown)
+	 * @param status The status description to be shown within the report
+	 * @param success Boolean value indicating whether the link is to be reported as a success or a failure
+	 * @param eTag The ETag response header returned for the link, or null if absent
+	 * @param lastModified The Last-Modified response header returned for the link, or null if absent
+	 * @param verification Indicates how the status of the link was obtained
+	 */
+	public LinkStatus(int responseCode, String status, Boolean success,
+						String eTag, String lastModified, Verification verification) {
+		this(responseCode, status, success, eTag, lastModified, verification, null);
+	}
+	
+	/**
+	 * Constructor for the {@link LinkStatus} class
+	 * @param responseCode The HTTP response code returned for the link (0 if unknown)
+	 * @param status The status description to be shown within the report
+	 * @param success Boolean value indicating whether the link is to be reported as a success or a failure
+	 * @param eTag The ETag response header returned for the link, or null if absent
+	 * @param lastModified The Last-Modified response header returned for the link, or null if absent
+	 * @param verification Indicates how the status of the link was obtained
+	 * @param redirectChain The redirects followed from the link, as formatted by {@link RedirectResolver},
+	 * 						or null if the link did not redirect
+	 */
+	public LinkStatus(int responseCode, String status, Boolean success,
+						String eTag, String lastModified, Verification verification, String redirectChain) {
+		this(responseCode, status, success, eTag, lastModified, verification, redirectChain, -1);
+	}
+	
+	/**
+	 * Constructor for the {@link LinkStatus} class
+	 * @param responseCode The HTTP response code returned for the link (0 if unknown)
+	 * @param status The status description to be shown within the report
+	 * @param success Boolean value indicating whether the link is to be reported as a success or a failure
+	 * @param eTag The ETag response header returned for the link, or null if absent
+	 * @param lastModified The Last-Modified response header returned for the link, or null if absent
+	 * @param verification Indicates how the status of the link was obtained
+	 * @param redirectChain The redirects followed from the link, as formatted by {@link RedirectResolver},
+	 * 						or null if the link did not redirect
+	 * @param latency The time taken to check the link (including any redirects), in milliseconds (-1 if not measured)
+	 */
+	public LinkStatus(int responseCode, String status, Boolean success, String eTag, String lastModified,
+						Verification verification, String redirectChain, long latency) {
+		this(responseCode, status, success, eTag, lastModified, verification, redirectChain, latency, null);
+	}
+	
+	/**
+	 * Constructor for the {@link LinkStatus} of a link which could not be requested at all,
+	 * which is reported as a failure with the description of the {@link RequestFailure} as its status
+	 * @param requestFailure The reason why the link could not be requested
+	 */
+	public LinkStatus(RequestFailure requestFailure) {
+		this(0, requestFailure.toString(), false, null, null, Verification.CHECKED, null, -1, requestFailure);
+	}
+	
+	private LinkStatus(int responseCode, String status, Boolean success, String eTag, String lastModified,
+						Verification verification, String redirectChain, long latency, RequestFailure requestFailure) {
+		this.responseCode = responseCode;
+		this.status = status;
+		this.success = success;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.verification = verification;
+		this.redirectChain = redirectChain;
+		this.latency = latency;
+		this.requestFailure = requestFailure;
+	}
+	
+	/**
+	 * Function to get the HTTP response code returned for the link
+	 * @return The HTTP response code (0 if unknown)
+	 */
+	public int getResponseCode() {
+		return responseCode;
+	}
+	
+	/**
+	 * Function to get the status description of the link
+	 * @return The status description
+	 */
+	public String getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Function to check whether the link is to be reported as a success
+	 * @return Boolean value indicating whether the link is to be reported as a success or a failure
+	 */
+	public Boolean isSuccess() {
+		return success;
+	}
+	
+	/**
+	 * Function to get the ETag response header returned for the link
+	 * @return The ETag, or null if the server did not return one
+	 */
+	public String getETag() {
+		return eTag;
+	}
+	
+	/**
+	 * Function to get the Last-Modified response header returned for the link
+	 * @return The Last-Modified date, or null if the server did not return one
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * Function to get how the status of the link was obtained during the current run
+	 * @return The {@link Verification} of the link
+	 */
+	public Verification getVerification() {
+		return verification;
+	}
+	
+	/**
+	 * Function to get the redirects followed from the link, each with its response code and latency
+	 * @return The redirect chain, or null if the link did not redirect
+	 */
+	public String getRedirectChain() {
+		return redirectChain;
+	}
+	
+	/**
+	 * Function to get the time taken to check the link, including any redirects which were followed
+	 * @return The latency in milliseconds, or -1 if it was not measured
+	 */
+	public long getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Function to get the reason why the link could not be requested at all.
+	 * This is only known for links checked during the current run, since it is not stored along with the status.
+	 * @return The {@link RequestFailure}, or null if the link was requested
+	 */
+	public RequestFailure getRequestFailure() {
+		return requestFailure;
+	}
+	
+	/**
+	 * Function to get a copy of this {@link LinkStatus} with a different verification
+	 * @param verification The {@link Verification} to be applied
+	 * @return A copy of this {@link LinkStatus} with the given verification
+	 */
+	public LinkStatus withVerification(Verification verification) {
+		return new LinkStatus(responseCode, status, success, eTag, lastModified, verification, redirectChain, latency,
+							requestFailure);
+	}
+	
+	/**
+	 * Function to get a copy of this {@link LinkStatus} with different cache validators
+	 * @param eTag The ETag response header, or null if absent
+	 * @param lastModified The Last-Modified response header, or null if absent
+	 * @return A copy of this {@link LinkStatus} with the given cache validators
+	 */
+	public LinkStatus withValidators(String eTag, String lastModified) {
+		return new LinkStatus(responseCode, status, success, eTag, lastModified, verification, redirectChain, latency,
+							requestFailure);
+	}
+	
+	/**
+	 * Function to get a copy of this {@link LinkStatus} with a different status and latency
+	 * @param status The status description to be shown within the report
+	 * @param latency The time taken to check the link, in milliseconds
+	 * @return A copy of this {@link LinkStatus} with the given status and latency
+	 */
+	public LinkStatus withLatency(String status, long latency) {
+		return new LinkStatus(responseCode, status, success, eTag, lastModified, verification, redirectChain, latency,
+							requestFailure);
+	}
+}
@@ -0,0 +1,162 @@
+package com.autopia;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Run-wide cache of link check results, keyed by normalized URL.
+ * This is a singleton class, so that a link which appears on many pages (such as a header or footer link)
+ * is only checked once per run, regardless of the number of crawler threads which encounter it.
+ * @author vj
+ */
+public class LinkStatusCache {
+	
+	private static final Logger logger = LoggerFactory.getLogger(LinkStatusCache.class);
+	
+	private final ConcurrentMap<String, CompletableFuture<LinkStatus>> cache =
+															new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	private static final LinkStatusCache LINK_STATUS_CACHE = new LinkStatusCache();
+	
+	// To prevent external instantiation of this class
+	private LinkStatusCache() {
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link LinkStatusCache} class
+	 * @return Instance of the {@link LinkStatusCache} class
+	 */
+	public static LinkStatusCache getInstance() {
+		return LINK_STATUS_CACHE;
+	}
+	
+	/**
+	 * Function to get the status of the given link, checking it only if it has not been checked already.
+	 * If the link is already being checked, the pending result of that check is returned
+	 * instead of checking the link again.
+	 * @param url The URL of the link
+	 * @param linkChecker The function used to start checking the link on a cache miss;
+	 * 					its result may complete with null if the link could not be checked
+	 * @return The (possibly pending) status of the link, which completes with null if the link could not be checked
+	 */
+	public CompletableFuture<LinkStatus> getLinkStatus(String url,
+							Function<String, CompletableFuture<LinkStatus>> linkChecker) {
+		final String key = normalizeUrl(url);
+		final CompletableFuture<LinkStatus> pendingStatus = new CompletableFuture<>();
+		CompletableFuture<LinkStatus> existingStatus = cache.putIfAbsent(key, pendingStatus);
+		
+		if (existingStatus != null) {
+			hits.incrementAndGet();
+			return existingStatus;
+		}
+		
+		misses.incrementAndGet();
+		try {
+			linkChecker.apply(url).whenComplete((linkStatus, ex) -> {
+				if (ex != null) {
+					discard(key, pendingStatus, ex);
+				} else {
+					pendingStatus.complete(linkStatus);
+				}
+			});
+		} catch (RuntimeException ex) {
+			discard(key, pendingStatus, ex);
+		}
+		
+		return pendingStatus;
+	}
+	
+	/**
+	 * Function to add the status of a link which was checked before the current run was resumed,
+	 * so that the link is not checked again
+	 * @param url The URL of the link
+	 * @param linkStatus The status of the link, or null if the link could not be checked
+	 */
+	public void putLinkStatus(String url, LinkStatus linkStatus) {
+		cache.put(normalizeUrl(url), CompletableFuture.completedFuture(linkStatus));
+	}
+	
+	private void discard(String key, CompletableFuture<LinkStatus> pendingStatus, Throwable cause) {
+		// Do not cache unexpected failures - allow the next referrer to check the link again
+		cache.remove(key, pendingStatus);
+		pendingStatus.completeExceptionally(cause);
+	}
+	
+	/**
+	 * Function to get the number of link lookups which were served from the cache
+	 * @return The number of cache hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * Function to get the number of link lookups which required the link to be checked
+	 * @return The number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Function to log the cache statistics for the current run
+	 */
+	public void logStatistics() {
+		logger.info("Link status cache: " + getHitCount() + " hits, " + getMissCount() +
+						" misses, " + cache.size() + " unique links checked");
+	}
+	
+	/**
+	 * Function to normalize the given URL for use as a cache key.
+	 * The URL is normalized as per {@link #normalizeRequestUrl(String)}, after being canonicalized as per
+	 * {@link UrlCanonicalizer}, so that equivalent links share their status.
+	 * @param url The URL to be normalized
+	 * @return The normalized URL
+	 */
+	static String normalizeUrl(String url) {
+		return normalizeRequestUrl(UrlCanonicalizer.canonicalize(url.trim()));
+	}
+	
+	/**
+	 * Function to normalize the given URL without canonicalizing it, for use where the URL is to be told apart
+	 * from the equivalent URLs which the server may redirect it to (such as the hops of a redirect chain).
+	 * The scheme and host are lower cased, and any fragment is removed, since these do not affect the response.
+	 * @param url The URL to be normalized
+	 * @return The normalized URL
+	 */
+	static String normalizeRequestUrl(String url) {
+		String trimmedUrl = url.trim();
+		int fragmentPosition = trimmedUrl.indexOf('#');
+		if (fragmentPosition >= 0) {
+			trimmedUrl = trimmedUrl.substring(0, fragmentPosition);
+		}
+		
+		try {
+			URI uri = new URI(trimmedUrl);
+			if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+				return trimmedUrl;
+			}
+			
+			String path = uri.getRawPath();
+			if (path == null || path.isEmpty()) {
+				path = "/";
+			}
+			String query = (uri.getRawQuery() == null)? "" : "?" + uri.getRawQuery();
+			
+			return uri.getScheme().toLowerCase(Locale.ROOT) + "://" +
+					uri.getRawAuthority().toLowerCase(Locale.ROOT) + path + query;
+		} catch (Exception ex) {
+			return trimmedUrl;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package com.autopia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Run-level metrics for the broken link test program.
+ * The crawler, link checker and link prober update lock free counters and per-host latency histograms as they run,
+ * and queue depths are read from their owners whenever the metrics are published.
+ * The metrics are published as a JMX MBean, in Prometheus text format over a local HTTP endpoint (see {@link MetricsServer}),
+ * as a progress line in the log once every metrics interval, and as a summary within the report folder at the end of the run.
+ * This is a singleton class, to allow for metrics consolidation from multiple threads.
+ * @author vj
+ */
+public class Metrics implements MetricsMBean {
+	
+	private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+	
+	private static final long METRICS_INTERVAL = Settings.getLong(Setting.METRICS_INTERVAL);
+	private static final Boolean METRICS_JMX_ENABLED = Settings.getBoolean(Setting.METRICS_JMX_ENABLED);
+	private static final int METRICS_HTTP_PORT = Settings.getInt(Setting.METRICS_HTTP_PORT);
+	
+	private static final String OBJECT_NAME = "com.autopia:type=Metrics";
+	
+	private final long startTime = System.nanoTime();
+	private final AtomicLong pagesVisited = new AtomicLong();
+	private final AtomicLong linksReported = new AtomicLong();
+	private final AtomicLong linksChecked = new AtomicLong();
+	private final AtomicLong connectionFailures = new AtomicLong();
+	private final AtomicLongArray responseClasses = new AtomicLongArray(6);	// Index 0 holds unknown response codes
+	private final ConcurrentMap<String, LatencyHistogram> hostLatencies = new ConcurrentHashMap<>();
+	
+	private ScheduledExecutorService timer;
+	private MetricsServer metricsServer;
+	private volatile double pagesPerSecond;
+	private volatile double linksCheckedPerSecond;
+	private long lastSampleTime = startTime;
+	private long lastPagesVisited;
+	private long lastLinksChecked;
+	
+	private static final Metrics METRICS = new Metrics();
+	
+	// To prevent external instantiation of this class
+	private Metrics() {
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link Metrics} class
+	 * @return Instance of the {@link Metrics} class
+	 */
+	public static Metrics getInstance() {
+		return METRICS;
+	}
+	
+	/**
+	 * Function to start publishing the metrics, as configured
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		
+		if (METRICS_JMX_ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			} catch (Exception ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		}
+		
+		if (METRICS_HTTP_PORT > 0) {
+			try {
+				metricsServer = new MetricsServer(this, METRICS_HTTP_PORT);
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		}
+		
+		timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(this::sample, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Function to stop publishing the metrics
+	 */
+	public synchronized void stop() {
+		if (null == timer) {
+			return;
+		}
+		
+		timer.shutdownNow();
+		if (metricsServer != null) {
+			metricsServer.stop();
+		}
+		if (METRICS_JMX_ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+			} catch (Exception ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		}
+	}
+	
+	private synchronized void sample() {
+		long now = System.nanoTime();
+		double elapsedSeconds = (now - lastSampleTime) / 1e9;
+		long pages = pagesVisited.get();
+		long links = linksChecked.get();
+		
+		pagesPerSecond = (pages - lastPagesVisited) / elapsedSeconds;
+		linksCheckedPerSecond = (links - lastLinksChecked) / elapsedSeconds;
+		lastSampleTime = now;
+		lastPagesVisited = pages;
+		lastLinksChecked = links;
+		
+		logger.info(String.format(Locale.ROOT, "Progress: %d pages (%.1f/s), %d links checked (%.1f/s), " +
+						"%d links pending, %d queued, %d in flight, %d report rows waiting",
+						pages, pagesPerSecond, links, linksCheckedPerSecond, getPendingLinks(),
+						getLinkCheckQueueDepth(), getInFlightLinkChecks(), getReportBacklog()));
+	}
+	
+	/**
+	 * Function to record a page visited by the crawler
+	 */
+	public void pageVisited() {
+		pagesVisited.incrementAndGet();
+	}
+	
+	/**
+	 * Function to record a row added to the report
+	 */
+	public void linkReported() {
+		linksReported.incrementAndGet();
+	}
+	
+	/**
+	 * Function to record the result of checking a link
+	 * @param linkStatus The status of the link, or null if a connection could not be established
+	 */
+	public void linkChecked(LinkStatus linkStatus) {
+		linksChecked.incrementAndGet();
+		if (null == linkStatus) {
+			connectionFailures.incrementAndGet();
+			return;
+		}
+		
+		int responseClass = linkStatus.getResponseCode() / 100;
+		responseClasses.incrementAndGet((responseClass >= 1 && responseClass <= 5)? responseClass : 0);
+	}
+	
+	/**
+	 * Function to record the latency of a single request sent to a host
+	 * @param host The host to which the request was sent
+	 * @param latencyNanos The time taken for the response headers to be received, in nanoseconds
+	 */
+	public void recordLatency(String host, long latencyNanos) {
+		LatencyHistogram histogram = hostLatencies.get(host);
+		if (null == histogram) {
+			histogram = hostLatencies.computeIfAbsent(host, key -> new LatencyHistogram());
+		}
+		histogram.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+	}
+	
+	@Override
+	public long getPagesVisited() {
+		return pagesVisited.get();
+	}
+	
+	@Override
+	public double getPagesPerSecond() {
+		return pagesPerSecond;
+	}
+	
+	@Override
+	public long getLinksReported() {
+		return linksReported.get();
+	}
+	
+	@Override
+	public long getLinksChecked() {
+		return linksChecked.get();
+	}
+	
+	@Override
+	public double getLinksCheckedPerSecond() {
+		return linksCheckedPerSecond;
+	}
+	
+	@Override
+	public long getConnectionFailures() {
+		return connectionFailures.get();
+	}
+	
+	@Override
+	public long getResponses1xx() {
+		return responseClasses.get(1);
+	}
+	
+	@Override
+	public long getResponses2xx() {
+		return responseClasses.get(2);
+	}
+	
+	@Override
+	public long getResponses3xx() {
+		return responseClasses.get(3);
+	}
+	
+	@Override
+	public long getResponses4xx() {
+		return responseClasses.get(4);
+	}
+	
+	@Override
+	public long getResponses5xx() {
+		return responseClasses.get(5);
+	}
+	
+	@Override
+	public long getPendingLinks() {
+		return LinkChecker.getInstance().getPendingLinkCount();
+	}
+	
+	@Override
+	public int getLinkCheckQueueDepth() {
+		return LinkChecker.getInstance().getQueuedLinkCount();
+	}
+	
+	@Override
+	public int getHostQueueDepth() {
+		return LinkChecker.getInstance().getHostQueueDepth();
+	}
+	
+	@Override
+	public int getInFlightLinkChecks() {
+		return LinkChecker.getInstance().getActiveLinkCheckCount();
+	}
+	
+	@Override
+	public int getReportBacklog() {
+		// Distributed workers send their report rows to the coordinator, and do not have a report of their own,
+		// while batch runs have a report per site
+		return Report.getTotalBacklog();
+	}
+	
+	@Override
+	public long getReportRecordsWritten() {
+		return Report.getTotalWrittenRecordCount();
+	}
+	
+	@Override
+	public String getHostLatencies() {
+		StringBuilder hostLatencySummary = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> hostLatency : getHostsBySlowest()) {
+			LatencyHistogram histogram = hostLatency.getValue();
+			hostLatencySummary.append(String.format(Locale.ROOT, "%s: %d requests, p50 %.1f ms, p99 %.1f ms, " +
+									"p99.9 %.1f ms, max %.1f ms%n", hostLatency.getKey(), histogram.getCount(),
+									toMillis(histogram.getValueAtPercentile(50)),
+									toMillis(histogram.getValueAtPercentile(99)),
+									toMillis(histogram.getValueAtPercentile(99.9)),
+									toMillis(histogram.getMax())));
+		}
+		return hostLatencySummary.toString();
+	}
+	
+	private List<Map.Entry<String, LatencyHistogram>> getHostsBySlowest() {
+		List<Map.Entry<String, LatencyHistogram>> hosts = new ArrayList<>(hostLatencies.entrySet());
+		Collections.sort(hosts, (first, second) -> Long.compare(second.getValue().getValueAtPercentile(99),
+															first.getValue().getValueAtPercentile(99)));
+		return hosts;
+	}
+	
+	private static double toMillis(long micros) {
+		return micros / 1000.0;
+	}
+	
+	/**
+	 * Function to format the current metrics in the Prometheus text exposition format
+	 * @return The metrics, in Prometheus text format
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder(4096);
+		appendMetric(text, "weaklinks_pages_visited_total", "counter", "Pages visited by the crawler",
+						getPagesVisited());
+		appendMetric(text, "weaklinks_links_reported_total", "counter", "Rows added to the report",
+						getLinksReported());
+		appendMetric(text, "weaklinks_links_checked_total", "counter", "Unique links checked",
+						getLinksChecked());
+		appendMetric(text, "weaklinks_connection_failures_total", "counter",
+						"Links which could not be checked since a connection could not be established",
+						getConnectionFailures());
+		
+		text.append("# HELP weaklinks_link_responses_total Unique links checked, by response status class\n");
+		text.append("# TYPE weaklinks_link_responses_total counter\n");
+		for (int responseClass = 0; responseClass <= 5; responseClass++) {
+			text.append("weaklinks_link_responses_total{status_class=\"")
+				.append((0 == responseClass)? "unknown" : responseClass + "xx").append("\"} ")
+				.append(responseClasses.get(responseClass)).append('\n');
+		}
+		
+		appendMetric(text, "weaklinks_pending_links", "gauge", "Links found but not yet reported",
+						getPendingLinks());
+		appendMetric(text, "weaklinks_link_check_queue_depth", "gauge", "Unique links waiting to be checked",
+						getLinkCheckQueueDepth());
+		appendMetric(text, "weaklinks_host_queue_depth", "gauge", "Link checks waiting within the per-host queues",
+						getHostQueueDepth());
+		appendMetric(text, "weaklinks_link_checks_in_flight", "gauge", "Link checks currently running",
+						getInFlightLinkChecks());
+		appendMetric(text, "weaklinks_report_backlog", "gauge", "Report rows waiting to be written",
+						getReportBacklog());
+		appendMetric(text, "weaklinks_report_rows_written_total", "counter", "Report rows written",
+						getReportRecordsWritten());
+		
+		text.append("# HELP weaklinks_host_request_latency_seconds Latency of the requests sent to each host\n");
+		text.append("# TYPE weaklinks_host_request_latency_seconds summary\n");
+		for (Map.Entry<String, LatencyHistogram> hostLatency : hostLatencies.entrySet()) {
+			String host = escapeLabel(hostLatency.getKey());
+			LatencyHistogram histogram = hostLatency.getValue();
+			for (double quantile : new double[] {0.5, 0.99, 0.999}) {
+				text.append("weaklinks_host_request_latency_seconds{host=\"").append(host)
+					.append("\",quantile=\"").append(quantile).append("\"} ")
+					.append(histogram.getValueAtPercentile(quantile * 100) / 1e6).append('\n');
+			}
+			text.append("weaklinks_host_request_latency_seconds_sum{host=\"").append(host).append("\"} ")
+				.append(histogram.getTotal() / 1e6).append('\n');
+			text.append("weaklinks_host_request_latency_seconds_count{host=\"").append(host).append("\"} ")
+				.append(histogram.getCount()).append('\n');
+		}
+		return text.toString();
+	}
+	
+	private static void appendMetric(StringBuilder text, String name, String type, String help, long value) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		text.append(name).append(' ').append(value).append('\n');
+	}
+	
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+	
+	/**
+	 * Function to write a summary of the metrics for the whole run to the given folder, as SiteLinks_MetricsSummary.txt
+	 * @param folder The folder within which the summary is to be written
+	 */
+	public void writeSummary(File folder) {
+		double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+		
+		try (PrintWriter writer = new PrintWriter(new File(folder, "SiteLinks_MetricsSummary.txt"))) {
+			writer.printf(Locale.ROOT, "Run duration: %.1f s%n", elapsedSeconds);
+			writer.printf(Locale.ROOT, "Pages visited: %d (%.2f pages/s)%n",
+							getPagesVisited(), getPagesVisited() / elapsedSeconds);
+			writer.printf(Locale.ROOT, "Links checked: %d (%.2f links/s)%n",
+							getLinksChecked(), getLinksChecked() / elapsedSeconds);
+			writer.printf(Locale.ROOT, "Links reported: %d%n", getLinksReported());
+			writer.printf(Locale.ROOT, "Responses: 1xx=%d, 2xx=%d, 3xx=%d, 4xx=%d, 5xx=%d, unknown=%d, " +
+							"connection failures=%d%n", getResponses1xx(), getResponses2xx(), getResponses3xx(),
+							getResponses4xx(), getResponses5xx(), responseClasses.get(0), getConnectionFailures());
+			writer.println();
+			writer.println("Request latency by host (slowest first):");
+			writer.print(getHostLatencies());
+			
+			logger.info("Metrics summary written successfully");
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.autopia;
+
+/**
+ * JMX management interface of the run {@link Metrics}.
+ * Rates are measured over the most recent metrics interval.
+ * @author vj
+ */
+public interface MetricsMBean {
+	
+	/**
+	 * Function to get the number of pages visited by the crawler
+	 * @return The number of pages visited
+	 */
+	long getPagesVisited();
+	
+	/**
+	 * Function to get the number of pages visited per second
+	 * @return The number of pages visited per second
+	 */
+	double getPagesPerSecond();
+	
+	/**
+	 * Function to get the number of rows added to the report
+	 * @return The number of rows added to the report
+	 */
+	long getLinksReported();
+	
+	/**
+	 * Function to get the number of unique links checked
+	 * @return The number of unique links checked
+	 */
+	long getLinksChecked();
+	
+	/**
+	 * Function to get the number of unique links checked per second
+	 * @return The number of unique links checked per second
+	 */
+	double getLinksCheckedPerSecond();
+	
+	/**
+	 * Function to get the number of links which could not be checked since a connection could not be established
+	 * @return The number of connection failures
+	 */
+	long getConnectionFailures();
+	
+	/**
+	 * Function to get the number of links checked which returned a 1xx response
+	 * @return The number of 1xx responses
+	 */
+	long getResponses1xx();
+	
+	/**
+	 * Function to get the number of links checked which returned a 2xx response
+	 * @return The number of 2xx responses
+	 */
+	long getResponses2xx();
+	
+	/**
+	 * Function to get the number of links checked which returned a 3xx response
+	 * @return The number of 3xx responses
+	 */
+	long getResponses3xx();
+	
+	/**
+	 * Function to get the number of links checked which returned a 4xx response
+	 * @return The number of 4xx responses
+	 */
+	long getResponses4xx();
+	
+	/**
+	 * Function to get the number of links checked which returned a 5xx response
+	 * @return The number of 5xx responses
+	 */
+	long getResponses5xx();
+	
+	/**
+	 * Function to get the number of links found but not yet reported
+	 * @return The number of pending links
+	 */
+	long getPendingLinks();
+	
+	/**
+	 * Function to get the number of unique links waiting to be checked
+	 * @return The number of queued links
+	 */
+	int getLinkCheckQueueDepth();
+	
+	/**
+	 * Function to get the number of link checks waiting within the per-host queues
+	 * @return The number of link checks waiting for their host
+	 */
+	int getHostQueueDepth();
+	
+	/**
+	 * Function to get the number of link checks currently running
+	 * @return The number of link checks in flight
+	 */
+	int getInFlightLinkChecks();
+	
+	/**
+	 * Function to get the number of report rows waiting to be written
+	 * @return The report backlog
+	 */
+	int getReportBacklog();
+	
+	/**
+	 * Function to get the number of report rows written
+	 * @return The number of report rows written
+	 */
+	long getReportRecordsWritten();
+	
+	/**
+	 * Function to get the request latency percentiles of each host, slowest hosts first
+	 * @return One line per host, with its request count and latency percentiles in milliseconds
+	 */
+	String getHostLatencies();
+}
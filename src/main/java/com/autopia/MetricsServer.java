@@ -0,0 +1,64 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Local HTTP endpoint which serves the run {@link Metrics} in Prometheus text format at /metrics.
+ * The endpoint listens only on the loopback interface.
+ * @author vj
+ */
+public class MetricsServer {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+	
+	private final Metrics metrics;
+	private final HttpServer server;
+	
+	/**
+	 * Constructor for the {@link MetricsServer} class, which starts the endpoint
+	 * @param metrics The {@link Metrics} to be served
+	 * @param port The local port on which the endpoint is to listen
+	 * @throws IOException If the endpoint could not be started
+	 */
+	public MetricsServer(Metrics metrics, int port) throws IOException {
+		this.metrics = metrics;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", this::handle);
+		server.start();
+		
+		logger.info("Metrics available at http://localhost:" + port + "/metrics");
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		} catch (RuntimeException ex) {
+			logger.error(ex.getMessage(), ex);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Function to stop the endpoint
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+}
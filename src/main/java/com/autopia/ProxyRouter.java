@@ -0,0 +1,161 @@
+package com.autopia;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.protocol.HttpContext;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Singleton class which decides how the crawler and the link checker connect to each host, as per the proxy settings.
+ * Hosts which match ProxyBypassPattern (such as internal hosts) are connected to directly, while all other hosts are
+ * connected to through one of the proxies listed within ProxyHost. The hosts are spread across the proxies by name,
+ * so that each host is always reached through the same proxy and keeps reusing the same keep-alive connections.
+ * Each proxy is checked every ProxyHealthCheckInterval milliseconds, and a proxy which cannot be reached
+ * is skipped until it recovers.
+ * Since HttpClient pools its connections per route, each host gets its own connection pool for each route.
+ * @author vj
+ */
+public class ProxyRouter extends DefaultRoutePlanner {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ProxyRouter.class);
+	private static final int HEALTH_CHECK_TIMEOUT = 5000;
+	
+	private final boolean enabled = Settings.getBoolean(Setting.PROXY_REQUIRED);
+	// Host names are case-insensitive, so the bypass pattern is matched regardless of case
+	private final Pattern bypassPattern =
+				Pattern.compile(Settings.getPattern(Setting.PROXY_BYPASS_PATTERN).pattern(), Pattern.CASE_INSENSITIVE);
+	private final List<HttpHost> proxies;
+	private volatile List<HttpHost> healthyProxies;
+	private ScheduledExecutorService healthChecker;
+	
+	private static final ProxyRouter PROXY_ROUTER = new ProxyRouter();
+	
+	// To prevent external instantiation of this class
+	private ProxyRouter() {
+		super(null);
+		proxies = parseProxies(Settings.getString(Setting.PROXY_HOST), Settings.getInt(Setting.PROXY_PORT));
+		healthyProxies = proxies;
+		
+		long healthCheckInterval = Settings.getLong(Setting.PROXY_HEALTH_CHECK_INTERVAL);
+		if (enabled && healthCheckInterval > 0) {
+			healthChecker = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "ProxyHealthCheck");
+				thread.setDaemon(true);
+				return thread;
+			});
+			healthChecker.scheduleWithFixedDelay(this::checkProxies, 0, healthCheckInterval,
+													TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Function to return the Singleton instance of the {@link ProxyRouter} class
+	 * @return Instance of the {@link ProxyRouter} class
+	 */
+	public static ProxyRouter getInstance() {
+		return PROXY_ROUTER;
+	}
+	
+	private static List<HttpHost> parseProxies(String proxyHosts, int defaultPort) {
+		List<HttpHost> proxies = new ArrayList<>();
+		for (String proxyHost : proxyHosts.split(",")) {
+			proxyHost = proxyHost.trim();
+			if (proxyHost.isEmpty()) {
+				continue;
+			}
+			
+			int portSeparator = proxyHost.lastIndexOf(':');
+			if (portSeparator < 0) {
+				proxies.add(new HttpHost(proxyHost, defaultPort));
+				continue;
+			}
+			try {
+				proxies.add(new HttpHost(proxyHost.substring(0, portSeparator),
+									Integer.parseInt(proxyHost.substring(portSeparator + 1))));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The setting " + Setting.PROXY_HOST.getKey() + " (" + proxyHosts +
+									") must list the proxies as host or host:port, separated by commas", ex);
+			}
+		}
+		return Collections.unmodifiableList(proxies);
+	}
+	
+	/**
+	 * Function to check whether the connections are to be routed as per the proxy settings
+	 * @return Boolean value indicating whether ProxyRequired is enabled and at least one proxy is specified
+	 */
+	public boolean isEnabled() {
+		return enabled && !proxies.isEmpty();
+	}
+	
+	/**
+	 * Function to get the proxy through which the given host is to be reached
+	 * @param host The name of the host
+	 * @return The proxy, or null if the host is to be connected to directly
+	 */
+	public HttpHost getProxy(String host) {
+		if (!isEnabled() || bypassPattern.matcher(host).matches()) {
+			return null;
+		}
+		
+		List<HttpHost> candidates = healthyProxies;
+		return candidates.get(Math.floorMod(host.toLowerCase(Locale.ROOT).hashCode(), candidates.size()));
+	}
+	
+	@Override
+	protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) {
+		return getProxy(target.getHostName());
+	}
+	
+	private void checkProxies() {
+		List<HttpHost> reachableProxies = new ArrayList<>();
+		for (HttpHost proxy : proxies) {
+			boolean wasHealthy = healthyProxies.contains(proxy);
+			if (isReachable(proxy)) {
+				reachableProxies.add(proxy);
+				if (!wasHealthy) {
+					logger.info("The proxy " + proxy.toHostString() + " is reachable again");
+				}
+			} else if (wasHealthy) {
+				logger.warn("The proxy " + proxy.toHostString() + " cannot be reached, so it is skipped until it recovers");
+			}
+		}
+		
+		if (reachableProxies.isEmpty()) {
+			// Skipping every proxy would not help, so the hosts stay spread across all of them
+			logger.error("None of the proxies can be reached");
+			healthyProxies = proxies;
+		} else {
+			healthyProxies = Collections.unmodifiableList(reachableProxies);
+		}
+	}
+	
+	private static boolean isReachable(HttpHost proxy) {
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(proxy.getHostName(), proxy.getPort()), HEALTH_CHECK_TIMEOUT);
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+	
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		throw new CloneNotSupportedException();
+	}
+}
@@ -0,0 +1,349 @@
+package com.autopia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Class which follows the redirects returned for a link, up to the configured maximum number of redirects.
+ * Each response along the way (a hop) is cached for the rest of the run, so that redirect chains shared by many links
+ * (such as http to https, or a moved section of a site) are only followed once. Redirect loops are detected,
+ * and relative Location headers are resolved against the URL which returned them, as per RFC 3986.
+ * Instances of this class are thread safe and are meant to be shared across threads.
+ * @author vj
+ */
+public class RedirectResolver {
+	
+	private static final Logger logger = LoggerFactory.getLogger(RedirectResolver.class);
+	
+	private static final int MAX_REDIRECTS = Settings.getInt(Setting.LINK_CHECK_MAX_REDIRECTS);
+	
+	// RFC 3986, Appendix B: scheme, authority, path, query and fragment of a URI reference
+	private static final Pattern URI_REFERENCE =
+			Pattern.compile("^(?:([^:/?#]+):)?(?://([^/?#]*))?([^?#]*)(?:\\?([^#]*))?(?:#(.*))?$");
+	
+	/**
+	 * The outcome of following the redirects of a link
+	 */
+	public enum Outcome {
+		/** The chain ended with a response which is not a redirect, or with a connection failure */
+		COMPLETED,
+		/** The chain redirected back to a URL which was already part of the chain */
+		LOOP,
+		/** The chain was longer than the configured maximum number of redirects */
+		TOO_MANY_REDIRECTS,
+		/** The deadline for checking the link passed before the chain ended */
+		TIMED_OUT
+	}
+		
+	private final BiFunction<String, Long, Hop> hopFetcher;
+	private final ConcurrentMap<String, Hop> hopCache = new ConcurrentHashMap<>();
+	private final AtomicLong cachedHops = new AtomicLong();
+	private final AtomicLong fetchedHops = new AtomicLong();
+	
+	/**
+	 * Constructor for the {@link RedirectResolver} class
+	 * @param hopFetcher The function which requests a URL (within the given deadline) without following its redirects,
+	 * 					returning null if a connection could not be established
+	 */
+	public RedirectResolver(BiFunction<String, Long, Hop> hopFetcher) {
+		this.hopFetcher = hopFetcher;
+	}
+	
+	/**
+	 * Function to follow the redirects starting from the given response
+	 * @param firstHop The response returned for the link itself
+	 * @param deadline The deadline for checking the link, as per {@link DeadlineTimer}
+	 * @return The {@link RedirectChain}, starting with the given response
+	 */
+	public RedirectChain resolve(Hop firstHop, long deadline) {
+		List<Hop> hops = new ArrayList<>();
+		Set<String> visitedUrls = new HashSet<>();
+		
+		Hop hop = firstHop;
+		cacheHop(hop);
+		while (true) {
+			hops.add(hop);
+			visitedUrls.add(LinkStatusCache.normalizeRequestUrl(hop.getUrl()));
+			if (!hop.isRedirect()) {
+				return new RedirectChain(hops, Outcome.COMPLETED);
+			}
+			
+			String nextUrl = hop.getLocation();
+			logger.info(hop.getUrl() + " redirected to " + nextUrl);
+			if (visitedUrls.contains(LinkStatusCache.normalizeRequestUrl(nextUrl))) {
+				return new RedirectChain(hops, Outcome.LOOP);
+			}
+			if (hops.size() > MAX_REDIRECTS) {
+				return new RedirectChain(hops, Outcome.TOO_MANY_REDIRECTS);
+			}
+			if (DeadlineTimer.isExpired(deadline)) {
+				return new RedirectChain(hops, Outcome.TIMED_OUT);
+			}
+			
+			hop = getHop(nextUrl, deadline);
+			if (null == hop) {
+				hops.add(new Hop(nextUrl, 0, null, -1));	// No response
+				return new RedirectChain(hops, DeadlineTimer.isExpired(deadline)? Outcome.TIMED_OUT : Outcome.COMPLETED);
+			}
+		}
+	}
+	
+	private Hop getHop(String url, long deadline) {
+		Hop hop = hopCache.get(LinkStatusCache.normalizeRequestUrl(url));
+		if (hop != null) {
+			cachedHops.incrementAndGet();
+			return hop;
+		}
+		
+		// Concurrent chains through the same URL may both fetch it; waiting for each other instead
+		// could deadlock two chains which run through the same loop in opposite directions
+		hop = hopFetcher.apply(url, deadline);
+		fetchedHops.incrementAndGet();
+		cacheHop(hop);
+		return hop;
+	}
+	
+	private void cacheHop(Hop hop) {
+		if (hop != null && hop.getResponseCode() != 0) {
+			hopCache.putIfAbsent(LinkStatusCache.normalizeRequestUrl(hop.getUrl()), hop);
+		}
+	}
+	
+	/**
+	 * Function to log the redirect statistics for the current run
+	 */
+	public void logStatistics() {
+		logger.info("Redirect resolver: " + fetchedHops.get() + " hops requested, " +
+						cachedHops.get() + " hops reused from the cache");
+	}
+	
+	/**
+	 * Function to resolve a URI reference (such as a relative Location header) against a base URL, as per RFC 3986
+	 * @param baseUrl The absolute URL against which the reference is to be resolved
+	 * @param reference The URI reference
+	 * @return The resolved URL
+	 */
+	public static String resolveReference(String baseUrl, String reference) {
+		Matcher base = URI_REFERENCE.matcher(baseUrl);
+		Matcher relative = URI_REFERENCE.matcher(reference.trim());
+		if (!base.matches() || !relative.matches()) {
+			return reference;	// Not expected, since the pattern matches any string
+		}
+			
+		String scheme, authority, path, query;
+		if (relative.group(1) != null) {
+			scheme = relative.group(1);
+			authority = relative.group(2);
+			path = removeDotSegments(relative.group(3));
+			query = relative.group(4);
+		} else {
+			scheme = base.group(1);
+			if (relative.group(2) != null) {
+				authority = relative.group(2);
+				path = removeDotSegments(relative.group(3));
+				query = relative.group(4);
+			} else {
+				authority = base.group(2);
+				if (relative.group(3).isEmpty()) {
+					path = base.group(3);
+					query = (relative.group(4) != null)? relative.group(4) : base.group(4);
+				} else {
+					path = relative.group(3).startsWith("/")? relative.group(3) :
+									mergePaths(base.group(2), base.group(3), relative.group(3));
+					path = removeDotSegments(path);
+					query = relative.group(4);
+				}
+			}
+		}
+		
+		StringBuilder url = new StringBuilder();
+		if (scheme != null) {
+			url.append(scheme).append(':');
+		}
+		if (authority != null) {
+			url.append("//").append(authority);
+		}
+		url.append(path);
+		if (query != null) {
+			url.append('?').append(query);
+		}
+		if (relative.group(5) != null) {
+			url.append('#').append(relative.group(5));
+		}
+		return url.toString();
+	}
+	
+	private static String mergePaths(String baseAuthority, String basePath, String relativePath) {
+		if (baseAuthority != null && basePath.isEmpty()) {
+			return "/" + relativePath;
+		}
+		return basePath.substring(0, basePath.lastIndexOf('/') + 1) + relativePath;
+	}
+	
+	private static String removeDotSegments(String path) {
+		// RFC 3986, section 5.2.4
+		String input = path;
+		StringBuilder output = new StringBuilder(path.length());
+		while (!input.isEmpty()) {
+			if (input.startsWith("../")) {
+				input = input.substring(3);
+			} else if (input.startsWith("./")) {
+				input = input.substring(2);
+			} else if (input.startsWith("/./")) {
+				input = input.substring(2);
+			} else if (input.equals("/.")) {
+				input = "/";
+			} else if (input.startsWith("/../")) {
+				input = input.substring(3);
+				output.setLength(Math.max(output.lastIndexOf("/"), 0));
+			} else if (input.equals("/..")) {
+				input = "/";
+				output.setLength(Math.max(output.lastIndexOf("/"), 0));
+			} else if (input.equals(".") || input.equals("..")) {
+				input = "";
+			} else {
+				int segmentEnd = input.indexOf('/', input.startsWith("/")? 1 : 0);
+				if (segmentEnd < 0) {
+					segmentEnd = input.length();
+				}
+				output.append(input, 0, segmentEnd);
+				input = input.substring(segmentEnd);
+			}
+		}
+		return output.toString();
+	}
+	
+	/**
+	 * A single response along a redirect chain
+	 */
+	public static class Hop {
+		private final String url;
+		private final int responseCode;
+		private final String location;
+		private final long latency;
+		
+		/**
+		 * Constructor for the {@link Hop} class
+		 * @param url The URL which was requested
+		 * @param responseCode The HTTP response code returned for the URL (0 if unknown)
+		 * @param location The Location response header as returned by the server, or null if absent
+		 * @param latency The time taken to receive the response, in nanoseconds (negative if there was no response)
+		 */
+		public Hop(String url, int responseCode, String location, long latency) {
+			this.url = url;
+			this.responseCode = responseCode;
+			this.location = (null == location)? null : resolveReference(url, location);
+			this.latency = latency;
+		}
+		
+		/**
+		 * Function to get the URL which was requested
+		 * @return The URL
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+		/**
+		 * Function to get the HTTP response code returned for the URL
+		 * @return The HTTP response code (0 if unknown)
+		 */
+		public int getResponseCode() {
+			return responseCode;
+		}
+		
+		/**
+		 * Function to get the absolute URL to which the response redirects
+		 * @return The resolved Location header, or null if absent
+		 */
+		public String getLocation() {
+			return location;
+		}
+		
+		/**
+		 * Function to check whether the response redirects to another URL
+		 * @return Boolean value indicating whether the response is a redirect with a Location header
+		 */
+		public boolean isRedirect() {
+			return responseCode / 100 == 3 && responseCode != 304 && location != null;
+		}
+		
+		@Override
+		public String toString() {
+			if (latency < 0) {
+				return url + " (no response)";
+			}
+			return url + " (" + responseCode + ", " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms)";
+		}
+	}
+	
+	/**
+	 * The redirects followed from a link, starting with the response returned for the link itself
+	 */
+	public static class RedirectChain {
+		private final List<Hop> hops;
+		private final Outcome outcome;
+		
+		RedirectChain(List<Hop> hops, Outcome outcome) {
+			this.hops = Collections.unmodifiableList(hops);
+			this.outcome = outcome;
+		}
+		
+		/**
+		 * Function to get the responses along the chain
+		 * @return The hops, in the order in which they were followed
+		 */
+		public List<Hop> getHops() {
+			return hops;
+		}
+		
+		/**
+		 * Function to get the outcome of following the chain
+		 * @return The {@link Outcome}
+		 */
+		public Outcome getOutcome() {
+			return outcome;
+		}
+		
+		/**
+		 * Function to get the URL at which the chain ended
+		 * @return The final URL; for a loop or an overly long chain, the last URL which was requested
+		 */
+		public String getFinalUrl() {
+			return hops.get(hops.size() - 1).getUrl();
+		}
+		
+		/**
+		 * Function to format the chain for the report, with the response code and latency of each hop.
+		 * Hops reused from the cache show the latency measured when they were first requested.
+		 * @return The formatted chain
+		 */
+		@Override
+		public String toString() {
+			StringBuilder chain = new StringBuilder();
+			for (Hop hop : hops) {
+				if (chain.length() > 0) {
+					chain.append(" -> ");
+				}
+				chain.append(hop);
+			}
+			if (outcome == Outcome.LOOP) {
+				chain.append(" -> ").append(hops.get(hops.size() - 1).getLocation());
+			}
+			return chain.toString();
+		}
+	}
+}
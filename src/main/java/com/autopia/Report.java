@@ -4,8 +4,19 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.Properties;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.autopia.Settings;
 import com.autopia.Util;
@@ -16,99 +27,379 @@ import uk.org.lidalia.slf4jext.LoggerFactory;
 /**
  * The reporting class for the broken link test program.
  * This is a singleton class, to allow for report consolidation from multiple threads.
+ * Threads publish {@link ReportRecord}s into a bounded queue without taking any lock, and a single writer thread
+ * writes them to disk in batches. Publishing threads wait only when the writer falls behind by more than the queue size.
+ * The writer thread sleeps while the queue is empty, until a record is published or the report is due to be flushed.
+ * The report is written as CSV, as a compact binary report (see {@link BinaryReportWriter}), or both, as configured.
+ * The records of each page are written together, so that the writer thread can take a {@link Checkpoint} between pages.
+ * In batch mode, each {@link Site} has a report of its own, within its own folder.
  * @author vj
  */
 public class Report {
 	
 	private static final Logger logger = LoggerFactory.getLogger(Report.class);
-	private static final Properties PROPERTIES = Settings.getInstance();
-	private static final String REPORT_PATH = PROPERTIES.getProperty("ReportPath");
+	private static final String REPORT_PATH = Settings.getString(Setting.REPORT_PATH);
+	private static final int QUEUE_SIZE = Settings.getInt(Setting.REPORT_QUEUE_SIZE);
+	private static final int FLUSH_SIZE = Settings.getInt(Setting.REPORT_FLUSH_SIZE);
+	private static final long FLUSH_INTERVAL =
+				TimeUnit.MILLISECONDS.toNanos(Settings.getLong(Setting.REPORT_FLUSH_INTERVAL));
+	private static final String REPORT_FORMAT = Settings.getString(Setting.REPORT_FORMAT);
+	private static final boolean CSV_REPORT = !"Binary".equalsIgnoreCase(REPORT_FORMAT);
+	private static final boolean BINARY_REPORT =
+				"Binary".equalsIgnoreCase(REPORT_FORMAT) || "Both".equalsIgnoreCase(REPORT_FORMAT);
+	private static final int BINARY_REPORT_BLOCK_SIZE = Settings.getInt(Setting.BINARY_REPORT_BLOCK_SIZE);
 	
-	private static String reportPathWithTimeStamp;
-	private static File successFile;
-	private static File failureFile;
-	private static File crawlerLogFile;
-	private static FileWriter successFileWriter;
-	private static FileWriter failureFileWriter;
-	private static BufferedWriter successBufferedWriter;
-	private static BufferedWriter failureBufferedWriter;
+	static final String FAILURE_REPORT_FILE_NAME = "SiteLinks_FailureReport.csv";
+	static final String BINARY_REPORT_FILE_NAME = "SiteLinks_Report.bin";
 	
-	private static final Report REPORT = new Report();
+	private static final File CRAWLER_LOG_FILE = new File(System.getProperty("user.dir") +
+							Util.getFileSeparator() +  "logs" + 
+							Util.getFileSeparator() + "crawler4j.log");
+	
+	// The reports which are still being written, and the records written by all the reports, as published by the metrics
+	private static final Set<Report> OPEN_REPORTS = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong TOTAL_WRITTEN_RECORDS = new AtomicLong();
+	
+	private final String reportPathWithTimeStamp;
+	private final boolean copyCrawlerLog;
+	private File successFile;
+	private File failureFile;
+	private File crawlerLogFile = CRAWLER_LOG_FILE;
+	private File binaryReportFile;
+	private FileWriter successFileWriter;
+	private FileWriter failureFileWriter;
+	private BufferedWriter successBufferedWriter;
+	private BufferedWriter failureBufferedWriter;
+	private BinaryReportWriter binaryReportWriter;
+	
+	private final ConcurrentLinkedQueue<ReportBatch> pendingBatches = new ConcurrentLinkedQueue<>();
+	private final Semaphore queueSlots = new Semaphore(QUEUE_SIZE);
+	private final AtomicLong writtenRecords = new AtomicLong();
+	private final AtomicLong failedRecords = new AtomicLong();
+	private final Thread writerThread;
+	private final Checkpoint checkpoint = Checkpoint.getInstance();
+	private volatile boolean closing;
+	private volatile boolean writerWaiting;
 	
 	// To prevent external instantiation of this class
 	private Report() {
-		String timeStamp = "Run_" +
-							Util.getCurrentFormattedTime("dd-MMM-yyyy hh:mm:ss a")
-							.replace(" ", "_").replace(":", "-");
-		
-		reportPathWithTimeStamp =
-							REPORT_PATH + Util.getFileSeparator() + timeStamp;
+		this(getRunFolder(), Checkpoint.getInstance().isResuming(), true);
+	}
+	
+	/**
+	 * Constructor for the {@link Report} class, which creates the report of a single {@link Site} within a batch.
+	 * The crawler4j log is shared by all the sites, so it is not copied into the folder of each site.
+	 * @param reportFolder The folder within which the report is to be written
+	 */
+	Report(File reportFolder) {
+		this(reportFolder.getPath(), false, false);
+	}
+	
+	private Report(String reportFolder, boolean resuming, boolean copyCrawlerLog) {
+		reportPathWithTimeStamp = reportFolder;
+		this.copyCrawlerLog = copyCrawlerLog;
 		
 		new File(reportPathWithTimeStamp).mkdirs();
-		successFile = new File(reportPathWithTimeStamp +
-							Util.getFileSeparator() + "SiteLinks_SuccessReport.csv");
-		failureFile = new File(reportPathWithTimeStamp +
-							Util.getFileSeparator() + "SiteLinks_FailureReport.csv");
-		crawlerLogFile = new File(System.getProperty("user.dir") +
-							Util.getFileSeparator() +  "logs" + 
-							Util.getFileSeparator() + "crawler4j.log");
+		boolean includeVerification = LinkStateStore.getInstance().isEnabled();
 		
-		try {
-			successFile.createNewFile();
-			failureFile.createNewFile();
-			successFileWriter = new FileWriter(successFile.getAbsoluteFile());
-			failureFileWriter = new FileWriter(failureFile.getAbsoluteFile());
-			successBufferedWriter = new BufferedWriter(successFileWriter);
-			failureBufferedWriter = new BufferedWriter(failureFileWriter);
-		} catch (IOException ex) {
-			logger.error(ex.getMessage(), ex);
+		if(CSV_REPORT) {
+			successFile = new File(reportPathWithTimeStamp +
+								Util.getFileSeparator() + "SiteLinks_SuccessReport.csv");
+			failureFile = new File(reportPathWithTimeStamp +
+								Util.getFileSeparator() + FAILURE_REPORT_FILE_NAME);
+			
+			try {
+				successFile.createNewFile();
+				failureFile.createNewFile();
+				if(resuming) {
+					truncate(successFile, checkpoint.getReportLength(successFile));
+					truncate(failureFile, checkpoint.getReportLength(failureFile));
+				}
+				successFileWriter = new FileWriter(successFile.getAbsoluteFile(), resuming);
+				failureFileWriter = new FileWriter(failureFile.getAbsoluteFile(), resuming);
+				successBufferedWriter = new BufferedWriter(successFileWriter);
+				failureBufferedWriter = new BufferedWriter(failureFileWriter);
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+			
+			if(!resuming) {
+				String headers = ReportRecord.getCsvHeader(includeVerification);
+				writeLine(headers, true);
+				writeLine(headers, false);
+			}
+		}
+		
+		if(BINARY_REPORT) {
+			binaryReportFile = new File(reportPathWithTimeStamp +
+								Util.getFileSeparator() + BINARY_REPORT_FILE_NAME);
+			try {
+				if(resuming && binaryReportFile.exists()) {
+					binaryReportWriter = BinaryReportWriter.append(binaryReportFile,
+								checkpoint.getReportLength(binaryReportFile), BINARY_REPORT_BLOCK_SIZE);
+				} else {
+					binaryReportWriter = new BinaryReportWriter(binaryReportFile,
+								includeVerification, BINARY_REPORT_BLOCK_SIZE);
+				}
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
 		}
 		
-		String headers = "Referrer,Anchor,FinalURL,ResponseCode,Status";
-		updateReport(headers, true);
-		updateReport(headers, false);
+		OPEN_REPORTS.add(this);
+		writerThread = new Thread(this::writeRecords, "ReportWriter");
+		writerThread.setDaemon(true);
+		writerThread.start();
 		
 		logger.info("Report initialized successfully");
 	}
 	
+	private static String getRunFolder() {
+		if(Checkpoint.getInstance().isResuming()) {
+			// Continue the report of the interrupted run
+			return Checkpoint.getInstance().getRunFolder();
+		}
+		
+		String timeStamp = "Run_" +
+							Util.getCurrentFormattedTime("dd-MMM-yyyy hh:mm:ss a")
+							.replace(" ", "_").replace(":", "-");
+		return REPORT_PATH + Util.getFileSeparator() + timeStamp;
+	}
+	
 	/**
-	 * Function to return the Singleton instance of the {@link Report} class
+	 * Function to return the Singleton instance of the {@link Report} class.
+	 * The report is created on first use, so that no report folder is created by processes which do not write a report
+	 * of their own, such as distributed workers and batch runs.
 	 * @return Instance of the {@link Report} class 
 	 */
 	public static Report getInstance() {
-		return REPORT;
+		return DefaultReport.REPORT;
+	}
+	
+	/**
+	 * Function to get the folder within which the reports for the current run are written
+	 * @return The report folder for the current run
+	 */
+	public File getReportFolder() {
+		return new File(reportPathWithTimeStamp);
 	}
 	
 	/**
 	 * Function to get the success report file
-	 * @return The success report file
+	 * @return The success report file, or null if the CSV report is disabled
 	 */
-	public static File getSuccessFile() {
+	public File getSuccessFile() {
 		return successFile;
 	}
 	
 	/**
 	 * Function to get the failure report file
-	 * @return The failure report file
+	 * @return The failure report file, or null if the CSV report is disabled
 	 */
-	public static File getFailureFile() {
+	public File getFailureFile() {
 		return failureFile;
 	}
 	
 	/**
-	 * Function to get the crawler log file
+	 * Function to get the binary report file
+	 * @return The binary report file, or null if the binary report is disabled
+	 */
+	public File getBinaryReportFile() {
+		return binaryReportFile;
+	}
+	
+	/**
+	 * Function to get all the report files produced as per the configured report format
+	 * @return The list of report files
+	 */
+	public List<File> getReportFiles() {
+		List<File> reportFiles = new ArrayList<>();
+		if(CSV_REPORT) {
+			reportFiles.add(successFile);
+			reportFiles.add(failureFile);
+		}
+		if(BINARY_REPORT) {
+			reportFiles.add(binaryReportFile);
+		}
+		return reportFiles;
+	}
+	
+	/**
+	 * Function to get the crawler log file, which is the copy within the report folder once the report has been closed
 	 * @return The crawler log file
 	 */
-	public static File getCrawlerLogFile() {
+	public File getCrawlerLogFile() {
 		return crawlerLogFile;
 	}
 	
 	/**
-	 * Function to update the test report as per the user input
-	 * @param line A comma separated string representing one line within the CSV report
-	 * @param successMessage Boolean value indicating whether the current message indicates a success or a failure
+	 * Function to copy the crawler log file into the given folder
+	 * @param folder The folder into which the crawler log file is to be copied
+	 * @return The copy of the crawler log file
+	 * @throws IOException If the crawler log file could not be copied
+	 */
+	public static File copyCrawlerLogFile(File folder) throws IOException {
+		File crawlerLogFileCopy = new File(folder, "crawler4j.log");
+		Files.copy(CRAWLER_LOG_FILE.toPath(), crawlerLogFileCopy.toPath());
+		
+		logger.info("Log file copied successfully");
+		return crawlerLogFileCopy;
+	}
+	
+	/**
+	 * Function to add a record to the test report.
+	 * The record is written to disk asynchronously; this function only waits if the report queue is full.
+	 * @param record The {@link ReportRecord} to be added
+	 */
+	public void addRecord(ReportRecord record) {
+		queueSlots.acquireUninterruptibly();
+		pendingBatches.offer(new ReportBatch(null, Collections.singletonList(record), 1));
+		wakeWriter();
+	}
+	
+	/**
+	 * Function to add all the records of a page to the test report.
+	 * The records are written together, and the page is then marked as reported within the {@link Checkpoint}.
+	 * @param pageUrl The URL of the page
+	 * @param records The {@link ReportRecord}s of the links found on the page
+	 */
+	public void addRecords(String pageUrl, List<ReportRecord> records) {
+		// A page with more links than the queue size takes up the entire queue
+		int permits = Math.min(records.size(), QUEUE_SIZE);
+		queueSlots.acquireUninterruptibly(permits);
+		pendingBatches.offer(new ReportBatch(pageUrl, records, permits));
+		wakeWriter();
+	}
+	
+	private void wakeWriter() {
+		// The writer is only woken up when it is waiting, so that a busy writer costs the publishing threads nothing
+		if (writerWaiting) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+	
+	/**
+	 * Function to get the number of records which have been added but not yet written
+	 * @return The number of records waiting to be written
+	 */
+	public int getBacklog() {
+		return QUEUE_SIZE - queueSlots.availablePermits();
+	}
+	
+	/**
+	 * Function to get the number of records written so far
+	 * @return The number of records written
+	 */
+	public long getWrittenRecordCount() {
+		return writtenRecords.get();
+	}
+	
+	/**
+	 * Function to get the number of records of failed links written so far
+	 * @return The number of failure records written
+	 */
+	public long getFailedRecordCount() {
+		return failedRecords.get();
+	}
+	
+	/**
+	 * Function to get the number of records which have been added to any of the open reports but not yet written
+	 * @return The number of records waiting to be written
+	 */
+	public static int getTotalBacklog() {
+		int backlog = 0;
+		for (Report report : OPEN_REPORTS) {
+			backlog += report.getBacklog();
+		}
+		return backlog;
+	}
+	
+	/**
+	 * Function to get the number of records written so far by all the reports of the current run
+	 * @return The number of records written
 	 */
-	public synchronized void updateReport(String line, Boolean successMessage) {
+	public static long getTotalWrittenRecordCount() {
+		return TOTAL_WRITTEN_RECORDS.get();
+	}
+	
+	private void writeRecords() {
+		long unflushedRecords = 0;
+		long lastFlushTime = System.nanoTime();
+		
+		while (true) {
+			ReportBatch batch;
+			int batchRecords = 0;
+			while (batchRecords < FLUSH_SIZE && (batch = pendingBatches.poll()) != null) {
+				for (ReportRecord record : batch.records) {
+					writeRecord(record);
+				}
+				queueSlots.release(batch.permits);
+				batchRecords += batch.records.size();
+				if (batch.pageUrl != null) {
+					checkpoint.pageReported(batch.pageUrl);
+				}
+			}
+			
+			if (batchRecords > 0) {
+				writtenRecords.addAndGet(batchRecords);
+				TOTAL_WRITTEN_RECORDS.addAndGet(batchRecords);
+				unflushedRecords += batchRecords;
+			}
+			
+			long now = System.nanoTime();
+			if (checkpoint.isDue()) {
+				saveCheckpoint();
+				unflushedRecords = 0;
+				lastFlushTime = now;
+			} else if (unflushedRecords >= FLUSH_SIZE ||
+					(unflushedRecords > 0 && now - lastFlushTime >= FLUSH_INTERVAL)) {
+				flush();
+				unflushedRecords = 0;
+				lastFlushTime = now;
+			}
+			
+			if (pendingBatches.isEmpty()) {
+				if (closing) {
+					break;
+				}
+				awaitBatches((unflushedRecords > 0)? lastFlushTime + FLUSH_INTERVAL - now : Long.MAX_VALUE);
+			}
+		}
+		
+		flush();
+	}
+	
+	private void awaitBatches(long flushDelay) {
+		long timeout = Math.min(flushDelay, checkpoint.getTimeUntilDue());
+		writerWaiting = true;
+		// Checked again once the flag is set, since a batch published before then does not wake up the writer
+		if (pendingBatches.isEmpty() && !closing) {
+			if (timeout == Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else {
+				LockSupport.parkNanos(this, timeout);
+			}
+		}
+		writerWaiting = false;
+	}
+	
+	private void writeRecord(ReportRecord record) {
+		if(!record.isSuccess()) {
+			failedRecords.incrementAndGet();
+		}
+		if(CSV_REPORT) {
+			writeLine(record.toCsvLine(LinkStateStore.getInstance().isEnabled()), record.isSuccess());
+		}
+		if(BINARY_REPORT && binaryReportWriter != null) {
+			try {
+				binaryReportWriter.write(record);
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+			}
+		}
+	}
+	
+	private void writeLine(String line, Boolean successMessage) {
 		try {
 			if(successMessage) {
 				successBufferedWriter.write(line);
@@ -122,25 +413,70 @@ public class Report {
 		}
 	}
 	
+	private void flush() {
+		if(!CSV_REPORT) {
+			return;		// Binary report blocks are written out as soon as they are full
+		}
+		
+		try {
+			successBufferedWriter.flush();
+			failureBufferedWriter.flush();
+		} catch (IOException ex) {
+			logger.error(ex.getMessage(), ex);
+		}
+	}
+	
+	private void saveCheckpoint() {
+		// The checkpoint records the length of each report file, so that all the records written so far must be on disk
+		flush();
+		if(binaryReportWriter != null) {
+			try {
+				binaryReportWriter.flush();
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+				return;
+			}
+		}
+		
+		checkpoint.save(getReportFolder(), getReportFiles());
+	}
+	
+	private static void truncate(File file, long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+		}
+	}
+	
 	/**
-	 * Function to close the report
+	 * Function to close the report, after writing out all the records added so far
 	 */
 	public void closeReport() {
+		closing = true;
+		LockSupport.unpark(writerThread);
 		try {
-			successBufferedWriter.close();
-			failureBufferedWriter.close();
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		
+		try {
+			if(CSV_REPORT) {
+				successBufferedWriter.close();
+				failureBufferedWriter.close();
+			}
+			if(binaryReportWriter != null) {
+				binaryReportWriter.close();
+			}
 			
 			logger.info("Report closed successfully");
 			
-			File crawlerLogFileCopy = new File(reportPathWithTimeStamp +
-											Util.getFileSeparator() + "crawler4j.log");
-			
-			Files.copy(crawlerLogFile.toPath(), crawlerLogFileCopy.toPath());
-			crawlerLogFile = crawlerLogFileCopy;
-			
-			logger.info("Log file copied successfully");
+			if(copyCrawlerLog) {
+				crawlerLogFile = copyCrawlerLogFile(getReportFolder());
+			}
 		} catch (IOException ex) {
 			logger.error(ex.getMessage(), ex);
+		} finally {
+			OPEN_REPORTS.remove(this);
 		}
 	}
 	
@@ -148,4 +484,26 @@ public class Report {
 	public Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
 	}
+	
+	/**
+	 * Holder of the singleton instance, which is created when it is first used
+	 */
+	private static class DefaultReport {
+		private static final Report REPORT = new Report();
+	}
+	
+	/**
+	 * Records which are to be written together, along with the number of queue slots they take up
+	 */
+	private static class ReportBatch {
+		private final String pageUrl;
+		private final List<ReportRecord> records;
+		private final int permits;
+		
+		ReportBatch(String pageUrl, List<ReportRecord> records, int permits) {
+			this.pageUrl = pageUrl;
+			this.records = records;
+			this.permits = permits;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.autopia;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.IntPredicate;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Exports a binary report written by the {@link BinaryReportWriter} to the CSV layout used by the {@link Report}.
+ * Usage: ReportConverter &lt;binary report file&gt; [output folder] [comma separated response codes]
+ * <p>
+ * The SiteLinks_SuccessReport.csv and SiteLinks_FailureReport.csv files are created within the output folder,
+ * which defaults to the folder of the binary report. If response codes are specified, only the matching records
+ * are exported.
+ * @author vj
+ */
+public class ReportConverter {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ReportConverter.class);
+	
+	// To prevent external instantiation of this class
+	private ReportConverter() {
+	}
+	
+	/**
+	 * Entry point for exporting a binary report to CSV
+	 * @param args Command line arguments
+	 * @throws IOException Errors during the export
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ReportConverter <binary report file> [output folder] [comma separated response codes]");
+			System.exit(1);
+		}
+		
+		File binaryReportFile = new File(args[0]);
+		File outputFolder = (args.length > 1)? new File(args[1]) : binaryReportFile.getAbsoluteFile().getParentFile();
+		IntPredicate responseCodeFilter = (args.length > 2)? Util.parseResponseCodes(args[2]) : responseCode -> true;
+		
+		long records = exportToCsv(binaryReportFile, outputFolder, responseCodeFilter);
+		logger.info(records + " records exported to " + outputFolder.getAbsolutePath());
+	}
+	
+	/**
+	 * Function to export the given binary report to the success and failure CSV reports
+	 * @param binaryReportFile The binary report file to be exported
+	 * @param outputFolder The folder within which the CSV reports are to be created
+	 * @param responseCodeFilter The filter to be applied on the response code of each record
+	 * @return The number of records exported
+	 * @throws IOException If the binary report could not be read, or the CSV reports could not be written
+	 */
+	public static long exportToCsv(File binaryReportFile, File outputFolder,
+										IntPredicate responseCodeFilter) throws IOException {
+		BinaryReportReader reader = new BinaryReportReader(binaryReportFile);
+		final boolean includeVerification = reader.isVerificationIncluded();
+		String headers = ReportRecord.getCsvHeader(includeVerification);
+		
+		outputFolder.mkdirs();
+		try (BufferedWriter successWriter = new BufferedWriter(new FileWriter(
+						new File(outputFolder, "SiteLinks_SuccessReport.csv")));
+				BufferedWriter failureWriter = new BufferedWriter(new FileWriter(
+						new File(outputFolder, "SiteLinks_FailureReport.csv")))) {
+			successWriter.write(headers);
+			successWriter.newLine();
+			failureWriter.write(headers);
+			failureWriter.newLine();
+			
+			try {
+				return reader.read(responseCodeFilter, record -> {
+					BufferedWriter writer = record.isSuccess()? successWriter : failureWriter;
+					try {
+						writer.write(record.toCsvLine(includeVerification));
+						writer.newLine();
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				});
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+		}
+	}
+}
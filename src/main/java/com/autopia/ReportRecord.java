@@ -0,0 +1,118 @@
+package com.autopia;
+
+/**
+ * A single row of the test report, representing one link found on one page.
+ * Records are immutable, so that they can be handed over from the link checking threads to the report writer thread.
+ * @author vj
+ */
+public class ReportRecord {
+	
+	private final String referrer;
+	private final String anchor;
+	private final String url;
+	private final ResourceType resourceType;
+	private final LinkStatus linkStatus;
+	
+	/**
+	 * Constructor for the {@link ReportRecord} class
+	 * @param referrer The URL of the page on which the link was found
+	 * @param anchor The anchor text of the link
+	 * @param url The URL of the link
+	 * @param resourceType The {@link ResourceType} of the link
+	 * @param linkStatus The status of the link
+	 */
+	public ReportRecord(String referrer, String anchor, String url, ResourceType resourceType, LinkStatus linkStatus) {
+		this.referrer = referrer;
+		this.anchor = anchor;
+		this.url = url;
+		this.resourceType = resourceType;
+		this.linkStatus = linkStatus;
+	}
+	
+	/**
+	 * Function to get the URL of the page on which the link was found
+	 * @return The referrer URL
+	 */
+	public String getReferrer() {
+		return referrer;
+	}
+	
+	/**
+	 * Function to get the anchor text of the link
+	 * @return The anchor text
+	 */
+	public String getAnchor() {
+		return anchor;
+	}
+	
+	/**
+	 * Function to get the URL of the link
+	 * @return The link URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+	
+	/**
+	 * Function to get the type of the link
+	 * @return The {@link ResourceType}
+	 */
+	public ResourceType getResourceType() {
+		return resourceType;
+	}
+	
+	/**
+	 * Function to get the status of the link
+	 * @return The {@link LinkStatus}
+	 */
+	public LinkStatus getLinkStatus() {
+		return linkStatus;
+	}
+	
+	/**
+	 * Function to check whether the record belongs in the success report or the failure report
+	 * @return Boolean value indicating whether the record represents a success or a failure
+	 */
+	public Boolean isSuccess() {
+		return linkStatus.isSuccess();
+	}
+	
+	/**
+	 * Function to format this record as a line of the CSV report
+	 * @param includeVerification Boolean value indicating whether the verification column is to be included
+	 * @return The CSV line, without a line terminator
+	 */
+	public String toCsvLine(boolean includeVerification) {
+		StringBuilder line = new StringBuilder(referrer.length() + url.length() + 64);
+		line.append('"').append(referrer).append("\",\"")
+			.append(anchor).append("\",\"")
+			.append(url).append("\",")
+			.append(linkStatus.getResponseCode()).append(',')
+			.append(linkStatus.getStatus());
+		if(includeVerification) {
+			line.append(',').append(linkStatus.getVerification());
+		}
+		line.append(",\"");
+		if(linkStatus.getRedirectChain() != null) {
+			line.append(linkStatus.getRedirectChain());
+		}
+		line.append("\",").append(resourceType.getLabel()).append(',');
+		if(linkStatus.getLatency() >= 0) {
+			line.append(linkStatus.getLatency());
+		}
+		return line.toString();
+	}
+	
+	/**
+	 * Function to get the header line of the CSV report
+	 * @param includeVerification Boolean value indicating whether the verification column is to be included
+	 * @return The CSV header line, without a line terminator
+	 */
+	public static String getCsvHeader(boolean includeVerification) {
+		String headers = "Referrer,Anchor,FinalURL,ResponseCode,Status";
+		if(includeVerification) {
+			headers += ",Verification";
+		}
+		return headers + ",RedirectChain,ResourceType,LatencyMs";
+	}
+}
@@ -0,0 +1,79 @@
+package com.autopia;
+
+/**
+ * The kinds of links found on a page, as shown within the ResourceType column of the test report.
+ * Anchors and frames are links to other pages, and are reported for every page on which they are found.
+ * The other kinds are resources used by the page itself; they are also reported for every page on which they are found,
+ * although a resource shared by many pages is only checked once.
+ * @author vj
+ */
+public enum ResourceType {
+	
+	ANCHOR("Anchor"),
+	FRAME("Frame"),
+	IMAGE("Image"),
+	SCRIPT("Script"),
+	STYLESHEET("Stylesheet"),
+	CSS_ASSET("CSS Asset"),
+	MEDIA("Media"),
+	OTHER("Other");
+	
+	private final String label;
+	
+	private ResourceType(String label) {
+		this.label = label;
+	}
+	
+	/**
+	 * Function to get the label of this type, as shown within the test report
+	 * @return The label
+	 */
+	public String getLabel() {
+		return label;
+	}
+	
+	/**
+	 * Function to check whether this type represents a resource used by a page, rather than a link to another page
+	 * @return Boolean value indicating whether this type represents a resource
+	 */
+	public boolean isResource() {
+		return this != ANCHOR && this != FRAME;
+	}
+	
+	/**
+	 * Function to get the type of a link found by crawler4j, based on the HTML element on which it was found
+	 * @param tag The name of the HTML element, as returned by WebURL.getTag(); may be null
+	 * @return The {@link ResourceType}
+	 */
+	public static ResourceType fromTag(String tag) {
+		if (null == tag) {
+			return ANCHOR;
+		}
+		
+		switch (tag) {
+			case "img":
+				return IMAGE;
+			case "iframe":
+			case "frame":
+				return FRAME;
+			case "embed":
+				return MEDIA;
+			default:
+				return ANCHOR;
+		}
+	}
+	
+	/**
+	 * Function to get the type with the given label
+	 * @param label The label, as returned by {@link #getLabel()}
+	 * @return The {@link ResourceType}, or {@link #ANCHOR} if the label is not recognized
+	 */
+	public static ResourceType fromLabel(String label) {
+		for (ResourceType resourceType : values()) {
+			if (resourceType.label.equals(label)) {
+				return resourceType;
+			}
+		}
+		return ANCHOR;
+	}
+}
@@ -0,0 +1,62 @@
+package com.autopia;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Class which decides whether a failed link check is to be retried, and how long to wait before retrying it.
+ * Links which could not be connected to, which timed out or failed midway (response code 0), or which returned one of
+ * the response codes listed within LinkCheckRetryStatusCodes are retried up to LinkCheckMaxRetries times.
+ * Links which could not be requested at all (see {@link LinkStatus.RequestFailure}) are never retried.
+ * The delay starts at LinkCheckRetryBackoff milliseconds and doubles with each retry, up to LinkCheckMaxBackoff;
+ * a random half of each delay is dropped, so that the links which failed together are not all retried together.
+ * The number of retries and the delays are read as each link fails, so that they can be changed while the tool is running.
+ * @author vj
+ */
+public class RetryPolicy {
+	
+	private final IntPredicate retryStatusCodes;
+	
+	/**
+	 * Constructor for the {@link RetryPolicy} class
+	 */
+	public RetryPolicy() {
+		String statusCodes = Settings.getString(Setting.LINK_CHECK_RETRY_STATUS_CODES);
+		try {
+			retryStatusCodes = Util.parseResponseCodes(statusCodes);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("The setting " + Setting.LINK_CHECK_RETRY_STATUS_CODES.getKey() +
+										" (" + statusCodes + ") must list the response codes separated by commas", ex);
+		}
+	}
+	
+	/**
+	 * Function to check whether a link check which ended with the given status is to be retried
+	 * @param linkStatus The status of the link, or null if a connection could not be established
+	 * @param retries The number of times the link has already been retried
+	 * @return Boolean value indicating whether the link is to be checked again
+	 */
+	public boolean isRetryable(LinkStatus linkStatus, int retries) {
+		if (retries >= Settings.getInt(Setting.LINK_CHECK_MAX_RETRIES) || LinkProber.isRequestFailure(linkStatus)) {
+			return false;
+		}
+		return null == linkStatus || linkStatus.getResponseCode() == 0 ||
+					retryStatusCodes.test(linkStatus.getResponseCode());
+	}
+	
+	/**
+	 * Function to get the time to wait before retrying a link
+	 * @param retry The number of the retry, starting at 1
+	 * @return The delay, in milliseconds
+	 */
+	public long getDelay(int retry) {
+		long maxBackoff = Settings.getLong(Setting.LINK_CHECK_MAX_BACKOFF);
+		long backoff = Settings.getLong(Setting.LINK_CHECK_RETRY_BACKOFF);
+		backoff = Math.min(backoff, maxBackoff);
+		for (int i = 1; i < retry && backoff < maxBackoff; i++) {
+			backoff = (backoff > maxBackoff / 2)? maxBackoff : backoff * 2;
+		}
+		
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+}
@@ -0,0 +1,44 @@
+package com.autopia;
+
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClients;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.fetcher.PageFetcher;
+
+/**
+ * Extension of the crawler4j {@link PageFetcher} which connects to each host as decided by the {@link ProxyRouter},
+ * so that the pages (and robots.txt files) are fetched along the same routes as the links are checked.
+ * @author vj
+ */
+public class RoutedPageFetcher extends PageFetcher {
+	
+	/**
+	 * Constructor for the {@link RoutedPageFetcher} class
+	 * @param config The crawler4j {@link CrawlConfig}
+	 */
+	public RoutedPageFetcher(CrawlConfig config) {
+		super(config);
+		
+		ProxyRouter proxyRouter = ProxyRouter.getInstance();
+		if (proxyRouter.isEnabled()) {
+			// crawler4j only supports a single proxy, so its client is replaced by one with the same settings,
+			// which shares its connection pool (and so is closed along with it)
+			RequestConfig requestConfig = RequestConfig.custom()
+											.setExpectContinueEnabled(false)
+											.setCookieSpec(CookieSpecs.DEFAULT)
+											.setRedirectsEnabled(false)
+											.setSocketTimeout(config.getSocketTimeout())
+											.setConnectTimeout(config.getConnectionTimeout())
+											.build();
+			httpClient = HttpClients.custom()
+								.setDefaultRequestConfig(requestConfig)
+								.setConnectionManager(connectionManager)
+								.setUserAgent(config.getUserAgentString())
+								.setDefaultHeaders(config.getDefaultHeaders())
+								.setRoutePlanner(proxyRouter)
+								.build();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.autopia;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Thread safe Bloom filter of strings, which grows as strings are added while staying within a memory budget.
+ * The filter is made up of a series of slices, each of which is a Bloom filter with twice the capacity of the previous
+ * slice and half its false positive rate, so that the combined false positive rate stays within the target however
+ * many slices are added. A slice is only allocated once the previous slice is full, so small crawls use little memory.
+ * Once the next slice would exceed the memory budget, strings keep being added to the last slice,
+ * and the false positive rate rises above the target.
+ * Like any Bloom filter, this never reports a string which was added as absent, so it can be placed in front of
+ * an exact store to skip the lookups of strings which have definitely not been added.
+ * @author vj
+ */
+public class ScalableBloomFilter {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ScalableBloomFilter.class);
+	
+	private static final long INITIAL_CAPACITY = 65536;
+	private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+	
+	private final String name;
+	private final long memoryBudgetBits;
+	private volatile Slice[] slices;
+	private long allocatedBits;
+	private boolean budgetReached;
+	private final AtomicLong size = new AtomicLong();
+	
+	/**
+	 * Constructor for the {@link ScalableBloomFilter} class
+	 * @param name The name of the filter, as used within the log
+	 * @param memoryBudgetBytes The maximum number of bytes to be allocated for the filter
+	 * @param falsePositiveRate The target false positive rate, such as 0.01
+	 */
+	public ScalableBloomFilter(String name, long memoryBudgetBytes, double falsePositiveRate) {
+		if (memoryBudgetBytes <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Invalid memory budget or false positive rate for the " + name);
+		}
+		this.name = name;
+		this.memoryBudgetBits = memoryBudgetBytes * 8;
+		
+		// The false positive rates of the slices add up to at most the target: p/2 + p/4 + p/8 + ...
+		double sliceFalsePositiveRate = falsePositiveRate / 2;
+		long capacity = Math.min(INITIAL_CAPACITY,
+							Math.max(1, (long) (memoryBudgetBits * LN2_SQUARED / -Math.log(sliceFalsePositiveRate))));
+		Slice slice = new Slice(capacity, sliceFalsePositiveRate);
+		allocatedBits = slice.bitCount;
+		slices = new Slice[] { slice };
+	}
+	
+	/**
+	 * Function to check whether the given string might have been added to the filter
+	 * @param value The string
+	 * @return False if the string has definitely not been added, or true if it has probably been added
+	 */
+	public boolean mightContain(String value) {
+		long hash1 = hash(value);
+		long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L);
+		for (Slice slice : slices) {
+			if (slice.mightContain(hash1, hash2)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Function to add the given string to the filter
+	 * @param value The string
+	 */
+	public void add(String value) {
+		long hash1 = hash(value);
+		long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L);
+		Slice[] currentSlices = slices;
+		for (Slice slice : currentSlices) {
+			if (slice.mightContain(hash1, hash2)) {
+				return;	// Already added, or indistinguishable from a string which was
+			}
+		}
+		
+		Slice lastSlice = currentSlices[currentSlices.length - 1];
+		lastSlice.add(hash1, hash2);
+		size.incrementAndGet();
+		if (lastSlice.count.incrementAndGet() == lastSlice.capacity) {
+			grow(lastSlice);
+		}
+	}
+	
+	private synchronized void grow(Slice fullSlice) {
+		long capacity = fullSlice.capacity * 2;
+		double falsePositiveRate = fullSlice.falsePositiveRate / 2;
+		long bitCount = Slice.getBitCount(capacity, falsePositiveRate);
+		if (allocatedBits + bitCount > memoryBudgetBits) {
+			if (!budgetReached) {
+				budgetReached = true;
+				logger.warn("The " + name + " has reached its memory budget of " + (memoryBudgetBits / 8 / 1024) +
+								" KB after " + size.get() + " entries; its false positive rate will now rise above the target");
+			}
+			return;
+		}
+		
+		Slice[] newSlices = Arrays.copyOf(slices, slices.length + 1);
+		newSlices[slices.length] = new Slice(capacity, falsePositiveRate);
+		allocatedBits += bitCount;
+		slices = newSlices;
+	}
+	
+	/**
+	 * Function to get the number of distinct strings added to the filter, ignoring those which were false positives
+	 * @return The number of strings added
+	 */
+	public long getSize() {
+		return size.get();
+	}
+	
+	/**
+	 * Function to get the number of bytes currently allocated for the filter
+	 * @return The number of bytes allocated
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBits / 8;
+	}
+	
+	/**
+	 * Function to get the number of slices which make up the filter
+	 * @return The number of slices
+	 */
+	public int getSliceCount() {
+		return slices.length;
+	}
+	
+	private static long hash(String value) {
+		// FNV-1a over the characters, followed by a finalizer to spread the bits
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+	
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	/**
+	 * A single Bloom filter within the series, whose bits are set using the double hashing scheme
+	 */
+	private static class Slice {
+		private final long capacity;
+		private final double falsePositiveRate;
+		private final long bitCount;
+		private final int hashCount;
+		private final AtomicLongArray bits;
+		private final AtomicLong count = new AtomicLong();
+		
+		Slice(long capacity, double falsePositiveRate) {
+			this.capacity = capacity;
+			this.falsePositiveRate = falsePositiveRate;
+			bitCount = getBitCount(capacity, falsePositiveRate);
+			hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+			bits = new AtomicLongArray((int) (bitCount / 64));
+		}
+		
+		static long getBitCount(long capacity, double falsePositiveRate) {
+			long bitCount = (long) Math.ceil(capacity * -Math.log(falsePositiveRate) / LN2_SQUARED);
+			return (bitCount + 63) / 64 * 64;
+		}
+		
+		boolean mightContain(long hash1, long hash2) {
+			for (int i = 0; i < hashCount; i++) {
+				long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		void add(long hash1, long hash2) {
+			for (int i = 0; i < hashCount; i++) {
+				long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+				int word = (int) (bit >>> 6);
+				long mask = 1L << bit;
+				long currentBits = bits.get(word);
+				while ((currentBits & mask) == 0 && !bits.compareAndSet(word, currentBits, currentBits | mask)) {
+					currentBits = bits.get(word);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.autopia;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The settings of the weak links tool, along with the type and valid range of each, which are checked once at startup
+ * (see {@link Settings#validate()}). The settings which are marked as reloadable are throughput knobs, which can be
+ * changed within the external properties file while the tool is running; all other settings take effect on restart.
+ * @author vj
+ */
+public enum Setting {
+	
+	BASE_URL("BaseUrl", SettingType.TEXT),
+	DONT_VISIT_SPECIFIED_URLS("DontVisitSpecifiedUrls", SettingType.FLAG),
+	CRAWL_INCLUDE_PREFIXES("CrawlIncludePrefixes", SettingType.TEXT, ""),
+	CRAWL_EXCLUDE_PREFIXES("CrawlExcludePrefixes", SettingType.TEXT, ""),
+	CRAWL_SKIP_EXTENSIONS("CrawlSkipExtensions", SettingType.TEXT, "bmp,gif,jpg,png"),
+	CANONICALIZE_URLS("CanonicalizeUrls", SettingType.FLAG, "True"),
+	CANONICALIZE_STRIP_PARAMETERS("CanonicalizeStripParameters", SettingType.TEXT,
+							"utm_*,gclid,fbclid,msclkid,mc_cid,mc_eid,jsessionid,phpsessid"),
+	SEEN_URL_FILTER_MEMORY_MB("SeenUrlFilterMemoryMB", SettingType.LONG, 0, "64"),
+	SEEN_URL_FILTER_FALSE_POSITIVE_RATE("SeenUrlFilterFalsePositiveRate", SettingType.DECIMAL, 0, 1, false, "0.01"),
+	FLAG_SPECIFIED_ERROR_PAGES("FlagSpecifiedErrorPages", SettingType.FLAG),
+	ERROR_PAGE_URLS_PATTERN("ErrorPageUrlsPattern", SettingType.PATTERN),
+	
+	CRAWL_STORAGE_FOLDER("CrawlStorageFolder", SettingType.TEXT),
+	CRAWL_POLITENESS_DELAY("CrawlPolitenessDelay", SettingType.INTEGER, 0, Integer.MAX_VALUE, true),
+	CRAWL_MAX_PAGES_TO_FETCH("CrawlMaxPagesToFetch", SettingType.INTEGER, -1),
+	CRAWL_SEEDS("CrawlSeeds", SettingType.TEXT),
+	CRAWL_THREADS("CrawlThreads", SettingType.INTEGER, 1),
+	STREAMING_LINK_EXTRACTION("StreamingLinkExtraction", SettingType.FLAG, "False"),
+	STREAMING_LINK_EXTRACTION_BUFFER_SIZE("StreamingLinkExtractionBufferSize", SettingType.INTEGER, 1, "16384"),
+	STREAMING_LINK_EXTRACTION_MAX_PAGE_SIZE("StreamingLinkExtractionMaxPageSize", SettingType.INTEGER, 1, "10485760"),
+	
+	LINK_CHECK_THREADS("LinkCheckThreads", SettingType.INTEGER, 1, Integer.MAX_VALUE, true, "50"),
+	THREAD_MODE("ThreadMode", "Platform", "Virtual"),
+	LINK_CHECK_QUEUE_SIZE("LinkCheckQueueSize", SettingType.INTEGER, 1, "10000"),
+	LINK_CHECK_USE_HEAD_REQUESTS("LinkCheckUseHeadRequests", SettingType.FLAG, "True"),
+	CHECK_RESOURCE_LINKS("CheckResourceLinks", SettingType.FLAG, "True"),
+	LINK_CHECK_MAX_BODY_BYTES("LinkCheckMaxBodyBytes", SettingType.INTEGER, 0, "8192"),
+	LINK_CHECK_MAX_CONNECTIONS("LinkCheckMaxConnections", SettingType.INTEGER, 1, Integer.MAX_VALUE, true, "200"),
+	LINK_CHECK_MAX_CONNECTIONS_PER_HOST("LinkCheckMaxConnectionsPerHost", SettingType.INTEGER,
+							1, Integer.MAX_VALUE, true, "10"),
+	LINK_CHECK_IDLE_CONNECTION_TIMEOUT("LinkCheckIdleConnectionTimeout", SettingType.LONG, 1, "30000"),
+	LINK_CHECK_MAX_REQUESTS_PER_HOST("LinkCheckMaxRequestsPerHost", SettingType.INTEGER, 1, Integer.MAX_VALUE, true, "4"),
+	LINK_CHECK_REQUESTS_PER_SECOND_PER_HOST("LinkCheckRequestsPerSecondPerHost", SettingType.DECIMAL,
+							0, Double.MAX_VALUE, true, "10"),
+	LINK_CHECK_MAX_REDIRECTS("LinkCheckMaxRedirects", SettingType.INTEGER, 0, "10"),
+	LINK_CHECK_MAX_THROTTLE_RETRIES("LinkCheckMaxThrottleRetries", SettingType.INTEGER, 0, Integer.MAX_VALUE, true, "3"),
+	LINK_CHECK_MAX_BACKOFF("LinkCheckMaxBackoff", SettingType.LONG, 0, Long.MAX_VALUE, true, "60000"),
+	LINK_CHECK_MAX_RETRIES("LinkCheckMaxRetries", SettingType.INTEGER, 0, Integer.MAX_VALUE, true, "2"),
+	LINK_CHECK_RETRY_BACKOFF("LinkCheckRetryBackoff", SettingType.LONG, 0, Long.MAX_VALUE, true, "500"),
+	LINK_CHECK_RETRY_STATUS_CODES("LinkCheckRetryStatusCodes", SettingType.TEXT, "500,502,504"),
+	LINK_CHECK_CIRCUIT_BREAKER_THRESHOLD("LinkCheckCircuitBreakerThreshold", SettingType.INTEGER,
+							0, Integer.MAX_VALUE, true, "5"),
+	LINK_CHECK_CIRCUIT_BREAKER_OPEN_TIME("LinkCheckCircuitBreakerOpenTime", SettingType.LONG, 0, Long.MAX_VALUE, true, "30000"),
+	CONNECT_TIMEOUT("ConnectTimeout", SettingType.INTEGER, 0, "10000"),
+	READ_TIMEOUT("ReadTimeout", SettingType.INTEGER, 0, "20000"),
+	REQUEST_DEADLINE("RequestDeadline", SettingType.LONG, 0, "60000"),
+	SLOW_LINK_THRESHOLD("SlowLinkThreshold", SettingType.LONG, 0, "3000"),
+	
+	PROXY_REQUIRED("ProxyRequired", SettingType.FLAG),
+	PROXY_HOST("ProxyHost", SettingType.TEXT),
+	PROXY_PORT("ProxyPort", SettingType.INTEGER, 0, 65535, false),
+	PROXY_BYPASS_PATTERN("ProxyBypassPattern", SettingType.PATTERN, ""),
+	PROXY_HEALTH_CHECK_INTERVAL("ProxyHealthCheckInterval", SettingType.LONG, 0, "30000"),
+	
+	REPORT_PATH("ReportPath", SettingType.TEXT),
+	INCREMENTAL_MODE("IncrementalMode", SettingType.FLAG, "False"),
+	INCREMENTAL_STATE_FILE("IncrementalStateFile", SettingType.TEXT, "D:\\Broken Link Tester\\LinkState.tsv"),
+	INCREMENTAL_FRESHNESS_HOURS("IncrementalFreshnessHours", SettingType.LONG, 0, "24"),
+	REPORT_QUEUE_SIZE("ReportQueueSize", SettingType.INTEGER, 1, "10000"),
+	REPORT_FLUSH_SIZE("ReportFlushSize", SettingType.INTEGER, 1, "1000"),
+	REPORT_FLUSH_INTERVAL("ReportFlushInterval", SettingType.LONG, 1, "1000"),
+	REPORT_FORMAT("ReportFormat", "CSV", "Binary", "Both"),
+	BINARY_REPORT_BLOCK_SIZE("BinaryReportBlockSize", SettingType.INTEGER, 1, "4096"),
+	LINK_GRAPH_ENABLED("LinkGraphEnabled", SettingType.FLAG, "True"),
+	
+	METRICS_INTERVAL("MetricsInterval", SettingType.LONG, 1, "10000"),
+	METRICS_JMX_ENABLED("MetricsJmxEnabled", SettingType.FLAG, "True"),
+	METRICS_HTTP_PORT("MetricsHttpPort", SettingType.INTEGER, 0, 65535, false, "0"),
+	CHECKPOINT_INTERVAL("CheckpointInterval", SettingType.LONG, 0, "0"),
+	SETTINGS_RELOAD_INTERVAL("SettingsReloadInterval", SettingType.LONG, 0, "10000"),
+	
+	DISTRIBUTED_WORKERS("DistributedWorkers", SettingType.INTEGER, 1, "2"),
+	DISTRIBUTED_COORDINATOR_HOST("DistributedCoordinatorHost", SettingType.TEXT, "127.0.0.1"),
+	DISTRIBUTED_COORDINATOR_PORT("DistributedCoordinatorPort", SettingType.INTEGER, 1, 65535, false, "7700"),
+	DISTRIBUTED_STATUS_INTERVAL("DistributedStatusInterval", SettingType.LONG, 1, "500"),
+	BATCH_PARALLEL_SITES("BatchParallelSites", SettingType.INTEGER, 1, "4"),
+	
+	SEND_EMAIL_NOTIFICATION("SendEmailNotification", SettingType.FLAG),
+	SMTP_HOST("SmtpHost", SettingType.TEXT),
+	SMTP_PORT("SmtpPort", SettingType.INTEGER, 1, 65535, false),
+	EMAIL_SSL_ENABLE("EmailSslEnable", SettingType.FLAG),
+	EMAIL_AUTH_REQUIRED("EmailAuthRequired", SettingType.FLAG),
+	EMAIL_AUTH_USERNAME("EmailAuthUsername", SettingType.TEXT),
+	EMAIL_AUTH_PASSWORD("EmailAuthPassword", SettingType.TEXT),
+	EMAIL_FROM("EmailFrom", SettingType.TEXT),
+	EMAIL_TO("EmailTo", SettingType.TEXT),
+	EMAIL_SUBJECT("EmailSubject", SettingType.TEXT),
+	EMAIL_BODY("EmailBody", SettingType.TEXT),
+	EMAIL_COMPRESS_ATTACHMENTS("EmailCompressAttachments", SettingType.FLAG, "True"),
+	EMAIL_MAX_ATTACHMENT_SIZE_MB("EmailMaxAttachmentSizeMB", SettingType.INTEGER, 0, "10"),
+	EMAIL_SUMMARY_TOP_BROKEN_URLS("EmailSummaryTopBrokenUrls", SettingType.INTEGER, 1, "50");
+	
+	private static final Map<String, Setting> SETTINGS_BY_KEY = new HashMap<>();
+	
+	static {
+		for (Setting setting : values()) {
+			SETTINGS_BY_KEY.put(setting.key, setting);
+		}
+	}
+	
+	private final String key;
+	private final SettingType type;
+	private final double minimum;
+	private final double maximum;
+	private final boolean reloadable;
+	private final String[] choices;
+	private final String defaultValue;
+	
+	Setting(String key, SettingType type) {
+		this(key, type, -Double.MAX_VALUE, Double.MAX_VALUE, false, null);
+	}
+	
+	Setting(String key, SettingType type, String defaultValue) {
+		this(key, type, -Double.MAX_VALUE, Double.MAX_VALUE, false, defaultValue);
+	}
+	
+	Setting(String key, SettingType type, double minimum) {
+		this(key, type, minimum, Double.MAX_VALUE, false, null);
+	}
+	
+	Setting(String key, SettingType type, double minimum, String defaultValue) {
+		this(key, type, minimum, Double.MAX_VALUE, false, defaultValue);
+	}
+	
+	Setting(String key, SettingType type, double minimum, double maximum, boolean reloadable) {
+		this(key, type, minimum, maximum, reloadable, null);
+	}
+	
+	Setting(String key, SettingType type, double minimum, double maximum, boolean reloadable, String defaultValue) {
+		this.key = key;
+		this.type = type;
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.reloadable = reloadable;
+		this.choices = null;
+		this.defaultValue = defaultValue;
+	}
+	
+	Setting(String key, String... choices) {
+		this.key = key;
+		this.type = SettingType.CHOICE;
+		this.minimum = -Double.MAX_VALUE;
+		this.maximum = Double.MAX_VALUE;
+		this.reloadable = false;
+		this.choices = choices;
+		this.defaultValue = choices[0];
+	}
+	
+	/**
+	 * Function to get the name of the setting, as used within the properties file
+	 * @return The name of the setting
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * Function to check whether the setting can be changed while the tool is running
+	 * @return Boolean value indicating whether the setting is reloadable
+	 */
+	public boolean isReloadable() {
+		return reloadable;
+	}
+	
+	/**
+	 * Function to get the value to be used when the setting is not specified.
+	 * The settings of the original properties file must always be specified, whereas the settings added since then
+	 * default to the value within the shipped properties file (or to their first choice), so that an older properties
+	 * file keeps working.
+	 * @return The default value, or null if the setting must be specified
+	 */
+	public String getDefaultValue() {
+		return defaultValue;
+	}
+	
+	/**
+	 * Function to find the setting with the given name
+	 * @param key The name of the setting, as used within the properties file
+	 * @return The {@link Setting}, or null if there is no setting with the given name
+	 */
+	public static Setting fromKey(String key) {
+		return SETTINGS_BY_KEY.get(key);
+	}
+	
+	/**
+	 * Function to parse and validate the given value of the setting
+	 * @param value The value, as specified within the properties file
+	 * @return The typed value: a String, Boolean, Integer, Long, Double or {@link Pattern}, as per the type of the setting
+	 * @throws IllegalArgumentException If the value is not valid for the setting
+	 */
+	public Object parse(String value) {
+		try {
+			switch (type) {
+				case FLAG:
+					if (!"true".equalsIgnoreCase(value.trim()) && !"false".equalsIgnoreCase(value.trim())) {
+						throw new IllegalArgumentException("must be True or False");
+					}
+					return Boolean.valueOf(value.trim());
+					
+				case INTEGER:
+					return (int) checkRange(Integer.parseInt(value.trim()));
+					
+				case LONG:
+					return (long) checkRange(Long.parseLong(value.trim()));
+					
+				case DECIMAL:
+					return checkRange(Double.parseDouble(value.trim()));
+					
+				case PATTERN:
+					return Pattern.compile(value);
+					
+				case CHOICE:
+					for (String choice : choices) {
+						if (choice.equalsIgnoreCase(value.trim())) {
+							return choice;
+						}
+					}
+					throw new IllegalArgumentException("must be one of " + String.join(", ", choices));
+					
+				default:
+					return value;
+			}
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException((type == SettingType.DECIMAL)? "must be a number" : "must be a whole number", ex);
+		} catch (PatternSyntaxException ex) {
+			throw new IllegalArgumentException("must be a valid regular expression (" + ex.getDescription() + ")", ex);
+		}
+	}
+	
+	private double checkRange(double value) {
+		if (value < minimum || value > maximum) {
+			if (maximum == Double.MAX_VALUE || maximum == Integer.MAX_VALUE || maximum == Long.MAX_VALUE) {
+				throw new IllegalArgumentException("must be at least " + formatLimit(minimum));
+			}
+			throw new IllegalArgumentException("must be between " + formatLimit(minimum) + " and " + formatLimit(maximum));
+		}
+		return value;
+	}
+	
+	private static String formatLimit(double limit) {
+		return (limit == Math.rint(limit))? String.valueOf((long) limit) : String.valueOf(limit);
+	}
+	
+	/**
+	 * The types of the settings
+	 */
+	private enum SettingType {
+		TEXT,
+		FLAG,
+		INTEGER,
+		LONG,
+		DECIMAL,
+		PATTERN,
+		CHOICE
+	}
+}
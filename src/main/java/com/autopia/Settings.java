@@ -4,19 +4,46 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import uk.org.lidalia.slf4jext.Logger;
 import uk.org.lidalia.slf4jext.LoggerFactory;
 
 
 /**
- * Singleton class that encapsulates the user settings specified in the properties file of the framework
+ * Singleton class that encapsulates the user settings specified in the properties file of the framework.
+ * Each {@link Setting} is parsed once, when the settings are loaded, and is then read through the typed functions
+ * of this class (such as {@link #getInt(Setting)}), so that the regular expressions are compiled only once
+ * and are shared by all classes. The settings are validated at startup (see {@link #validate()}), so that
+ * an invalid setting is reported by name before the crawl starts.
+ * The external properties file is watched for changes while the tool is running (see {@link #startWatching()});
+ * changes to the reloadable settings take effect straightaway, while other changes take effect on restart.
  * @author vj
  */
 public class Settings {
 	private static final Logger logger = LoggerFactory.getLogger(Settings.class);
+	private static final File EXTERNAL_SETTINGS_FILE = new File("./config.properties");
+	
+	// Patterns which are not listed as a Setting, since there may be any number of them
+	private static final String DONT_VISIT_URLS_PATTERN_PREFIX = "DontVisitUrlsPattern";
+	private static final String IMAGE_EXTENSIONS_PATTERN = "ImageExtensionsPattern";
+	
 	private static Properties properties = loadFromPropertiesFile();
+	private static Properties loadedSettings = copyOf(properties);
+	private static volatile Object[] values = parseAll(properties);
+	
+	private static final List<Runnable> RELOAD_LISTENERS = new CopyOnWriteArrayList<>();
+	private static ScheduledExecutorService watcher;
+	private static long lastModified;
 	
 	private Settings() {
 		// To prevent external instantiation of this class
@@ -34,16 +61,17 @@ public class Settings {
 		Properties properties = new Properties();
 		
 		try {
-			File externalSettingsFile = new File("./config.properties");
-			
-			if(externalSettingsFile.exists()) {
+			if(EXTERNAL_SETTINGS_FILE.exists()) {
 				logger.info("Loading settings from external properties file");
-				properties.load(new FileInputStream(externalSettingsFile));
+				try (InputStream externalSettingsFileStream = new FileInputStream(EXTERNAL_SETTINGS_FILE)) {
+					properties.load(externalSettingsFileStream);
+				}
 			} else {
 				logger.info("Loading settings from internal properties file");
-				InputStream internalSettingsFileStream =
-						Settings.class.getClassLoader().getResourceAsStream("config.properties");
-				properties.load(internalSettingsFileStream);
+				try (InputStream internalSettingsFileStream =
+						Settings.class.getClassLoader().getResourceAsStream("config.properties")) {
+					properties.load(internalSettingsFileStream);
+				}
 			}
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
@@ -52,6 +80,292 @@ public class Settings {
 		return properties;
 	}
 	
+	private static Properties copyOf(Properties properties) {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+	
+	private static Object[] parseAll(Properties properties) {
+		Object[] values = new Object[Setting.values().length];
+		for (Setting setting : Setting.values()) {
+			try {
+				values[setting.ordinal()] = parse(properties, setting);
+			} catch (IllegalArgumentException ex) {
+				// Left unset, so that the error is reported by validate(), or by the first class which reads the setting
+			}
+		}
+		return values;
+	}
+	
+	private static Object parse(Properties properties, Setting setting) {
+		String value = properties.getProperty(setting.getKey());
+		if (null == value) {
+			value = setting.getDefaultValue();
+			if (null == value) {
+				throw new IllegalArgumentException("The setting " + setting.getKey() + " is not specified");
+			}
+		}
+		
+		try {
+			return setting.parse(value);
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("The setting " + setting.getKey() + " (" + value + ") " +
+												ex.getMessage(), ex);
+		}
+	}
+	
+	private static Object get(Setting setting) {
+		Object value = values[setting.ordinal()];
+		// An invalid setting is parsed again, so that the error is reported to the caller
+		return (null == value)? parse(properties, setting) : value;
+	}
+	
+	private static Object get(Properties siteProperties, Setting setting) {
+		return (siteProperties == properties)? get(setting) : parse(siteProperties, setting);
+	}
+	
+	/**
+	 * Function to get the value of a text setting
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static String getString(Setting setting) {
+		return get(setting).toString();
+	}
+	
+	/**
+	 * Function to get the value of a flag setting
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static boolean getBoolean(Setting setting) {
+		return (Boolean) get(setting);
+	}
+	
+	/**
+	 * Function to get the value of an integer setting
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static int getInt(Setting setting) {
+		return (Integer) get(setting);
+	}
+	
+	/**
+	 * Function to get the value of a long integer setting
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static long getLong(Setting setting) {
+		return (Long) get(setting);
+	}
+	
+	/**
+	 * Function to get the value of a decimal setting
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static double getDouble(Setting setting) {
+		return (Double) get(setting);
+	}
+	
+	/**
+	 * Function to get the compiled regular expression of a pattern setting
+	 * @param setting The {@link Setting}
+	 * @return The compiled {@link Pattern}
+	 */
+	public static Pattern getPattern(Setting setting) {
+		return (Pattern) get(setting);
+	}
+	
+	/**
+	 * Function to get the value of a text setting from the given settings, such as the settings of a {@link Site}
+	 * @param properties The settings
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static String getString(Properties properties, Setting setting) {
+		return get(properties, setting).toString();
+	}
+	
+	/**
+	 * Function to get the value of a flag setting from the given settings, such as the settings of a {@link Site}
+	 * @param properties The settings
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static boolean getBoolean(Properties properties, Setting setting) {
+		return (Boolean) get(properties, setting);
+	}
+	
+	/**
+	 * Function to get the value of an integer setting from the given settings, such as the settings of a {@link Site}
+	 * @param properties The settings
+	 * @param setting The {@link Setting}
+	 * @return The value of the setting
+	 */
+	public static int getInt(Properties properties, Setting setting) {
+		return (Integer) get(properties, setting);
+	}
+	
+	/**
+	 * Function to override the value of a setting for the current run, such as from a test harness.
+	 * The classes which read the setting when they are loaded only see the new value if they have not been loaded yet.
+	 * @param key The name of the setting
+	 * @param value The value to be used
+	 */
+	public static synchronized void override(String key, String value) {
+		properties.setProperty(key, value);
+		values = parseAll(properties);
+	}
+	
+	/**
+	 * Function to validate all the settings, so that invalid settings are reported before the crawl starts.
+	 * Unknown settings, which are most likely misspelt, are logged as warnings.
+	 * @throws IllegalArgumentException If any of the settings is missing or invalid, listing all such settings
+	 */
+	public static void validate() {
+		for (String key : properties.stringPropertyNames()) {
+			if (null == Setting.fromKey(key) && !key.startsWith(DONT_VISIT_URLS_PATTERN_PREFIX) &&
+																!key.equals(IMAGE_EXTENSIONS_PATTERN)) {
+				logger.warn("Ignoring the unknown setting " + key);
+			}
+		}
+		validate(properties);
+	}
+	
+	/**
+	 * Function to validate the given settings, such as the settings of a {@link Site}
+	 * @param properties The settings
+	 * @throws IllegalArgumentException If any of the settings is missing or invalid, listing all such settings
+	 */
+	public static void validate(Properties properties) {
+		List<String> errors = new ArrayList<>();
+		for (Setting setting : Setting.values()) {
+			try {
+				parse(properties, setting);
+			} catch (IllegalArgumentException ex) {
+				errors.add(ex.getMessage());
+			}
+		}
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(DONT_VISIT_URLS_PATTERN_PREFIX) || key.equals(IMAGE_EXTENSIONS_PATTERN)) {
+				try {
+					Pattern.compile(properties.getProperty(key));
+				} catch (PatternSyntaxException ex) {
+					errors.add("The setting " + key + " must be a valid regular expression (" + ex.getDescription() + ")");
+				}
+			}
+		}
+		
+		if (!errors.isEmpty()) {
+			throw new IllegalArgumentException("Invalid settings: " + String.join("; ", errors));
+		}
+	}
+	
+	/**
+	 * Function to register a listener which is called whenever any of the reloadable settings is changed
+	 * @param listener The listener
+	 */
+	public static void addReloadListener(Runnable listener) {
+		RELOAD_LISTENERS.add(listener);
+	}
+	
+	/**
+	 * Function to remove a listener registered using {@link #addReloadListener(Runnable)}
+	 * @param listener The listener
+	 */
+	public static void removeReloadListener(Runnable listener) {
+		RELOAD_LISTENERS.remove(listener);
+	}
+	
+	/**
+	 * Function to start watching the external properties file for changes, every SettingsReloadInterval milliseconds.
+	 * The file is not watched if the settings were loaded from the internal properties file, or if the interval is 0.
+	 */
+	public static synchronized void startWatching() {
+		long reloadInterval = getLong(Setting.SETTINGS_RELOAD_INTERVAL);
+		if (watcher != null || reloadInterval <= 0 || !EXTERNAL_SETTINGS_FILE.exists()) {
+			return;
+		}
+		
+		lastModified = EXTERNAL_SETTINGS_FILE.lastModified();
+		watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "SettingsWatcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watcher.scheduleWithFixedDelay(Settings::checkForChanges, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+		logger.info("Watching the external properties file for changes every " + reloadInterval + " ms");
+	}
+	
+	private static void checkForChanges() {
+		long modified = EXTERNAL_SETTINGS_FILE.lastModified();
+		if (modified == lastModified) {
+			return;
+		}
+		lastModified = modified;
+		
+		try {
+			reload();
+		} catch (Exception ex) {
+			logger.error("Error while reloading the settings: " + ex.getMessage(), ex);
+		}
+	}
+	
+	private static void reload() throws IOException {
+		Properties newSettings = new Properties();
+		try (InputStream externalSettingsFileStream = new FileInputStream(EXTERNAL_SETTINGS_FILE)) {
+			newSettings.load(externalSettingsFileStream);
+		}
+		reload(newSettings);
+	}
+	
+	static void reload(Properties newSettings) {
+		try {
+			validate(newSettings);
+		} catch (IllegalArgumentException ex) {
+			logger.error("Ignoring the changes to the external properties file. " + ex.getMessage());
+			return;
+		}
+		
+		boolean reloaded = false;
+		synchronized (Settings.class) {
+			for (Setting setting : Setting.values()) {
+				String oldValue = loadedSettings.getProperty(setting.getKey());
+				String newValue = newSettings.getProperty(setting.getKey());
+				if (Objects.equals(oldValue, newValue)) {
+					continue;
+				}
+				
+				if (setting.isReloadable()) {
+					// Compared against the file as last loaded, so that overridden settings are only replaced if changed
+					if (null == newValue) {
+						// A setting removed from the file falls back to its default, as checked by validate()
+						properties.remove(setting.getKey());
+					} else {
+						properties.setProperty(setting.getKey(), newValue);
+					}
+					logger.info("The setting " + setting.getKey() + " has been changed from " + oldValue +
+									" to " + newValue);
+					reloaded = true;
+				} else {
+					logger.warn("The change to the setting " + setting.getKey() +
+									" takes effect only when the tool is restarted");
+				}
+			}
+			loadedSettings = copyOf(newSettings);
+			values = parseAll(properties);
+		}
+		
+		if (reloaded) {
+			for (Runnable listener : RELOAD_LISTENERS) {
+				listener.run();
+			}
+		}
+	}
+	
 	@Override
 	public Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
@@ -0,0 +1,104 @@
+package com.autopia;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A site being tested, along with its own settings, crawl rules and {@link Report}.
+ * A standalone run tests the single site configured within the settings (see {@link #getDefault()}),
+ * while a batch run (see {@link BatchRunner}) tests many sites within the same process.
+ * The sites share the {@link LinkChecker}, with its threads and per-host limits, as well as the {@link LinkStatusCache},
+ * so that a link found on several sites is only checked once, but is reported within the report of each site.
+ * @author vj
+ */
+public class Site {
+	
+	private final String name;
+	private final Properties properties;
+	private final UrlFilter urlFilter;
+	private final Report report;
+	
+	private final AtomicLong pendingLinks = new AtomicLong();
+	private final AtomicLong pagesVisited = new AtomicLong();
+	
+	/**
+	 * Constructor for the {@link Site} class
+	 * @param name The name of the site, as used within the log and the batch summary
+	 * @param properties The settings of the site
+	 * @param report The {@link Report} of the site, or null to use the singleton {@link Report} once it is needed
+	 */
+	public Site(String name, Properties properties, Report report) {
+		this.name = name;
+		this.properties = properties;
+		this.urlFilter = UrlFilter.fromSettings(properties);
+		this.report = report;
+	}
+	
+	/**
+	 * Function to return the site configured within the settings, which is the only site tested by a standalone run
+	 * @return The default {@link Site}
+	 */
+	public static Site getDefault() {
+		return DefaultSite.SITE;
+	}
+	
+	/**
+	 * Function to get the name of the site
+	 * @return The name of the site
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Function to get the settings of the site
+	 * @return The settings of the site
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+	
+	/**
+	 * Function to get the filter which decides whether a URL belongs to the site and is to be crawled
+	 * @return The {@link UrlFilter} of the site
+	 */
+	public UrlFilter getUrlFilter() {
+		return urlFilter;
+	}
+	
+	/**
+	 * Function to get the report of the site
+	 * @return The {@link Report} of the site
+	 */
+	public Report getReport() {
+		// The singleton report is created on first use, since distributed workers do not write a report of their own
+		return (null == report)? Report.getInstance() : report;
+	}
+	
+	/**
+	 * Function to record that a page of the site has been visited
+	 */
+	public void pageVisited() {
+		pagesVisited.incrementAndGet();
+	}
+	
+	/**
+	 * Function to get the number of pages of the site visited so far
+	 * @return The number of pages visited
+	 */
+	public long getPagesVisited() {
+		return pagesVisited.get();
+	}
+	
+	AtomicLong getPendingLinks() {
+		return pendingLinks;
+	}
+	
+	/**
+	 * Holder of the default site, which is created when it is first used
+	 */
+	private static class DefaultSite {
+		private static final Site SITE =
+						new Site(Settings.getString(Setting.BASE_URL), Settings.getInstance(), null);
+	}
+}
@@ -0,0 +1,823 @@
+package com.autopia;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.ccil.cowan.tagsoup.HTMLSchema;
+import org.ccil.cowan.tagsoup.Schema;
+
+import edu.uci.ics.crawler4j.fetcher.PageFetchResult;
+import edu.uci.ics.crawler4j.url.URLCanonicalizer;
+import edu.uci.ics.crawler4j.url.WebURL;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * Single pass link extractor for HTML pages, used in place of the crawler4j parser in streaming mode.
+ * crawler4j buffers each page in full, and then parses it into a document (extracting its text and detecting its language)
+ * only for the links to be taken from it. This class instead tokenizes the page as it is downloaded, and keeps nothing
+ * but the links found so far, along with at most the configured number of characters of the current tag or anchor text.
+ * The same links are extracted as by crawler4j: the href of a, area and link elements, the src of img, iframe and frame
+ * elements, and the target of meta refresh and location elements, with the anchor text of each link.
+ * As with crawler4j, the last of any repeated attributes applies, and character references are decoded as per HTML 4.
+ * On malformed markup, the anchor text may still differ, since crawler4j closes an unclosed anchor along with
+ * its enclosing element (such as a table cell), whereas this class only closes it at its end tag or at the next anchor.
+ * If required, the resources used by the page are extracted along with its links, with their {@link ResourceType}:
+ * images (including srcset candidates and icons), scripts, stylesheets, media, and url() references within
+ * style elements and attributes. This is also used to extract the resources of pages parsed by crawler4j.
+ * @author vj
+ */
+public class StreamingLinkExtractor {
+	
+	private static final Logger logger = LoggerFactory.getLogger(StreamingLinkExtractor.class);
+	
+	private static final Boolean STREAMING_LINK_EXTRACTION = Settings.getBoolean(Setting.STREAMING_LINK_EXTRACTION);
+	private static final int BUFFER_SIZE = Settings.getInt(Setting.STREAMING_LINK_EXTRACTION_BUFFER_SIZE);
+	private static final int MAX_PAGE_SIZE = Settings.getInt(Setting.STREAMING_LINK_EXTRACTION_MAX_PAGE_SIZE);
+	
+	private static final int MAX_ANCHOR_LENGTH = 100;	// As per the crawler4j HtmlContentHandler
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	// Handed to crawler4j in place of the page, so that its parser has nothing left to do
+	private static final byte[] PLACEHOLDER_PAGE = "<html><body></body></html>".getBytes(StandardCharsets.US_ASCII);
+	
+	// The extractor used for the page most recently fetched by the current crawler thread
+	private static final ThreadLocal<PageExtraction> PAGE_EXTRACTION = new ThreadLocal<>();
+	
+	private static final int TEXT = 0;
+	private static final int TAG_OPEN = 1;
+	private static final int TAG = 2;
+	private static final int COMMENT = 3;
+	private static final int RAW_TEXT = 4;
+	
+	private static final String CSS_URL_START = "url(";
+	private static final Schema HTML_SCHEMA = new HTMLSchema();	// For its character references
+	
+	private final String pageUrl;
+	private final int maxOutgoingLinks;
+	private final boolean extractResources;
+	private final Set<WebURL> links = new LinkedHashSet<>();
+	private final Map<String, ResourceType> resources = new LinkedHashMap<>();
+	private int linkCount;
+	private String baseUrl;
+	
+	private int state = TEXT;
+	private final StringBuilder tag = new StringBuilder();
+	private boolean tagOverflow;
+	private char quote;
+	private char lastTagChar;
+	private int commentDashes;
+	private String rawTextEnd;
+	private int rawTextMatched;
+	private int cssUrlMatched;
+	private final StringBuilder cssUrl = new StringBuilder();
+	
+	// As with crawler4j, the anchor text is attributed to the most recent link when the anchor element ends
+	private WebURL currentLink;
+	private boolean withinAnchor;
+	private final StringBuilder anchorText = new StringBuilder();
+	
+	/**
+	 * Constructor for the {@link StreamingLinkExtractor} class
+	 * @param pageUrl The URL of the page, against which relative links are resolved
+	 * @param maxOutgoingLinks The maximum number of links (and the maximum number of resources) to be extracted from the page
+	 * @param extractResources Boolean value indicating whether the resources used by the page are to be extracted
+	 */
+	public StreamingLinkExtractor(String pageUrl, int maxOutgoingLinks, boolean extractResources) {
+		this.pageUrl = pageUrl;
+		this.maxOutgoingLinks = maxOutgoingLinks;
+		this.extractResources = extractResources;
+	}
+	
+	/**
+	 * Function to check whether streaming link extraction is enabled
+	 * @return Boolean value indicating whether streaming link extraction is enabled
+	 */
+	public static boolean isEnabled() {
+		return STREAMING_LINK_EXTRACTION;
+	}
+	
+	/**
+	 * Function to get the maximum size (in bytes) of the pages to be fetched in streaming mode
+	 * @return The maximum page size
+	 */
+	public static int getMaxPageSize() {
+		return MAX_PAGE_SIZE;
+	}
+	
+	/**
+	 * Function to arrange for the links to be extracted from the given page as it is downloaded, if it is an HTML page.
+	 * The extractor can be retrieved using {@link #takeExtractor(WebURL)} on the same thread,
+	 * once crawler4j has read the content of the page.
+	 * @param fetchResult The result of fetching the page
+	 * @param webUrl The crawler4j {@link WebURL} of the page
+	 * @param maxOutgoingLinks The maximum number of links to be extracted from the page
+	 * @param extractResources Boolean value indicating whether the resources used by the page are to be extracted
+	 */
+	public static void extractLinksOnRead(PageFetchResult fetchResult, WebURL webUrl, int maxOutgoingLinks,
+												boolean extractResources) {
+		HttpEntity entity = fetchResult.getEntity();
+		if (entity == null || entity.getContentType() == null ||
+					!entity.getContentType().getValue().toLowerCase(Locale.ROOT).contains("html")) {
+			return;
+		}
+		
+		String pageUrl = (fetchResult.getFetchedUrl() != null)? fetchResult.getFetchedUrl() : webUrl.getURL();
+		fetchResult.setEntity(new ExtractingEntity(entity, webUrl, pageUrl, maxOutgoingLinks, extractResources));
+	}
+	
+	/**
+	 * Function to get the extractor which extracted the links from the given page on the current thread
+	 * @param webUrl The crawler4j {@link WebURL} of the page
+	 * @return The {@link StreamingLinkExtractor} holding the links of the page, or null if the page was not handled by this class
+	 */
+	public static StreamingLinkExtractor takeExtractor(WebURL webUrl) {
+		PageExtraction pageExtraction = PAGE_EXTRACTION.get();
+		if (pageExtraction == null || pageExtraction.webUrl != webUrl) {
+			return null;
+		}
+		
+		PAGE_EXTRACTION.remove();
+		return pageExtraction.extractor;
+	}
+	
+	/**
+	 * Function to extract the links (and resources, if required) from the given page content
+	 * @param content The content of the page, which is read until the end (or until enough links are found)
+	 * @param charset The character set of the page
+	 * @return The links found on the page, in the order in which they were found
+	 * @throws IOException If the page content cannot be read
+	 */
+	public Set<WebURL> extract(InputStream content, Charset charset) throws IOException {
+		BoundedInputStream boundedContent = new BoundedInputStream(content, MAX_PAGE_SIZE);
+		Reader reader = new InputStreamReader(boundedContent, charset);
+		char[] buffer = new char[READ_BUFFER_SIZE];
+		
+		int length;
+		while (!isLimitReached() && (length = reader.read(buffer)) != -1) {
+			for (int i = 0; i < length && !isLimitReached(); i++) {
+				consume(buffer[i]);
+			}
+		}
+		
+		if (withinAnchor) {
+			endAnchor();
+		}
+		if (boundedContent.isTruncated()) {
+			logger.warn("Only the first " + MAX_PAGE_SIZE + " bytes of " + pageUrl + " were scanned for links");
+		}
+		
+		return links;
+	}
+	
+	/**
+	 * Function to get the links found on the page
+	 * @return The links found on the page, in the order in which they were found
+	 */
+	public Set<WebURL> getLinks() {
+		return links;
+	}
+	
+	/**
+	 * Function to get the resources used by the page, if these were to be extracted
+	 * @return The URLs of the resources used by the page along with their types, in the order in which they were found
+	 */
+	public Map<String, ResourceType> getResources() {
+		return resources;
+	}
+	
+	private boolean isLimitReached() {
+		// Stop once the anchor text of the last link is complete
+		return linkCount > maxOutgoingLinks && !withinAnchor &&
+					(!extractResources || resources.size() >= maxOutgoingLinks);
+	}
+	
+	private void consume(char c) {
+		switch (state) {
+			case TEXT:
+				if (c == '<') {
+					state = TAG_OPEN;
+				} else {
+					appendAnchorText(c);
+				}
+				break;
+				
+			case TAG_OPEN:
+				if (c == '/' || c == '!' || c == '?' || Character.isLetter(c)) {
+					startTag(c);
+				} else {
+					// Not a tag after all
+					state = TEXT;
+					appendAnchorText('<');
+					consume(c);
+				}
+				break;
+				
+			case TAG:
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+					appendTag(c);
+				} else if (c == '>') {
+					state = TEXT;
+					endTag();
+				} else {
+					if ((c == '"' || c == '\'') && lastTagChar == '=') {
+						quote = c;
+					}
+					if (!Character.isWhitespace(c)) {
+						lastTagChar = c;
+					}
+					appendTag(c);
+					if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+						state = COMMENT;
+						commentDashes = 0;
+					}
+				}
+				break;
+				
+			case COMMENT:
+				if (c == '>' && commentDashes >= 2) {
+					state = TEXT;
+				}
+				commentDashes = (c == '-')? commentDashes + 1 : 0;
+				break;
+				
+			case RAW_TEXT:
+				// Skip the content of script and style elements, up to their end tag
+				if (extractResources && rawTextEnd.equals("</style")) {
+					consumeCss(c);
+				}
+				if (Character.toLowerCase(c) == rawTextEnd.charAt(rawTextMatched)) {
+					rawTextMatched++;
+					if (rawTextMatched == rawTextEnd.length()) {
+						startTag('/');
+						tag.append(rawTextEnd, 2, rawTextEnd.length());
+					}
+				} else {
+					rawTextMatched = (c == '<')? 1 : 0;
+				}
+				break;
+		}
+	}
+	
+	private void consumeCss(char c) {
+		if (cssUrlMatched < CSS_URL_START.length()) {
+			if (Character.toLowerCase(c) == CSS_URL_START.charAt(cssUrlMatched)) {
+				cssUrlMatched++;
+				cssUrl.setLength(0);
+			} else {
+				cssUrlMatched = (Character.toLowerCase(c) == CSS_URL_START.charAt(0))? 1 : 0;
+			}
+		} else if (c == ')') {
+			String url = cssUrl.toString().trim();
+			if (url.length() >= 2 && (url.charAt(0) == '"' || url.charAt(0) == '\'') &&
+					url.charAt(url.length() - 1) == url.charAt(0)) {
+				url = url.substring(1, url.length() - 1);
+			}
+			addResource(url, ResourceType.CSS_ASSET);
+			cssUrlMatched = 0;
+		} else if (cssUrl.length() < BUFFER_SIZE) {
+			cssUrl.append(c);
+		} else {
+			cssUrlMatched = 0;	// Not a URL which can be checked
+		}
+	}
+	
+	private void startTag(char c) {
+		state = TAG;
+		tag.setLength(0);
+		tag.append(c);
+		tagOverflow = false;
+		quote = 0;
+		lastTagChar = c;
+	}
+	
+	private void appendTag(char c) {
+		if (tag.length() < BUFFER_SIZE) {
+			tag.append(c);
+		} else {
+			tagOverflow = true;
+		}
+	}
+	
+	private void appendAnchorText(char c) {
+		if (withinAnchor && anchorText.length() < BUFFER_SIZE) {
+			anchorText.append(c);
+		}
+	}
+	
+	private void endTag() {
+		char first = tag.charAt(0);
+		if (first == '!' || first == '?') {
+			return;	// Doctype, CDATA section or processing instruction
+		}
+		
+		boolean isEndTag = (first == '/');
+		int nameEnd = isEndTag? 1 : 0;
+		while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/') {
+			nameEnd++;
+		}
+		String name = tag.substring(isEndTag? 1 : 0, nameEnd).toLowerCase(Locale.ROOT);
+		
+		if (isEndTag) {
+			if (name.equals("a") || name.equals("area") || name.equals("link")) {
+				endAnchor();
+			}
+			return;
+		}
+		
+		if (tagOverflow) {
+			logger.debug("Skipping oversized " + name + " tag on " + pageUrl);
+		} else {
+			addLinks(name, nameEnd);
+			if (extractResources) {
+				addResources(name, nameEnd);
+			}
+		}
+		
+		if ((name.equals("script") || name.equals("style")) && !isSelfClosing(nameEnd)) {
+			state = RAW_TEXT;
+			rawTextEnd = "</" + name;
+			rawTextMatched = 0;
+			cssUrlMatched = 0;
+		}
+	}
+	
+	private boolean isSelfClosing(int nameEnd) {
+		// A trailing slash may also end an unquoted attribute value, such as href=/dir/
+		int slash = tag.length() - 1;
+		if (slash < nameEnd || tag.charAt(slash) != '/') {
+			return false;
+		}
+		char previous = tag.charAt(slash - 1);
+		return slash == nameEnd || Character.isWhitespace(previous) || previous == '"' || previous == '\'';
+	}
+	
+	private void addLinks(String name, int nameEnd) {
+		switch (name) {
+			case "a":
+			case "area":
+			case "link":
+				String href = getAttribute(nameEnd, "href");
+				if (href != null) {
+					if (withinAnchor) {
+						endAnchor();	// Anchors cannot be nested, so a new anchor ends the previous one
+					}
+					withinAnchor = true;
+					addLink(href, name);
+				}
+				if (!name.equals("a") || isSelfClosing(nameEnd)) {
+					endAnchor();	// Empty elements
+				}
+				break;
+				
+			case "img":
+			case "iframe":
+			case "frame":
+				addLink(getAttribute(nameEnd, "src"), name);
+				break;
+				
+			case "base":
+				if (baseUrl == null) {
+					String baseHref = getAttribute(nameEnd, "href");
+					if (baseHref != null) {
+						baseUrl = URLCanonicalizer.getCanonicalURL(baseHref, pageUrl);
+					}
+				}
+				break;
+				
+			case "meta":
+				String equiv = getAttribute(nameEnd, "http-equiv");
+				if (equiv == null) {
+					equiv = getAttribute(nameEnd, "name");
+				}
+				String content = getAttribute(nameEnd, "content");
+				if (equiv != null && content != null) {
+					equiv = equiv.toLowerCase(Locale.ROOT);
+					if (equiv.equals("refresh")) {
+						int urlPosition = content.toLowerCase(Locale.ROOT).indexOf("url=");
+						if (urlPosition != -1) {
+							addLink(content.substring(urlPosition + 4), "meta");
+						}
+					} else if (equiv.equals("location")) {
+						addLink(content, "meta");
+					}
+				}
+				break;
+				
+			default:
+				break;
+		}
+	}
+	
+	private void addResources(String name, int nameEnd) {
+		switch (name) {
+			case "img":
+				addResource(getAttribute(nameEnd, "src"), ResourceType.IMAGE);
+				addSrcset(getAttribute(nameEnd, "srcset"));
+				break;
+				
+			case "source":
+				// Within picture elements, sources list images; within audio and video elements, they are media files
+				addResource(getAttribute(nameEnd, "src"), ResourceType.MEDIA);
+				addSrcset(getAttribute(nameEnd, "srcset"));
+				break;
+				
+			case "script":
+				addResource(getAttribute(nameEnd, "src"), ResourceType.SCRIPT);
+				break;
+				
+			case "link":
+				String rel = getAttribute(nameEnd, "rel");
+				if (rel != null) {
+					rel = rel.toLowerCase(Locale.ROOT);
+					if (rel.contains("stylesheet")) {
+						addResource(getAttribute(nameEnd, "href"), ResourceType.STYLESHEET);
+					} else if (rel.contains("icon")) {
+						addResource(getAttribute(nameEnd, "href"), ResourceType.IMAGE);
+					} else if (rel.contains("preload") || rel.contains("prefetch") || rel.contains("manifest")) {
+						addResource(getAttribute(nameEnd, "href"), ResourceType.OTHER);
+					}
+				}
+				break;
+				
+			case "video":
+				addResource(getAttribute(nameEnd, "poster"), ResourceType.IMAGE);
+				addResource(getAttribute(nameEnd, "src"), ResourceType.MEDIA);
+				break;
+				
+			case "audio":
+			case "track":
+			case "embed":
+				addResource(getAttribute(nameEnd, "src"), ResourceType.MEDIA);
+				break;
+				
+			case "object":
+				addResource(getAttribute(nameEnd, "data"), ResourceType.MEDIA);
+				break;
+				
+			default:
+				break;
+		}
+		
+		if (tag.indexOf(CSS_URL_START) != -1) {
+			String style = getAttribute(nameEnd, "style");
+			if (style != null) {
+				cssUrlMatched = 0;
+				for (int i = 0; i < style.length(); i++) {
+					consumeCss(style.charAt(i));
+				}
+				cssUrlMatched = 0;
+			}
+		}
+	}
+	
+	private void addSrcset(String srcset) {
+		if (null == srcset) {
+			return;
+		}
+		
+		// Each candidate is a URL, optionally followed by a width or density descriptor, separated by commas
+		int position = 0;
+		int length = srcset.length();
+		while (position < length) {
+			while (position < length && (Character.isWhitespace(srcset.charAt(position)) || srcset.charAt(position) == ',')) {
+				position++;
+			}
+			int urlStart = position;
+			while (position < length && !Character.isWhitespace(srcset.charAt(position))) {
+				position++;
+			}
+			int urlEnd = position;
+			while (urlEnd > urlStart && srcset.charAt(urlEnd - 1) == ',') {
+				urlEnd--;	// A candidate without any descriptor
+			}
+			if (urlEnd == position) {
+				while (position < length && srcset.charAt(position) != ',') {
+					position++;	// Skip the descriptor
+				}
+			}
+			if (urlEnd > urlStart) {
+				addResource(srcset.substring(urlStart, urlEnd), ResourceType.IMAGE);
+			}
+		}
+	}
+	
+	private void addResource(String href, ResourceType resourceType) {
+		if (href == null || resources.size() >= maxOutgoingLinks) {
+			return;
+		}
+		
+		String trimmedHref = href.trim();
+		String lowerCaseHref = trimmedHref.toLowerCase(Locale.ROOT);
+		if (trimmedHref.isEmpty() || lowerCaseHref.startsWith("data:") || lowerCaseHref.startsWith("javascript:") ||
+				lowerCaseHref.startsWith("about:") || lowerCaseHref.startsWith("blob:") || trimmedHref.startsWith("#")) {
+			return;	// Nothing to be checked
+		}
+		
+		String url = URLCanonicalizer.getCanonicalURL(trimmedHref, (baseUrl != null)? baseUrl : pageUrl);
+		if (url != null) {
+			resources.putIfAbsent(url, resourceType);
+		}
+	}
+	
+	private String getAttribute(int start, String attributeName) {
+		int position = start;
+		int length = tag.length();
+		String value = null;	// The last occurrence of the attribute applies, as with crawler4j
+		
+		while (position < length) {
+			while (position < length && (Character.isWhitespace(tag.charAt(position)) || tag.charAt(position) == '/')) {
+				position++;
+			}
+			int nameStart = position;
+			while (position < length && !Character.isWhitespace(tag.charAt(position)) &&
+						tag.charAt(position) != '=' && tag.charAt(position) != '/') {
+				position++;
+			}
+			boolean isMatch = isAttributeName(attributeName, nameStart, position);
+			if (position == nameStart) {
+				position++;	// Stray character
+				continue;
+			}
+			
+			while (position < length && Character.isWhitespace(tag.charAt(position))) {
+				position++;
+			}
+			if (position >= length || tag.charAt(position) != '=') {
+				if (isMatch) {
+					value = "";
+				}
+				continue;
+			}
+			position++;
+			while (position < length && Character.isWhitespace(tag.charAt(position))) {
+				position++;
+			}
+			
+			int valueStart;
+			int valueEnd;
+			if (position < length && (tag.charAt(position) == '"' || tag.charAt(position) == '\'')) {
+				char valueQuote = tag.charAt(position);
+				valueStart = position + 1;
+				valueEnd = tag.indexOf(String.valueOf(valueQuote), valueStart);
+				if (valueEnd == -1) {
+					valueEnd = length;
+				}
+				position = valueEnd + 1;
+			} else {
+				valueStart = position;
+				while (position < length && !Character.isWhitespace(tag.charAt(position))) {
+					position++;
+				}
+				valueEnd = position;
+			}
+			
+			if (isMatch) {
+				value = tag.substring(valueStart, valueEnd);
+			}
+		}
+		
+		return (value == null)? null : decodeEntities(value);
+	}
+	
+	private boolean isAttributeName(String attributeName, int start, int end) {
+		if (end - start != attributeName.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (Character.toLowerCase(tag.charAt(i)) != attributeName.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void addLink(String href, String tagName) {
+		currentLink = null;
+		if (href == null || href.trim().isEmpty()) {
+			return;
+		}
+		
+		// Skip the same links as crawler4j does
+		String lowerCaseHref = href.trim().toLowerCase(Locale.ROOT);
+		if (lowerCaseHref.contains("javascript:") || lowerCaseHref.contains("mailto:") || lowerCaseHref.contains("@")) {
+			return;
+		}
+		
+		String url = URLCanonicalizer.getCanonicalURL(href, (baseUrl != null)? baseUrl : pageUrl);
+		if (url == null) {
+			return;
+		}
+		
+		WebURL webUrl = new WebURL();
+		webUrl.setURL(url);
+		webUrl.setTag(tagName);
+		linkCount++;
+		if (links.add(webUrl)) {
+			currentLink = webUrl;	// Only the first occurrence of each link is kept, along with its anchor text
+		}
+	}
+	
+	private void endAnchor() {
+		withinAnchor = false;
+		if (currentLink != null) {
+			String anchor = decodeEntities(anchorText.toString()).replace('\n', ' ').replace('\r', ' ')
+																	.replace('\t', ' ').trim();
+			if (!anchor.isEmpty()) {
+				if (anchor.length() > MAX_ANCHOR_LENGTH) {
+					anchor = anchor.substring(0, MAX_ANCHOR_LENGTH) + "...";
+				}
+				currentLink.setAnchor(anchor);
+			}
+		}
+		anchorText.setLength(0);
+		currentLink = null;
+	}
+	
+	/**
+	 * Function to decode the character references within the given HTML text.
+	 * Numeric references and the named references of HTML 4 are decoded, as by the TagSoup parser used by crawler4j;
+	 * any other references are left as they are.
+	 * @param text The HTML text
+	 * @return The decoded text
+	 */
+	static String decodeEntities(String text) {
+		int ampersand = text.indexOf('&');
+		if (ampersand == -1) {
+			return text;
+		}
+		
+		StringBuilder decodedText = new StringBuilder(text.length());
+		int position = 0;
+		while (ampersand != -1) {
+			decodedText.append(text, position, ampersand);
+			int semicolon = text.indexOf(';', ampersand);
+			String decodedEntity = (semicolon == -1 || semicolon - ampersand > 10)?
+													null : decodeEntity(text.substring(ampersand + 1, semicolon));
+			if (decodedEntity == null) {
+				decodedText.append('&');
+				position = ampersand + 1;
+			} else {
+				decodedText.append(decodedEntity);
+				position = semicolon + 1;
+			}
+			ampersand = text.indexOf('&', position);
+		}
+		decodedText.append(text, position, text.length());
+		
+		return decodedText.toString();
+	}
+	
+	private static String decodeEntity(String entity) {
+		if (entity.startsWith("#")) {
+			try {
+				int codePoint = (entity.startsWith("#x") || entity.startsWith("#X"))?
+									Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+				return new String(Character.toChars(codePoint));
+			} catch (IllegalArgumentException ex) {
+				return null;
+			}
+		}
+		
+		int codePoint = HTML_SCHEMA.getEntity(entity);
+		return (codePoint == 0)? null : new String(Character.toChars(codePoint));
+	}
+	
+	private static final class PageExtraction {
+		private final WebURL webUrl;
+		private final StreamingLinkExtractor extractor;
+		
+		private PageExtraction(WebURL webUrl, StreamingLinkExtractor extractor) {
+			this.webUrl = webUrl;
+			this.extractor = extractor;
+		}
+	}
+	
+	/**
+	 * Wrapper for the entity of an HTML page, which extracts the links from the page when crawler4j reads its content,
+	 * and hands crawler4j an empty page instead
+	 */
+	private static final class ExtractingEntity extends HttpEntityWrapper {
+		private final WebURL webUrl;
+		private final String pageUrl;
+		private final int maxOutgoingLinks;
+		private final boolean extractResources;
+		private boolean isExtracted;
+		
+		private ExtractingEntity(HttpEntity entity, WebURL webUrl, String pageUrl, int maxOutgoingLinks,
+									boolean extractResources) {
+			super(entity);
+			this.webUrl = webUrl;
+			this.pageUrl = pageUrl;
+			this.maxOutgoingLinks = maxOutgoingLinks;
+			this.extractResources = extractResources;
+		}
+		
+		@Override
+		public InputStream getContent() throws IOException {
+			if (!isExtracted) {
+				isExtracted = true;
+				Charset charset = ContentType.getOrDefault(wrappedEntity).getCharset();
+				
+				StreamingLinkExtractor extractor = new StreamingLinkExtractor(pageUrl, maxOutgoingLinks, extractResources);
+				try (InputStream content = wrappedEntity.getContent()) {
+					if (content != null) {
+						extractor.extract(content, (charset != null)? charset : StandardCharsets.UTF_8);
+					}
+				}
+				PAGE_EXTRACTION.set(new PageExtraction(webUrl, extractor));
+			}
+			
+			return new ByteArrayInputStream(PLACEHOLDER_PAGE);
+		}
+		
+		@Override
+		public long getContentLength() {
+			return PLACEHOLDER_PAGE.length;
+		}
+		
+		@Override
+		public boolean isStreaming() {
+			return !isExtracted;
+		}
+		
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+		
+		@Override
+		public boolean isChunked() {
+			return false;
+		}
+		
+		@Override
+		public void writeTo(OutputStream outStream) throws IOException {
+			try (InputStream content = getContent()) {
+				int b;
+				while ((b = content.read()) != -1) {
+					outStream.write(b);
+				}
+			}
+		}
+	}
+	
+	private static final class BoundedInputStream extends FilterInputStream {
+		private long remainingBytes;
+		private boolean isTruncated;
+		
+		private BoundedInputStream(InputStream in, long maxBytes) {
+			super(in);
+			remainingBytes = maxBytes;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if (remainingBytes <= 0) {
+				isTruncated = (super.read() != -1);
+				return -1;
+			}
+			int b = super.read();
+			if (b != -1) {
+				remainingBytes--;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remainingBytes <= 0) {
+				isTruncated = (super.read() != -1);
+				return -1;
+			}
+			int bytesRead = super.read(b, off, (int) Math.min(len, remainingBytes));
+			if (bytesRead > 0) {
+				remainingBytes -= bytesRead;
+			}
+			return bytesRead;
+		}
+		
+		private boolean isTruncated() {
+			return isTruncated;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.autopia;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.org.lidalia.slf4jext.Logger;
+import uk.org.lidalia.slf4jext.LoggerFactory;
+
+/**
+ * The kind of threads on which links are checked, as configured by the ThreadMode setting.
+ * Pages are crawled on platform threads in either mode, since crawler4j waits for new URLs and accesses its databases
+ * within synchronized blocks, which pin the carrier threads of virtual threads (and can stall the crawl altogether).
+ * Virtual threads are only available from Java 21 onwards; on older Java versions, the tool falls back to platform threads.
+ * Since the tool is built for Java 17, virtual threads are created through reflection.
+ * @author vj
+ */
+public enum ThreadMode {
+	/** A fixed number of platform (operating system) threads */
+	PLATFORM,
+	/** A virtual thread per task, with the number of simultaneous tasks limited by a semaphore */
+	VIRTUAL;
+	
+	private static final Logger logger = LoggerFactory.getLogger(ThreadMode.class);
+	private static final int VIRTUAL_THREADS_JAVA_VERSION = 21;
+	
+	private static final ThreadMode CURRENT_THREAD_MODE = initialize();
+	
+	private static ThreadMode initialize() {
+		ThreadMode threadMode = valueOf(Settings.getString(Setting.THREAD_MODE).toUpperCase(Locale.ROOT));
+		
+		int javaVersion = Runtime.version().feature();
+		if (threadMode == VIRTUAL && javaVersion < VIRTUAL_THREADS_JAVA_VERSION) {
+			logger.warn("Virtual threads require Java " + VIRTUAL_THREADS_JAVA_VERSION + " or later, but this is Java " +
+							javaVersion + " - using platform threads instead");
+			return PLATFORM;
+		}
+		
+		logger.info("Using " + threadMode.name().toLowerCase(Locale.ROOT) + " threads to check links");
+		return threadMode;
+	}
+	
+	/**
+	 * Function to get the thread mode in use for the current run
+	 * @return The {@link ThreadMode}
+	 */
+	public static ThreadMode getCurrent() {
+		return CURRENT_THREAD_MODE;
+	}
+	
+	/**
+	 * Function to get a {@link ThreadFactory} for threads of this kind.
+	 * Platform threads are created as daemon threads; virtual threads are always daemon threads.
+	 * @param namePrefix The prefix of the thread names, which are numbered from 1
+	 * @return The {@link ThreadFactory}
+	 */
+	public ThreadFactory newThreadFactory(String namePrefix) {
+		if (this == VIRTUAL) {
+			return newVirtualThreadFactory(namePrefix);
+		}
+		
+		final AtomicInteger threadNumber = new AtomicInteger();
+		return task -> {
+			Thread thread = new Thread(task, namePrefix + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+	
+	private static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+		// Equivalent to Thread.ofVirtual().name(namePrefix, 1).factory()
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("Unable to create virtual threads: " + ex.getMessage(), ex);
+		}
+	}
+}
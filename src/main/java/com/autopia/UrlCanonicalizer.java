@@ -0,0 +1,134 @@
+package com.autopia;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Canonicalization of URLs before they are de-duplicated, so that equivalent URLs are crawled and checked only once.
+ * The query parameters are sorted by name (repeated parameters keep their order), and the tracking and session
+ * parameters listed within the CanonicalizeStripParameters setting are removed, from the query as well as from the
+ * path parameters (such as ";jsessionid=..."). A listed name which ends with * matches any name with that prefix.
+ * The canonical URL is only used to recognize equivalent URLs; pages and links are still requested using their own URL.
+ * @author vj
+ */
+public class UrlCanonicalizer {
+	
+	private static final boolean CANONICALIZE_URLS = Settings.getBoolean(Setting.CANONICALIZE_URLS);
+	private static final String[] STRIP_PARAMETERS =
+							splitList(Settings.getString(Setting.CANONICALIZE_STRIP_PARAMETERS));
+	
+	// To prevent external instantiation of this class
+	private UrlCanonicalizer() {
+	}
+	
+	/**
+	 * Function to check whether URL canonicalization is enabled
+	 * @return Boolean value indicating whether URL canonicalization is enabled
+	 */
+	public static boolean isEnabled() {
+		return CANONICALIZE_URLS;
+	}
+	
+	/**
+	 * Function to canonicalize the given URL, by removing its fragment and canonicalizing its query and path parameters.
+	 * The URL is returned unchanged if URL canonicalization is disabled.
+	 * @param url The URL to be canonicalized
+	 * @return The canonical URL
+	 */
+	public static String canonicalize(String url) {
+		if (!CANONICALIZE_URLS) {
+			return url;
+		}
+		
+		int fragmentStart = url.indexOf('#');
+		String canonicalUrl = (fragmentStart < 0)? url : url.substring(0, fragmentStart);
+		
+		int queryStart = canonicalUrl.indexOf('?');
+		if (queryStart < 0) {
+			return stripPathParameters(canonicalUrl);
+		}
+		String query = canonicalizeQuery(canonicalUrl.substring(queryStart + 1));
+		canonicalUrl = stripPathParameters(canonicalUrl.substring(0, queryStart));
+		return (null == query)? canonicalUrl : canonicalUrl + "?" + query;
+	}
+	
+	/**
+	 * Function to canonicalize the given query string, by removing the configured parameters and sorting the rest by name
+	 * @param query The query string, without the leading "?"; may be null
+	 * @return The canonical query string, or null if no parameters remain
+	 */
+	static String canonicalizeQuery(String query) {
+		if (!CANONICALIZE_URLS || null == query) {
+			return query;
+		}
+		
+		List<String> parameters = new ArrayList<>();
+		for (String parameter : query.split("&")) {
+			if (!parameter.isEmpty() && !isStripped(getParameterName(parameter))) {
+				parameters.add(parameter);
+			}
+		}
+		if (parameters.isEmpty()) {
+			return null;
+		}
+		
+		parameters.sort(Comparator.comparing(UrlCanonicalizer::getParameterName));	// A stable sort
+		return String.join("&", parameters);
+	}
+	
+	private static String stripPathParameters(String url) {
+		int parameterStart = url.indexOf(';');
+		if (parameterStart < 0) {
+			return url;
+		}
+		
+		StringBuilder strippedUrl = new StringBuilder(url.length());
+		strippedUrl.append(url, 0, parameterStart);
+		while (parameterStart < url.length()) {
+			int parameterEnd = parameterStart + 1;
+			while (parameterEnd < url.length() && url.charAt(parameterEnd) != ';' && url.charAt(parameterEnd) != '/') {
+				parameterEnd++;
+			}
+			if (!isStripped(getParameterName(url.substring(parameterStart + 1, parameterEnd)))) {
+				strippedUrl.append(url, parameterStart, parameterEnd);
+			}
+			
+			// Copy the rest of the path up to the next parameter
+			int nextParameterStart = url.indexOf(';', parameterEnd);
+			if (nextParameterStart < 0) {
+				nextParameterStart = url.length();
+			}
+			strippedUrl.append(url, parameterEnd, nextParameterStart);
+			parameterStart = nextParameterStart;
+		}
+		return strippedUrl.toString();
+	}
+	
+	private static String getParameterName(String parameter) {
+		int separator = parameter.indexOf('=');
+		return (separator < 0)? parameter : parameter.substring(0, separator);
+	}
+	
+	private static boolean isStripped(String parameterName) {
+		for (String stripParameter : STRIP_PARAMETERS) {
+			if (stripParameter.endsWith("*")) {
+				if (parameterName.regionMatches(true, 0, stripParameter, 0, stripParameter.length() - 1)) {
+					return true;
+				}
+			} else if (parameterName.equalsIgnoreCase(stripParameter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String[] splitList(String list) {
+		List<String> values = new ArrayList<>();
+		for (String value : Util.splitList(list)) {
+			values.add(value.toLowerCase(Locale.ROOT));
+		}
+		return values.toArray(new String[0]);
+	}
+}
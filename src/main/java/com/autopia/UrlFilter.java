@@ -0,0 +1,305 @@
+package com.autopia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled filter which decides whether a URL is to be crawled.
+ * All the rules are compiled up front into:
+ * <ul>
+ * <li>a character trie of URL prefixes (host plus optional path, without the scheme) to be included or excluded,
+ * where the longest matching prefix decides</li>
+ * <li>a set of file extensions to be skipped, matched against the last segment of the URL path</li>
+ * <li>a single combined regex for any rules which cannot be expressed as prefixes or extensions</li>
+ * </ul>
+ * All matching is case insensitive. Checking a URL walks the URL at most twice and makes no allocations;
+ * the regex is only evaluated if regex rules are configured, using a {@link Matcher} which is reused per thread.
+ * Instances of this class are immutable and thread safe.
+ * @author vj
+ */
+public class UrlFilter {
+	
+	private static final byte NO_DECISION = 0;
+	private static final byte INCLUDE = 1;
+	private static final byte EXCLUDE = 2;
+	
+	// The prefix trie, as flattened arrays: the children of node n are childLabels/childNodes[childStart[n]]
+	// to childLabels/childNodes[childStart[n + 1] - 1], sorted by label
+	private final int[] childStart;
+	private final char[] childLabels;
+	private final int[] childNodes;
+	private final byte[] decisions;
+	
+	private final char[][] skipExtensions;
+	private final ThreadLocal<Matcher> excludeMatcher;
+	
+	/**
+	 * Constructor for the {@link UrlFilter} class, which compiles the given rules
+	 * @param includePrefixes The URL prefixes to be crawled, such as "www.mysite.com/" or "www.mysite.com/docs/"
+	 * @param excludePrefixes The URL prefixes not to be crawled, which override any shorter include prefix
+	 * @param skipExtensions The file extensions not to be crawled, such as "png" or "pdf"
+	 * @param excludePatterns The RegEx patterns of URLs not to be crawled
+	 */
+	public UrlFilter(List<String> includePrefixes, List<String> excludePrefixes,
+						List<String> skipExtensions, List<String> excludePatterns) {
+		TrieNode root = new TrieNode();
+		for (String includePrefix : includePrefixes) {
+			root.add(normalizePrefix(includePrefix), INCLUDE);
+		}
+		for (String excludePrefix : excludePrefixes) {
+			root.add(normalizePrefix(excludePrefix), EXCLUDE);
+		}
+		
+		int nodeCount = root.count();
+		childStart = new int[nodeCount + 1];
+		childLabels = new char[nodeCount - 1];
+		childNodes = new int[nodeCount - 1];
+		decisions = new byte[nodeCount];
+		flatten(root);
+		
+		this.skipExtensions = new char[skipExtensions.size()][];
+		for (int i = 0; i < skipExtensions.size(); i++) {
+			String skipExtension = skipExtensions.get(i).trim().toLowerCase(Locale.ROOT);
+			this.skipExtensions[i] = (skipExtension.startsWith(".")?
+												skipExtension.substring(1) : skipExtension).toCharArray();
+		}
+		
+		if (excludePatterns.isEmpty()) {
+			excludeMatcher = null;
+		} else {
+			StringBuilder combinedPattern = new StringBuilder();
+			for (String excludePattern : excludePatterns) {
+				if (combinedPattern.length() > 0) {
+					combinedPattern.append('|');
+				}
+				combinedPattern.append("(?:").append(excludePattern).append(')');
+			}
+			final Pattern pattern = Pattern.compile(combinedPattern.toString(),
+												Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+			excludeMatcher = ThreadLocal.withInitial(() -> pattern.matcher(""));
+		}
+	}
+	
+	/**
+	 * Function to create a {@link UrlFilter} from the crawl rules within the given settings.
+	 * The base URL is always included. Every setting whose name starts with DontVisitUrlsPattern is used as an
+	 * exclude pattern if DontVisitSpecifiedUrls is enabled, and the legacy ImageExtensionsPattern setting
+	 * is honored as an exclude pattern if it is still present.
+	 * @param properties The settings
+	 * @return The {@link UrlFilter}
+	 */
+	public static UrlFilter fromSettings(Properties properties) {
+		List<String> includePrefixes = Util.splitList(Settings.getString(properties, Setting.CRAWL_INCLUDE_PREFIXES));
+		includePrefixes.add(Settings.getString(properties, Setting.BASE_URL).replaceAll("^https?://", ""));
+		
+		List<String> excludePatterns = new ArrayList<>();
+		if (Settings.getBoolean(properties, Setting.DONT_VISIT_SPECIFIED_URLS)) {
+			Map<String, String> orderedProperties = new TreeMap<>();
+			for (String name : properties.stringPropertyNames()) {
+				if (name.startsWith("DontVisitUrlsPattern")) {
+					orderedProperties.put(name, properties.getProperty(name));
+				}
+			}
+			for (String excludePattern : orderedProperties.values()) {
+				if (!excludePattern.trim().isEmpty()) {
+					excludePatterns.add(excludePattern);
+				}
+			}
+		}
+		String imageExtensionsPattern = properties.getProperty("ImageExtensionsPattern");
+		if (imageExtensionsPattern != null && !imageExtensionsPattern.trim().isEmpty()) {
+			excludePatterns.add(imageExtensionsPattern);
+		}
+		
+		return new UrlFilter(includePrefixes,
+								Util.splitList(Settings.getString(properties, Setting.CRAWL_EXCLUDE_PREFIXES)),
+								Util.splitList(Settings.getString(properties, Setting.CRAWL_SKIP_EXTENSIONS)), excludePatterns);
+	}
+	
+	private static String normalizePrefix(String prefix) {
+		String normalizedPrefix = prefix.trim().toLowerCase(Locale.ROOT).replaceAll("^https?://", "");
+		if (normalizedPrefix.indexOf('/') < 0) {
+			normalizedPrefix += "/";	// A host on its own must not match other hosts which start with the same name
+		}
+		return normalizedPrefix;
+	}
+	
+	/**
+	 * Function to check whether the given URL is to be crawled
+	 * @param url The absolute URL
+	 * @return Boolean value indicating whether the URL is to be crawled
+	 */
+	public boolean accept(String url) {
+		int hostStart;
+		if (url.regionMatches(true, 0, "https://", 0, 8)) {
+			hostStart = 8;
+		} else if (url.regionMatches(true, 0, "http://", 0, 7)) {
+			hostStart = 7;
+		} else {
+			return false;
+		}
+		
+		return getPrefixDecision(url, hostStart) == INCLUDE &&
+				!hasSkippedExtension(url, hostStart) &&
+				(null == excludeMatcher || !excludeMatcher.get().reset(url).matches());
+	}
+	
+	private byte getPrefixDecision(String url, int hostStart) {
+		int node = 0;
+		byte decision = decisions[0];
+		int length = url.length();
+		
+		int position = hostStart;
+		while (position < length) {
+			int child = findChild(node, toLowerCase(url.charAt(position)));
+			if (child < 0) {
+				break;
+			}
+			node = child;
+			if (decisions[node] != NO_DECISION) {
+				decision = decisions[node];
+			}
+			position++;
+		}
+		
+		// Allow a URL without a path to match a prefix for its host, such as "http://mysite.com" for "mysite.com/"
+		if (position == length && url.indexOf('/', hostStart) < 0) {
+			int hostNode = findChild(node, '/');
+			if (hostNode >= 0 && decisions[hostNode] != NO_DECISION) {
+				decision = decisions[hostNode];
+			}
+		}
+		return decision;
+	}
+	
+	private int findChild(int node, char label) {
+		int low = childStart[node];
+		int high = childStart[node + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char middleLabel = childLabels[middle];
+			if (middleLabel < label) {
+				low = middle + 1;
+			} else if (middleLabel > label) {
+				high = middle - 1;
+			} else {
+				return childNodes[middle];
+			}
+		}
+		return -1;
+	}
+	
+	private boolean hasSkippedExtension(String url, int hostStart) {
+		if (0 == skipExtensions.length) {
+			return false;
+		}
+		
+		// Find the end of the path, and the last dot within its last segment
+		int pathEnd = url.length();
+		int pathStart = -1;
+		for (int i = hostStart; i < pathEnd; i++) {
+			char character = url.charAt(i);
+			if (character == '?' || character == '#') {
+				pathEnd = i;
+			} else if (character == '/' && pathStart < 0) {
+				pathStart = i;
+			}
+		}
+		if (pathStart < 0) {
+			return false;
+		}
+		
+		int dot = -1;
+		for (int i = pathEnd - 1; i > pathStart; i--) {
+			char character = url.charAt(i);
+			if (character == '.') {
+				dot = i;
+				break;
+			}
+			if (character == '/') {
+				break;
+			}
+		}
+		if (dot < 0) {
+			return false;
+		}
+		
+		int extensionLength = pathEnd - dot - 1;
+		for (char[] skipExtension : skipExtensions) {
+			if (skipExtension.length == extensionLength && regionEqualsIgnoreCase(url, dot + 1, skipExtension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean regionEqualsIgnoreCase(String url, int offset, char[] lowerCaseValue) {
+		for (int i = 0; i < lowerCaseValue.length; i++) {
+			if (toLowerCase(url.charAt(offset + i)) != lowerCaseValue[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static char toLowerCase(char character) {
+		return (character >= 'A' && character <= 'Z')? (char) (character + ('a' - 'A')) :
+				(character < 128)? character : Character.toLowerCase(character);
+	}
+	
+	private void flatten(TrieNode root) {
+		// Breadth first, so that the children of every node are stored together
+		List<TrieNode> queue = new ArrayList<>();
+		queue.add(root);
+		int nextChild = 0;
+		
+		for (int node = 0; node < queue.size(); node++) {
+			TrieNode trieNode = queue.get(node);
+			decisions[node] = trieNode.decision;
+			childStart[node] = nextChild;
+			for (Map.Entry<Character, TrieNode> child : trieNode.children.entrySet()) {
+				childLabels[nextChild] = child.getKey();
+				childNodes[nextChild] = queue.size();
+				queue.add(child.getValue());
+				nextChild++;
+			}
+		}
+		childStart[queue.size()] = nextChild;
+	}
+	
+	/**
+	 * A node of the prefix trie while it is being built
+	 */
+	private static class TrieNode {
+		private final TreeMap<Character, TrieNode> children = new TreeMap<>();
+		private byte decision = NO_DECISION;
+		
+		void add(String prefix, byte prefixDecision) {
+			TrieNode node = this;
+			for (char label : prefix.toCharArray()) {
+				TrieNode child = node.children.get(label);
+				if (null == child) {
+					child = new TrieNode();
+					node.children.put(label, child);
+				}
+				node = child;
+			}
+			// Where the same prefix is both included and excluded, it is excluded
+			node.decision = (byte) Math.max(node.decision, prefixDecision);
+		}
+		
+		int count() {
+			int nodeCount = 1;
+			for (TrieNode child : children.values()) {
+				nodeCount += child.count();
+			}
+			return nodeCount;
+		}
+	}
+}
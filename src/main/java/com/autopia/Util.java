@@ -2,8 +2,13 @@ package com.autopia;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
 
 
 /**
@@ -82,4 +87,69 @@ public class Util {
 		
 		return timeDifferenceDetailed;
 	}
+	
+	/**
+	 * Function to split a line of a CSV report into its fields, removing the quotes around the quoted fields
+	 * @param line The CSV line, without a line terminator
+	 * @return The list of fields
+	 */
+	public static List<String> parseCsvLine(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char character = line.charAt(i);
+			if (quoted) {
+				if (character != '"') {
+					field.append(character);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (character == '"') {
+				quoted = true;
+			} else if (character == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(character);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+	
+	/**
+	 * Function to split a comma separated list, such as the value of a list setting, into its values.
+	 * The values are trimmed, and empty values are skipped.
+	 * @param list The comma separated list, or null
+	 * @return The list of values, which is empty if the given list is null or blank
+	 */
+	public static List<String> splitList(String list) {
+		List<String> values = new ArrayList<>();
+		if (list != null) {
+			for (String value : list.split(",")) {
+				if (!value.trim().isEmpty()) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * Function to create a response code filter from a comma separated list of response codes
+	 * @param responseCodes The comma separated list of response codes, such as "404,500"
+	 * @return The response code filter
+	 * @throws NumberFormatException If any of the response codes is not a whole number
+	 */
+	public static IntPredicate parseResponseCodes(String responseCodes) {
+		final Set<Integer> codes = new HashSet<>();
+		for (String responseCode : splitList(responseCodes)) {
+			codes.add(Integer.parseInt(responseCode));
+		}
+		return codes::contains;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.autopia;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link java.util.concurrent.ExecutorService} which runs each task on a new virtual thread, instead of on a fixed pool of threads.
+ * A semaphore limits the number of tasks which run at the same time; tasks beyond this limit wait for a permit
+ * on their own (parked) virtual thread, which costs next to nothing, instead of within a queue.
+ * @author vj
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+	
+	private final ThreadFactory threadFactory;
+	private final ResizableSemaphore permits;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition terminated = lock.newCondition();
+	private int runningTasks;
+	private int maxConcurrency;
+	private boolean shutdown;
+	
+	/**
+	 * Constructor for the {@link VirtualThreadExecutor} class
+	 * @param threadFactory The {@link ThreadFactory} which creates the virtual threads
+	 * @param maxConcurrency The maximum number of tasks which may run at the same time
+	 */
+	public VirtualThreadExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+		this.threadFactory = threadFactory;
+		this.permits = new ResizableSemaphore(maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	/**
+	 * Function to change the maximum number of tasks which may run at the same time.
+	 * When the limit is lowered, the running tasks are left to complete, and no new task starts until the number
+	 * of running tasks is below the new limit.
+	 * @param maxConcurrency The maximum number of tasks which may run at the same time
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		lock.lock();
+		try {
+			int change = maxConcurrency - this.maxConcurrency;
+			if (change > 0) {
+				permits.release(change);
+			} else if (change < 0) {
+				permits.reducePermits(-change);
+			}
+			this.maxConcurrency = maxConcurrency;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void execute(Runnable task) {
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("Executor has been shut down");
+			}
+			runningTasks++;
+		} finally {
+			lock.unlock();
+		}
+		
+		threadFactory.newThread(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				task.run();
+			} finally {
+				permits.release();
+				taskCompleted();
+			}
+		}).start();
+	}
+	
+	private void taskCompleted() {
+		lock.lock();
+		try {
+			if (--runningTasks == 0) {
+				terminated.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public List<Runnable> shutdownNow() {
+		// Tasks are handed over to their threads as soon as they are submitted, so there are never any queued tasks to return
+		shutdown();
+		return Collections.emptyList();
+	}
+	
+	@Override
+	public boolean isShutdown() {
+		lock.lock();
+		try {
+			return shutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean isTerminated() {
+		lock.lock();
+		try {
+			return shutdown && runningTasks == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long remainingNanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (!(shutdown && runningTasks == 0)) {
+				if (remainingNanos <= 0) {
+					return false;
+				}
+				remainingNanos = terminated.awaitNanos(remainingNanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@link Semaphore} whose number of permits can be reduced, which may leave it with fewer than zero available permits
+	 */
+	private static class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+		
+		ResizableSemaphore(int permits) {
+			super(permits);
+		}
+		
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.autopia.LinkStatus.Verification;
+
+/**
+ * Tests for the {@link BinaryReportWriter}, the {@link BinaryReportReader} and the {@link ReportConverter},
+ * which check that a binary report exports to the same CSV lines as the {@link Report} writes directly
+ * @author vj
+ */
+public class BinaryReportTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static List<ReportRecord> createRecords() {
+		List<ReportRecord> records = new ArrayList<>();
+		String[] referrers = {"http://a.com/", "http://a.com/page?id=1&sort=asc", "http://a.com/caf\u00e9.html"};
+		for (int i = 0; i < 25; i++) {
+			String referrer = referrers[i % referrers.length];
+			String url = "http://a.com/link" + i + ".html";
+			LinkStatus linkStatus;
+			switch (i % 6) {
+			case 0:
+				linkStatus = new LinkStatus(200, "OK", true, "\"etag" + i + "\"", null, Verification.CHECKED, null, i);
+				break;
+			case 1:
+				linkStatus = new LinkStatus(301, "Redirect - OK", true, null, null, Verification.CACHED,
+											url + " -> 301 -> http://a.com/moved" + i + ".html", -1);
+				break;
+			case 2:
+				linkStatus = new LinkStatus(404, "Client error", false, null, null, Verification.REVERIFIED, null, 12345);
+				break;
+			case 3:
+				linkStatus = new LinkStatus(500, "Server error", false);
+				break;
+			case 4:
+				linkStatus = new LinkStatus(0, "Timeout", false, null, null, Verification.CHECKED, null, 60000);
+				break;
+			default:
+				linkStatus = new LinkStatus(200, "Slow", true, null, "Mon, 01 Jan 2024 00:00:00 GMT",
+											Verification.CHECKED, null, 3600000);
+				break;
+			}
+			String anchor = (i % 4 == 0)? "Menu, \u00e9t\u00e9 & more" : "link " + i;
+			ResourceType resourceType = ResourceType.values()[i % ResourceType.values().length];
+			records.add(new ReportRecord(referrer, anchor, url, resourceType, linkStatus));
+		}
+		return records;
+	}
+	
+	private static void writeReport(File file, List<ReportRecord> records, boolean includeVerification,
+										int blockSize) throws IOException {
+		try (BinaryReportWriter writer = new BinaryReportWriter(file, includeVerification, blockSize)) {
+			for (ReportRecord record : records) {
+				writer.write(record);
+			}
+		}
+	}
+	
+	private static List<String> getExpectedLines(List<ReportRecord> records, boolean success,
+													boolean includeVerification, IntPredicate responseCodeFilter) {
+		List<String> lines = new ArrayList<>();
+		lines.add(ReportRecord.getCsvHeader(includeVerification));
+		for (ReportRecord record : records) {
+			if (record.isSuccess() == success && responseCodeFilter.test(record.getLinkStatus().getResponseCode())) {
+				// The Report writes its CSV files in the default charset as well, so unmappable characters match
+				byte[] line = record.toCsvLine(includeVerification).getBytes(Charset.defaultCharset());
+				lines.add(new String(line, Charset.defaultCharset()));
+			}
+		}
+		return lines;
+	}
+	
+	private static List<String> readLines(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+	}
+	
+	private void assertExport(List<ReportRecord> records, boolean includeVerification, int blockSize,
+								IntPredicate responseCodeFilter) throws IOException {
+		File reportFile = folder.newFile();
+		writeReport(reportFile, records, includeVerification, blockSize);
+		
+		File outputFolder = folder.newFolder();
+		long exported = ReportConverter.exportToCsv(reportFile, outputFolder, responseCodeFilter);
+		
+		List<String> expectedSuccessLines = getExpectedLines(records, true, includeVerification, responseCodeFilter);
+		List<String> expectedFailureLines = getExpectedLines(records, false, includeVerification, responseCodeFilter);
+		assertEquals(expectedSuccessLines, readLines(new File(outputFolder, "SiteLinks_SuccessReport.csv")));
+		assertEquals(expectedFailureLines, readLines(new File(outputFolder, "SiteLinks_FailureReport.csv")));
+		assertEquals(expectedSuccessLines.size() + expectedFailureLines.size() - 2, exported);
+	}
+	
+	@Test
+	public void exportMatchesCsvLinesAcrossBlocks() throws IOException {
+		assertExport(createRecords(), false, 4, responseCode -> true);
+	}
+	
+	@Test
+	public void exportIncludesVerificationWhenEnabled() throws IOException {
+		assertExport(createRecords(), true, 1000, responseCode -> true);
+	}
+	
+	@Test
+	public void exportAppliesResponseCodeFilter() throws IOException {
+		assertExport(createRecords(), false, 3, Util.parseResponseCodes("404, 0"));
+	}
+	
+	@Test
+	public void emptyReportExportsHeadersOnly() throws IOException {
+		assertExport(new ArrayList<>(), true, 10, responseCode -> true);
+	}
+	
+	@Test
+	public void appendedReportReadsAllRecordsInOrder() throws IOException {
+		List<ReportRecord> records = createRecords();
+		File reportFile = folder.newFile();
+		writeReport(reportFile, records.subList(0, 10), false, 4);
+		
+		// Resuming truncates any partly written block, and continues with the strings of the earlier blocks
+		long length = reportFile.length();
+		Files.write(reportFile.toPath(), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+		try (BinaryReportWriter writer = BinaryReportWriter.append(reportFile, length, 4)) {
+			for (ReportRecord record : records.subList(10, records.size())) {
+				writer.write(record);
+			}
+		}
+		
+		List<String> lines = new ArrayList<>();
+		long read = new BinaryReportReader(reportFile).read(record -> lines.add(record.toCsvLine(true)));
+		assertEquals(records.size(), read);
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(records.get(i).toCsvLine(true), lines.get(i));
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void readerRejectsOtherFiles() throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), "Referrer,Anchor,FinalURL".getBytes("UTF-8"));
+		new BinaryReportReader(file);
+	}
+}
@@ -0,0 +1,106 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.autopia.LinkStatus.RequestFailure;
+import com.autopia.LinkStatus.Verification;
+
+/**
+ * Tests for the classification of the links which could not be requested at all (see {@link RequestFailure}),
+ * which are neither retried nor held against their host
+ * @author vj
+ */
+public class LinkProberTest {
+	
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2);
+	private static final HostScheduler HOST_SCHEDULER = new HostScheduler(EXECUTOR);
+	private static final LinkProber LINK_PROBER = new LinkProber(HOST_SCHEDULER);
+	
+	@AfterClass
+	public static void shutdown() {
+		LINK_PROBER.close();
+		HOST_SCHEDULER.shutdown();
+		EXECUTOR.shutdownNow();
+	}
+	
+	@Test
+	public void malformedUrlIsRequestFailure() {
+		LinkStatus linkStatus = LINK_PROBER.probe("http://a.com/a|b", null, false);
+		assertEquals(RequestFailure.MALFORMED_URL, linkStatus.getRequestFailure());
+		assertEquals("Malformed URL", linkStatus.getStatus());
+		assertEquals(Boolean.FALSE, linkStatus.isSuccess());
+		assertTrue(LinkProber.isRequestFailure(linkStatus));
+	}
+	
+	@Test
+	public void failedHandshakeIsRequestFailure() throws Exception {
+		// A plain HTTP server, which cannot complete a TLS handshake
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			Thread server = new Thread(() -> {
+				try (Socket socket = serverSocket.accept(); OutputStream output = socket.getOutputStream()) {
+					output.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					output.flush();
+				} catch (Exception ex) {
+					// The client has already failed
+				}
+			});
+			server.start();
+			
+			LinkStatus linkStatus = LINK_PROBER.probe("https://127.0.0.1:" + serverSocket.getLocalPort() + "/", null, false);
+			assertEquals(RequestFailure.SSL_ERROR, linkStatus.getRequestFailure());
+			assertTrue(LinkProber.isRequestFailure(linkStatus));
+			server.join();
+		}
+	}
+	
+	@Test
+	public void statusTextDoesNotMakeRequestFailure() {
+		LinkStatus linkStatus = new LinkStatus(0, "Malformed URL", false);
+		assertNull(linkStatus.getRequestFailure());
+		assertFalse(LinkProber.isRequestFailure(linkStatus));
+		assertFalse(LinkProber.isRequestFailure(null));
+	}
+	
+	@Test
+	public void copiesKeepRequestFailure() {
+		LinkStatus linkStatus = new LinkStatus(RequestFailure.SSL_ERROR)
+										.withLatency("SSL error", 5)
+										.withVerification(Verification.CACHED)
+										.withValidators(null, null);
+		assertEquals(RequestFailure.SSL_ERROR, linkStatus.getRequestFailure());
+		assertEquals(5, linkStatus.getLatency());
+	}
+	
+	@Test
+	public void requestFailuresAreNotRetried() {
+		RetryPolicy retryPolicy = new RetryPolicy();
+		assertFalse(retryPolicy.isRetryable(new LinkStatus(RequestFailure.MALFORMED_URL), 0));
+		assertFalse(retryPolicy.isRetryable(new LinkStatus(RequestFailure.SSL_ERROR), 0));
+		assertTrue(retryPolicy.isRetryable(new LinkStatus(0, "Timeout", false), 0));
+		assertTrue(retryPolicy.isRetryable(null, 0));
+	}
+	
+	@Test
+	public void requestFailuresDoNotOpenCircuit() throws Exception {
+		int failures = Settings.getInt(Setting.LINK_CHECK_CIRCUIT_BREAKER_THRESHOLD) * 2;
+		for (int i = 0; i < failures; i++) {
+			LinkStatus linkStatus = HOST_SCHEDULER.submit("failing.com",
+											() -> new LinkStatus(RequestFailure.MALFORMED_URL)).get();
+			assertEquals(RequestFailure.MALFORMED_URL, linkStatus.getRequestFailure());
+		}
+		assertEquals("OK", HOST_SCHEDULER.submit("failing.com", () -> new LinkStatus(200, "OK", true)).get().getStatus());
+	}
+}
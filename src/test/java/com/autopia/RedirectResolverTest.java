@@ -0,0 +1,160 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.autopia.RedirectResolver.Hop;
+import com.autopia.RedirectResolver.Outcome;
+import com.autopia.RedirectResolver.RedirectChain;
+
+/**
+ * Tests for the {@link RedirectResolver}
+ * @author vj
+ */
+public class RedirectResolverTest {
+	
+	// RFC 3986, section 5.4: the base URI of the examples, and the examples with their expected target URIs
+	private static final String RFC_BASE_URL = "http://a/b/c/d;p?q";
+	private static final String[][] RFC_NORMAL_EXAMPLES = {
+		{"g:h", "g:h"},
+		{"g", "http://a/b/c/g"},
+		{"./g", "http://a/b/c/g"},
+		{"g/", "http://a/b/c/g/"},
+		{"/g", "http://a/g"},
+		{"//g", "http://g"},
+		{"?y", "http://a/b/c/d;p?y"},
+		{"g?y", "http://a/b/c/g?y"},
+		{"#s", "http://a/b/c/d;p?q#s"},
+		{"g#s", "http://a/b/c/g#s"},
+		{"g?y#s", "http://a/b/c/g?y#s"},
+		{";x", "http://a/b/c/;x"},
+		{"g;x", "http://a/b/c/g;x"},
+		{"g;x?y#s", "http://a/b/c/g;x?y#s"},
+		{"", "http://a/b/c/d;p?q"},
+		{".", "http://a/b/c/"},
+		{"./", "http://a/b/c/"},
+		{"..", "http://a/b/"},
+		{"../", "http://a/b/"},
+		{"../g", "http://a/b/g"},
+		{"../..", "http://a/"},
+		{"../../", "http://a/"},
+		{"../../g", "http://a/g"}
+	};
+	private static final String[][] RFC_ABNORMAL_EXAMPLES = {
+		{"../../../g", "http://a/g"},
+		{"../../../../g", "http://a/g"},
+		{"/./g", "http://a/g"},
+		{"/../g", "http://a/g"},
+		{"g.", "http://a/b/c/g."},
+		{".g", "http://a/b/c/.g"},
+		{"g..", "http://a/b/c/g.."},
+		{"..g", "http://a/b/c/..g"},
+		{"./../g", "http://a/b/g"},
+		{"./g/.", "http://a/b/c/g/"},
+		{"g/./h", "http://a/b/c/g/h"},
+		{"g/../h", "http://a/b/c/h"},
+		{"g;x=1/./y", "http://a/b/c/g;x=1/y"},
+		{"g;x=1/../y", "http://a/b/c/y"},
+		{"g?y/./x", "http://a/b/c/g?y/./x"},
+		{"g?y/../x", "http://a/b/c/g?y/../x"},
+		{"g#s/./x", "http://a/b/c/g#s/./x"},
+		{"g#s/../x", "http://a/b/c/g#s/../x"},
+		{"http:g", "http:g"}
+	};
+	
+	private final Map<String, Hop> responses = new HashMap<>();
+	private final List<String> requestedUrls = new ArrayList<>();
+	private final RedirectResolver redirectResolver = new RedirectResolver((url, deadline) -> {
+		requestedUrls.add(url);
+		return responses.get(url);
+	});
+	
+	private void addResponse(String url, int responseCode, String location) {
+		responses.put(url, new Hop(url, responseCode, location, 1));
+	}
+	
+	private RedirectChain resolve(String url) {
+		requestedUrls.add(url);
+		return redirectResolver.resolve(responses.get(url), DeadlineTimer.getDeadline(0));
+	}
+	
+	private static void assertChain(RedirectChain chain, Outcome outcome, String... urls) {
+		assertEquals(outcome, chain.getOutcome());
+		List<String> hopUrls = new ArrayList<>();
+		for (Hop hop : chain.getHops()) {
+			hopUrls.add(hop.getUrl());
+		}
+		assertEquals(List.of(urls), hopUrls);
+	}
+	
+	@Test
+	public void redirectToReorderedQueryIsNotLoop() {
+		addResponse("http://a.com/p?b=1&a=2", 301, "?a=2&b=1");
+		addResponse("http://a.com/p?a=2&b=1", 200, null);
+		assertChain(resolve("http://a.com/p?b=1&a=2"), Outcome.COMPLETED,
+						"http://a.com/p?b=1&a=2", "http://a.com/p?a=2&b=1");
+	}
+	
+	@Test
+	public void redirectDroppingSessionIdIsNotLoop() {
+		addResponse("http://a.com/p;jsessionid=XYZ", 302, "/p");
+		addResponse("http://a.com/p", 200, null);
+		assertChain(resolve("http://a.com/p;jsessionid=XYZ"), Outcome.COMPLETED,
+						"http://a.com/p;jsessionid=XYZ", "http://a.com/p");
+	}
+	
+	@Test
+	public void redirectDroppingTrackingParameterIsNotLoop() {
+		addResponse("http://a.com/p?utm_source=x", 301, "/p");
+		addResponse("http://a.com/p", 200, null);
+		assertChain(resolve("http://a.com/p?utm_source=x"), Outcome.COMPLETED,
+						"http://a.com/p?utm_source=x", "http://a.com/p");
+	}
+	
+	@Test
+	public void hopCacheKeepsEquivalentUrlsApart() {
+		addResponse("http://a.com/p?utm_source=x", 301, "/p");
+		addResponse("http://a.com/q", 301, "/p");
+		addResponse("http://a.com/p", 200, null);
+		resolve("http://a.com/p?utm_source=x");
+		
+		// The redirect cached for the tracking URL must not be reused for the canonical URL
+		assertChain(resolve("http://a.com/q"), Outcome.COMPLETED, "http://a.com/q", "http://a.com/p");
+		assertEquals(List.of("http://a.com/p?utm_source=x", "http://a.com/p", "http://a.com/q"), requestedUrls);
+	}
+	
+	@Test
+	public void redirectBackToSameUrlIsLoop() {
+		addResponse("http://a.com/p", 301, "/q");
+		addResponse("http://a.com/q", 302, "HTTP://A.COM/p#top");
+		assertChain(resolve("http://a.com/p"), Outcome.LOOP, "http://a.com/p", "http://a.com/q");
+	}
+	
+	private static void assertResolved(String[][] examples) {
+		for (String[] example : examples) {
+			assertEquals(example[0], example[1], RedirectResolver.resolveReference(RFC_BASE_URL, example[0]));
+		}
+	}
+	
+	@Test
+	public void resolvesNormalExamplesOfRfc3986() {
+		assertResolved(RFC_NORMAL_EXAMPLES);
+	}
+	
+	@Test
+	public void resolvesAbnormalExamplesOfRfc3986() {
+		assertResolved(RFC_ABNORMAL_EXAMPLES);
+	}
+	
+	@Test
+	public void resolvesLocationAgainstHopUrl() {
+		assertEquals("https://a.com/x/y?z", new Hop("https://a.com/x/old", 301, " y?z", 1).getLocation());
+		assertEquals("http://b.com/", new Hop("https://a.com/x/old", 302, "http://b.com/", 1).getLocation());
+	}
+}
@@ -0,0 +1,93 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Tests for the validation of the {@link Settings}, using the properties file shipped with the original version of the
+ * tool, so that an existing installation keeps working after an upgrade
+ * @author vj
+ */
+public class SettingsTest {
+	
+	private static Properties loadBaselineSettings() throws Exception {
+		Properties properties = new Properties();
+		try (InputStream baselineSettingsStream =
+						SettingsTest.class.getClassLoader().getResourceAsStream("baseline-config.properties")) {
+			properties.load(baselineSettingsStream);
+		}
+		return properties;
+	}
+	
+	private static Properties loadShippedSettings() throws Exception {
+		Properties properties = new Properties();
+		try (InputStream shippedSettingsStream =
+						SettingsTest.class.getClassLoader().getResourceAsStream("config.properties")) {
+			properties.load(shippedSettingsStream);
+		}
+		return properties;
+	}
+	
+	@Test
+	public void baselineSettingsAreValid() throws Exception {
+		Settings.validate(loadBaselineSettings());
+	}
+	
+	@Test
+	public void newSettingsDefaultToShippedValues() throws Exception {
+		Properties baselineSettings = loadBaselineSettings();
+		Properties shippedSettings = loadShippedSettings();
+		for (Setting setting : Setting.values()) {
+			if (null == baselineSettings.getProperty(setting.getKey())) {
+				// Compared as text, since a Pattern does not implement equals()
+				assertEquals(setting.getKey(), String.valueOf(setting.parse(shippedSettings.getProperty(setting.getKey()))),
+								String.valueOf(setting.parse(setting.getDefaultValue())));
+			}
+		}
+	}
+	
+	@Test
+	public void baselineSettingsMustBeSpecified() throws Exception {
+		Properties properties = loadBaselineSettings();
+		properties.remove("BaseUrl");
+		try {
+			Settings.validate(properties);
+			fail("A missing BaseUrl must be reported");
+		} catch (IllegalArgumentException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("The setting BaseUrl is not specified"));
+		}
+	}
+	
+	@Test
+	public void removedReloadableSettingFallsBackToDefault() throws Exception {
+		Properties originalSettings = new Properties();
+		originalSettings.putAll(Settings.getInstance());
+		Properties settings = new Properties();
+		settings.putAll(originalSettings);
+		settings.setProperty("LinkCheckMaxRetries", "5");
+		Settings.reload(settings);
+		assertEquals(5, Settings.getInt(Setting.LINK_CHECK_MAX_RETRIES));
+		
+		AtomicBoolean reloaded = new AtomicBoolean();
+		Runnable listener = () -> reloaded.set(true);
+		Settings.addReloadListener(listener);
+		try {
+			settings.remove("LinkCheckMaxRetries");
+			Settings.reload(settings);
+			assertTrue("The reload listeners must be called", reloaded.get());
+			assertEquals(Integer.parseInt(Setting.LINK_CHECK_MAX_RETRIES.getDefaultValue()),
+							Settings.getInt(Setting.LINK_CHECK_MAX_RETRIES));
+			assertEquals(null, Settings.getInstance().getProperty("LinkCheckMaxRetries"));
+		} finally {
+			Settings.removeReloadListener(listener);
+			Settings.reload(originalSettings);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import edu.uci.ics.crawler4j.crawler.CrawlConfig;
+import edu.uci.ics.crawler4j.crawler.Page;
+import edu.uci.ics.crawler4j.parser.HtmlParseData;
+import edu.uci.ics.crawler4j.parser.Parser;
+import edu.uci.ics.crawler4j.url.WebURL;
+
+/**
+ * Tests for the {@link StreamingLinkExtractor}, which check that it extracts the same links (with the same anchor text)
+ * as the crawler4j {@link HtmlParseData}, including from malformed markup
+ * @author vj
+ */
+public class StreamingLinkExtractorTest {
+	
+	private static final String PAGE_URL = "http://a.com/dir/page.html";
+	private static final CrawlConfig CONFIG = new CrawlConfig();
+	
+	private static Map<String, String> getAnchors(Set<WebURL> links) {
+		// The two extractors list the links in different orders
+		Map<String, String> anchors = new TreeMap<>();
+		for (WebURL link : links) {
+			anchors.put(link.getURL(), link.getAnchor());
+		}
+		return anchors;
+	}
+	
+	private static Map<String, String> parseWithCrawler4j(byte[] content) throws Exception {
+		WebURL webUrl = new WebURL();
+		webUrl.setURL(PAGE_URL);
+		Page page = new Page(webUrl);
+		page.setContentData(content);
+		page.setContentType("text/html; charset=UTF-8");
+		page.setContentCharset("UTF-8");
+		new Parser(CONFIG).parse(page, PAGE_URL);
+		return getAnchors(((HtmlParseData) page.getParseData()).getOutgoingUrls());
+	}
+	
+	private static Map<String, String> extract(byte[] content) throws Exception {
+		StreamingLinkExtractor extractor =
+						new StreamingLinkExtractor(PAGE_URL, CONFIG.getMaxOutgoingLinksToFollow(), false);
+		return getAnchors(extractor.extract(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+	}
+	
+	private static void assertParity(String... pages) throws Exception {
+		for (String page : pages) {
+			byte[] content = page.getBytes(StandardCharsets.UTF_8);
+			assertEquals(page, parseWithCrawler4j(content), extract(content));
+		}
+	}
+	
+	@Test
+	public void wellFormedPage() throws Exception {
+		assertParity("<html><head><title>t</title><link rel=\"stylesheet\" href=\"style.css\"></head><body>" +
+						"<a href=\"a.html\">A</a> <a href=\"../up.html\">Up</a> <a href=\"/root.html\">Root</a>" +
+						"<a href=\"a.html\">A again</a><img src=\"img.png\" alt=\"pic\"></body></html>");
+	}
+	
+	@Test
+	public void unquotedAndUppercaseMarkup() throws Exception {
+		assertParity("<a href='single.html'>Single</a><a href=bare.html>Bare</a><a href=/dir/>Slash</a>",
+						"<A HREF=\"UP.html\">Upper</A><IMG SRC=\"img.png\">",
+						"<a href=\"a.html\"\n   title=x>multi\nline</a><a href=\"b.html\">\t  spaces \n\n  inside  </a>");
+	}
+	
+	@Test
+	public void unclosedElements() throws Exception {
+		assertParity("<a href=a.html>one</a><a href=b.html>two<a href=c.html>three</a>",
+						"<div><a href=\"a.html\"><span>nested <i>deep</span></a></div></p></p>",
+						"<ul><li><a href=a.html>a<li><a href=b.html>b</ul>",
+						"<a href=\"a.html\">text < 5 and > 3</a> <a href=b.html>b",
+						"<a href=\"unterminated.html>never closed");
+	}
+	
+	@Test
+	public void commentsAndScriptsAreSkipped() throws Exception {
+		assertParity("<!-- <a href=\"hidden.html\">hidden</a> --><a href=\"shown.html\">shown</a>",
+						"<script>document.write('<a href=\"s.html\">s</a>');</script><a href=\"after.html\">after</a>",
+						"<a href=\"a.html\"><!-- c -->vis<script>x</script>ible</a>",
+						"<style>a { background: url(bg.png) }</style><a href=\"a.html\">a</a>");
+	}
+	
+	@Test
+	public void repeatedAttributesUseLastValue() throws Exception {
+		assertParity("<a href=\"a.html\" href=\"b.html\">dup</a>",
+						"<p><a href=\"x.html\" <a href=\"y.html\">broken</a>",
+						"<a href=\"a.html\" title>t</a><a title=x href=\"b.html\" title=\"y\">u</a>");
+	}
+	
+	@Test
+	public void characterReferences() throws Exception {
+		assertParity("<a href=\"a.html\">&amp; entity &lt;b&gt; &eacute;t&eacute;</a><a href=\"b.html?x=1&amp;y=2\">amp</a>",
+						"<a href=\"a.html\">caf&#233; &#xE9; &nbsp;x&copy; &unknown;</a><a href=\"b&#46;html\">num</a>",
+						"<a href=\"a.html\">&euro; &hellip;&mdash; &Omega;&thetasym; caf\u00e9</a>");
+	}
+	
+	@Test
+	public void otherLinkElements() throws Exception {
+		assertParity("<iframe src=\"frame.html\"></iframe><frame src=fr.html><embed src=\"e.swf\"><area href=\"area.html\">",
+						"<frameset><frame src=f1.html><frame src=f2.html></frameset>",
+						"<meta http-equiv=\"refresh\" content=\"5; url=refresh.html\"><a href=\"#top\">top</a><a href=\"?q=1\">q</a>",
+						"<html><head><base href=\"http://b.com/x/\"></head><body><a href=\"rel.html\">r</a></body></html>");
+	}
+	
+	@Test
+	public void skippedLinks() throws Exception {
+		assertParity("<a href=\"  spaced.html  \">spaced</a><a href=\"\">empty</a><a>nohref</a>" +
+						"<a href=\"javascript:void(0)\">js</a><a href=\"mailto:x@a.com\">mail</a><img src=\"\">");
+	}
+	
+	@Test
+	public void selfClosingAnchors() throws Exception {
+		assertParity("<a href=\"a.html\" />self closing<a href=\"b.html\">b</a>",
+						"<a href=/x/ title=t/>t</a>");
+	}
+	
+	@Test
+	public void urlsAreCanonicalized() throws Exception {
+		assertParity("<a href=\"A.html#frag\">f</a><a href=\"HTTP://A.COM/p?b=1&a=2\">abs</a>" +
+						"<a href=\"http://a.com:80/x/../y/./z.html?\">dots</a>");
+	}
+	
+	@Test
+	public void longAnchorTextIsTruncated() throws Exception {
+		StringBuilder page = new StringBuilder("<a href=\"long.html\">");
+		for (int i = 0; i < 300; i++) {
+			page.append((char) ('a' + i % 26));
+		}
+		assertParity(page.append("</a>").toString());
+	}
+	
+	@Test
+	public void pageWithoutLinks() throws Exception {
+		assertParity("<p>text with no links</p><br/>", "");
+	}
+}
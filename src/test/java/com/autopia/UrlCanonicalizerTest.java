@@ -0,0 +1,73 @@
+package com.autopia;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link UrlCanonicalizer}, using the default CanonicalizeStripParameters setting
+ * @author vj
+ */
+public class UrlCanonicalizerTest {
+	
+	private static final String[] URLS = {
+		"http://a.com/",
+		"http://a.com/p?b=1&a=2",
+		"http://a.com/p?a=2&b=1#top",
+		"http://a.com/p?utm_source=x",
+		"http://a.com/p?utm_source=x&utm_medium=y&id=3",
+		"http://a.com/p;jsessionid=XYZ",
+		"http://a.com/p;jsessionid=XYZ?b=1&gclid=abc&a=2",
+		"http://a.com/dir;v=1/p;JSESSIONID=XYZ;lang=en",
+		"http://a.com/p?c=3&a=1&c=2&b",
+		"http://a.com/p?&&",
+		"http://a.com/p?UTM_Campaign=z&x=%26"
+	};
+	
+	@Test
+	public void canonicalizeIsIdempotent() {
+		for (String url : URLS) {
+			String canonicalUrl = UrlCanonicalizer.canonicalize(url);
+			assertEquals(url, canonicalUrl, UrlCanonicalizer.canonicalize(canonicalUrl));
+		}
+	}
+	
+	@Test
+	public void sortsQueryParametersByName() {
+		assertEquals("http://a.com/p?a=2&b=1", UrlCanonicalizer.canonicalize("http://a.com/p?b=1&a=2"));
+		
+		// Repeated parameters keep their order
+		assertEquals("http://a.com/p?a=1&b&c=3&c=2", UrlCanonicalizer.canonicalize("http://a.com/p?c=3&a=1&c=2&b"));
+	}
+	
+	@Test
+	public void stripsTrackingParameters() {
+		assertEquals("http://a.com/p", UrlCanonicalizer.canonicalize("http://a.com/p?utm_source=x"));
+		assertEquals("http://a.com/p?id=3",
+						UrlCanonicalizer.canonicalize("http://a.com/p?utm_source=x&utm_medium=y&id=3"));
+		assertEquals("http://a.com/p?x=%26", UrlCanonicalizer.canonicalize("http://a.com/p?UTM_Campaign=z&x=%26"));
+		assertEquals("http://a.com/p", UrlCanonicalizer.canonicalize("http://a.com/p?&&"));
+	}
+	
+	@Test
+	public void stripsSessionPathParameters() {
+		assertEquals("http://a.com/p", UrlCanonicalizer.canonicalize("http://a.com/p;jsessionid=XYZ"));
+		assertEquals("http://a.com/p?a=2&b=1",
+						UrlCanonicalizer.canonicalize("http://a.com/p;jsessionid=XYZ?b=1&gclid=abc&a=2"));
+		assertEquals("http://a.com/dir;v=1/p;lang=en",
+						UrlCanonicalizer.canonicalize("http://a.com/dir;v=1/p;JSESSIONID=XYZ;lang=en"));
+	}
+	
+	@Test
+	public void removesFragment() {
+		assertEquals("http://a.com/p?a=2&b=1", UrlCanonicalizer.canonicalize("http://a.com/p?b=1&a=2#top"));
+	}
+	
+	@Test
+	public void cacheKeysShareCanonicalUrl() {
+		assertEquals(LinkStatusCache.normalizeUrl("http://a.com/p"),
+						LinkStatusCache.normalizeUrl("HTTP://A.com/p?utm_source=x#top"));
+		assertEquals("http://a.com/p?utm_source=x",
+						LinkStatusCache.normalizeRequestUrl("HTTP://A.com/p?utm_source=x#top"));
+	}
+}